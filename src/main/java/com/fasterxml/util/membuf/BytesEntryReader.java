@@ -0,0 +1,126 @@
+package com.fasterxml.util.membuf;
+
+import java.io.Closeable;
+
+/**
+ * Reader used for consuming a single entry of a {@link ChunkyBytesMemBuffer}
+ * in place, directly from underlying segments, without materializing it
+ * as a byte array. Typed values are read using big-endian byte order
+ * (same as {@link java.io.DataInput}); variable-length integers use
+ * unsigned LEB128 encoding (same as {@link BytesEntryWriter}).
+ *<p>
+ * Entry is removed from buffer when reader is obtained; calling
+ * {@link #close} will skip whatever content has not been read, and
+ * free segments as necessary. Other reads from the buffer will fail
+ * until reader is closed.
+ *<p>
+ * Note that reader instances are NOT thread-safe, and are reused by the buffer.
+ * Attempts to read past end of the entry result in an {@link IllegalStateException}.
+ *
+ * @since 1.2.1
+ */
+public abstract class BytesEntryReader
+    implements Closeable
+{
+    /*
+    /**********************************************************************
+    /* Public API, reading raw bytes
+    /**********************************************************************
+     */
+
+    public abstract byte readByte();
+
+    public final int readUnsignedByte() {
+        return readByte() & 0xFF;
+    }
+
+    public final void readFully(byte[] buffer) {
+        readFully(buffer, 0, buffer.length);
+    }
+
+    public abstract void readFully(byte[] buffer, int offset, int length);
+
+    /**
+     * Method for skipping up to specified number of bytes of the entry.
+     *
+     * @return Number of bytes actually skipped
+     */
+    public abstract int skipBytes(int count);
+
+    /*
+    /**********************************************************************
+    /* Public API, reading typed values
+    /**********************************************************************
+     */
+
+    public abstract short readShort();
+
+    public abstract int readInt();
+
+    public abstract long readLong();
+
+    public final float readFloat() {
+        return Float.intBitsToFloat(readInt());
+    }
+
+    public final double readDouble() {
+        return Double.longBitsToDouble(readLong());
+    }
+
+    /**
+     * Method for reading an unsigned variable-length int, as written
+     * by {@link BytesEntryWriter#writeVInt}.
+     */
+    public int readVInt()
+    {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readByte();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Corrupt VInt: more than 5 bytes");
+    }
+
+    /**
+     * Method for reading an unsigned variable-length long, as written
+     * by {@link BytesEntryWriter#writeVLong}.
+     */
+    public long readVLong()
+    {
+        long value = 0L;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = readByte();
+            value |= ((long) (b & 0x7F)) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Corrupt VLong: more than 10 bytes");
+    }
+
+    /*
+    /**********************************************************************
+    /* Public API, state
+    /**********************************************************************
+     */
+
+    /**
+     * Accessor for the full length of the entry being read.
+     */
+    public abstract int getLength();
+
+    /**
+     * Accessor for number of bytes of the entry not yet read.
+     */
+    public abstract int getRemaining();
+
+    /**
+     * Method for completing reading of the entry: skips any content that
+     * has not been read. Calling this method more than once has no effect.
+     */
+    @Override // from Closeable -- note, does NOT throw IOException
+    public abstract void close();
+}
@@ -0,0 +1,100 @@
+package com.fasterxml.util.membuf;
+
+/**
+ * Builder-style writer used for appending a single entry into a
+ * {@link ChunkyBytesMemBuffer} directly, without having to first
+ * serialize contents into a separate byte array. Typed values are written
+ * using big-endian byte order (same as {@link java.io.DataOutput});
+ * variable-length integers use unsigned LEB128 encoding (same as
+ * Protocol Buffers "varint").
+ *<p>
+ * Entry becomes visible to readers only when {@link #finish} is called;
+ * until then it may be abandoned by calling {@link #abort}, which rolls
+ * back all content written.
+ * If buffer runs out of space during writing, entry is rolled back
+ * automatically and an {@link IllegalStateException} is thrown.
+ *<p>
+ * Note that writer instances are NOT thread-safe, and are reused by the buffer:
+ * only one entry may be built at any given time, and other producer threads
+ * wait (or, with {@link ChunkyBytesMemBuffer#tryAppendEntry}, find no room)
+ * until it has been completed or aborted. Writer must only be used by the
+ * thread that started the entry.
+ *
+ * @since 1.2.1
+ */
+public abstract class BytesEntryWriter
+{
+    /*
+    /**********************************************************************
+    /* Public API, writing raw bytes
+    /**********************************************************************
+     */
+
+    public abstract void writeByte(int value);
+
+    public final void write(byte[] data) {
+        write(data, 0, data.length);
+    }
+
+    public abstract void write(byte[] data, int offset, int length);
+
+    /*
+    /**********************************************************************
+    /* Public API, writing typed values
+    /**********************************************************************
+     */
+
+    public abstract void writeShort(int value);
+
+    public abstract void writeInt(int value);
+
+    public abstract void writeLong(long value);
+
+    public final void writeFloat(float value) {
+        writeInt(Float.floatToIntBits(value));
+    }
+
+    public final void writeDouble(double value) {
+        writeLong(Double.doubleToLongBits(value));
+    }
+
+    /**
+     * Method for writing given int as unsigned variable-length value:
+     * between 1 and 5 bytes, using 7 bits of each byte for data,
+     * least-significant group first.
+     */
+    public abstract void writeVInt(int value);
+
+    /**
+     * Method for writing given long as unsigned variable-length value:
+     * between 1 and 10 bytes, using 7 bits of each byte for data,
+     * least-significant group first.
+     */
+    public abstract void writeVLong(long value);
+
+    /*
+    /**********************************************************************
+    /* Public API, state
+    /**********************************************************************
+     */
+
+    /**
+     * Accessor for number of bytes written for the entry so far.
+     */
+    public abstract int getLength();
+
+    /**
+     * Method called to complete the entry and make it available for readers.
+     *
+     * @return Length of the entry appended
+     */
+    public abstract int finish();
+
+    /**
+     * Method called to abandon the entry being built: all content written
+     * is discarded, and buffer is left in the state it was before
+     * entry was started. Calling this method after entry has been
+     * completed (or aborted) has no effect.
+     */
+    public abstract void abort();
+}
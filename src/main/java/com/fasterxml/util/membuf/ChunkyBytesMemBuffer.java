@@ -1,5 +1,7 @@
 package com.fasterxml.util.membuf;
 
+import java.nio.ByteBuffer;
+
 import com.fasterxml.util.membuf.base.BytesSegment;
 import com.fasterxml.util.membuf.base.ChunkyMemBufferBase;
 
@@ -57,6 +59,8 @@ public abstract class ChunkyBytesMemBuffer extends ChunkyMemBufferBase<BytesSegm
     /**
      * Method that tries to append an entry in buffer and returning;
      * if there is no room, a {@link IllegalStateException} is thrown.
+     * If an entry is being built in place (see {@link #startEntryWriter})
+     * by another thread, waits until it has been completed or aborted.
      */
     public abstract void appendEntry(byte[] data, int dataOffset, int dataLength);
 
@@ -70,11 +74,48 @@ public abstract class ChunkyBytesMemBuffer extends ChunkyMemBufferBase<BytesSegm
     /**
      * Method that tries to append an entry in buffer if there is enough room;
      * if there is, entry is appended and 'true' returned; otherwise no changes
-     * are made and 'false' is returned.
+     * are made and 'false' is returned. There is no room while an entry is
+     * being built in place (see {@link #startEntryWriter}).
      */
     public abstract boolean tryAppendEntry(byte[] data, int dataOffset, int dataLength);
 
-    
+    /**
+     * Method for starting to build a new entry in place, writing its contents
+     * directly into underlying segments, without knowing its length up front.
+     * Entry is only appended (and made visible to readers) once
+     * {@link BytesEntryWriter#finish} is called.
+     *<p>
+     * Note that since length prefix of the entry is back-patched, it
+     * always uses the maximum length of 5 bytes.
+     * If another thread is already building an entry, waits until it has
+     * been completed or aborted; other appends wait (or fail to find room,
+     * for {@link #tryAppendEntry}) until this entry is completed or aborted.
+     *
+     * @return Writer to use for building the entry; reused by buffer
+     *   for subsequent entries
+     *
+     * @throws IllegalStateException if calling thread is already building
+     *   an entry, or if there is no room to start a new entry
+     *
+     * @since 1.2.1
+     */
+    public abstract BytesEntryWriter startEntryWriter();
+
+    /**
+     * Method for starting to append an entry of unknown length, by writing
+     * its contents into returned stream: contents go directly into
+     * segments of this buffer, and entry is completed when stream is closed.
+     * Entry may be abandoned by calling {@link EntryOutputStream#abort}.
+     *
+     * @throws IllegalStateException if calling thread is already building
+     *   an entry, or if there is no room to start a new entry
+     *
+     * @since 1.2.1
+     */
+    public EntryOutputStream beginEntry() {
+        return new EntryOutputStream(startEntryWriter());
+    }
+
     /*
     /**********************************************************************
     /* Public API, getting next entry
@@ -173,6 +214,100 @@ public abstract class ChunkyBytesMemBuffer extends ChunkyMemBufferBase<BytesSegm
     public abstract int readNextEntry(long timeoutMsecs, byte[] buffer, int offset)
         throws InterruptedException;
 
+    /*
+    /**********************************************************************
+    /* Public API, reading next entry in place
+    /**********************************************************************
+     */
+
+    /**
+     * Method for removing the next available entry from buffer, and
+     * returning a reader for accessing its contents directly from underlying
+     * segments. If no entry is available, will block to wait for more data.
+     * Returned reader must be closed before other entries can be read.
+     *
+     * @since 1.2.1
+     */
+    public abstract BytesEntryReader getNextEntryReader() throws InterruptedException;
+
+    /**
+     * Method for removing the next available entry from buffer, if one
+     * is available, and returning a reader for accessing its contents
+     * directly from underlying segments; or returning null if buffer is empty.
+     * Returned reader must be closed before other entries can be read.
+     *
+     * @since 1.2.1
+     */
+    public abstract BytesEntryReader getNextEntryReaderIfAvailable();
+
+    /**
+     * Method for removing the next available entry from buffer, and
+     * returning a stream for reading its contents in pieces directly from
+     * underlying segments, freeing segments as they are consumed.
+     * Useful for entries too big to be read into a single byte array.
+     * If no entry is available, will block to wait for more data.
+     * Returned stream must be closed before other entries can be read.
+     *
+     * @since 1.2.1
+     */
+    public EntryInputStream openNextEntry() throws InterruptedException {
+        return new EntryInputStream(getNextEntryReader());
+    }
+
+    /**
+     * Non-blocking variant of {@link #openNextEntry}: will return null
+     * if buffer is empty.
+     *
+     * @since 1.2.1
+     */
+    public EntryInputStream openNextEntryIfAvailable() {
+        BytesEntryReader reader = getNextEntryReaderIfAvailable();
+        return (reader == null) ? null : new EntryInputStream(reader);
+    }
+
+    /**
+     * Method for removing the next available entry from buffer, passing its
+     * contents to given consumer directly from underlying segments, one
+     * segment-resident fragment at a time. Will not block: if buffer is
+     * empty, returns -1 without calling consumer.
+     *<p>
+     * If consumer throws an exception, rest of the entry is skipped
+     * (so that following entries can still be read) and exception is re-thrown.
+     *
+     * @return Length of the entry consumed, if buffer was not empty; -1 if buffer
+     *   was empty
+     *
+     * @since 1.2.1
+     */
+    public abstract int consumeNextEntry(EntryConsumer<? super ByteBuffer> consumer);
+
+    /*
+    /**********************************************************************
+    /* Public API, transferring entries
+    /**********************************************************************
+     */
+
+    /**
+     * Method for moving up to specified number of entries from this buffer
+     * into given target buffer, in order, without blocking.
+     * If both buffers use the same allocator, segments fully covered
+     * by transferred entries are handed over to the target as is (without
+     * copying contents), and only partially covered segments at either end
+     * are copied; otherwise entries are copied one by one.
+     *<p>
+     * Both buffers are locked for the duration of the operation.
+     * If target does not have room for all entries, fewer entries
+     * (possibly none) are transferred.
+     *
+     * @param target Buffer to append entries to; must not be this buffer
+     * @param maxEntries Maximum number of entries to transfer
+     *
+     * @return Number of entries actually transferred
+     *
+     * @since 1.2.1
+     */
+    public abstract int transferEntriesTo(ChunkyBytesMemBuffer target, int maxEntries);
+
     /*
     /**********************************************************************
     /* Public API, read-like access: skipping, wait-for-next
@@ -194,7 +329,7 @@ public abstract class ChunkyBytesMemBuffer extends ChunkyMemBufferBase<BytesSegm
             return len;
         }
         
-        final int segLen = getNextEntryLength();
+        final int segLen = _rawNextEntryLength();
         // ensure length indicator gets reset for chunk after this one
         _nextEntryLength = -1;
         // and reduce entry count as well
@@ -229,6 +364,23 @@ public abstract class ChunkyBytesMemBuffer extends ChunkyMemBufferBase<BytesSegm
      */
     public abstract byte[] peekNextEntry();
 
+    /*
+    /**********************************************************************
+    /* Internal methods
+    /**********************************************************************
+     */
+
+    /**
+     * Method for accessing length of the next entry as stored in
+     * segments (including any per-entry metadata sub-classes may add),
+     * used by methods that read entries from segments.
+     *
+     * @since 1.2.1
+     */
+    protected int _rawNextEntryLength() {
+        return getNextEntryLength();
+    }
+
     /*
     /**********************************************************************
     /* Abstract method implementations
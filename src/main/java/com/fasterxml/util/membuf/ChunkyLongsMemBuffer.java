@@ -1,5 +1,7 @@
 package com.fasterxml.util.membuf;
 
+import java.nio.LongBuffer;
+
 import com.fasterxml.util.membuf.base.LongsSegment;
 import com.fasterxml.util.membuf.base.ChunkyMemBufferBase;
 
@@ -196,6 +198,22 @@ public abstract class ChunkyLongsMemBuffer extends ChunkyMemBufferBase<LongsSegm
    public abstract int readNextEntry(long timeoutMsecs, long[] buffer, int offset)
        throws InterruptedException;
    
+   /**
+    * Method for removing the next available entry from buffer, passing its
+    * contents to given consumer directly from underlying segments, one
+    * segment-resident fragment at a time. Will not block: if buffer is
+    * empty, returns -1 without calling consumer.
+    *<p>
+    * If consumer throws an exception, rest of the entry is skipped
+    * (so that following entries can still be read) and exception is re-thrown.
+    *
+    * @return Length of the entry consumed, if buffer was not empty; -1 if buffer
+    *   was empty
+    *
+    * @since 1.2.1
+    */
+   public abstract int consumeNextEntry(EntryConsumer<? super LongBuffer> consumer);
+
    /*
    /**********************************************************************
    /* Public API, read-like access: skipping, wait-for-next
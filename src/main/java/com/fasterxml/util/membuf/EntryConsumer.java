@@ -0,0 +1,36 @@
+package com.fasterxml.util.membuf;
+
+import java.nio.Buffer;
+
+/**
+ * Callback interface used for processing contents of an entry of a
+ * {@link ChunkyMemBuffer} directly from underlying segments, without
+ * copying it into an array first: see
+ * {@link ChunkyBytesMemBuffer#consumeNextEntry} and
+ * {@link ChunkyLongsMemBuffer#consumeNextEntry}.
+ *<p>
+ * Consumer is called once for each segment-resident fragment of the entry,
+ * in order; entries with no payload result in no calls.
+ * Note that callbacks are made while holding the buffer lock, so
+ * consumers should process data quickly and must not try to access
+ * the buffer being consumed.
+ *
+ * @param <B> Type of buffer used for exposing segment contents:
+ *   {@link java.nio.ByteBuffer} for byte-valued buffers,
+ *   {@link java.nio.LongBuffer} for long-valued buffers
+ *
+ * @since 1.2.1
+ */
+public interface EntryConsumer<B extends Buffer>
+{
+    /**
+     * Method called for a fragment of the entry being consumed.
+     *
+     * @param segmentView Read-only view of the segment that contains the fragment;
+     *   position and limit are set to the fragment boundaries (but may be changed
+     *   by consumer). View is only valid for the duration of the call.
+     * @param offset Index of the first value of the fragment within <code>segmentView</code>
+     * @param length Number of values in the fragment
+     */
+    public void consume(B segmentView, int offset, int length);
+}
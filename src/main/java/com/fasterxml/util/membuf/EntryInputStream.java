@@ -0,0 +1,122 @@
+package com.fasterxml.util.membuf;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * {@link InputStream} for reading contents of a single entry of a
+ * {@link ChunkyBytesMemBuffer} in pieces, directly from underlying segments:
+ * segments are freed as soon as their contents have been read, so that
+ * entries of arbitrary size can be processed with bounded heap usage.
+ * Instances are obtained using {@link ChunkyBytesMemBuffer#openNextEntry}.
+ *<p>
+ * Stream reaches end-of-input at the end of the entry. Entry is removed
+ * from the buffer when stream is opened; closing the stream skips whatever
+ * content has not been read. As with {@link BytesEntryReader} (which
+ * this stream wraps), other reads from the buffer will fail until
+ * stream is closed.
+ *
+ * @since 1.2.1
+ */
+public class EntryInputStream extends InputStream
+{
+    protected final BytesEntryReader _reader;
+
+    protected boolean _closed;
+
+    public EntryInputStream(BytesEntryReader reader) {
+        _reader = reader;
+    }
+
+    /**
+     * Accessor for the full length of the entry being read.
+     */
+    public int getLength() {
+        return _reader.getLength();
+    }
+
+    /*
+    /**********************************************************************
+    /* InputStream implementation
+    /**********************************************************************
+     */
+
+    @Override
+    public int available() throws IOException {
+        _checkClosed();
+        return _reader.getRemaining();
+    }
+
+    @Override
+    public void close() {
+        if (!_closed) {
+            _closed = true;
+            _reader.close();
+        }
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        _checkClosed();
+        if (_reader.getRemaining() == 0) {
+            return -1;
+        }
+        try {
+            return _reader.readUnsignedByte();
+        } catch (IllegalStateException e) {
+            throw _ioException(e);
+        }
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException
+    {
+        _checkClosed();
+        if (length < 1) {
+            return 0;
+        }
+        int count = Math.min(length, _reader.getRemaining());
+        if (count == 0) {
+            return -1;
+        }
+        try {
+            _reader.readFully(buffer, offset, count);
+        } catch (IllegalStateException e) {
+            throw _ioException(e);
+        }
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException
+    {
+        _checkClosed();
+        if (n <= 0L) {
+            return 0L;
+        }
+        try {
+            return _reader.skipBytes((int) Math.min(n, Integer.MAX_VALUE));
+        } catch (IllegalStateException e) {
+            throw _ioException(e);
+        }
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods
+    /**********************************************************************
+     */
+
+    protected void _checkClosed() throws IOException {
+        if (_closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    protected IOException _ioException(IllegalStateException e) {
+        IOException ioe = new IOException(e.getMessage());
+        ioe.initCause(e);
+        return ioe;
+    }
+}
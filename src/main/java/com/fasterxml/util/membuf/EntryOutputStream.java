@@ -0,0 +1,120 @@
+package com.fasterxml.util.membuf;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * {@link OutputStream} for appending a single entry of unknown length into a
+ * {@link ChunkyBytesMemBuffer}: contents are written directly into
+ * segments of the buffer, and length prefix is back-patched when stream is closed.
+ * Instances are obtained using {@link ChunkyBytesMemBuffer#beginEntry}.
+ *<p>
+ * Entry becomes visible to readers when stream is closed; until then it
+ * may be abandoned by calling {@link #abort}, which rolls back all content
+ * written. If buffer runs out of space, entry is rolled back automatically
+ * and an {@link IOException} is thrown. As with {@link BytesEntryWriter}
+ * (which this stream wraps), other appends to the buffer will fail
+ * until stream is closed or aborted.
+ *
+ * @since 1.2.1
+ */
+public class EntryOutputStream extends OutputStream
+{
+    protected final BytesEntryWriter _writer;
+
+    protected boolean _closed;
+
+    public EntryOutputStream(BytesEntryWriter writer) {
+        _writer = writer;
+    }
+
+    /**
+     * Accessor for number of bytes written for the entry so far.
+     */
+    public int getLength() {
+        return _writer.getLength();
+    }
+
+    /**
+     * Method for abandoning the entry being written: all content is
+     * discarded, and stream is closed. Calling this method after
+     * stream has been closed has no effect.
+     */
+    public void abort()
+    {
+        if (!_closed) {
+            _closed = true;
+            _writer.abort();
+        }
+    }
+
+    /*
+    /**********************************************************************
+    /* OutputStream implementation
+    /**********************************************************************
+     */
+
+    /**
+     * Closing the stream completes the entry, making it available for
+     * readers; calling it more than once has no effect.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (!_closed) {
+            _closed = true;
+            try {
+                _writer.finish();
+            } catch (IllegalStateException e) {
+                throw _ioException(e);
+            }
+        }
+    }
+
+    @Override
+    public void flush() {
+        // nothing to flush: content is written directly into buffer
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+        _checkClosed();
+        try {
+            _writer.writeByte(b);
+        } catch (IllegalStateException e) {
+            _closed = true;
+            throw _ioException(e);
+        }
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException
+    {
+        _checkClosed();
+        try {
+            _writer.write(buffer, offset, length);
+        } catch (IllegalStateException e) {
+            _closed = true;
+            throw _ioException(e);
+        }
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods
+    /**********************************************************************
+     */
+
+    protected void _checkClosed() throws IOException {
+        if (_closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    protected IOException _ioException(IllegalStateException e) {
+        IOException ioe = new IOException(e.getMessage());
+        ioe.initCause(e);
+        return ioe;
+    }
+}
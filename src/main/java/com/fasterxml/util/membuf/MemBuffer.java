@@ -1,6 +1,8 @@
 package com.fasterxml.util.membuf;
 
 import java.io.*;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 /*
  * Copyright Tatu Saloranta, 2011-
@@ -89,6 +91,41 @@ public interface MemBuffer
     @Override // from Closeable -- note, does NOT throw IOException
     public abstract void close();    
 
+    /*
+    /**********************************************************************
+    /* Public API, snapshots
+    /**********************************************************************
+     */
+
+    /**
+     * Method for writing a snapshot of current contents of this buffer
+     * into given channel: snapshot consists of a small header followed
+     * by raw contents of segments (including entry length prefixes, if any),
+     * written using gathering writes if channel supports them.
+     * Contents of the buffer are not modified. Snapshot can be read
+     * back, into an empty buffer of the same type, using {@link #restoreFrom}.
+     * Channel must be in blocking mode.
+     *
+     * @return Number of bytes written
+     *
+     * @since 1.2.1
+     */
+    public abstract long snapshotTo(WritableByteChannel channel) throws IOException;
+
+    /**
+     * Method for reading a snapshot written using {@link #snapshotTo} into
+     * this buffer, which must be empty and of the same type as buffer from
+     * which snapshot was taken (segment sizes may differ). Content is read
+     * from the channel directly into segments. Channel must be in
+     * blocking mode.
+     *
+     * @throws IllegalStateException If buffer is not empty, or does not have
+     *    enough room for snapshot contents (in which case it is left empty)
+     *
+     * @since 1.2.1
+     */
+    public abstract void restoreFrom(ReadableByteChannel channel) throws IOException;
+
     /*
     /**********************************************************************
     /* Public API: type-independent data access
@@ -117,6 +117,18 @@ public abstract class Segment<S extends Segment<S>>
      * @since 0.9.1
      */
     public abstract void markFree();
+
+    /**
+     * Method called by allocator when segment is discarded (not retained
+     * for reuse), to let segment release resources it holds, such as
+     * native memory, without waiting for garbage collection.
+     * Segment must not be used after this call.
+     *<p>
+     * Default implementation does nothing.
+     *
+     * @since 1.2.1
+     */
+    public void dispose() { }
     
     /*
     /**********************************************************************
@@ -1,5 +1,8 @@
 package com.fasterxml.util.membuf;
 
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+
 /*
  * Copyright Tatu Saloranta, 2011-
  */
@@ -11,6 +14,7 @@ package com.fasterxml.util.membuf;
  * buffers can do).
  */
 public abstract class SegmentAllocator<T extends Segment<T>>
+    implements Closeable
 {
     /*
     /**********************************************************************
@@ -32,8 +36,10 @@ public abstract class SegmentAllocator<T extends Segment<T>>
 
     /**
      * Maximum number of segments that this allocator will allocate.
+     * Not final since 1.2.1, to allow changing it at runtime (see
+     * {@link #setMaxSegmentCount}).
      */
-    protected final int _maxSegmentsToAllocate;
+    protected volatile int _maxSegmentsToAllocate;
 
     /*
     /**********************************************************************
@@ -126,6 +132,23 @@ public abstract class SegmentAllocator<T extends Segment<T>>
      * @since 0.9.1
      */
     public final int getMaxSegmentCount() { return _maxSegmentsToAllocate; }
+
+    /**
+     * Method for changing maximum number of segments that allocator is allowed
+     * to allocate for buffers. If the limit is lowered below number of segments
+     * currently owned by buffers, it takes effect lazily: no more segments are
+     * allocated (and released segments are not retained for reuse) until
+     * buffers have released enough segments.
+     *
+     * @since 1.2.1
+     */
+    public synchronized void setMaxSegmentCount(int maxSegments)
+    {
+        if (maxSegments < 0) {
+            throw new IllegalArgumentException("maxSegments can not be negative (was "+maxSegments+")");
+        }
+        _maxSegmentsToAllocate = maxSegments;
+    }
     
     /**
      * Method that will try to allocate specified number of segments
@@ -140,6 +163,49 @@ public abstract class SegmentAllocator<T extends Segment<T>>
      *    entries) if allocation succeeded; null if not
      */
     public abstract T allocateSegments(int count, T segmentList);
+
+    /**
+     * Method that will try to allocate specified number of segments for
+     * a buffer, similar to {@link #allocateSegments(int, Segment)}, but with
+     * information on the requesting buffer, so that allocator may apply
+     * a fairness policy between buffers.
+     * Default implementation ignores buffer information.
+     *
+     * @param count Number of segments to allocate
+     * @param bufferSegments Number of segments requesting buffer currently holds
+     * @param bufferWeight Relative weight of the requesting buffer (1 for default)
+     *
+     * @return Head of segment list (with newly allocated entries as first
+     *    entries) if allocation succeeded; null if not
+     *
+     * @since 1.2.1
+     */
+    public T allocateSegments(int count, T segmentList, int bufferSegments, int bufferWeight) {
+        return allocateSegments(count, segmentList);
+    }
+
+    /**
+     * Method that will try to allocate specified number of segments
+     * (and exactly that number; no less), waiting up to specified time
+     * for other buffers to release segments, if necessary. Waiting callers
+     * are served in the order they started waiting.
+     * Default implementation does not wait.
+     *
+     * @param count Number of segments to allocate
+     * @param timeout Maximum time to wait
+     * @param unit Unit of <code>timeout</code>
+     *
+     * @return Head of segment list (with newly allocated entries as first
+     *    entries) if allocation succeeded; null if it did not succeed
+     *    within specified time
+     *
+     * @since 1.2.1
+     */
+    public T awaitSegments(int count, T segmentList, long timeout, TimeUnit unit)
+        throws InterruptedException
+    {
+        return allocateSegments(count, segmentList, 0, 1);
+    }
     
     /**
      * Method called by {@link MemBuffer} instances when they have consumed
@@ -147,4 +213,37 @@ public abstract class SegmentAllocator<T extends Segment<T>>
      * reuse.
      */
     public abstract void releaseSegment(T segToRelease);
+
+    /**
+     * Method for releasing segments retained for reuse, so that at most
+     * specified number of segments remain retained. Released segments are
+     * disposed of (see {@link Segment#dispose}), so that native memory they
+     * use is freed without waiting for garbage collection.
+     *<p>
+     * Default implementation does not retain segments, and thus
+     * releases nothing.
+     *
+     * @param keepSegments Maximum number of reusable segments to keep
+     *
+     * @return Number of segments released
+     *
+     * @since 1.2.1
+     */
+    public int trim(int keepSegments) {
+        return 0;
+    }
+
+    /**
+     * Method for closing the allocator: all segments retained for reuse are
+     * disposed of, as are any segments released by buffers after this call;
+     * and no more segments may be allocated.
+     * Should only be called once buffers that use the allocator are no
+     * longer used (or have been closed).
+     *<p>
+     * Default implementation does nothing.
+     *
+     * @since 1.2.1
+     */
+    @Override // from Closeable -- note, does NOT throw IOException
+    public void close() { }
 }
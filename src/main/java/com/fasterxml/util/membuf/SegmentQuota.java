@@ -0,0 +1,170 @@
+package com.fasterxml.util.membuf;
+
+/**
+ * Node in a hierarchy of segment quotas, used for sharing a memory budget
+ * between {@link SegmentAllocator}s (and thereby between groups of buffers).
+ * The root quota defines the total number of segments that may be allocated;
+ * it is divided between child quotas, each of which has a guaranteed minimum
+ * (reserved from its parent when created) and a maximum up to which it may
+ * grow, by borrowing capacity not used by other children of its parent.
+ * Quotas may be nested to any depth.
+ *<p>
+ * Quotas count physical segments: ones owned by buffers as well as ones
+ * retained by allocators for reuse (see {@link SegmentAllocator#trim} for
+ * releasing latter). Allocators may also charge more than one unit per
+ * segment (see {@link com.fasterxml.util.membuf.base.SegmentAllocatorBase#quota(SegmentQuota, int)}),
+ * so that allocators with different segment sizes can share a budget
+ * measured in bytes.
+ *<p>
+ * Instances are thread-safe; locks are always acquired from child to parent.
+ *
+ * @since 1.2.1
+ */
+public class SegmentQuota
+{
+    protected final SegmentQuota _parent;
+
+    /**
+     * Number of segments reserved from parent quota, whether used or not
+     */
+    protected final int _guaranteedSegments;
+
+    protected final int _maxSegments;
+
+    /**
+     * Number of segments used via this quota (including use by child quotas,
+     * which is at least sum of their guaranteed segments)
+     */
+    protected int _usedSegments;
+
+    /**
+     * Constructor for root quota
+     *
+     * @param maxSegments Total number of segments that may be allocated under
+     *   this quota
+     */
+    public SegmentQuota(int maxSegments)
+    {
+        this(null, 0, maxSegments);
+    }
+
+    protected SegmentQuota(SegmentQuota parent, int guaranteedSegments, int maxSegments)
+    {
+        if (guaranteedSegments < 0 || guaranteedSegments > maxSegments) {
+            throw new IllegalArgumentException("guaranteedSegments ("+guaranteedSegments
+                    +") must be at least 0; can not exceed maxSegments ("+maxSegments+")");
+        }
+        _parent = parent;
+        _guaranteedSegments = guaranteedSegments;
+        _maxSegments = maxSegments;
+    }
+
+    /**
+     * Method for creating a child quota, for which given number of segments
+     * is reserved from this quota.
+     *
+     * @param guaranteedSegments Number of segments always available for the child
+     * @param maxSegments Maximum number of segments child may use, if capacity
+     *   is available
+     *
+     * @throws IllegalStateException If this quota does not have enough unreserved
+     *   capacity for the guaranteed segments
+     */
+    public SegmentQuota createChild(int guaranteedSegments, int maxSegments)
+    {
+        SegmentQuota child = new SegmentQuota(this, guaranteedSegments, maxSegments);
+        if (!tryAcquire(guaranteedSegments)) {
+            throw new IllegalStateException("Can not reserve "+guaranteedSegments
+                    +" segments for child quota: only "+getAvailableSegments()+" available");
+        }
+        return child;
+    }
+
+    /*
+    /**********************************************************************
+    /* Accessors
+    /**********************************************************************
+     */
+
+    public SegmentQuota getParent() { return _parent; }
+
+    public int getGuaranteedSegments() { return _guaranteedSegments; }
+
+    public int getMaxSegments() { return _maxSegments; }
+
+    public synchronized int getUsedSegments() { return _usedSegments; }
+
+    /**
+     * Accessor for number of segments that could currently be acquired
+     * via this quota, considering limits of its ancestors as well.
+     */
+    public int getAvailableSegments()
+    {
+        final int used;
+        synchronized (this) {
+            used = _usedSegments;
+        }
+        int available = _maxSegments - used;
+        if (_parent != null) {
+            // guaranteed segments are available regardless of parent
+            int fromParent = Math.max(0, _guaranteedSegments - used) + _parent.getAvailableSegments();
+            available = Math.min(available, fromParent);
+        }
+        return Math.max(0, available);
+    }
+
+    /*
+    /**********************************************************************
+    /* Acquire, release
+    /**********************************************************************
+     */
+
+    /**
+     * Method for trying to acquire given number of segments; either all
+     * are acquired, or none.
+     *
+     * @return True if segments were acquired; false if not
+     */
+    public synchronized boolean tryAcquire(int count)
+    {
+        final int newUsed = _usedSegments + count;
+        if (newUsed > _maxSegments) {
+            return false;
+        }
+        // only need to borrow from parent beyond guaranteed part
+        if (_parent != null) {
+            int borrow = _charge(newUsed) - _charge(_usedSegments);
+            if (borrow > 0 && !_parent.tryAcquire(borrow)) {
+                return false;
+            }
+        }
+        _usedSegments = newUsed;
+        return true;
+    }
+
+    /**
+     * Method for releasing given number of segments acquired earlier.
+     */
+    public synchronized void release(int count)
+    {
+        if (count > _usedSegments) { // sanity check
+            throw new IllegalStateException("Trying to release "+count+" segments, only "
+                    +_usedSegments+" acquired");
+        }
+        final int oldUsed = _usedSegments;
+        _usedSegments -= count;
+        if (_parent != null) {
+            int returned = _charge(oldUsed) - _charge(_usedSegments);
+            if (returned > 0) {
+                _parent.release(returned);
+            }
+        }
+    }
+
+    /**
+     * Number of segments this quota uses from its parent, given its own usage
+     */
+    protected int _charge(int used) {
+        return Math.max(_guaranteedSegments, used);
+    }
+}
@@ -0,0 +1,278 @@
+package com.fasterxml.util.membuf;
+
+import com.fasterxml.util.membuf.base.BytesSegment;
+import com.fasterxml.util.membuf.base.MemBufferBase;
+import com.fasterxml.util.membuf.base.SegmentAllocatorBase;
+import com.fasterxml.util.membuf.impl.ByteBufferBytesSegment;
+
+/**
+ * Factory for creating byte buffers that use segments of different sizes
+ * ("size classes"; for example 4 kB, 64 kB and 1 MB), all drawing from
+ * a single memory budget measured in bytes. This allows using small segments
+ * for the (usually numerous) low-volume buffers, to avoid wasting memory,
+ * and larger segments for high-volume buffers, to reduce overhead of
+ * crossing segment boundaries.
+ *<p>
+ * Each size class uses an allocator (and {@link MemBuffersForBytes}) of
+ * its own; budget is shared using a {@link SegmentQuota} measured in units
+ * of the smallest segment size (so all sizes must be multiples of it).
+ * Chunky buffers start with the smallest segments, and may be "graduated"
+ * to the next size class (see {@link #graduate} and {@link #graduateIfNeeded})
+ * as their volume grows: this moves buffered entries to a new buffer
+ * that uses larger segments, so callers must use the returned buffer instead
+ * of the original one.
+ *
+ * @since 1.2.1
+ */
+public class SizeClassedBuffersForBytes
+{
+    protected final int[] _segmentSizes;
+
+    protected final long _maxBytes;
+
+    protected final SegmentQuota _quota;
+
+    protected final SegmentAllocatorBase<BytesSegment>[] _allocators;
+
+    protected final MemBuffersForBytes[] _buffers;
+
+    /*
+    /**********************************************************************
+    /* Life-cycle
+    /**********************************************************************
+     */
+
+    /**
+     * @param segmentSizes Segment sizes of size classes, in ascending order;
+     *   each must be a multiple of the first (smallest) size
+     * @param segmentsToRetain Maximum number of segments allocator of each size
+     *   class may retain for reuse (note that these count against the budget)
+     * @param maxBytes Maximum number of bytes all segments of all size classes
+     *   may use
+     * @param allocateNativeBuffers Whether to use direct (native) buffers
+     *   for segments
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public SizeClassedBuffersForBytes(int[] segmentSizes, int segmentsToRetain,
+            long maxBytes, boolean allocateNativeBuffers)
+    {
+        if (segmentSizes.length == 0) {
+            throw new IllegalArgumentException("Must have at least one size class");
+        }
+        final int unit = segmentSizes[0];
+        for (int i = 1; i < segmentSizes.length; ++i) {
+            if (segmentSizes[i] <= segmentSizes[i-1] || (segmentSizes[i] % unit) != 0) {
+                throw new IllegalArgumentException("Segment sizes must be in ascending order, and multiples of"
+                        +" the smallest size ("+unit+"): "+segmentSizes[i]+" is not");
+            }
+        }
+        if ((maxBytes / unit) > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("maxBytes ("+maxBytes+") too big for smallest segment size ("
+                    +unit+")");
+        }
+        _segmentSizes = segmentSizes.clone();
+        _maxBytes = maxBytes;
+        _quota = new SegmentQuota((int) (maxBytes / unit));
+        _allocators = new SegmentAllocatorBase[segmentSizes.length];
+        _buffers = new MemBuffersForBytes[segmentSizes.length];
+        for (int i = 0; i < segmentSizes.length; ++i) {
+            final int size = segmentSizes[i];
+            final int maxSegments = (int) Math.min(Integer.MAX_VALUE, maxBytes / size);
+            SegmentAllocatorBase<BytesSegment> alloc = ByteBufferBytesSegment.allocator(size,
+                    Math.min(segmentsToRetain, maxSegments), maxSegments, allocateNativeBuffers);
+            alloc.quota(_quota, size / unit);
+            _allocators[i] = alloc;
+            _buffers[i] = new MemBuffersForBytes(alloc);
+        }
+    }
+
+    /*
+    /**********************************************************************
+    /* Accessors
+    /**********************************************************************
+     */
+
+    public int getSizeClassCount() {
+        return _segmentSizes.length;
+    }
+
+    public int getSegmentSize(int sizeClass) {
+        return _segmentSizes[sizeClass];
+    }
+
+    /**
+     * Accessor for factory that creates buffers of given size class
+     */
+    public MemBuffersForBytes getBuffers(int sizeClass) {
+        return _buffers[sizeClass];
+    }
+
+    public long getMaxBytes() {
+        return _maxBytes;
+    }
+
+    /**
+     * Accessor for number of bytes used by segments of all size classes,
+     * including segments retained for reuse
+     */
+    public long getUsedBytes() {
+        return (long) _quota.getUsedSegments() * _segmentSizes[0];
+    }
+
+    /**
+     * Accessor for finding size class of given buffer
+     *
+     * @return Size class of buffer, if created by this factory; -1 if not
+     */
+    public int sizeClassOf(MemBufferBase<BytesSegment> buffer)
+    {
+        for (int i = 0; i < _allocators.length; ++i) {
+            if (buffer.getAllocator() == _allocators[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /*
+    /**********************************************************************
+    /* Factory methods
+    /**********************************************************************
+     */
+
+    /**
+     * Method for creating a chunky buffer that uses segments of the smallest
+     * size class, and may hold up to specified number of bytes (rounded up to
+     * full segments).
+     *
+     * @return Buffer created, if there was enough memory available; null if not
+     */
+    public ChunkyBytesMemBuffer tryCreateChunkyBuffer(long maxBytesForBuffer) {
+        return tryCreateChunkyBuffer(0, maxBytesForBuffer);
+    }
+
+    /**
+     * Method for creating a chunky buffer that uses segments of given size
+     * class, and may hold up to specified number of bytes (rounded up to
+     * full segments).
+     *
+     * @return Buffer created, if there was enough memory available; null if not
+     */
+    public ChunkyBytesMemBuffer tryCreateChunkyBuffer(int sizeClass, long maxBytesForBuffer) {
+        return _buffers[sizeClass].tryCreateChunkyBuffer(1, _segmentsFor(sizeClass, maxBytesForBuffer));
+    }
+
+    /**
+     * Method for creating a streamy buffer that uses segments of given size
+     * class, and may hold up to specified number of bytes (rounded up to
+     * full segments).
+     *
+     * @return Buffer created, if there was enough memory available; null if not
+     */
+    public StreamyBytesMemBuffer tryCreateStreamyBuffer(int sizeClass, long maxBytesForBuffer) {
+        return _buffers[sizeClass].tryCreateStreamyBuffer(1, _segmentsFor(sizeClass, maxBytesForBuffer));
+    }
+
+    /*
+    /**********************************************************************
+    /* Graduation to bigger segments
+    /**********************************************************************
+     */
+
+    /**
+     * Method that will graduate given buffer to the next size class (see
+     * {@link #graduate}) if it holds at least as much content as fits in
+     * a single segment of the next size class; otherwise returns buffer as is.
+     */
+    public ChunkyBytesMemBuffer graduateIfNeeded(ChunkyBytesMemBuffer buffer)
+    {
+        final int sizeClass = sizeClassOf(buffer);
+        if (sizeClass < 0 || (sizeClass + 1) == _segmentSizes.length) {
+            return buffer;
+        }
+        if (buffer.getTotalPayloadLength() < _segmentSizes[sizeClass+1]) {
+            return buffer;
+        }
+        return graduate(buffer);
+    }
+
+    /**
+     * Method for moving contents of given buffer into a new buffer that uses
+     * segments of the next size class, with the same maximum size (in bytes),
+     * and closing the original buffer. Buffer is returned as is if it already
+     * uses the largest segments, or if a new buffer could not be created, or
+     * its contents could not be moved, due to memory limits.
+     * Caller must have exclusive access to the buffer during the call.
+     *
+     * @return Buffer to use instead of given buffer (which is closed, if
+     *   different from returned buffer)
+     */
+    public ChunkyBytesMemBuffer graduate(ChunkyBytesMemBuffer buffer)
+    {
+        final int sizeClass = sizeClassOf(buffer);
+        if (sizeClass < 0) {
+            throw new IllegalArgumentException("Buffer not created by this factory");
+        }
+        if ((sizeClass + 1) == _segmentSizes.length) {
+            return buffer;
+        }
+        final int maxSegments = _segmentsFor(sizeClass + 1,
+                (long) buffer.getMaxSegmentsToAllocate() * _segmentSizes[sizeClass]);
+        // allocate all segments needed for content up front, so that moving can not fail midway
+        final int neededSegments = Math.min(maxSegments, 1 + _segmentsFor(sizeClass + 1,
+                (long) buffer.getSegmentCount() * _segmentSizes[sizeClass]));
+        ChunkyBytesMemBuffer target = _buffers[sizeClass+1].tryCreateChunkyBuffer(neededSegments, maxSegments);
+        if (target == null) {
+            return buffer;
+        }
+        // room for all content, with maximum length prefixes?
+        final long neededBytes = buffer.getTotalPayloadLength() + 5L * buffer.getEntryCount();
+        if (target.getMaximumAvailableSpace() < neededBytes) {
+            target.close();
+            return buffer;
+        }
+        target.setAllocationWeight(buffer.getAllocationWeight());
+        buffer.transferEntriesTo(target, Integer.MAX_VALUE);
+        if (!buffer.isEmpty()) { // should not occur, but if it does, must not lose or reorder entries
+            _moveBack(buffer, target);
+            return buffer;
+        }
+        // and release segments not needed for content
+        target.setMaxSegmentsForReuse(1);
+        buffer.close();
+        return target;
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods
+    /**********************************************************************
+     */
+
+    /**
+     * Method called if only some of the entries could be moved to the new buffer:
+     * moves them back to the original buffer (in original order), and closes
+     * the new buffer.
+     */
+    protected void _moveBack(ChunkyBytesMemBuffer buffer, ChunkyBytesMemBuffer target)
+    {
+        final int remaining = buffer.getEntryCount();
+        target.transferEntriesTo(buffer, Integer.MAX_VALUE);
+        if (!target.isEmpty()) { // can not close without losing entries
+            throw new IllegalStateException("Internal error: failed to move entries to new buffer, or back");
+        }
+        target.close();
+        // moved entries are now after the ones that were not moved; rotate those to the end
+        for (int i = 0; i < remaining; ++i) {
+            if (!buffer.tryAppendEntry(buffer.getNextEntryIfAvailable())) {
+                throw new IllegalStateException("Internal error: failed to restore order of entries after failed move");
+            }
+        }
+    }
+
+    protected int _segmentsFor(int sizeClass, long bytes)
+    {
+        final int size = _segmentSizes[sizeClass];
+        return (int) Math.max(1L, Math.min(Integer.MAX_VALUE, (bytes + size - 1) / size));
+    }
+}
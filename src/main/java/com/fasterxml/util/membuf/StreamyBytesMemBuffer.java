@@ -151,4 +151,123 @@ public abstract class StreamyBytesMemBuffer extends StreamyMemBufferBase<BytesSe
      */
     public abstract int read(long timeoutMsecs, byte[] buffer, int offset, int length)
         throws InterruptedException;
+
+    /*
+    /**********************************************************************
+    /* Public API, peeking, mark/reset
+    /**********************************************************************
+     */
+
+    /**
+     * Method for copying up to specified number of bytes from the beginning
+     * of readable content, without removing them from the buffer.
+     * Will not block: if no data is available, will return 0.
+     *
+     * @param buffer Buffer in which content is to be copied
+     * @param offset Offset in buffer to use for storing results
+     * @param length Maximum number of values to copy
+     *
+     * @return Number of bytes copied
+     *
+     * @since 1.2.1
+     */
+    public abstract int peek(byte[] buffer, int offset, int length);
+
+    /**
+     * @since 1.2.1
+     */
+    public final int peek(byte[] buffer) {
+        return peek(buffer, 0, buffer.length);
+    }
+
+    /**
+     * Method for accessing byte at specified index relative to the current
+     * read position, without removing anything from the buffer.
+     *
+     * @param index Index of the byte to access; must be less than {@link #available()}
+     *
+     * @since 1.2.1
+     */
+    public abstract byte peekByte(int index);
+
+    /**
+     * Method for marking current read position, so that calling
+     * {@link #reset} will return to it, making all content read since
+     * available again. Replaces previous mark, if any.
+     *<p>
+     * Note that while mark is set, segments that have been read are
+     * retained (not freed), and count against buffer's capacity: mark
+     * should be cleared (with {@link #clearMark}) as soon as it is no longer needed.
+     *
+     * @since 1.2.1
+     */
+    public abstract void mark();
+
+    /**
+     * Method for moving read position back to where {@link #mark} was
+     * called. Mark remains set.
+     *
+     * @return Number of bytes made available again
+     *
+     * @throws IllegalStateException if no mark is set
+     *
+     * @since 1.2.1
+     */
+    public abstract long reset();
+
+    /**
+     * Method for clearing the mark, if one is set, and freeing
+     * segments that were retained for it.
+     *
+     * @since 1.2.1
+     */
+    public abstract void clearMark();
+
+    /*
+    /**********************************************************************
+    /* Public API, delimiter-based access
+    /**********************************************************************
+     */
+
+    /**
+     * Method for finding the first occurrence of given byte in readable
+     * content, without removing anything from the buffer. Will not block.
+     *
+     * @param delimiter Byte value to look for
+     * @param fromOffset Offset (relative to the current read position) to start
+     *   search from
+     *
+     * @return Offset of the first match (relative to the current read position),
+     *   if any; -1 if none
+     *
+     * @since 1.2.1
+     */
+    public abstract long indexOf(byte delimiter, long fromOffset);
+
+    /**
+     * Method for reading bytes up to and including the first occurrence of
+     * given delimiter, if one is found within first <code>length</code> bytes.
+     * If not, but buffer has at least <code>length</code> bytes available,
+     * that many bytes are read; otherwise nothing is read.
+     * Will not block.
+     *
+     * @return Number of bytes read, if any; 0 if delimiter was not found
+     *   and less than <code>length</code> bytes are available
+     *
+     * @since 1.2.1
+     */
+    public abstract int readUntil(byte delimiter, byte[] buffer, int offset, int length);
+
+    /**
+     * Convenience method for reading the next complete line (terminated by
+     * linefeed, optionally preceded by carriage return), if one is available,
+     * and decoding it from UTF-8. Line terminator is removed from returned
+     * line. Will not block: if no complete line is available, nothing is read.
+     *
+     * @return Line read, without terminator, if a complete line was available;
+     *    null if not
+     *
+     * @since 1.2.1
+     */
+    public abstract String readLine();
 }
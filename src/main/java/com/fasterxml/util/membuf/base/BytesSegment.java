@@ -1,8 +1,20 @@
 package com.fasterxml.util.membuf.base;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+import com.fasterxml.util.membuf.EntryConsumer;
+
 /**
  * Intermediate base class for {@link com.fasterxml.util.membuf.Segment}s
  * used to store byte sequence values.
+ *<p>
+ * Methods added in 1.2.1 are not abstract, to retain compatibility with
+ * existing sub-classes: most have default implementations built on other
+ * methods, but the primitive ones ({@link #peek(int)}, {@link #rewindReading},
+ * {@link #appendOffset}, {@link #overwrite} and {@link #truncate}) throw
+ * {@link UnsupportedOperationException} unless overridden.
  */
 public abstract class BytesSegment extends SegmentBase<BytesSegment>
 {
@@ -27,9 +39,108 @@ public abstract class BytesSegment extends SegmentBase<BytesSegment>
     public abstract void read(byte[] buffer, int offset, int length);
 
     public abstract byte read();
+
+    /**
+     * Method for accessing byte at specified offset within this segment,
+     * without changing read position. Caller must ensure that offset
+     * is within content appended so far.
+     *
+     * @since 1.2.1
+     */
+    public byte peek(int offset) {
+        throw _unsupported("peek(int)");
+    }
+
+    /**
+     * Method for copying specified range of content of this segment,
+     * without changing read position. Caller must ensure that range
+     * is within content appended so far.
+     *
+     * @param segmentOffset Offset within segment of the first byte to copy
+     *
+     * @since 1.2.1
+     */
+    public void peek(int segmentOffset, byte[] buffer, int offset, int length)
+    {
+        for (int i = 0; i < length; ++i) {
+            buffer[offset+i] = peek(segmentOffset+i);
+        }
+    }
+
+    /**
+     * Method for moving read position to specified offset within segment;
+     * used for re-reading content that has already been read.
+     * Segment must have been initialized for reading.
+     *
+     * @since 1.2.1
+     */
+    public void rewindReading(int offset) {
+        throw _unsupported("rewindReading(int)");
+    }
+
+    /**
+     * Method for finding the first occurrence of given byte within
+     * specified range of content of this segment, without changing
+     * read position.
+     *
+     * @param fromOffset Offset within segment to start search from (inclusive)
+     * @param toOffset Offset within segment to end search at (exclusive)
+     *
+     * @return Offset within segment of the first match, if any; -1 if none
+     *
+     * @since 1.2.1
+     */
+    public int indexOf(byte value, int fromOffset, int toOffset)
+    {
+        for (int i = fromOffset; i < toOffset; ++i) {
+            if (peek(i) == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
     
     public abstract int tryRead(byte[] buffer, int offset, int length);
 
+    /**
+     * Method for passing up to specified number of bytes to given consumer,
+     * as a single fragment, without copying.
+     * Read position is only advanced after consumer returns successfully.
+     *
+     * @return Number of bytes consumed
+     *
+     * @since 1.2.1
+     */
+    public int tryConsume(EntryConsumer<? super ByteBuffer> consumer, int length)
+    {
+        final int actualLen = Math.min(availableForReading(), length);
+        if (actualLen > 0) {
+            final int from = appendOffset() - availableForReading();
+            final ByteBuffer view = contentView(from, from + actualLen);
+            consumer.consume(view, view.position(), actualLen);
+            skip(actualLen);
+        }
+        return actualLen;
+    }
+
+    /**
+     * Method for constructing a read-only view of specified range of content
+     * of this segment, without copying or changing read position.
+     * Caller must ensure that range is within content appended so far.
+     * Default implementation returns a view of a copy of the content.
+     *
+     * @param fromOffset Offset within segment of the first byte (inclusive)
+     * @param toOffset Offset within segment of the last byte (exclusive)
+     *
+     * @since 1.2.1
+     */
+    public ByteBuffer contentView(int fromOffset, int toOffset)
+    {
+        final byte[] copy = new byte[toOffset - fromOffset];
+        peek(fromOffset, copy, 0, copy.length);
+        return ByteBuffer.wrap(copy).asReadOnlyBuffer();
+    }
+
     /*
     /**********************************************************************
     /* Byte-specific API: appending data
@@ -57,4 +168,97 @@ public abstract class BytesSegment extends SegmentBase<BytesSegment>
      * @return True if there was room and append succeeded; false if segment is full
      */
     public abstract boolean tryAppend(byte value);
+
+    /**
+     * Append operation that tries to append as much of remaining content
+     * of given buffer as possible (advancing its position), and returns
+     * number of bytes that were copied.
+     *
+     * @return Number of bytes actually appended
+     *
+     * @since 1.2.1
+     */
+    public int tryAppend(ByteBuffer src)
+    {
+        final int actualLen = Math.min(src.remaining(), availableForAppend());
+        if (actualLen > 0) {
+            if (src.hasArray()) {
+                append(src.array(), src.arrayOffset() + src.position(), actualLen);
+                src.position(src.position() + actualLen);
+            } else {
+                final byte[] copy = new byte[actualLen];
+                src.get(copy);
+                append(copy, 0, actualLen);
+            }
+        }
+        return actualLen;
+    }
+
+    /**
+     * Append operation that reads up to specified number of bytes from given
+     * channel directly into this segment, with a single read call.
+     *
+     * @return Number of bytes actually appended; -1 if channel has no more content
+     *
+     * @since 1.2.1
+     */
+    public int appendFrom(ReadableByteChannel channel, int maxLength) throws IOException
+    {
+        final byte[] copy = new byte[Math.min(maxLength, availableForAppend())];
+        final int count = channel.read(ByteBuffer.wrap(copy));
+        if (count > 0) {
+            append(copy, 0, count);
+        }
+        return count;
+    }
+
+    /*
+    /**********************************************************************
+    /* Byte-specific API: in-place modification of appended data
+    /**********************************************************************
+     */
+
+    /**
+     * Accessor for offset within this segment at which the next appended
+     * byte would be stored.
+     *
+     * @since 1.2.1
+     */
+    public int appendOffset() {
+        throw _unsupported("appendOffset()");
+    }
+
+    /**
+     * Method for overwriting contents that have already been appended
+     * in this segment, starting at given offset; used for back-patching
+     * length prefixes of entries built in place.
+     * Caller must ensure that the range is within content appended so far.
+     *
+     * @since 1.2.1
+     */
+    public void overwrite(int offset, byte[] src, int srcOffset, int length) {
+        throw _unsupported("overwrite(int, byte[], int, int)");
+    }
+
+    /**
+     * Method for discarding content appended at and after given offset,
+     * so that next append will occur at that offset; used for rolling back
+     * partially appended entries.
+     * Caller must ensure that no content past the offset has been read.
+     *
+     * @since 1.2.1
+     */
+    public void truncate(int offset) {
+        throw _unsupported("truncate(int)");
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods
+    /**********************************************************************
+     */
+
+    protected UnsupportedOperationException _unsupported(String method) {
+        return new UnsupportedOperationException(getClass().getName()+" does not implement "+method);
+    }
 }
@@ -1,8 +1,18 @@
 package com.fasterxml.util.membuf.base;
 
+import java.nio.LongBuffer;
+
+import com.fasterxml.util.membuf.EntryConsumer;
+
 /**
  * Intermediate base class for {@link com.fasterxml.util.membuf.Segment}s used to store
  * long-valued sequences.
+ *<p>
+ * Methods added in 1.2.1 are not abstract, to retain compatibility with
+ * existing sub-classes: {@link #tryConsume} has a default implementation,
+ * but the primitive ones ({@link #peek}, {@link #readOffset} and
+ * {@link #appendOffset}) throw {@link UnsupportedOperationException}
+ * unless overridden.
  */
 public abstract class LongsSegment extends SegmentBase<LongsSegment>
 {
@@ -23,6 +33,50 @@ public abstract class LongsSegment extends SegmentBase<LongsSegment>
     
     public abstract int tryRead(long[] buffer, int offset, int length);
 
+    /**
+     * Method for passing up to specified number of values to given consumer,
+     * as a single fragment, without copying.
+     * Read position is only advanced after consumer returns successfully.
+     *
+     * @return Number of values consumed
+     *
+     * @since 1.2.1
+     */
+    public int tryConsume(EntryConsumer<? super LongBuffer> consumer, int length)
+    {
+        final int actualLen = Math.min(availableForReading(), length);
+        if (actualLen > 0) {
+            final long[] copy = new long[actualLen];
+            peek(readOffset(), copy, 0, actualLen);
+            consumer.consume(LongBuffer.wrap(copy).asReadOnlyBuffer(), 0, actualLen);
+            skip(actualLen);
+        }
+        return actualLen;
+    }
+
+    /**
+     * Method for copying specified range of content of this segment,
+     * without changing read position. Caller must ensure that range
+     * is within content appended so far.
+     *
+     * @param segmentOffset Offset within segment of the first value to copy
+     *
+     * @since 1.2.1
+     */
+    public void peek(int segmentOffset, long[] buffer, int offset, int length) {
+        throw _unsupported("peek(int, long[], int, int)");
+    }
+
+    /**
+     * Accessor for offset within this segment of the next value to read.
+     * Segment must have been initialized for reading.
+     *
+     * @since 1.2.1
+     */
+    public int readOffset() {
+        throw _unsupported("readOffset()");
+    }
+
     /**
      * Method for trying to skip up to specified number of bytes.
      */
@@ -56,4 +110,24 @@ public abstract class LongsSegment extends SegmentBase<LongsSegment>
      * @return True if there was room and append succeeded; false if segment is full
      */
     public abstract boolean tryAppend(long value);
+
+    /**
+     * Accessor for offset within this segment at which the next appended
+     * value would be stored.
+     *
+     * @since 1.2.1
+     */
+    public int appendOffset() {
+        throw _unsupported("appendOffset()");
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods
+    /**********************************************************************
+     */
+
+    protected UnsupportedOperationException _unsupported(String method) {
+        return new UnsupportedOperationException(getClass().getName()+" does not implement "+method);
+    }
 }
@@ -1,5 +1,12 @@
 package com.fasterxml.util.membuf.base;
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
 import com.fasterxml.util.membuf.*;
 
 /**
@@ -9,6 +16,37 @@ import com.fasterxml.util.membuf.*;
 public abstract class MemBufferBase<S extends Segment<S>>
     implements MemBuffer // partial impl
 {
+    /*
+    /**********************************************************************
+    /* Snapshot format
+    /**********************************************************************
+     */
+
+    /**
+     * Marker at the start of snapshots; "MBuf" in ASCII
+     */
+    protected final static int SNAPSHOT_MAGIC = 0x4D427566;
+
+    protected final static int SNAPSHOT_VERSION = 1;
+
+    /**
+     * Length of snapshot header: magic, version, buffer type and 2 bytes of
+     * padding, followed by entry count, payload length and content length
+     * (as 64-bit values).
+     */
+    protected final static int SNAPSHOT_HEADER_LENGTH = 32;
+
+    /**
+     * Number of values copied at a time when writing and reading snapshots
+     * of long-valued buffers (which need to be converted to and from bytes)
+     */
+    protected final static int SNAPSHOT_CHUNK_LONGS = 8000;
+
+    protected final static int SNAPSHOT_TYPE_CHUNKY_BYTES = 1;
+    protected final static int SNAPSHOT_TYPE_STREAMY_BYTES = 2;
+    protected final static int SNAPSHOT_TYPE_CHUNKY_LONGS = 3;
+    protected final static int SNAPSHOT_TYPE_STREAMY_LONGS = 4;
+
     /*
     /**********************************************************************
     /* Basic configuration
@@ -34,13 +72,21 @@ public abstract class MemBufferBase<S extends Segment<S>>
      * Lowest allowed minimum size is 2, since head and tail of the queue
      * must reside on different segments (to allow expansion)
      */
-    protected final int _maxSegmentsForReuse;
+    protected int _maxSegmentsForReuse;
 
     /**
      * Maximum number of segments to allocate.
      * This defines maximum physical size of the queue.
      */
-    protected final int _maxSegmentsToAllocate;
+    protected int _maxSegmentsToAllocate;
+
+    /**
+     * Relative weight of this buffer for fair-share allocation of segments
+     * (see {@link SegmentAllocatorBase#fairShare}).
+     *
+     * @since 1.2.1
+     */
+    protected int _allocationWeight = 1;
 
     /*
     /**********************************************************************
@@ -149,6 +195,7 @@ public abstract class MemBufferBase<S extends Segment<S>>
         _segmentSize = src._segmentSize;
         _maxSegmentsForReuse = src._maxSegmentsForReuse;
         _maxSegmentsToAllocate = src._maxSegmentsToAllocate;
+        _allocationWeight = src._allocationWeight;
 
         _head = src._head;
         _tail = src._tail;
@@ -214,6 +261,20 @@ public abstract class MemBufferBase<S extends Segment<S>>
         return _totalPayloadLength + _peekedLength();
     }
     
+    /**
+     * @since 1.2.1
+     */
+    public synchronized int getMaxSegmentsToAllocate() {
+        return _maxSegmentsToAllocate;
+    }
+
+    /**
+     * @since 1.2.1
+     */
+    public synchronized int getMaxSegmentsForReuse() {
+        return _maxSegmentsForReuse;
+    }
+
     @Override
     public synchronized long getMaximumAvailableSpace()
     {
@@ -240,11 +301,71 @@ public abstract class MemBufferBase<S extends Segment<S>>
 
     //public synchronized void clear()
 
+    /**
+     * Method for changing maximum number of segments this buffer may use.
+     * If the limit is lowered below number of segments currently in use,
+     * it takes effect lazily: appends that would need more segments fail
+     * until enough content has been read. Segments retained for reuse that
+     * would exceed the limit are released right away.
+     *
+     * @since 1.2.1
+     */
+    public synchronized void setMaxSegmentsToAllocate(int maxSegments)
+    {
+        if (maxSegments < 1 || maxSegments < _maxSegmentsForReuse) {
+            throw new IllegalArgumentException("maxSegments ("+maxSegments+") must be at least 1, and no less than"
+                    +" number of segments to retain for reuse ("+_maxSegmentsForReuse+")");
+        }
+        _maxSegmentsToAllocate = maxSegments;
+        _releaseFreeSegments(maxSegments);
+    }
+
+    /**
+     * @since 1.2.1
+     */
+    public synchronized int getAllocationWeight() {
+        return _allocationWeight;
+    }
+
+    /**
+     * Method for changing relative weight of this buffer, used by allocators
+     * that apply fair-share allocation (see {@link SegmentAllocatorBase#fairShare}):
+     * fair share of a buffer is proportional to its weight. Default weight is 1;
+     * buffers for critical, low-volume traffic may be given higher weights to
+     * keep them flowing when segments are scarce.
+     *
+     * @since 1.2.1
+     */
+    public synchronized void setAllocationWeight(int weight)
+    {
+        if (weight < 1) {
+            throw new IllegalArgumentException("weight must be at least 1 (was "+weight+")");
+        }
+        _allocationWeight = weight;
+    }
+
+    /**
+     * Method for changing number of segments this buffer retains (in use or
+     * for reuse), instead of releasing them to allocator. Segments retained
+     * for reuse that would exceed the new limit are released right away.
+     *
+     * @since 1.2.1
+     */
+    public synchronized void setMaxSegmentsForReuse(int segments)
+    {
+        if (segments < 1 || segments > _maxSegmentsToAllocate) {
+            throw new IllegalArgumentException("segments ("+segments+") must be at least 1, and no more than"
+                    +" maximum number of segments ("+_maxSegmentsToAllocate+")");
+        }
+        _maxSegmentsForReuse = segments;
+        _releaseFreeSegments(segments);
+    }
+
     @Override // from Closeable -- note, does NOT throw IOException
     public synchronized final void close()
     {
         // first do regular cleanup
-        clear();
+        _clearForClose();
 
         // then free the head/tail node as well
         _usedSegmentsCount = 0;
@@ -270,6 +391,17 @@ public abstract class MemBufferBase<S extends Segment<S>>
         this.notifyAll();
     }
 
+    /**
+     * Method called by {@link #close} to discard contents before releasing
+     * segments; by default simply calls {@link #clear}, but sub-classes
+     * that handle the two cases differently may override it.
+     *
+     * @since 1.2.1
+     */
+    protected void _clearForClose() {
+        clear();
+    }
+
     /*
     /**********************************************************************
     /* Internal methods for sub-classes to use
@@ -310,13 +442,24 @@ public abstract class MemBufferBase<S extends Segment<S>>
      * Since throwing exceptions from this method could lead to corruption,
      * we will only return error indicator for any problems.
      */
-    protected final String _freeReadSegment(String prevError)
+    protected String _freeReadSegment(String prevError)
     {
         S old = _tail;
         S next = old.finishReading();
         --_usedSegmentsCount;
         _tail = next.initForReading();
+        return _releaseReadSegment(old, prevError);
+    }
 
+    /**
+     * Helper method called to either retain a segment that has been completely
+     * read (and for which <code>finishReading()</code> has been called)
+     * for reuse, or release it to the allocator.
+     *
+     * @since 1.2.1
+     */
+    protected final String _releaseReadSegment(S old, String prevError)
+    {
         // how about freed segment? reuse?
         if ((_usedSegmentsCount + _freeSegmentCount) < _maxSegmentsForReuse) {
             if (_firstFreeSegment == null) {
@@ -345,6 +488,71 @@ public abstract class MemBufferBase<S extends Segment<S>>
         return prevError;
     }
 
+    /**
+     * Helper method for releasing segments retained for reuse to the
+     * allocator, until total number of segments is within given limit
+     * (or there are no more segments to release).
+     *
+     * @since 1.2.1
+     */
+    protected void _releaseFreeSegments(int maxSegments)
+    {
+        while (_freeSegmentCount > 0 && (_usedSegmentsCount + _freeSegmentCount) > maxSegments) {
+            S seg = _firstFreeSegment;
+            _firstFreeSegment = seg.getNext();
+            --_freeSegmentCount;
+            seg.relink(null);
+            seg.markFree();
+            _segmentAllocator.releaseSegment(seg);
+        }
+    }
+
+    /**
+     * Helper method for adding a new segment after the current head,
+     * to be used as the new head; either reusing a local free segment or
+     * allocating a new one.
+     *
+     * @param finishCurrent Whether current head segment is to be marked as
+     *   completely written (false when building an entry in place, in which
+     *   case this is deferred until entry is completed)
+     *
+     * @return True if a segment could be added; false if no more segments
+     *    may be allocated
+     *
+     * @since 1.2.1
+     */
+    protected boolean _addHeadSegment(boolean finishCurrent)
+    {
+        if (_freeSegmentCount <= 0) {
+            if ((_usedSegmentsCount + _freeSegmentCount) >= _maxSegmentsToAllocate) {
+                return false;
+            }
+            S newFree = _allocateSegments(1, _firstFreeSegment);
+            if (newFree == null) {
+                return false;
+            }
+            _freeSegmentCount += 1;
+            _firstFreeSegment = newFree;
+        }
+        final S seg = _head;
+        if (finishCurrent) {
+            seg.finishWriting();
+        }
+        seg.relink(_reuseFree().initForWriting());
+        return true;
+    }
+
+    /**
+     * Helper method for allocating segments for this buffer from the allocator,
+     * passing information needed for fair-share allocation.
+     *
+     * @since 1.2.1
+     */
+    protected final S _allocateSegments(int count, S segmentList) {
+        return _segmentAllocator.allocateSegments(count, segmentList,
+                _usedSegmentsCount + _freeSegmentCount, _allocationWeight);
+    }
+
     /**
      * Helper method for reusing a segment from free-segments list.
      * Caller must guarantee there is such a segment available; this is
@@ -412,6 +620,148 @@ if (count != _freeSegmentCount) {
         }
     }
     
+    /**
+     * Helper method for writing snapshot header, for given type of buffer.
+     *
+     * @since 1.2.1
+     */
+    protected final static void _writeSnapshotHeader(WritableByteChannel channel, int type,
+            long entryCount, long payloadLength, long contentLength)
+        throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER_LENGTH);
+        header.putInt(SNAPSHOT_MAGIC);
+        header.put((byte) SNAPSHOT_VERSION);
+        header.put((byte) type);
+        header.putShort((short) 0);
+        header.putLong(entryCount);
+        header.putLong(payloadLength);
+        header.putLong(contentLength);
+        header.flip();
+        _writeFully(channel, new ByteBuffer[] { header });
+    }
+
+    /**
+     * Helper method for reading and verifying snapshot header.
+     *
+     * @return Array with entry count, payload length and content length
+     *
+     * @since 1.2.1
+     */
+    protected final static long[] _readSnapshotHeader(ReadableByteChannel channel, int expType)
+        throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER_LENGTH);
+        _readFully(channel, header);
+        header.flip();
+        int magic = header.getInt();
+        if (magic != SNAPSHOT_MAGIC) {
+            throw new IOException("Invalid snapshot: unrecognized header 0x"+Integer.toHexString(magic));
+        }
+        int version = header.get();
+        if (version != SNAPSHOT_VERSION) {
+            throw new IOException("Unsupported snapshot version "+version+" (only "+SNAPSHOT_VERSION+" supported)");
+        }
+        int type = header.get();
+        if (type != expType) {
+            throw new IOException("Snapshot is for a different type of buffer (type "+type+"; expected "+expType+")");
+        }
+        header.getShort();
+        return new long[] { header.getLong(), header.getLong(), header.getLong() };
+    }
+
+    /**
+     * Helper method for writing all remaining content of given buffers,
+     * using gathering writes if channel supports them.
+     *
+     * @since 1.2.1
+     */
+    protected final static void _writeFully(WritableByteChannel channel, ByteBuffer[] buffers)
+        throws IOException
+    {
+        int first = 0;
+        while (first < buffers.length) {
+            if (!buffers[first].hasRemaining()) {
+                ++first;
+            } else if (channel instanceof GatheringByteChannel) {
+                ((GatheringByteChannel) channel).write(buffers, first, buffers.length - first);
+            } else {
+                channel.write(buffers[first]);
+            }
+        }
+    }
+
+    /**
+     * Helper method for filling given buffer with content from channel.
+     *
+     * @since 1.2.1
+     */
+    protected final static void _readFully(ReadableByteChannel channel, ByteBuffer buffer)
+        throws IOException
+    {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw _snapshotEOF(buffer.remaining());
+            }
+        }
+    }
+
+    /**
+     * Helper method for writing given long values as big-endian bytes,
+     * using given scratch buffer that must be big enough to contain them.
+     *
+     * @since 1.2.1
+     */
+    protected final static void _writeLongs(WritableByteChannel channel, long[] values, int count,
+            ByteBuffer scratch)
+        throws IOException
+    {
+        scratch.clear();
+        scratch.asLongBuffer().put(values, 0, count);
+        scratch.limit(count << 3);
+        while (scratch.hasRemaining()) {
+            channel.write(scratch);
+        }
+    }
+
+    /**
+     * Helper method for reading given number of long values, encoded as
+     * big-endian bytes, using given scratch buffer that must be big enough
+     * to contain them.
+     *
+     * @since 1.2.1
+     */
+    protected final static void _readLongs(ReadableByteChannel channel, long[] values, int count,
+            ByteBuffer scratch)
+        throws IOException
+    {
+        scratch.clear();
+        scratch.limit(count << 3);
+        _readFully(channel, scratch);
+        scratch.flip();
+        scratch.asLongBuffer().get(values, 0, count);
+    }
+
+    protected final static EOFException _snapshotEOF(long missing) {
+        return new EOFException("Unexpected end of snapshot: missing "+missing+" bytes");
+    }
+
+    /**
+     * Helper method called before restoring a snapshot, to ensure buffer
+     * is open and empty.
+     *
+     * @since 1.2.1
+     */
+    protected final void _verifyRestorable()
+    {
+        if (_head == null) {
+            _reportClosed();
+        }
+        if (!isEmpty()) {
+            throw new IllegalStateException("Can not restore snapshot into a non-empty buffer");
+        }
+    }
+
     /* Helper method called to throw an exception when an active method
      * is called after buffer has been closed.
      */
@@ -1,5 +1,7 @@
 package com.fasterxml.util.membuf.base;
 
+import java.util.concurrent.TimeUnit;
+
 import com.fasterxml.util.membuf.*;
 
 /*
@@ -109,20 +111,55 @@ public abstract class MemBuffersBase<S extends Segment<S>,
      * If construction fails (due to allocation limits),
      * null will be returned.
      */
-    @SuppressWarnings("resource")
     public final CB tryCreateChunkyBuffer(int minSegmentsForBuffer, int maxSegmentsForBuffer)
     {
-        S initialSegments = _segmentAllocator.allocateSegments(minSegmentsForBuffer, null);
+        S initialSegments = _segmentAllocator.allocateSegments(minSegmentsForBuffer, null, 0, 1);
         // may not be able to allocate segments; if so, need to fail
         if (initialSegments == null) {
             return null;
         }
-        CB buffer = _createChunkyBuffer(minSegmentsForBuffer, maxSegmentsForBuffer, initialSegments);
-        // Need to decorate it?
-        if (_chunkyDecorator != null) {
-            buffer = _chunkyDecorator.decorateMemBuffer(buffer);
+        return _chunkyBuffer(minSegmentsForBuffer, maxSegmentsForBuffer, initialSegments);
+    }
+
+    /**
+     * Method that will try to create a {@link ChunkyMemBuffer} with configured allocator,
+     * using specified arguments, waiting up to specified time for other buffers to
+     * release segments if necessary (callers are served in order they started waiting).
+     * If construction does not succeed within specified time,
+     * a {@link IllegalStateException} will be thrown.
+     *
+     * @since 1.2.1
+     */
+    public final CB createChunkyBuffer(int minSegmentsForBuffer, int maxSegmentsForBuffer,
+            long timeout, TimeUnit unit)
+        throws InterruptedException
+    {
+        CB buf = tryCreateChunkyBuffer(minSegmentsForBuffer, maxSegmentsForBuffer, timeout, unit);
+        if (buf == null) {
+            throw new IllegalStateException("Failed to create a MemBuffer due to segment allocation limits"
+                    +" (timed out after "+unit.toMillis(timeout)+" msecs)");
         }
-        return buffer;
+        return buf;
+    }
+
+    /**
+     * Method that will try to create a {@link ChunkyMemBuffer} with configured allocator,
+     * using specified arguments, waiting up to specified time for other buffers to
+     * release segments if necessary (callers are served in order they started waiting).
+     * If construction does not succeed within specified time,
+     * null will be returned.
+     *
+     * @since 1.2.1
+     */
+    public final CB tryCreateChunkyBuffer(int minSegmentsForBuffer, int maxSegmentsForBuffer,
+            long timeout, TimeUnit unit)
+        throws InterruptedException
+    {
+        S initialSegments = _segmentAllocator.awaitSegments(minSegmentsForBuffer, null, timeout, unit);
+        if (initialSegments == null) {
+            return null;
+        }
+        return _chunkyBuffer(minSegmentsForBuffer, maxSegmentsForBuffer, initialSegments);
     }
 
     /*
@@ -152,14 +189,79 @@ public abstract class MemBuffersBase<S extends Segment<S>,
      * If construction fails (due to allocation limits),
      * null will be returned.
      */
-    @SuppressWarnings("resource")
     public final SB tryCreateStreamyBuffer(int minSegmentsForBuffer, int maxSegmentsForBuffer)
     {
-        S initialSegments = _segmentAllocator.allocateSegments(minSegmentsForBuffer, null);
+        S initialSegments = _segmentAllocator.allocateSegments(minSegmentsForBuffer, null, 0, 1);
         // may not be able to allocate segments; if so, need to fail
         if (initialSegments == null) {
             return null;
         }
+        return _streamyBuffer(minSegmentsForBuffer, maxSegmentsForBuffer, initialSegments);
+    }
+
+    /**
+     * Method that will try to create a {@link StreamyMemBuffer} with configured allocator,
+     * using specified arguments, waiting up to specified time for other buffers to
+     * release segments if necessary (callers are served in order they started waiting).
+     * If construction does not succeed within specified time,
+     * a {@link IllegalStateException} will be thrown.
+     *
+     * @since 1.2.1
+     */
+    public final SB createStreamyBuffer(int minSegmentsForBuffer, int maxSegmentsForBuffer,
+            long timeout, TimeUnit unit)
+        throws InterruptedException
+    {
+        SB buf = tryCreateStreamyBuffer(minSegmentsForBuffer, maxSegmentsForBuffer, timeout, unit);
+        if (buf == null) {
+            throw new IllegalStateException("Failed to create a MemBuffer due to segment allocation limits"
+                    +" (timed out after "+unit.toMillis(timeout)+" msecs)");
+        }
+        return buf;
+    }
+
+    /**
+     * Method that will try to create a {@link StreamyMemBuffer} with configured allocator,
+     * using specified arguments, waiting up to specified time for other buffers to
+     * release segments if necessary (callers are served in order they started waiting).
+     * If construction does not succeed within specified time,
+     * null will be returned.
+     *
+     * @since 1.2.1
+     */
+    public final SB tryCreateStreamyBuffer(int minSegmentsForBuffer, int maxSegmentsForBuffer,
+            long timeout, TimeUnit unit)
+        throws InterruptedException
+    {
+        S initialSegments = _segmentAllocator.awaitSegments(minSegmentsForBuffer, null, timeout, unit);
+        if (initialSegments == null) {
+            return null;
+        }
+        return _streamyBuffer(minSegmentsForBuffer, maxSegmentsForBuffer, initialSegments);
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods
+    /**********************************************************************
+     */
+
+    @SuppressWarnings("resource")
+    protected CB _chunkyBuffer(int minSegmentsForBuffer, int maxSegmentsForBuffer,
+            S initialSegments)
+    {
+        CB buffer = _createChunkyBuffer(minSegmentsForBuffer, maxSegmentsForBuffer, initialSegments);
+        // Need to decorate it?
+        if (_chunkyDecorator != null) {
+            buffer = _chunkyDecorator.decorateMemBuffer(buffer);
+        }
+        return buffer;
+    }
+
+    @SuppressWarnings("resource")
+    protected SB _streamyBuffer(int minSegmentsForBuffer, int maxSegmentsForBuffer,
+            S initialSegments)
+    {
         SB buffer = _createStreamyBuffer(minSegmentsForBuffer,
                 maxSegmentsForBuffer, initialSegments);
         if (_streamyDecorator != null) {
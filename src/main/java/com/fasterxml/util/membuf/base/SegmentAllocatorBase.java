@@ -1,5 +1,8 @@
 package com.fasterxml.util.membuf.base;
 
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+
 import com.fasterxml.util.membuf.*;
 
 /**
@@ -14,6 +17,14 @@ public abstract class SegmentAllocatorBase<S extends Segment<S>>
      * even that small makes little sense, but is useful for unit tests.
      */
     public final static int MIN_SEGMENT_LENGTH = 4;
+
+    /**
+     * Weight of the latest sample when updating moving average of
+     * segment demand, for adaptive reuse
+     *
+     * @since 1.2.1
+     */
+    protected final static double DEMAND_SAMPLE_WEIGHT = 0.25;
     
     /*
     /**********************************************************************
@@ -26,6 +37,99 @@ public abstract class SegmentAllocatorBase<S extends Segment<S>>
      * after use.
      */
     protected S _firstReusableSegment;
+
+    /**
+     * Flag set when allocator has been closed
+     *
+     * @since 1.2.1
+     */
+    protected boolean _closed;
+    
+    /**
+     * Quota that limits number of segments this allocator may hold
+     * (in addition to its own limits), if any
+     *
+     * @since 1.2.1
+     */
+    protected SegmentQuota _quota;
+
+    /**
+     * Number of quota units each segment uses (see {@link #quota(SegmentQuota, int)})
+     *
+     * @since 1.2.1
+     */
+    protected int _quotaUnitsPerSegment = 1;
+
+    /**
+     * Number of segments, per unit of buffer weight, that each buffer is
+     * entitled to when fair-share allocation is enabled; 0 if not enabled.
+     *
+     * @since 1.2.1
+     */
+    protected int _fairShareSegments;
+
+    /**
+     * Number of segments held in reserve for buffers that hold less than
+     * their fair share, when fair-share allocation is enabled.
+     *
+     * @since 1.2.1
+     */
+    protected int _reservedSegments;
+
+    /**
+     * Callers blocked in {@link #awaitSegments}, in order of arrival
+     *
+     * @since 1.2.1
+     */
+    protected final LinkedList<Object> _waiters = new LinkedList<Object>();
+    
+    /*
+    /**********************************************************************
+    /* Adaptive reuse state
+    /**********************************************************************
+     */
+
+    /**
+     * Maximum number of segments to retain for reuse, when adaptive reuse
+     * is enabled; -1 if it is not enabled.
+     *
+     * @since 1.2.1
+     */
+    protected int _adaptiveMaxReusableSegments = -1;
+
+    /**
+     * Interval (in milliseconds) at which segment demand is sampled
+     *
+     * @since 1.2.1
+     */
+    protected long _demandSampleMsecs;
+
+    /**
+     * Time (in milliseconds) without allocations or releases after which
+     * allocator is considered idle
+     *
+     * @since 1.2.1
+     */
+    protected long _idleMsecs;
+
+    /**
+     * Exponentially weighted moving average of the peak number of segments
+     * owned by buffers, per sample interval
+     *
+     * @since 1.2.1
+     */
+    protected double _demandAverage;
+
+    /**
+     * Peak number of segments owned by buffers during current sample interval
+     *
+     * @since 1.2.1
+     */
+    protected int _intervalPeak;
+
+    protected long _intervalStart;
+
+    protected long _lastActivity;
     
     /*
     /**********************************************************************
@@ -79,16 +183,95 @@ public abstract class SegmentAllocatorBase<S extends Segment<S>>
      */
     @Override
     public synchronized S allocateSegments(int count, S segmentList)
+    {
+        return _allocateSegments(count, segmentList, -1, 1);
+    }
+
+    @Override
+    public synchronized S allocateSegments(int count, S segmentList, int bufferSegments, int bufferWeight)
+    {
+        return _allocateSegments(count, segmentList, bufferSegments, bufferWeight);
+    }
+
+    /**
+     * Waiting callers are woken up when segments are released (or limits
+     * changed); only the longest-waiting caller may allocate segments,
+     * so that callers are served in FIFO order. Note, however, that
+     * capacity freed by other allocators sharing a {@link SegmentQuota}
+     * does not wake up waiters; it is only noticed on the next wake up.
+     */
+    @Override
+    public synchronized S awaitSegments(int count, S segmentList, long timeout, TimeUnit unit)
+        throws InterruptedException
+    {
+        // fast path: no need to wait if nobody else is waiting, and segments are available
+        if (_waiters.isEmpty()) {
+            S segments = _allocateSegments(count, segmentList, 0, 1);
+            if (segments != null) {
+                return segments;
+            }
+        }
+        long waitNanos = unit.toNanos(timeout);
+        if (waitNanos <= 0L) {
+            return null;
+        }
+        final long deadline = System.nanoTime() + waitNanos;
+        final Object waiter = new Object();
+        _waiters.addLast(waiter);
+        try {
+            while (true) {
+                if (_waiters.getFirst() == waiter) {
+                    S segments = _allocateSegments(count, segmentList, 0, 1);
+                    if (segments != null) {
+                        return segments;
+                    }
+                }
+                if (waitNanos <= 0L) {
+                    return null;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, waitNanos);
+                waitNanos = deadline - System.nanoTime();
+            }
+        } finally {
+            _waiters.remove(waiter);
+            // next in line may be able to proceed now
+            _wakeWaiters();
+        }
+    }
+
+    /**
+     * Accessor for number of callers currently blocked in {@link #awaitSegments}
+     *
+     * @since 1.2.1
+     */
+    public synchronized int getWaiterCount() {
+        return _waiters.size();
+    }
+
+    protected S _allocateSegments(int count, S segmentList, int bufferSegments, int bufferWeight)
     {
         if (count < 1) {
             throw new IllegalArgumentException("Must allocate at least one segment (count = "+count+")");
         }
-        if (!_canAllocate(count)) {
+        if (_closed) {
+            throw new IllegalStateException("Can not allocate segments: allocator has been closed");
+        }
+        if (!_canAllocate(count) || !_withinFairShare(count, bufferSegments, bufferWeight)) {
             return null;
         }
+        // reusable segments are used first; only need quota for new ones
+        if (_quota != null) {
+            int newSegments = count - _segmentsWithQuota();
+            if (newSegments > 0 && !_quota.tryAcquire(newSegments * _quotaUnitsPerSegment)) {
+                return null;
+            }
+        }
         for (int i = 0; i < count; ++i) {
             segmentList = _allocateSegment().relink(segmentList);
         }
+        if (_adaptiveMaxReusableSegments >= 0) {
+            _updateDemand(_currentTimeMillis(), true);
+        }
         return segmentList;
     }
     
@@ -106,11 +289,233 @@ public abstract class SegmentAllocatorBase<S extends Segment<S>>
             throw new IllegalStateException("Bugger! Corruption Maximus: _bufferOwnedSegmentCount went below 0 ("
                     +count+")");
         }
-        // Can we reuse it?
-        if (_reusableSegmentCount < _maxReusableSegments) {
+        if (_adaptiveMaxReusableSegments >= 0) {
+            _updateDemand(_currentTimeMillis(), true);
+        }
+        // Can we reuse it? (not if over limit, if limit has been lowered)
+        if (!_closed && _reusableSegmentCount < _reuseLimit()
+                && (_bufferOwnedSegmentCount + _reusableSegmentCount) < _maxSegmentsToAllocate) {
             _firstReusableSegment = segToRelease.relink(_firstReusableSegment);
             ++_reusableSegmentCount;
+        } else { // if not, free eagerly, instead of waiting for GC
+            _dispose(segToRelease);
+            // and with adaptive reuse, may have more than is needed now
+            if (_adaptiveMaxReusableSegments >= 0) {
+                trim(_reuseLimit());
+            }
+        }
+        _wakeWaiters();
+    }
+
+    /**
+     * Method for making this allocator allocate segments under given quota,
+     * shared with other allocators as per quota hierarchy: allocation fails
+     * if the quota is exhausted, even if allocator's own limits would allow it.
+     * Must be called before any segments have been allocated.
+     *
+     * @since 1.2.1
+     */
+    public SegmentAllocatorBase<S> quota(SegmentQuota quota) {
+        return quota(quota, 1);
+    }
+
+    /**
+     * Method for making this allocator allocate segments under given quota,
+     * with each segment using specified number of quota units. This allows
+     * allocators with different segment sizes to share a single memory budget,
+     * by measuring quotas in units of bytes (or multiples thereof) instead
+     * of segments.
+     *
+     * @param unitsPerSegment Number of quota units each segment uses
+     *
+     * @since 1.2.1
+     */
+    public synchronized SegmentAllocatorBase<S> quota(SegmentQuota quota, int unitsPerSegment)
+    {
+        if ((_bufferOwnedSegmentCount + _reusableSegmentCount) > 0) {
+            throw new IllegalStateException("Can not set quota after segments have been allocated");
+        }
+        if (unitsPerSegment < 1) {
+            throw new IllegalArgumentException("unitsPerSegment must be at least 1 (was "+unitsPerSegment+")");
+        }
+        _quota = quota;
+        _quotaUnitsPerSegment = unitsPerSegment;
+        return this;
+    }
+
+    /**
+     * @since 1.2.1
+     */
+    public synchronized SegmentQuota getQuota() {
+        return _quota;
+    }
+
+    /**
+     * Method for enabling fair-share allocation between buffers, to prevent
+     * a single high-volume buffer from starving others: the last
+     * <code>reservedSegments</code> segments that may be allocated are only
+     * given to buffers that hold less than their fair share of segments,
+     * defined as <code>shareSegments</code> times weight of the buffer
+     * (see {@link MemBufferBase#setAllocationWeight}). Buffers at or above
+     * their fair share may still allocate segments as long as the reserve
+     * is not touched.
+     *<p>
+     * Note that fairness can only be applied to allocations that identify
+     * the requesting buffer (see
+     * {@link SegmentAllocator#allocateSegments(int, Segment, int, int)});
+     * standard buffer implementations do.
+     *
+     * @param shareSegments Number of segments per unit of buffer weight that
+     *   buffers are entitled to; 0 to disable fair-share allocation
+     * @param reservedSegments Number of segments reserved for buffers below
+     *   their fair share
+     *
+     * @since 1.2.1
+     */
+    public synchronized SegmentAllocatorBase<S> fairShare(int shareSegments, int reservedSegments)
+    {
+        if (shareSegments < 0 || reservedSegments < 0 || reservedSegments > _maxSegmentsToAllocate) {
+            throw new IllegalArgumentException("shareSegments ("+shareSegments+") and reservedSegments ("
+                    +reservedSegments+") must be at least 0; reservedSegments can not exceed maxSegments ("
+                    +_maxSegmentsToAllocate+")");
+        }
+        _fairShareSegments = shareSegments;
+        _reservedSegments = (shareSegments == 0) ? 0 : reservedSegments;
+        return this;
+    }
+
+    /**
+     * @since 1.2.1
+     */
+    public synchronized int getFairShareSegments() {
+        return _fairShareSegments;
+    }
+
+    /**
+     * @since 1.2.1
+     */
+    public synchronized int getReservedSegments() {
+        return _reservedSegments;
+    }
+
+    /**
+     * Lowering the limit also releases reusable segments that would
+     * exceed it.
+     */
+    @Override
+    public synchronized void setMaxSegmentCount(int maxSegments)
+    {
+        super.setMaxSegmentCount(maxSegments);
+        int excess = _bufferOwnedSegmentCount + _reusableSegmentCount - maxSegments;
+        if (excess > 0) {
+            trim(Math.max(0, _reusableSegmentCount - excess));
+        }
+        _wakeWaiters();
+    }
+
+    /**
+     * Method for enabling adaptive reuse of released segments: instead of
+     * retaining a fixed number of segments (<code>minSegmentsToRetain</code>
+     * passed to constructor), number of retained segments follows recent
+     * demand, measured as moving average of peak number of segments owned by
+     * buffers per sample interval. This keeps steady state allocation-free,
+     * while letting memory retained after traffic spikes be released as
+     * demand decays. Segments beyond the reuse target are released (and
+     * disposed of) when segments are released by buffers, or when
+     * {@link #releaseIdleSegments} is called; after an idle period (no
+     * allocations or releases), all but <code>minSegmentsToRetain</code>
+     * segments are released by {@link #releaseIdleSegments}.
+     *
+     * @param maxSegmentsToRetain Maximum number of segments to retain for reuse
+     * @param sampleIntervalMsecs Interval of demand sampling, in milliseconds
+     * @param idleMsecs Time without activity after which allocator is
+     *   considered idle, in milliseconds
+     *
+     * @since 1.2.1
+     */
+    public synchronized SegmentAllocatorBase<S> adaptiveReuse(int maxSegmentsToRetain,
+            long sampleIntervalMsecs, long idleMsecs)
+    {
+        if (maxSegmentsToRetain < _maxReusableSegments || maxSegmentsToRetain > _maxSegmentsToAllocate) {
+            throw new IllegalArgumentException("maxSegmentsToRetain ("+maxSegmentsToRetain
+                    +") must be at least minSegmentsToRetain ("+_maxReusableSegments
+                    +"); can not exceed maxSegments ("+_maxSegmentsToAllocate+")");
+        }
+        if (sampleIntervalMsecs < 1L) {
+            throw new IllegalArgumentException("sampleIntervalMsecs must be positive (was "+sampleIntervalMsecs+")");
         }
+        _adaptiveMaxReusableSegments = maxSegmentsToRetain;
+        _demandSampleMsecs = sampleIntervalMsecs;
+        _idleMsecs = idleMsecs;
+        _lastActivity = _intervalStart = _currentTimeMillis();
+        _intervalPeak = _bufferOwnedSegmentCount;
+        _demandAverage = _bufferOwnedSegmentCount + _reusableSegmentCount;
+        return this;
+    }
+
+    /**
+     * Accessor for the number of segments allocator currently retains for
+     * reuse, at most: either fixed <code>minSegmentsToRetain</code>, or,
+     * with adaptive reuse, target based on recent demand.
+     *
+     * @since 1.2.1
+     */
+    public synchronized int getReuseTarget() {
+        return _reuseLimit();
+    }
+
+    /**
+     * Method that should be called periodically (usually from a background
+     * thread) when adaptive reuse is enabled (see {@link #adaptiveReuse}),
+     * to update demand statistics and to release reusable segments beyond
+     * current reuse target, or, if allocator has been idle, beyond
+     * <code>minSegmentsToRetain</code>.
+     *
+     * @return Number of segments released
+     *
+     * @since 1.2.1
+     */
+    public synchronized int releaseIdleSegments()
+    {
+        if (_adaptiveMaxReusableSegments < 0) {
+            return trim(_maxReusableSegments);
+        }
+        final long now = _currentTimeMillis();
+        _updateDemand(now, false);
+        if ((now - _lastActivity) >= _idleMsecs) {
+            return trim(_maxReusableSegments);
+        }
+        return trim(_reuseLimit());
+    }
+
+    @Override
+    public synchronized int trim(int keepSegments)
+    {
+        int count = 0;
+        while (_reusableSegmentCount > keepSegments) {
+            S seg = _firstReusableSegment;
+            _firstReusableSegment = seg.getNext();
+            --_reusableSegmentCount;
+            _dispose(seg);
+            ++count;
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        _closed = true;
+        trim(0);
+        // waiters need to fail
+        _wakeWaiters();
+    }
+
+    /**
+     * @since 1.2.1
+     */
+    public synchronized boolean isClosed() {
+        return _closed;
     }
 
     /*
@@ -120,10 +525,122 @@ public abstract class SegmentAllocatorBase<S extends Segment<S>>
      */
 
     protected abstract S _allocateSegment();
+
+    /**
+     * Method called when segments may have become available, to wake up
+     * callers blocked in {@link #awaitSegments}, if any.
+     *
+     * @since 1.2.1
+     */
+    protected final void _wakeWaiters()
+    {
+        if (!_waiters.isEmpty()) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Method called to discard a segment that is not retained for reuse.
+     *
+     * @since 1.2.1
+     */
+    protected void _dispose(S seg)
+    {
+        seg.relink(null);
+        seg.dispose();
+        if (_quota != null) {
+            _quota.release(_quotaUnitsPerSegment);
+        }
+    }
+
+    /**
+     * Method for determining how many segments could be allocated without
+     * acquiring more quota; by default, number of segments retained for reuse.
+     *
+     * @since 1.2.1
+     */
+    protected int _segmentsWithQuota() {
+        return _reusableSegmentCount;
+    }
+
+    /**
+     * Method for determining maximum number of segments to retain for reuse.
+     *
+     * @since 1.2.1
+     */
+    protected int _reuseLimit()
+    {
+        if (_adaptiveMaxReusableSegments < 0) {
+            return _maxReusableSegments;
+        }
+        // enough to let buffers grow back to recent peak demand without allocation
+        int target = (int) Math.ceil(_demandAverage) - _bufferOwnedSegmentCount;
+        return Math.max(_maxReusableSegments, Math.min(target, _adaptiveMaxReusableSegments));
+    }
+
+    /**
+     * Method for updating moving average of segment demand, as well as time
+     * of last activity (if called due to allocation or release).
+     *
+     * @since 1.2.1
+     */
+    protected void _updateDemand(long now, boolean active)
+    {
+        final int owned = _bufferOwnedSegmentCount;
+        if (owned > _intervalPeak) {
+            _intervalPeak = owned;
+        }
+        final long elapsed = now - _intervalStart;
+        if (elapsed >= _demandSampleMsecs) {
+            // first sample is the peak of interval that just ended; any additional
+            // (idle) intervals only saw current number of owned segments
+            _demandAverage += DEMAND_SAMPLE_WEIGHT * (_intervalPeak - _demandAverage);
+            long idleSamples = Math.min(elapsed / _demandSampleMsecs - 1, 100L);
+            for (long i = 0; i < idleSamples; ++i) {
+                _demandAverage += DEMAND_SAMPLE_WEIGHT * (owned - _demandAverage);
+            }
+            _intervalStart = now - (elapsed % _demandSampleMsecs);
+            _intervalPeak = owned;
+        }
+        if (active) {
+            _lastActivity = now;
+        }
+    }
+
+    /**
+     * Accessor for current time; overridable for testing.
+     *
+     * @since 1.2.1
+     */
+    protected long _currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
     
     protected boolean _canAllocate(int count)
     {
         int available = _reusableSegmentCount + (_maxSegmentsToAllocate - _bufferOwnedSegmentCount);
         return (available >= count);
     }
+
+    /**
+     * Method for checking whether allocation of given number of segments
+     * for a buffer is allowed by fair-share policy (see {@link #fairShare}):
+     * only buffers below their fair share may use reserved segments.
+     *
+     * @param bufferSegments Number of segments buffer holds; -1 if not known
+     *
+     * @since 1.2.1
+     */
+    protected boolean _withinFairShare(int count, int bufferSegments, int bufferWeight)
+    {
+        if (_reservedSegments == 0) {
+            return true;
+        }
+        int available = _reusableSegmentCount + (_maxSegmentsToAllocate - _bufferOwnedSegmentCount);
+        if ((available - count) >= _reservedSegments) {
+            return true;
+        }
+        return (bufferSegments >= 0)
+                && ((long) bufferSegments + count) <= ((long) _fairShareSegments * bufferWeight);
+    }
 }
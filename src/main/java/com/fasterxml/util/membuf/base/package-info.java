@@ -1,6 +1,20 @@
 /**
 Intermediate typed base classes that offer partial implementations
 of API types and/or refinements, but do not fully implement them.
+<p>
+These are also the extension points for custom storage: new segment types
+are implemented by sub-classing {@link com.fasterxml.util.membuf.base.BytesSegment}
+(or {@link com.fasterxml.util.membuf.base.LongsSegment}), along with a
+{@link com.fasterxml.util.membuf.base.SegmentAllocatorBase} sub-class that
+implements <code>_allocateSegment()</code>; allocator is then passed to
+{@link com.fasterxml.util.membuf.MemBuffersForBytes} (or
+{@link com.fasterxml.util.membuf.MemBuffersForLongs}).
+Segments that hold native resources should release them in
+{@link com.fasterxml.util.membuf.Segment#dispose}, which allocators call
+for segments they do not retain for reuse.
+Since the library itself only requires Java 6, segment types that need newer
+JDK APIs (such as <code>java.lang.foreign.MemorySegment</code>) are best
+packaged separately, using the same extension points.
 */
 
 package com.fasterxml.util.membuf.base;
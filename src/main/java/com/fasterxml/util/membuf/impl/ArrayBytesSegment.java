@@ -1,5 +1,10 @@
 package com.fasterxml.util.membuf.impl;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+import com.fasterxml.util.membuf.EntryConsumer;
 import com.fasterxml.util.membuf.SegmentAllocator;
 import com.fasterxml.util.membuf.base.BytesSegment;
 import com.fasterxml.util.membuf.base.SegmentAllocatorBase;
@@ -15,6 +20,12 @@ public class ArrayBytesSegment extends BytesSegment
     protected int _appendPtr;
     
     protected int _readPtr;
+
+    /**
+     * Read-only view of the whole segment, passed to {@link EntryConsumer}s;
+     * lazily created and retained for the life-time of the segment.
+     */
+    protected ByteBuffer _consumeView;
     
     /*
     /**********************************************************************
@@ -81,7 +92,8 @@ public class ArrayBytesSegment extends BytesSegment
 
     @Override
     public int availableForReading() {
-        return _buffer.length - _readPtr;
+        // only content actually written is readable (segments may be finished before being full)
+        return _appendPtr - _readPtr;
     }
 
     /*
@@ -114,12 +126,55 @@ public class ArrayBytesSegment extends BytesSegment
         int actualLen = Math.min(length, availableForAppend());
         if (actualLen > 0) {
             int dst = _appendPtr;
-            _appendPtr += length;
+            _appendPtr += actualLen;
             System.arraycopy(src, offset, _buffer, dst, actualLen);
         }
         return actualLen;
     }
 
+    @Override
+    public int tryAppend(ByteBuffer src)
+    {
+        int actualLen = Math.min(src.remaining(), availableForAppend());
+        if (actualLen > 0) {
+            src.get(_buffer, _appendPtr, actualLen);
+            _appendPtr += actualLen;
+        }
+        return actualLen;
+    }
+
+    @Override
+    public int appendFrom(ReadableByteChannel channel, int maxLength) throws IOException
+    {
+        int count = channel.read(ByteBuffer.wrap(_buffer, _appendPtr,
+                Math.min(maxLength, availableForAppend())));
+        if (count > 0) {
+            _appendPtr += count;
+        }
+        return count;
+    }
+
+    /*
+    /**********************************************************************
+    /* Package methods, modifying appended data
+    /**********************************************************************
+     */
+
+    @Override
+    public int appendOffset() {
+        return _appendPtr;
+    }
+
+    @Override
+    public void overwrite(int offset, byte[] src, int srcOffset, int length) {
+        System.arraycopy(src, srcOffset, _buffer, offset, length);
+    }
+
+    @Override
+    public void truncate(int offset) {
+        _appendPtr = offset;
+    }
+
     /*
     /**********************************************************************
     /* Reading data
@@ -131,6 +186,38 @@ public class ArrayBytesSegment extends BytesSegment
         return _buffer[_readPtr++];
     }
     
+    @Override
+    public byte peek(int offset) {
+        return _buffer[offset];
+    }
+
+    @Override
+    public void peek(int segmentOffset, byte[] buffer, int offset, int length) {
+        System.arraycopy(_buffer, segmentOffset, buffer, offset, length);
+    }
+
+    @Override
+    public void rewindReading(int offset) {
+        _readPtr = offset;
+    }
+
+    @Override
+    public ByteBuffer contentView(int fromOffset, int toOffset) {
+        return ByteBuffer.wrap(_buffer, fromOffset, toOffset - fromOffset).asReadOnlyBuffer();
+    }
+
+    @Override
+    public int indexOf(byte value, int fromOffset, int toOffset)
+    {
+        final byte[] buf = _buffer;
+        for (int i = fromOffset; i < toOffset; ++i) {
+            if (buf[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     @Override
     public void read(byte[] buffer, int offset, int length)
     {
@@ -154,6 +241,25 @@ public class ArrayBytesSegment extends BytesSegment
         return length;
     }
     
+    @Override
+    public int tryConsume(EntryConsumer<? super ByteBuffer> consumer, int length)
+    {
+        length = Math.min(availableForReading(), length);
+        if (length > 0) {
+            ByteBuffer view = _consumeView;
+            if (view == null) {
+                _consumeView = view = ByteBuffer.wrap(_buffer).asReadOnlyBuffer();
+            }
+            final int offset = _readPtr;
+            view.clear();
+            view.position(offset);
+            view.limit(offset + length);
+            consumer.consume(view, offset, length);
+            _readPtr += length;
+        }
+        return length;
+    }
+
     @Override
     public int skip(int length)
     {
@@ -1,5 +1,8 @@
 package com.fasterxml.util.membuf.impl;
 
+import java.nio.LongBuffer;
+
+import com.fasterxml.util.membuf.EntryConsumer;
 import com.fasterxml.util.membuf.SegmentAllocator;
 import com.fasterxml.util.membuf.base.*;
 
@@ -14,6 +17,12 @@ public class ArrayLongsSegment extends LongsSegment
     protected int _appendPtr;
     
     protected int _readPtr;
+
+    /**
+     * Read-only view of the whole segment, passed to {@link EntryConsumer}s;
+     * lazily created and retained for the life-time of the segment.
+     */
+    protected LongBuffer _consumeView;
     
     /*
     /**********************************************************************
@@ -113,7 +122,7 @@ public class ArrayLongsSegment extends LongsSegment
         int actualLen = Math.min(length, availableForAppend());
         if (actualLen > 0) {
             int dst = _appendPtr;
-            _appendPtr += length;
+            _appendPtr += actualLen;
             System.arraycopy(src, offset, _buffer, dst, actualLen);
         }
         return actualLen;
@@ -129,6 +138,11 @@ public class ArrayLongsSegment extends LongsSegment
         return true;
     }
 
+    @Override
+    public int appendOffset() {
+        return _appendPtr;
+    }
+
     /*
     /**********************************************************************
     /* Reading data
@@ -173,6 +187,35 @@ public class ArrayLongsSegment extends LongsSegment
         return length;
     }
     
+    @Override
+    public int tryConsume(EntryConsumer<? super LongBuffer> consumer, int length)
+    {
+        length = Math.min(availableForReading(), length);
+        if (length > 0) {
+            LongBuffer view = _consumeView;
+            if (view == null) {
+                _consumeView = view = LongBuffer.wrap(_buffer).asReadOnlyBuffer();
+            }
+            final int offset = _readPtr;
+            view.clear();
+            view.position(offset);
+            view.limit(offset + length);
+            consumer.consume(view, offset, length);
+            _readPtr += length;
+        }
+        return length;
+    }
+
+    @Override
+    public void peek(int segmentOffset, long[] buffer, int offset, int length) {
+        System.arraycopy(_buffer, segmentOffset, buffer, offset, length);
+    }
+
+    @Override
+    public int readOffset() {
+        return _readPtr;
+    }
+
     @Override
     public int skip(int length)
     {
@@ -1,10 +1,13 @@
 package com.fasterxml.util.membuf.impl;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 
 import com.fasterxml.util.membuf.*;
 import com.fasterxml.util.membuf.base.BytesSegment;
 import com.fasterxml.util.membuf.base.SegmentAllocatorBase;
+import com.fasterxml.util.membuf.util.DirectMemory;
 
 /**
  * {@link Segment} implementation that uses {@link ByteBuffer}s for
@@ -31,9 +34,18 @@ public class ByteBufferBytesSegment extends BytesSegment
     /**
      * Wrapper buffer used for reading previously written content; wrapper
      * used to allow separate pointers for reading and writing content.
+     * Lazily created and (since 1.2.1) retained for the life-time of the
+     * segment, so that segment turnover does not allocate.
      */
     protected ByteBuffer _readBuffer;
 
+    /**
+     * Read-only view of the whole segment, passed to {@link EntryConsumer}s
+     * and used for peeking; lazily created and retained for the life-time
+     * of the segment.
+     */
+    protected ByteBuffer _consumeView;
+
     /*
     /**********************************************************************
     /* Life-cycle
@@ -49,6 +61,21 @@ public class ByteBufferBytesSegment extends BytesSegment
         _buffer = useDirect ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
     }
 
+    /**
+     * Constructor used by sub-classes that manage allocation of underlying
+     * buffers themselves.
+     *
+     * @param buffer Buffer to use for storage; position must be 0 and limit
+     *    equal to capacity
+     *
+     * @since 1.2.1
+     */
+    protected ByteBufferBytesSegment(ByteBuffer buffer)
+    {
+        super();
+        _buffer = buffer;
+    }
+
 
     /**
      * Factory method for construction {@link SegmentAllocatorBase} that
@@ -72,8 +99,11 @@ public class ByteBufferBytesSegment extends BytesSegment
     public BytesSegment initForReading()
     {
         super.initForReading();
-        _readBuffer = _buffer.asReadOnlyBuffer();
-        _readBuffer.clear();
+        ByteBuffer view = _readBuffer;
+        if (view == null) {
+            _readBuffer = view = _buffer.asReadOnlyBuffer();
+        }
+        view.clear();
         return this;
     }
 
@@ -81,10 +111,8 @@ public class ByteBufferBytesSegment extends BytesSegment
     public BytesSegment finishReading()
     {
         BytesSegment result = super.finishReading();
-        // clear write pointer for further reuse
+        // clear write pointer for further reuse (read-wrapper is reset when reused)
         _buffer.clear();
-        // and drop reference to read-wrapper:
-        _readBuffer = null;
         return result;
     }
 
@@ -96,9 +124,21 @@ public class ByteBufferBytesSegment extends BytesSegment
     @Override
     public void clear()
     {
-        _readBuffer = null; // could/should we just reset it instead?
         _buffer.clear(); // clear the write pointer
-        super.clear();
+        super.clear(); // which also resets read-wrapper
+    }
+
+    /**
+     * Releases native memory of the underlying buffer, if direct.
+     * Sub-classes that manage underlying buffers themselves should
+     * override this method as necessary.
+     */
+    @Override
+    public void dispose()
+    {
+        _readBuffer = null;
+        _consumeView = null;
+        DirectMemory.release(_buffer);
     }
 
     /*
@@ -114,10 +154,11 @@ public class ByteBufferBytesSegment extends BytesSegment
 
     @Override
     public int availableForReading() {
-        if (_readBuffer == null) { // sanity check...
-            throw new IllegalStateException("Method should not be called when _readBuffer is null");
+        if (_state != State.READING && _state != State.READING_AND_WRITING) { // sanity check...
+            throw new IllegalStateException("Method should not be called on segment with state "+_state);
         }
-        return _readBuffer.remaining();
+        // only content actually written is readable (segments may be finished before being full)
+        return _buffer.position() - _readBuffer.position();
     }
 
     /*
@@ -141,6 +182,19 @@ public class ByteBufferBytesSegment extends BytesSegment
         return actualLen;
     }
 
+    @Override
+    public int tryAppend(ByteBuffer src)
+    {
+        int actualLen = Math.min(src.remaining(), availableForAppend());
+        if (actualLen > 0) {
+            final int limit = src.limit();
+            src.limit(src.position() + actualLen);
+            _buffer.put(src);
+            src.limit(limit);
+        }
+        return actualLen;
+    }
+
     @Override
     public boolean tryAppend(byte value)
     {
@@ -151,6 +205,44 @@ public class ByteBufferBytesSegment extends BytesSegment
         return false;
     }
     
+    @Override
+    public int appendFrom(ReadableByteChannel channel, int maxLength) throws IOException
+    {
+        final ByteBuffer buf = _buffer;
+        final int limit = buf.limit();
+        buf.limit(buf.position() + Math.min(maxLength, buf.remaining()));
+        try {
+            return channel.read(buf);
+        } finally {
+            buf.limit(limit);
+        }
+    }
+
+    /*
+    /**********************************************************************
+    /* Package methods, modifying appended data
+    /**********************************************************************
+     */
+
+    @Override
+    public int appendOffset() {
+        return _buffer.position();
+    }
+
+    @Override
+    public void overwrite(int offset, byte[] src, int srcOffset, int length)
+    {
+        // no bulk absolute puts in JDK 6; but these are short (length prefixes)
+        for (int i = 0; i < length; ++i) {
+            _buffer.put(offset+i, src[srcOffset+i]);
+        }
+    }
+
+    @Override
+    public void truncate(int offset) {
+        _buffer.position(offset);
+    }
+
     /*
     /**********************************************************************
     /* Reading data
@@ -162,6 +254,49 @@ public class ByteBufferBytesSegment extends BytesSegment
         return _readBuffer.get();
     }
     
+    @Override
+    public byte peek(int offset) {
+        return _buffer.get(offset);
+    }
+
+    @Override
+    public void peek(int segmentOffset, byte[] buffer, int offset, int length)
+    {
+        ByteBuffer view = _consumeView;
+        if (view == null) {
+            _consumeView = view = _buffer.asReadOnlyBuffer();
+        }
+        view.clear();
+        view.position(segmentOffset);
+        view.get(buffer, offset, length);
+    }
+
+    @Override
+    public void rewindReading(int offset) {
+        _readBuffer.position(offset);
+    }
+
+    @Override
+    public ByteBuffer contentView(int fromOffset, int toOffset)
+    {
+        ByteBuffer view = _buffer.asReadOnlyBuffer();
+        view.limit(toOffset);
+        view.position(fromOffset);
+        return view;
+    }
+
+    @Override
+    public int indexOf(byte value, int fromOffset, int toOffset)
+    {
+        final ByteBuffer buf = _buffer;
+        for (int i = fromOffset; i < toOffset; ++i) {
+            if (buf.get(i) == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     @Override
     public void read(byte[] buffer, int offset, int length) {
         _readBuffer.get(buffer, offset, length);
@@ -177,6 +312,25 @@ public class ByteBufferBytesSegment extends BytesSegment
         return actualLen;
     }
     
+    @Override
+    public int tryConsume(EntryConsumer<? super ByteBuffer> consumer, int length)
+    {
+        int actualLen = Math.min(availableForReading(), length);
+        if (actualLen > 0) {
+            ByteBuffer view = _consumeView;
+            if (view == null) {
+                _consumeView = view = _buffer.asReadOnlyBuffer();
+            }
+            final int offset = _readBuffer.position();
+            view.clear();
+            view.position(offset);
+            view.limit(offset + actualLen);
+            consumer.consume(view, offset, actualLen);
+            _readBuffer.position(offset + actualLen);
+        }
+        return actualLen;
+    }
+
     @Override
     public int skip(int length)
     {
@@ -3,9 +3,11 @@ package com.fasterxml.util.membuf.impl;
 import java.nio.ByteBuffer;
 import java.nio.LongBuffer;
 
+import com.fasterxml.util.membuf.EntryConsumer;
 import com.fasterxml.util.membuf.Segment;
 import com.fasterxml.util.membuf.SegmentAllocator;
 import com.fasterxml.util.membuf.base.*;
+import com.fasterxml.util.membuf.util.DirectMemory;
 
 /**
  * {@link Segment} implementation that uses {@link LongBuffer}s for
@@ -29,12 +31,28 @@ public class ByteBufferLongsSegment extends LongsSegment
      */
     protected final LongBuffer _buffer;
 
+    /**
+     * Direct byte buffer that {@link #_buffer} is a view of, if segment
+     * uses native memory; needed for releasing memory.
+     *
+     * @since 1.2.1
+     */
+    protected final ByteBuffer _directBuffer;
+
     /**
      * Wrapper buffer used for reading previously written content; wrapper
      * used to allow separate pointers for reading and writing content.
+     * Lazily created and (since 1.2.1) retained for the life-time of the
+     * segment, so that segment turnover does not allocate.
      */
     protected LongBuffer _readBuffer;
 
+    /**
+     * Read-only view of the whole segment, passed to {@link EntryConsumer}s;
+     * lazily created and retained for the life-time of the segment.
+     */
+    protected LongBuffer _consumeView;
+
     /*
     /**********************************************************************
     /* Life-cycle
@@ -51,8 +69,10 @@ public class ByteBufferLongsSegment extends LongsSegment
          * Note: sizes are in units of primitive values; need to adjust:
          */
         if (useDirect) {
-            _buffer = ByteBuffer.allocateDirect(size << 3).asLongBuffer(); // * 8 since it's bytes
+            _directBuffer = ByteBuffer.allocateDirect(size << 3); // * 8 since it's bytes
+            _buffer = _directBuffer.asLongBuffer();
         } else {
+            _directBuffer = null;
             _buffer = LongBuffer.allocate(size);
         }
     }
@@ -79,8 +99,11 @@ public class ByteBufferLongsSegment extends LongsSegment
     public LongsSegment initForReading()
     {
         super.initForReading();
-        _readBuffer = _buffer.asReadOnlyBuffer();
-        _readBuffer.clear();
+        LongBuffer view = _readBuffer;
+        if (view == null) {
+            _readBuffer = view = _buffer.asReadOnlyBuffer();
+        }
+        view.clear();
         return this;
     }
 
@@ -88,10 +111,8 @@ public class ByteBufferLongsSegment extends LongsSegment
     public LongsSegment finishReading()
     {
         LongsSegment result = super.finishReading();
-        // clear write pointer for further reuse
+        // clear write pointer for further reuse (read-wrapper is reset when reused)
         _buffer.clear();
-        // and drop reference to read-wrapper:
-        _readBuffer = null;
         return result;
     }
 
@@ -103,9 +124,19 @@ public class ByteBufferLongsSegment extends LongsSegment
     @Override
     public void clear()
     {
-        _readBuffer = null; // could/should we just reset it instead?
         _buffer.clear(); // clear the write pointer
-        super.clear();
+        super.clear(); // which also resets read-wrapper
+    }
+
+    /**
+     * Releases native memory of the underlying buffer, if direct.
+     */
+    @Override
+    public void dispose()
+    {
+        _readBuffer = null;
+        _consumeView = null;
+        DirectMemory.release(_directBuffer);
     }
 
     /*
@@ -121,8 +152,8 @@ public class ByteBufferLongsSegment extends LongsSegment
 
     @Override
     public final int availableForReading() {
-        if (_readBuffer == null) { // sanity check...
-            throw new IllegalStateException("Method should not be called when _readBuffer is null");
+        if (_state != State.READING && _state != State.READING_AND_WRITING) { // sanity check...
+            throw new IllegalStateException("Method should not be called on segment with state "+_state);
         }
         return _readBuffer.remaining();
     }
@@ -157,6 +188,11 @@ public class ByteBufferLongsSegment extends LongsSegment
         }
         return false;
     }
+
+    @Override
+    public int appendOffset() {
+        return _buffer.position();
+    }
     
     /*
     /**********************************************************************
@@ -187,6 +223,42 @@ public class ByteBufferLongsSegment extends LongsSegment
         return actualLen;
     }
     
+    @Override
+    public int tryConsume(EntryConsumer<? super LongBuffer> consumer, int length)
+    {
+        int actualLen = Math.min(availableForReading(), length);
+        if (actualLen > 0) {
+            LongBuffer view = _consumeView;
+            if (view == null) {
+                _consumeView = view = _buffer.asReadOnlyBuffer();
+            }
+            final int offset = _readBuffer.position();
+            view.clear();
+            view.position(offset);
+            view.limit(offset + actualLen);
+            consumer.consume(view, offset, actualLen);
+            _readBuffer.position(offset + actualLen);
+        }
+        return actualLen;
+    }
+
+    @Override
+    public void peek(int segmentOffset, long[] buffer, int offset, int length)
+    {
+        LongBuffer view = _consumeView;
+        if (view == null) {
+            _consumeView = view = _buffer.asReadOnlyBuffer();
+        }
+        view.clear();
+        view.position(segmentOffset);
+        view.get(buffer, offset, length);
+    }
+
+    @Override
+    public int readOffset() {
+        return _readBuffer.position();
+    }
+
     @Override
     public int skip(int length)
     {
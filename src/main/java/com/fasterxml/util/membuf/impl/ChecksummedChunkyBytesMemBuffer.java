@@ -0,0 +1,562 @@
+package com.fasterxml.util.membuf.impl;
+
+import java.nio.ByteBuffer;
+
+import com.fasterxml.util.membuf.*;
+import com.fasterxml.util.membuf.base.BytesSegment;
+import com.fasterxml.util.membuf.util.CRC32C;
+
+/**
+ * {@link ChunkyBytesMemBuffer} implementation that stores a CRC-32C checksum
+ * of each entry right after its length prefix, and verifies it when entry
+ * is read. Since length prefixes are not affected, framing is retained even
+ * if entry contents get corrupted (for example, when segments are backed by
+ * files or shared memory); corrupt entries are either reported, by throwing
+ * an {@link IllegalStateException} (after removing entry), or silently
+ * skipped, depending on configuration. In both cases they are counted
+ * (see {@link #getCorruptEntryCount}).
+ *<p>
+ * Checksums are calculated over caller-provided arrays on append, and over
+ * result arrays (or segment fragments, for {@link #consumeNextEntry}) on read,
+ * so no additional copies are made. With {@link #consumeNextEntry},
+ * corrupt entries are skipped by verifying checksum before passing content
+ * to consumer (which requires another pass over content); if they are to
+ * be reported, content has already been passed to consumer by the time
+ * checksum is verified.
+ * Entries can not be built or read in place
+ * (see {@link #startEntryWriter} and {@link #getNextEntryReader}).
+ *
+ * @since 1.2.1
+ */
+public class ChecksummedChunkyBytesMemBuffer extends ChunkyBytesMemBufferImpl
+{
+    protected final static int CHECKSUM_LENGTH = 4;
+
+    /**
+     * Whether corrupt entries are skipped (true) or reported (false)
+     */
+    protected final boolean _skipCorrupt;
+
+    protected final CRC32C _checksum = new CRC32C();
+
+    protected final byte[] _checksumBuffer = new byte[CHECKSUM_LENGTH];
+
+    /**
+     * Consumer wrapper used for verifying entries passed to
+     * {@link #consumeNextEntry}; reset for each call
+     */
+    protected final VerifyingConsumer _verifyingConsumer = new VerifyingConsumer();
+
+    protected long _corruptEntryCount;
+
+    /**
+     * Verified payload of the peeked entry, if any (in which case
+     * {@link #_peekedEntry} contains the full entry)
+     */
+    protected byte[] _peekedPayload;
+
+    /*
+    /**********************************************************************
+    /* Life-cycle
+    /**********************************************************************
+     */
+
+    /**
+     * @param src Buffer to wrap; must be empty
+     * @param skipCorruptEntries Whether entries with checksum mismatch are
+     *   to be skipped (true), or reported by throwing an exception (false)
+     */
+    public ChecksummedChunkyBytesMemBuffer(ChunkyBytesMemBuffer src, boolean skipCorruptEntries)
+    {
+        super(src);
+        if (!isEmpty()) {
+            throw new IllegalArgumentException("Buffer to wrap must be empty (has "+getEntryCount()+" entries)");
+        }
+        _skipCorrupt = skipCorruptEntries;
+    }
+
+    /*
+    /**********************************************************************
+    /* Public API, simple statistics (not data) accessors
+    /**********************************************************************
+     */
+
+    @Override
+    public synchronized long getTotalPayloadLength() {
+        return super.getTotalPayloadLength() - (long) CHECKSUM_LENGTH * getEntryCount();
+    }
+
+    /**
+     * Accessor for number of entries that have failed checksum verification
+     */
+    public synchronized long getCorruptEntryCount() {
+        return _corruptEntryCount;
+    }
+
+    /*
+    /**********************************************************************
+    /* Public API, write (append)
+    /**********************************************************************
+     */
+
+    @Override
+    public synchronized boolean tryAppendEntry(byte[] data, int dataOffset, int dataLength)
+    {
+        _checksum.reset();
+        _checksum.update(data, dataOffset, dataLength);
+        final int crc = (int) _checksum.getValue();
+        final byte[] b = _checksumBuffer;
+        b[0] = (byte) (crc >> 24);
+        b[1] = (byte) (crc >> 16);
+        b[2] = (byte) (crc >> 8);
+        b[3] = (byte) crc;
+        return _tryAppendEntry(b, CHECKSUM_LENGTH, data, dataOffset, dataLength);
+    }
+
+    @Override
+    public synchronized BytesEntryWriter startEntryWriter() {
+        throw new IllegalStateException("Can not build entries in place for checksummed buffers");
+    }
+
+    /*
+    /**********************************************************************
+    /* Public API, reading
+    /**********************************************************************
+     */
+
+    @Override
+    public synchronized int getNextEntryLength()
+    {
+        if (_peekedPayload != null) {
+            return _peekedPayload.length;
+        }
+        int len = super.getNextEntryLength();
+        return (len < 0) ? len : Math.max(0, len - CHECKSUM_LENGTH);
+    }
+
+    @Override
+    public synchronized byte[] getNextEntry() throws InterruptedException
+    {
+        while (true) {
+            while (isEmpty()) {
+                _waitForData();
+            }
+            byte[] result = _getNextVerified();
+            if (result != null) {
+                return result;
+            }
+        }
+    }
+
+    @Override
+    public synchronized byte[] getNextEntryIfAvailable()
+    {
+        while (!isEmpty()) {
+            byte[] result = _getNextVerified();
+            if (result != null) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized byte[] getNextEntry(long timeoutMsecs) throws InterruptedException
+    {
+        final long end = System.currentTimeMillis() + timeoutMsecs;
+        while (_waitForEntry(end)) {
+            byte[] result = _getNextVerified();
+            if (result != null) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized int readNextEntry(byte[] buffer, int offset) throws InterruptedException
+    {
+        while (true) {
+            while (isEmpty()) {
+                _waitForData();
+            }
+            int result = _readNextVerified(buffer, offset);
+            if (result != Integer.MIN_VALUE) {
+                return result;
+            }
+        }
+    }
+
+    @Override
+    public synchronized int readNextEntryIfAvailable(byte[] buffer, int offset)
+    {
+        while (!isEmpty()) {
+            int result = _readNextVerified(buffer, offset);
+            if (result != Integer.MIN_VALUE) {
+                return result;
+            }
+        }
+        return Integer.MIN_VALUE;
+    }
+
+    @Override
+    public synchronized int readNextEntry(long timeoutMsecs, byte[] buffer, int offset)
+        throws InterruptedException
+    {
+        final long end = System.currentTimeMillis() + timeoutMsecs;
+        while (_waitForEntry(end)) {
+            int result = _readNextVerified(buffer, offset);
+            if (result != Integer.MIN_VALUE) {
+                return result;
+            }
+        }
+        return Integer.MIN_VALUE;
+    }
+
+    @Override
+    public synchronized BytesEntryReader getNextEntryReader() {
+        throw new IllegalStateException("Can not read entries in place from checksummed buffers");
+    }
+
+    @Override
+    public synchronized BytesEntryReader getNextEntryReaderIfAvailable() {
+        throw new IllegalStateException("Can not read entries in place from checksummed buffers");
+    }
+
+    @Override
+    public synchronized int skipNextEntry()
+    {
+        if (_peekedPayload != null) {
+            final int len = _peekedPayload.length;
+            _clearPeeked();
+            return len;
+        }
+        int len = super.skipNextEntry();
+        return (len < 0) ? len : Math.max(0, len - CHECKSUM_LENGTH);
+    }
+
+    @Override
+    public synchronized int consumeNextEntry(EntryConsumer<? super ByteBuffer> consumer)
+    {
+        if (_peekedPayload != null) {
+            final byte[] entry = _peekedPayload;
+            _clearPeeked();
+            if (entry.length > 0) {
+                consumer.consume(ByteBuffer.wrap(entry).asReadOnlyBuffer(), 0, entry.length);
+            }
+            return entry.length;
+        }
+        if (_skipCorrupt) {
+            if (_head == null) {
+                _reportClosed();
+            }
+            _verifyNoEntryReader();
+            // verify first, so that corrupt entries are never passed to consumer
+            while (true) {
+                if (_entryCount == 0) {
+                    return -1;
+                }
+                if (_verifyNextInPlace()) {
+                    break;
+                }
+                super.skipNextEntry();
+                ++_corruptEntryCount;
+            }
+        }
+        final VerifyingConsumer vc = _verifyingConsumer.reset(consumer, !_skipCorrupt);
+        final int len;
+        try {
+            len = super.consumeNextEntry(vc);
+        } finally { // no need to retain caller's consumer
+            vc._consumer = null;
+        }
+        if (len < 0) {
+            return len;
+        }
+        if (!_skipCorrupt && (len < CHECKSUM_LENGTH || vc.expected() != (int) _checksum.getValue())) {
+            ++_corruptEntryCount;
+            throw _corruptionException(len - CHECKSUM_LENGTH);
+        }
+        return len - CHECKSUM_LENGTH;
+    }
+
+    @Override
+    public synchronized byte[] peekNextEntry()
+    {
+        while (_peekedPayload == null) {
+            byte[] entry = super.peekNextEntry();
+            if (entry == null) {
+                return null;
+            }
+            if (entry.length >= CHECKSUM_LENGTH
+                    && _verify(_int(entry, 0), entry, CHECKSUM_LENGTH, entry.length - CHECKSUM_LENGTH)) {
+                byte[] payload = new byte[entry.length - CHECKSUM_LENGTH];
+                System.arraycopy(entry, CHECKSUM_LENGTH, payload, 0, payload.length);
+                _peekedPayload = payload;
+            } else {
+                _clearPeeked();
+                _reportCorrupt(entry.length - CHECKSUM_LENGTH);
+            }
+        }
+        return _peekedPayload;
+    }
+
+    /*
+    /**********************************************************************
+    /* Transfer handling
+    /**********************************************************************
+     */
+
+    @Override
+    protected int _transferEntriesTo(ChunkyBytesMemBuffer target, int maxEntries)
+    {
+        int count = 0;
+        // verified peeked entry can only be appended via regular append
+        if (_peekedPayload != null && maxEntries > 0) {
+            if (!target.tryAppendEntry(_peekedPayload)) {
+                return 0;
+            }
+            _clearPeeked();
+            ++count;
+        }
+        // and entries can only be moved as is to another checksummed buffer
+        if (!(target instanceof ChecksummedChunkyBytesMemBuffer)) {
+            return count + _copyEntriesTo(target, maxEntries - count);
+        }
+        return count + super._transferEntriesTo(target, maxEntries - count);
+    }
+
+    @Override
+    protected void _pushBackEntry(byte[] entry)
+    {
+        // full entry (with checksum) is needed as well, for snapshots and transfers
+        _checksum.reset();
+        _checksum.update(entry, 0, entry.length);
+        final int crc = (int) _checksum.getValue();
+        final byte[] full = new byte[CHECKSUM_LENGTH + entry.length];
+        full[0] = (byte) (crc >> 24);
+        full[1] = (byte) (crc >> 16);
+        full[2] = (byte) (crc >> 8);
+        full[3] = (byte) crc;
+        System.arraycopy(entry, 0, full, CHECKSUM_LENGTH, entry.length);
+        super._pushBackEntry(full);
+        _peekedPayload = entry;
+    }
+
+    @Override
+    protected boolean _acceptsDirectTransfer(ChunkyBytesMemBufferImpl src) {
+        return (src instanceof ChecksummedChunkyBytesMemBuffer);
+    }
+
+    @Override
+    protected void _clearPeeked() {
+        super._clearPeeked();
+        _peekedPayload = null;
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods
+    /**********************************************************************
+     */
+
+    /**
+     * Method for reading and verifying the next entry, if any
+     *
+     * @return Payload of the entry, if entry is valid; null if it was skipped
+     */
+    protected byte[] _getNextVerified()
+    {
+        if (_peekedPayload != null) {
+            final byte[] result = _peekedPayload;
+            _clearPeeked();
+            return result;
+        }
+        final BytesEntryReader r = super.getNextEntryReaderIfAvailable();
+        try {
+            final int len = r.getLength() - CHECKSUM_LENGTH;
+            if (len < 0) {
+                _reportCorrupt(len);
+                return null;
+            }
+            final int expected = r.readInt();
+            final byte[] result = new byte[len];
+            r.readFully(result, 0, len);
+            if (_verify(expected, result, 0, len)) {
+                return result;
+            }
+            _reportCorrupt(len);
+            return null;
+        } finally {
+            r.close();
+        }
+    }
+
+    /**
+     * Method for reading and verifying the next entry (caller must verify
+     * there is one) into given buffer
+     *
+     * @return Length of the entry if valid; negative length if buffer did
+     *   not have enough room; and <code>Integer.MIN_VALUE</code> if entry was skipped
+     */
+    protected int _readNextVerified(byte[] buffer, int offset)
+    {
+        final int end = buffer.length;
+        if (offset >= end || offset < 0) {
+            throw new IllegalArgumentException("Illegal offset ("+offset+"): allowed values [0, "+end+"[");
+        }
+        final int len = getNextEntryLength();
+        if (len > (end - offset)) {
+            return -len;
+        }
+        if (_peekedPayload != null) {
+            System.arraycopy(_peekedPayload, 0, buffer, offset, len);
+            _clearPeeked();
+            return len;
+        }
+        final BytesEntryReader r = super.getNextEntryReaderIfAvailable();
+        try {
+            if (r.getLength() < CHECKSUM_LENGTH) {
+                _reportCorrupt(r.getLength() - CHECKSUM_LENGTH);
+                return Integer.MIN_VALUE;
+            }
+            final int expected = r.readInt();
+            r.readFully(buffer, offset, len);
+            if (_verify(expected, buffer, offset, len)) {
+                return len;
+            }
+            _reportCorrupt(len);
+            return Integer.MIN_VALUE;
+        } finally {
+            r.close();
+        }
+    }
+
+    /**
+     * Method for verifying checksum of the next entry (caller must verify
+     * there is one) without consuming it, over views of segment content.
+     * Length prefix of the entry is read, if not yet read.
+     *
+     * @return True if checksum matches; false if not
+     */
+    protected boolean _verifyNextInPlace()
+    {
+        final int len = _rawNextEntryLength();
+        if (len < CHECKSUM_LENGTH) {
+            return false;
+        }
+        BytesSegment seg = _tail;
+        int offset = seg.appendOffset() - seg.availableForReading();
+        int expected = 0;
+        int checksumBytes = 0;
+        _checksum.reset();
+        for (int left = len; left > 0; ) {
+            final int avail = seg.appendOffset() - offset;
+            if (avail == 0) {
+                seg = seg.getNext();
+                offset = 0;
+                continue;
+            }
+            int count = Math.min(avail, left);
+            left -= count;
+            while (checksumBytes < CHECKSUM_LENGTH && count > 0) {
+                expected = (expected << 8) | (seg.peek(offset++) & 0xFF);
+                ++checksumBytes;
+                --count;
+            }
+            if (count > 0) {
+                final ByteBuffer view = seg.contentView(offset, offset + count);
+                _checksum.update(view, view.position(), count);
+                offset += count;
+            }
+        }
+        return expected == (int) _checksum.getValue();
+    }
+
+    /**
+     * Helper method for waiting until there is an entry to read, or
+     * given end time is reached.
+     */
+    protected boolean _waitForEntry(long endTime) throws InterruptedException
+    {
+        while (isEmpty()) {
+            long now = System.currentTimeMillis();
+            if (now >= endTime) {
+                return false;
+            }
+            _waitForData(endTime - now);
+        }
+        return true;
+    }
+
+    protected boolean _verify(int expected, byte[] data, int offset, int length)
+    {
+        _checksum.reset();
+        _checksum.update(data, offset, length);
+        return expected == (int) _checksum.getValue();
+    }
+
+    protected void _reportCorrupt(int length)
+    {
+        ++_corruptEntryCount;
+        if (!_skipCorrupt) {
+            throw _corruptionException(length);
+        }
+    }
+
+    protected IllegalStateException _corruptionException(int length) {
+        return new IllegalStateException("Corrupt entry (of "+length+" bytes): checksum mismatch; entry discarded");
+    }
+
+    protected final static int _int(byte[] b, int offset) {
+        return (b[offset] << 24) | ((b[offset+1] & 0xFF) << 16)
+                | ((b[offset+2] & 0xFF) << 8) | (b[offset+3] & 0xFF);
+    }
+
+    /**
+     * {@link EntryConsumer} wrapper that strips the checksum from the
+     * beginning of entry, and calculates checksum over the rest (unless
+     * already verified), before passing fragments to actual consumer.
+     */
+    protected class VerifyingConsumer implements EntryConsumer<ByteBuffer>
+    {
+        protected EntryConsumer<? super ByteBuffer> _consumer;
+
+        protected boolean _verify;
+
+        protected int _expected;
+
+        protected int _checksumBytes;
+
+        public VerifyingConsumer reset(EntryConsumer<? super ByteBuffer> consumer, boolean verify) {
+            _consumer = consumer;
+            _verify = verify;
+            _expected = 0;
+            _checksumBytes = 0;
+            _checksum.reset();
+            return this;
+        }
+
+        public int expected() {
+            return _expected;
+        }
+
+        @Override
+        public void consume(ByteBuffer segmentView, int offset, int length)
+        {
+            while (_checksumBytes < CHECKSUM_LENGTH && length > 0) {
+                _expected = (_expected << 8) | (segmentView.get(offset) & 0xFF);
+                ++_checksumBytes;
+                ++offset;
+                --length;
+            }
+            if (length > 0) {
+                if (_verify) {
+                    _checksum.update(segmentView, offset, length);
+                }
+                segmentView.position(offset);
+                _consumer.consume(segmentView, offset, length);
+            }
+        }
+    }
+}
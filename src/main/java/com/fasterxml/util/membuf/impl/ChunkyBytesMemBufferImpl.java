@@ -1,5 +1,12 @@
 package com.fasterxml.util.membuf.impl;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
 import com.fasterxml.util.membuf.*;
 import com.fasterxml.util.membuf.base.BytesSegment;
 
@@ -26,6 +33,12 @@ import com.fasterxml.util.membuf.base.BytesSegment;
 public class ChunkyBytesMemBufferImpl extends ChunkyBytesMemBuffer
 {
     private final static byte[] EMPTY_PAYLOAD = new byte[0];
+
+    /**
+     * Lock used for ordering locking of buffers for entry transfers, in the
+     * rare case where buffers have same identity hash code.
+     */
+    private final static Object TRANSFER_TIE_LOCK = new Object();
     
     /*
     /**********************************************************************
@@ -39,6 +52,24 @@ public class ChunkyBytesMemBufferImpl extends ChunkyBytesMemBuffer
      * where last byte is indicated by set sign bit.
      */
     protected final byte[] _lengthPrefixBuffer = new byte[5];
+
+    /*
+    /**********************************************************************
+    /* In-place entry access
+    /**********************************************************************
+     */
+
+    /**
+     * Writer used for building entries in place; lazily constructed
+     * and reused.
+     */
+    protected EntryWriterImpl _entryWriter;
+
+    /**
+     * Reader used for reading entries in place; lazily constructed
+     * and reused.
+     */
+    protected EntryReaderImpl _entryReader;
     
     /*
     /**********************************************************************
@@ -87,8 +118,10 @@ public class ChunkyBytesMemBufferImpl extends ChunkyBytesMemBuffer
     }
 
     @Override
-    public void appendEntry(byte[] data, int dataOffset, int dataLength)
+    public synchronized void appendEntry(byte[] data, int dataOffset, int dataLength)
     {
+        // entry being built in place (by another thread) must be completed first
+        _waitForNoEntryWriter();
         if (!tryAppendEntry(data, dataOffset, dataLength)) {
             throw new IllegalStateException("Not enough room in buffer to append entry of "+dataLength
                     +" (can't allocate enough new segments)");
@@ -101,19 +134,40 @@ public class ChunkyBytesMemBufferImpl extends ChunkyBytesMemBuffer
     }
 
     @Override
-    public synchronized boolean tryAppendEntry(byte[] data, int dataOffset, int dataLength)
+    public synchronized boolean tryAppendEntry(byte[] data, int dataOffset, int dataLength) {
+        return _tryAppendEntry(null, 0, data, dataOffset, dataLength);
+    }
+
+    /**
+     * Method for appending an entry, optionally preceded by a header that
+     * is included in the entry (and its length prefix). Header is used by
+     * sub-classes that store metadata with entries; caller must hold
+     * the lock.
+     *
+     * @since 1.2.1
+     */
+    protected boolean _tryAppendEntry(byte[] header, int headerLength,
+            byte[] data, int dataOffset, int dataLength)
     {
         if (_head == null) {
             _reportClosed();
         }
+        // no room for other entries while one is being built in place
+        if (_hasEntryWriter()) {
+            return false;
+        }
         
         // first, calculate total size (length prefix + payload)
-        int prefixLength = _calcLengthPrefix(_lengthPrefixBuffer, dataLength);
+        final int entryLength = headerLength + dataLength;
+        int prefixLength = _calcLengthPrefix(_lengthPrefixBuffer, entryLength);
         int freeInCurrent = _head.availableForAppend();
-        int totalLength = (dataLength + prefixLength);
+        int totalLength = (entryLength + prefixLength);
         // First, simple case: can fit it in the current buffer?
         if (freeInCurrent >= totalLength) {
             _head.append(_lengthPrefixBuffer, 0, prefixLength);
+            if (headerLength > 0) {
+                _head.append(header, 0, headerLength);
+            }
             _head.append(data, dataOffset, dataLength);
         } else {
             // if not, must check whether we could allocate enough segments to fit in
@@ -127,7 +181,7 @@ public class ChunkyBytesMemBufferImpl extends ChunkyBytesMemBuffer
                     return false;
                 }
                 // if we are, let's try allocate: will be added to "free" segments first, then used
-                BytesSegment newFree = _segmentAllocator.allocateSegments(segmentsToAlloc, _firstFreeSegment);
+                BytesSegment newFree = _allocateSegments(segmentsToAlloc, _firstFreeSegment);
                 if (newFree == null) {
                     return false;
                 }
@@ -138,9 +192,10 @@ public class ChunkyBytesMemBufferImpl extends ChunkyBytesMemBuffer
             // and if we got this far, it's just simple matter of writing pieces into segments
             // first length prefix
             _doAppendChunked(_lengthPrefixBuffer, 0, prefixLength);
+            _doAppendChunked(header, 0, headerLength);
             _doAppendChunked(data, dataOffset, dataLength);
         }
-        _totalPayloadLength += dataLength;        
+        _totalPayloadLength += entryLength;
         if (++_entryCount == 1) {
             this.notifyAll();
         }
@@ -169,6 +224,45 @@ public class ChunkyBytesMemBufferImpl extends ChunkyBytesMemBuffer
         }
     }
 
+    /**
+     * Variant of {@link #_doAppendChunked(byte[], int, int)} that appends
+     * remaining content of given buffer.
+     */
+    protected void _doAppendChunked(ByteBuffer buffer)
+    {
+        BytesSegment seg = _head;
+        while (true) {
+            seg.tryAppend(buffer);
+            if (!buffer.hasRemaining()) {
+                return;
+            }
+            seg.finishWriting();
+            BytesSegment newSeg = _reuseFree().initForWriting();
+            seg.relink(newSeg);
+            _head = seg = newSeg;
+        }
+    }
+
+    @Override
+    public synchronized BytesEntryWriter startEntryWriter()
+    {
+        _waitForNoEntryWriter();
+        if (_head == null) {
+            _reportClosed();
+        }
+        if (_entryWriter == null) {
+            _entryWriter = new EntryWriterImpl();
+        }
+        // Need at least one byte of room for prefix to start in the current segment
+        if (_head.availableForAppend() == 0) {
+            if (!_addHeadSegment(true)) {
+                throw new IllegalStateException("Not enough room in buffer to start an entry (can't allocate enough new segments)");
+            }
+        }
+        _entryWriter._start();
+        return _entryWriter;
+    }
+
     /*
     /**********************************************************************
     /* Public API, reading
@@ -181,6 +275,13 @@ public class ChunkyBytesMemBufferImpl extends ChunkyBytesMemBuffer
         if (_head == null) {
             _reportClosed();
         }
+        _verifyNoEntryReader();
+        return _rawNextEntryLength();
+    }
+
+    @Override
+    protected int _rawNextEntryLength()
+    {
         if (_peekedEntry != null) {
             return _peekedEntry.length;
         }
@@ -200,6 +301,7 @@ public class ChunkyBytesMemBufferImpl extends ChunkyBytesMemBuffer
         if (_head == null) {
             _reportClosed();
         }
+        _verifyNoEntryReader();
         if (_peekedEntry != null) {
             byte[] result = _peekedEntry;
             _peekedEntry = null;
@@ -218,6 +320,7 @@ public class ChunkyBytesMemBufferImpl extends ChunkyBytesMemBuffer
         if (_head == null) {
             _reportClosed();
         }
+        _verifyNoEntryReader();
         if (_peekedEntry != null) {
             byte[] result = _peekedEntry;
             _peekedEntry = null;
@@ -235,6 +338,7 @@ public class ChunkyBytesMemBufferImpl extends ChunkyBytesMemBuffer
         if (_head == null) {
             _reportClosed();
         }
+        _verifyNoEntryReader();
         if (_peekedEntry != null) {
             byte[] result = _peekedEntry;
             _peekedEntry = null;
@@ -261,6 +365,7 @@ public class ChunkyBytesMemBufferImpl extends ChunkyBytesMemBuffer
         if (_head == null) {
             _reportClosed();
         }
+        _verifyNoEntryReader();
         if (_peekedEntry != null) {
             return _doReadPeekedEntry(buffer, offset);
         }        
@@ -278,6 +383,7 @@ public class ChunkyBytesMemBufferImpl extends ChunkyBytesMemBuffer
         if (_head == null) {
             _reportClosed();
         }
+        _verifyNoEntryReader();
         if (_entryCount == 0) {
             return Integer.MIN_VALUE;
         }
@@ -291,6 +397,7 @@ public class ChunkyBytesMemBufferImpl extends ChunkyBytesMemBuffer
         if (_head == null) {
             _reportClosed();
         }
+        _verifyNoEntryReader();
         if (_entryCount > 0) {
             return _doReadNext(buffer, offset);
         }
@@ -306,6 +413,395 @@ public class ChunkyBytesMemBufferImpl extends ChunkyBytesMemBuffer
         return Integer.MIN_VALUE;
     }
 
+    @Override
+    public synchronized BytesEntryReader getNextEntryReader() throws InterruptedException
+    {
+        if (_head == null) {
+            _reportClosed();
+        }
+        _verifyNoEntryReader();
+        // first: must have something to return
+        while (_entryCount == 0 && _peekedEntry == null) {
+            _waitForData();
+        }
+        return _startEntryReader();
+    }
+
+    @Override
+    public synchronized BytesEntryReader getNextEntryReaderIfAvailable()
+    {
+        if (_head == null) {
+            _reportClosed();
+        }
+        _verifyNoEntryReader();
+        if (_entryCount == 0 && _peekedEntry == null) {
+            return null;
+        }
+        return _startEntryReader();
+    }
+
+    @Override
+    public synchronized int skipNextEntry()
+    {
+        if (_head == null) {
+            _reportClosed();
+        }
+        _verifyNoEntryReader();
+        return super.skipNextEntry();
+    }
+
+    @Override
+    public synchronized int consumeNextEntry(EntryConsumer<? super ByteBuffer> consumer)
+    {
+        if (_head == null) {
+            _reportClosed();
+        }
+        _verifyNoEntryReader();
+        if (_peekedEntry != null) {
+            byte[] entry = _peekedEntry;
+            _peekedEntry = null;
+            if (entry.length > 0) {
+                consumer.consume(ByteBuffer.wrap(entry).asReadOnlyBuffer(), 0, entry.length);
+            }
+            return entry.length;
+        }
+        if (_entryCount == 0) {
+            return -1;
+        }
+        final int segLen = _rawNextEntryLength();
+        // ensure length indicator gets reset for chunk after this one
+        _nextEntryLength = -1;
+        --_entryCount;
+        _totalPayloadLength -= segLen;
+
+        int remaining = segLen;
+        String error = null;
+        try {
+            while (remaining > 0) {
+                remaining -= _tail.tryConsume(consumer, remaining);
+                if (remaining == 0) {
+                    break;
+                }
+                error = _freeReadSegment(error);
+            }
+        } finally {
+            // if consumer failed, need to skip the rest to keep entry boundaries intact
+            while (remaining > 0) {
+                remaining -= _tail.skip(remaining);
+                if (remaining == 0) {
+                    break;
+                }
+                error = _freeReadSegment(error);
+            }
+        }
+        if (error != null) {
+            throw new IllegalStateException(error);
+        }
+        return segLen;
+    }
+
+    /*
+    /**********************************************************************
+    /* Public API, transferring entries
+    /**********************************************************************
+     */
+
+    @Override
+    public int transferEntriesTo(ChunkyBytesMemBuffer target, int maxEntries)
+    {
+        if (target == this) {
+            throw new IllegalArgumentException("Can not transfer entries to the buffer itself");
+        }
+        // Need to lock both buffers; must do that in consistent order to avoid deadlocks
+        final int thisHash = System.identityHashCode(this);
+        final int targetHash = System.identityHashCode(target);
+        if (thisHash < targetHash) {
+            synchronized (this) {
+                synchronized (target) {
+                    return _transferEntriesTo(target, maxEntries);
+                }
+            }
+        }
+        if (thisHash > targetHash) {
+            synchronized (target) {
+                synchronized (this) {
+                    return _transferEntriesTo(target, maxEntries);
+                }
+            }
+        }
+        synchronized (TRANSFER_TIE_LOCK) {
+            synchronized (this) {
+                synchronized (target) {
+                    return _transferEntriesTo(target, maxEntries);
+                }
+            }
+        }
+    }
+
+    /**
+     * Actual transfer method, called with locks of both buffers held.
+     */
+    protected int _transferEntriesTo(ChunkyBytesMemBuffer target, int maxEntries)
+    {
+        if (_head == null) {
+            _reportClosed();
+        }
+        _verifyNoEntryReader();
+        // Segments can only be handed over if both buffers use the same allocator
+        if (!(target instanceof ChunkyBytesMemBufferImpl)
+                || ((ChunkyBytesMemBufferImpl) target)._segmentAllocator != _segmentAllocator
+                || !((ChunkyBytesMemBufferImpl) target)._acceptsDirectTransfer(this)) {
+            return _copyEntriesTo(target, maxEntries);
+        }
+        final ChunkyBytesMemBufferImpl dst = (ChunkyBytesMemBufferImpl) target;
+        if (dst._head == null) {
+            dst._reportClosed();
+        }
+        if (dst._hasEntryWriter()) { // no room until entry being built is completed
+            return 0;
+        }
+        int count = 0;
+        // peeked entry only exists as a copy, so need to append as such
+        if (_peekedEntry != null && maxEntries > 0) {
+            if (!dst.tryAppendEntry(_peekedEntry)) {
+                return 0;
+            }
+            _peekedEntry = null;
+            ++count;
+        }
+        // and if target does not have room for all entries, try with fewer
+        for (int n = Math.min(maxEntries - count, _entryCount); n > 0; n >>= 1) {
+            if (_tryTransfer(dst, n)) {
+                return count + n;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Method called on target buffer of an entry transfer, to check whether
+     * segments may be directly appended to it from given source buffer,
+     * bypassing regular append methods.
+     * Sub-classes that need to intercept appends should override this method.
+     *
+     * @since 1.2.1
+     */
+    protected boolean _acceptsDirectTransfer(ChunkyBytesMemBufferImpl src) {
+        return true;
+    }
+
+    /**
+     * Fallback method used for transferring entries by copying them
+     * one by one, when segments can not be handed over.
+     * Entries are consumed into a single (reused) array; if target does
+     * not accept an entry, it is pushed back as the next entry to read.
+     */
+    protected int _copyEntriesTo(ChunkyBytesMemBuffer target, int maxEntries)
+    {
+        final EntryCollector collector = new EntryCollector();
+        int count = 0;
+        while (count < maxEntries) {
+            collector.reset();
+            final int len = _consumeForCopy(collector);
+            if (len < 0) {
+                break;
+            }
+            if (!target.tryAppendEntry(collector.buffer(), 0, len)) {
+                _pushBackEntry(Arrays.copyOf(collector.buffer(), len));
+                break;
+            }
+            ++count;
+        }
+        return count;
+    }
+
+    /**
+     * Method called by {@link #_copyEntriesTo} to consume the next entry
+     * into given collector.
+     *
+     * @return Length of the entry consumed; negative if there was none
+     *
+     * @since 1.2.1
+     */
+    protected int _consumeForCopy(EntryCollector collector) {
+        return consumeNextEntry(collector);
+    }
+
+    /**
+     * Method called by {@link #_copyEntriesTo} to return an entry (that was
+     * consumed, but could not be copied) as the next entry to read.
+     *
+     * @since 1.2.1
+     */
+    protected void _pushBackEntry(byte[] entry) {
+        _peekedEntry = entry;
+    }
+
+    /**
+     * Helper method that will move given number of entries (caller has
+     * ensured there are enough) into target buffer that uses the same
+     * allocator, if target has enough room. Segments completely covered
+     * by entries are relinked into target; only partially covered segments
+     * at either end are copied.
+     *
+     * @return True if entries were transferred; false if target did not have enough room
+     */
+    private boolean _tryTransfer(ChunkyBytesMemBufferImpl dst, final int entries)
+    {
+        // First things first: find where the last entry ends, without consuming anything
+        final BytesSegment first = _tail;
+        final int firstOffset = first.appendOffset() - first.availableForReading();
+        BytesSegment seg = first;
+        int offset = firstOffset;
+        long payload = 0L;
+        for (int i = 0; i < entries; ++i) {
+            int len;
+            if (i == 0 && _nextEntryLength >= 0) { // length prefix already read
+                len = _nextEntryLength;
+            } else {
+                len = 0;
+                while (true) {
+                    if (offset == seg.appendOffset()) {
+                        seg = seg.getNext();
+                        offset = 0;
+                    }
+                    byte b = seg.peek(offset++);
+                    len = (len << 7) + (b & 0x7F);
+                    if (b < 0) { // last byte has sign bit set
+                        break;
+                    }
+                }
+            }
+            payload += len;
+            while (len > 0) {
+                int avail = seg.appendOffset() - offset;
+                if (avail == 0) {
+                    seg = seg.getNext();
+                    offset = 0;
+                    continue;
+                }
+                int count = Math.min(avail, len);
+                offset += count;
+                len -= count;
+            }
+        }
+        final BytesSegment last = seg;
+        final int lastOffset = offset;
+
+        // Segments between first and last are fully covered; last one too if
+        // entries end right at its end, unless it is the head (which must stay)
+        BytesSegment lastRelinked = null;
+        int relinkCount = 0;
+        int copyFirst, copyLast;
+        if (last == first) {
+            copyFirst = lastOffset - firstOffset;
+            copyLast = 0;
+        } else {
+            for (BytesSegment s = first.getNext(); s != last; s = s.getNext()) {
+                lastRelinked = s;
+                ++relinkCount;
+            }
+            copyFirst = first.appendOffset() - firstOffset;
+            if (last != _head && lastOffset == last.appendOffset()) {
+                lastRelinked = last;
+                ++relinkCount;
+                copyLast = 0;
+            } else {
+                copyLast = lastOffset;
+            }
+        }
+        // if length prefix of the first entry was already read, must re-create it
+        final int prefixLength = (_nextEntryLength < 0) ? 0
+                : _calcLengthPrefix(_lengthPrefixBuffer, _nextEntryLength);
+
+        // Then see how many new segments target needs for copied parts
+        final int freeInCurrent = dst._head.availableForAppend();
+        int neededSegments;
+        if (relinkCount == 0) {
+            neededSegments = _segmentsFor(prefixLength + copyFirst + copyLast - freeInCurrent);
+        } else { // need new head segment after relinked ones, even if nothing is copied there
+            neededSegments = _segmentsFor(prefixLength + copyFirst - freeInCurrent)
+                    + Math.max(1, _segmentsFor(copyLast));
+        }
+        int segmentsToAlloc = Math.max(0, neededSegments - dst._freeSegmentCount);
+        if ((dst._usedSegmentsCount + dst._freeSegmentCount + segmentsToAlloc + relinkCount)
+                > dst._maxSegmentsToAllocate) {
+            return false;
+        }
+        if (segmentsToAlloc > 0) {
+            BytesSegment newFree = dst._allocateSegments(segmentsToAlloc, dst._firstFreeSegment);
+            if (newFree == null) {
+                return false;
+            }
+            dst._freeSegmentCount += segmentsToAlloc;
+            dst._firstFreeSegment = newFree;
+        }
+
+        // Good, can proceed: nothing can fail from this point on
+        if (prefixLength > 0) {
+            dst._doAppendChunked(_lengthPrefixBuffer, 0, prefixLength);
+        }
+        _nextEntryLength = -1;
+        String error = null;
+        if (relinkCount == 0) {
+            error = _copyTo(dst, copyFirst + copyLast, error);
+        } else {
+            error = _copyTo(dst, copyFirst, error);
+            // detach fully covered segments from this buffer...
+            final BytesSegment firstRelinked = first.getNext();
+            first.relink(lastRelinked.getNext());
+            lastRelinked.relink(null);
+            _usedSegmentsCount -= relinkCount;
+            // ... and append after target's head; which is completed even if not full
+            BytesSegment dstHead = dst._head;
+            dstHead.finishWriting();
+            dstHead.relink(firstRelinked);
+            dst._usedSegmentsCount += relinkCount;
+            BytesSegment newHead = dst._reuseFree().initForWriting();
+            lastRelinked.relink(newHead);
+            // and finally copy whatever is in the last, partially covered segment
+            error = _copyTo(dst, copyLast, error);
+        }
+        _entryCount -= entries;
+        _totalPayloadLength -= payload;
+        dst._totalPayloadLength += payload;
+        final int oldCount = dst._entryCount;
+        dst._entryCount += entries;
+        if (oldCount == 0) {
+            dst.notifyAll();
+        }
+        if (error != null) {
+            throw new IllegalStateException(error);
+        }
+        return true;
+    }
+
+    /**
+     * Helper method for copying given number of raw bytes from this buffer
+     * into target buffer, directly from segment to segment; target must
+     * have enough room.
+     */
+    private String _copyTo(ChunkyBytesMemBufferImpl dst, int length, String error)
+    {
+        while (length > 0) {
+            final BytesSegment seg = _tail;
+            final int count = Math.min(seg.availableForReading(), length);
+            if (count == 0) {
+                error = _freeReadSegment(error);
+                continue;
+            }
+            final int from = seg.appendOffset() - seg.availableForReading();
+            dst._doAppendChunked(seg.contentView(from, from + count));
+            seg.skip(count);
+            length -= count;
+        }
+        return error;
+    }
+
+    private int _segmentsFor(int length) {
+        return (length <= 0) ? 0 : (length + (_segmentSize-1)) / _segmentSize;
+    }
+
     /*
     /**********************************************************************
     /* Public API, peeking
@@ -318,6 +814,7 @@ public class ChunkyBytesMemBufferImpl extends ChunkyBytesMemBuffer
         if (_head == null) {
             _reportClosed();
         }
+        _verifyNoEntryReader();
         if (_peekedEntry == null) {
             if (_entryCount < 1) {
                 return null;
@@ -326,13 +823,192 @@ public class ChunkyBytesMemBufferImpl extends ChunkyBytesMemBuffer
         }
         return _peekedEntry;
     }
-    
+
+    /*
+    /**********************************************************************
+    /* Public API, snapshots
+    /**********************************************************************
+     */
+
+    @Override
+    public synchronized long snapshotTo(WritableByteChannel channel) throws IOException
+    {
+        if (_head == null) {
+            _reportClosed();
+        }
+        _verifyNoEntryReader();
+        _verifyNoEntryWriter();
+        ArrayList<ByteBuffer> views = new ArrayList<ByteBuffer>(_usedSegmentsCount + 2);
+        int entries = _entryCount;
+        long payload = _totalPayloadLength;
+        // peeked entry only exists as a copy; and length prefix of the next entry
+        // may have been read already: both need to be re-encoded
+        if (_peekedEntry != null) {
+            byte[] prefix = new byte[5];
+            views.add(ByteBuffer.wrap(prefix, 0, _calcLengthPrefix(prefix, _peekedEntry.length)));
+            views.add(ByteBuffer.wrap(_peekedEntry));
+            ++entries;
+            payload += _peekedEntry.length;
+        }
+        if (_nextEntryLength >= 0) {
+            byte[] prefix = new byte[5];
+            views.add(ByteBuffer.wrap(prefix, 0, _calcLengthPrefix(prefix, _nextEntryLength)));
+        }
+        // and rest is raw segment content
+        BytesSegment seg = _tail;
+        int from = seg.appendOffset() - seg.availableForReading();
+        while (true) {
+            int to = seg.appendOffset();
+            if (to > from) {
+                views.add(seg.contentView(from, to));
+            }
+            if (seg == _head) {
+                break;
+            }
+            seg = seg.getNext();
+            from = 0;
+        }
+        long contentLength = 0L;
+        for (ByteBuffer view : views) {
+            contentLength += view.remaining();
+        }
+        _writeSnapshotHeader(channel, SNAPSHOT_TYPE_CHUNKY_BYTES, entries, payload, contentLength);
+        _writeFully(channel, views.toArray(new ByteBuffer[views.size()]));
+        return SNAPSHOT_HEADER_LENGTH + contentLength;
+    }
+
+    @Override
+    public synchronized void restoreFrom(ReadableByteChannel channel) throws IOException
+    {
+        _verifyRestorable();
+        _verifyNoEntryWriter();
+        final long[] header = _readSnapshotHeader(channel, SNAPSHOT_TYPE_CHUNKY_BYTES);
+        final long contentLength = header[2];
+        if (contentLength > getMaximumAvailableSpace()) {
+            throw new IllegalStateException("Not enough room in buffer to restore snapshot of "
+                    +contentLength+" bytes");
+        }
+        final BytesSegment startSeg = _head;
+        final int startOffset = _head.appendOffset();
+        boolean ok = false;
+        try {
+            long left = contentLength;
+            while (left > 0L) {
+                if (_head.availableForAppend() == 0 && !_addHeadSegment(true)) {
+                    throw new IllegalStateException("Not enough room in buffer to restore snapshot of "
+                            +contentLength+" bytes (can't allocate enough new segments)");
+                }
+                int count = _head.appendFrom(channel, (int) Math.min(left, Integer.MAX_VALUE));
+                if (count < 0) {
+                    throw _snapshotEOF(left);
+                }
+                left -= count;
+            }
+            _verifyRestored(startSeg, startOffset, contentLength, header[0], header[1]);
+            ok = true;
+        } finally {
+            if (!ok) {
+                clear();
+            }
+        }
+        _entryCount = (int) header[0];
+        _totalPayloadLength = header[1];
+        if (_entryCount > 0) {
+            this.notifyAll();
+        }
+    }
+
+    /*
+    /**********************************************************************
+    /* Public API, state changes
+    /**********************************************************************
+     */
+
+    @Override
+    public synchronized void clear()
+    {
+        // any in-place access must be terminated first, as content goes away
+        if (_hasEntryWriter()) {
+            _entryWriter._rollback();
+        }
+        if (_entryReader != null) {
+            _entryReader._active = false;
+        }
+        super.clear();
+    }
+
     /*
     /**********************************************************************
     /* Internal methods
     /**********************************************************************
      */
 
+    protected boolean _hasEntryWriter() {
+        return (_entryWriter != null) && _entryWriter._active;
+    }
+
+    protected void _verifyNoEntryWriter() {
+        if (_hasEntryWriter()) {
+            throw new IllegalStateException("Can not access buffer contents while an entry is being built in place");
+        }
+    }
+
+    /**
+     * Method for waiting until entry being built in place (if any) is
+     * completed, aborted or rolled back. Waiting is not interruptible
+     * (since append methods can not throw {@link InterruptedException}),
+     * but interrupt status is retained.
+     * Caller must hold the lock.
+     *
+     * @since 1.2.1
+     */
+    protected void _waitForNoEntryWriter()
+    {
+        if (!_hasEntryWriter()) {
+            return;
+        }
+        if (_entryWriter._thread == Thread.currentThread()) { // would never complete
+            throw new IllegalStateException("Can not append entries while an entry is being built in place"
+                    +" by the same thread");
+        }
+        boolean interrupted = false;
+        while (_head != null && _hasEntryWriter()) {
+            try {
+                this.wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    protected void _verifyNoEntryReader() {
+        if (_entryReader != null && _entryReader._active) {
+            throw new IllegalStateException("Can not read entries while an entry is being read in place (reader not closed)");
+        }
+    }
+
+    private BytesEntryReader _startEntryReader()
+    {
+        if (_entryReader == null) {
+            _entryReader = new EntryReaderImpl();
+        }
+        if (_peekedEntry != null) {
+            byte[] peeked = _peekedEntry;
+            _peekedEntry = null;
+            _entryReader._start(peeked);
+        } else {
+            final int segLen = _rawNextEntryLength();
+            _nextEntryLength = -1;
+            --_entryCount;
+            _totalPayloadLength -= segLen;
+            _entryReader._start(segLen);
+        }
+        return _entryReader;
+    }
+
     /* Helper method used to read length of next segment.
      * Caller must ensure that there is at least one more segment
      * to read.
@@ -359,7 +1035,7 @@ public class ChunkyBytesMemBufferImpl extends ChunkyBytesMemBuffer
 
     private byte[] _doGetNext()
     {
-        int segLen = getNextEntryLength();
+        int segLen = _rawNextEntryLength();
 
         // start with result allocation, so that possible OOME does not corrupt state
         byte[] result = new byte[segLen];
@@ -394,7 +1070,7 @@ public class ChunkyBytesMemBufferImpl extends ChunkyBytesMemBuffer
             throw new IllegalArgumentException("Illegal offset ("+offset+"): allowed values [0, "+end+"[");
         }
         final int maxLen = end - offset;
-        final int segLen = getNextEntryLength();
+        final int segLen = _rawNextEntryLength();
 
         // not enough room?
         if (segLen > maxLen) {
@@ -464,6 +1140,63 @@ public class ChunkyBytesMemBufferImpl extends ChunkyBytesMemBuffer
         return segLen;
     }
 
+    /**
+     * Helper method called to verify that restored snapshot content (starting at
+     * given segment and offset) consists of exactly the number of entries, with
+     * the total payload length, that snapshot header indicates.
+     */
+    protected void _verifyRestored(BytesSegment seg, int offset, long contentLength,
+            long expEntries, long expPayload)
+    {
+        long left = contentLength;
+        long entries = 0L;
+        long payload = 0L;
+        while (left > 0L) {
+            // length prefix first: 7 bits per byte, last byte has high bit set
+            long length = 0L;
+            for (int i = 0; ; ++i) {
+                if (left == 0L || i == 5) {
+                    throw _corruptSnapshot("invalid length prefix of entry #"+(entries+1));
+                }
+                while (offset == seg.appendOffset()) {
+                    seg = seg.getNext();
+                    offset = 0;
+                }
+                int b = seg.peek(offset++);
+                --left;
+                length = (length << 7) | (b & 0x7F);
+                if (b < 0) {
+                    break;
+                }
+            }
+            if (length > Integer.MAX_VALUE || length > left) {
+                throw _corruptSnapshot("invalid length ("+length+") of entry #"+(entries+1));
+            }
+            ++entries;
+            payload += length;
+            left -= length;
+            // and then skip the payload
+            while (length > 0L) {
+                int avail = seg.appendOffset() - offset;
+                if (length <= avail) {
+                    offset += (int) length;
+                    break;
+                }
+                length -= avail;
+                seg = seg.getNext();
+                offset = 0;
+            }
+        }
+        if (entries != expEntries || payload != expPayload) {
+            throw _corruptSnapshot("content has "+entries+" entries with "+payload
+                    +" bytes of payload; header indicates "+expEntries+" entries with "+expPayload+" bytes");
+        }
+    }
+
+    private IllegalStateException _corruptSnapshot(String msg) {
+        return new IllegalStateException("Corrupt snapshot: "+msg);
+    }
+
     private int _calcLengthPrefix(byte[] buffer, int length)
     {
         if (length < 0) {
@@ -498,4 +1231,490 @@ public class ChunkyBytesMemBufferImpl extends ChunkyBytesMemBuffer
         buffer[4] = (byte) ((length & 0x7f) | 0x80);
         return 5;
     }
+
+    /**
+     * Helper method for encoding length prefix using the maximum length
+     * of 5 bytes (with leading zero 7-bit groups), used when prefix
+     * is back-patched and its length must be reserved in advance.
+     */
+    protected static void _calcFixedLengthPrefix(byte[] buffer, int length)
+    {
+        buffer[0] = (byte) ((length >> 28) & 0x7F);
+        buffer[1] = (byte) ((length >> 21) & 0x7F);
+        buffer[2] = (byte) ((length >> 14) & 0x7F);
+        buffer[3] = (byte) ((length >> 7) & 0x7F);
+        buffer[4] = (byte) ((length & 0x7f) | 0x80);
+    }
+
+    /*
+    /**********************************************************************
+    /* Helper classes: entry copying
+    /**********************************************************************
+     */
+
+    /**
+     * {@link EntryConsumer} that collects fragments of an entry into
+     * a single array, which is reused (and grown as needed) for entries.
+     *
+     * @since 1.2.1
+     */
+    protected final static class EntryCollector implements EntryConsumer<ByteBuffer>
+    {
+        protected byte[] _buffer = new byte[256];
+
+        protected int _length;
+
+        public void reset() {
+            _length = 0;
+        }
+
+        public byte[] buffer() {
+            return _buffer;
+        }
+
+        @Override
+        public void consume(ByteBuffer segmentView, int offset, int length)
+        {
+            final int end = _length + length;
+            if (end > _buffer.length) {
+                _buffer = Arrays.copyOf(_buffer, Math.max(end, _buffer.length + (_buffer.length >> 1)));
+            }
+            segmentView.position(offset);
+            segmentView.get(_buffer, _length, length);
+            _length = end;
+        }
+    }
+
+    /*
+    /**********************************************************************
+    /* Helper classes: in-place entry access
+    /**********************************************************************
+     */
+
+    /**
+     * {@link BytesEntryWriter} implementation that appends content directly
+     * in the head segment. Buffer lock is held for all access, since buffer
+     * may be cleared (or closed), rolling back the entry, by another thread
+     * while entry is being built.
+     * Segments filled while building are only marked as written when
+     * entry is completed, so that they can be rolled back if necessary.
+     */
+    protected class EntryWriterImpl extends BytesEntryWriter
+    {
+        protected final byte[] _scratch = new byte[10];
+
+        /**
+         * Segment in which the (reserved) length prefix starts
+         */
+        protected BytesSegment _prefixSegment;
+
+        /**
+         * Offset within {@link #_prefixSegment} of the length prefix
+         */
+        protected int _prefixOffset;
+
+        protected int _length;
+
+        protected boolean _active;
+
+        /**
+         * Thread that started building the current entry
+         */
+        protected Thread _thread;
+
+        // Called with lock held
+        protected void _start()
+        {
+            _thread = Thread.currentThread();
+            _prefixSegment = _head;
+            _prefixOffset = _head.appendOffset();
+            _length = 0;
+            _active = true;
+            // reserve room for length prefix; zeroes are fine for now
+            for (int i = 0; i < 5; ++i) {
+                _scratch[i] = 0;
+            }
+            _write(_scratch, 0, 5);
+            _length = 0;
+        }
+
+        @Override
+        public void writeByte(int value)
+        {
+            _scratch[0] = (byte) value;
+            _write(_scratch, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) {
+            _write(data, offset, length);
+        }
+
+        @Override
+        public void writeShort(int value)
+        {
+            final byte[] b = _scratch;
+            b[0] = (byte) (value >> 8);
+            b[1] = (byte) value;
+            _write(b, 0, 2);
+        }
+
+        @Override
+        public void writeInt(int value)
+        {
+            final byte[] b = _scratch;
+            b[0] = (byte) (value >> 24);
+            b[1] = (byte) (value >> 16);
+            b[2] = (byte) (value >> 8);
+            b[3] = (byte) value;
+            _write(b, 0, 4);
+        }
+
+        @Override
+        public void writeLong(long value)
+        {
+            final byte[] b = _scratch;
+            int hi = (int) (value >> 32);
+            int lo = (int) value;
+            b[0] = (byte) (hi >> 24);
+            b[1] = (byte) (hi >> 16);
+            b[2] = (byte) (hi >> 8);
+            b[3] = (byte) hi;
+            b[4] = (byte) (lo >> 24);
+            b[5] = (byte) (lo >> 16);
+            b[6] = (byte) (lo >> 8);
+            b[7] = (byte) lo;
+            _write(b, 0, 8);
+        }
+
+        @Override
+        public void writeVInt(int value)
+        {
+            final byte[] b = _scratch;
+            int ix = 0;
+            while ((value & ~0x7F) != 0) {
+                b[ix++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            b[ix++] = (byte) value;
+            _write(b, 0, ix);
+        }
+
+        @Override
+        public void writeVLong(long value)
+        {
+            final byte[] b = _scratch;
+            int ix = 0;
+            while ((value & ~0x7FL) != 0L) {
+                b[ix++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            b[ix++] = (byte) value;
+            _write(b, 0, ix);
+        }
+
+        @Override
+        public int getLength() {
+            return _length;
+        }
+
+        @Override
+        public int finish()
+        {
+            synchronized (ChunkyBytesMemBufferImpl.this) {
+                _verifyActive();
+                final byte[] b = _scratch;
+                _calcFixedLengthPrefix(b, _length);
+                // prefix may be split across segments; all but last are full
+                BytesSegment seg = _prefixSegment;
+                int offset = _prefixOffset;
+                int ix = 0;
+                while (true) {
+                    int count = Math.min(5 - ix, seg.appendOffset() - offset);
+                    seg.overwrite(offset, b, ix, count);
+                    ix += count;
+                    if (ix == 5) {
+                        break;
+                    }
+                    seg = seg.getNext();
+                    offset = 0;
+                }
+                // and then complete segments we deferred
+                for (seg = _prefixSegment; seg != _head; seg = seg.getNext()) {
+                    seg.finishWriting();
+                }
+                _active = false;
+                _thread = null;
+                _prefixSegment = null;
+                _totalPayloadLength += _length;
+                ++_entryCount;
+                // wakes up both readers and producers waiting for entry to complete
+                ChunkyBytesMemBufferImpl.this.notifyAll();
+                return _length;
+            }
+        }
+
+        @Override
+        public void abort()
+        {
+            synchronized (ChunkyBytesMemBufferImpl.this) {
+                if (_active) {
+                    _rollback();
+                }
+            }
+        }
+
+        // Called with lock held
+        protected void _rollback()
+        {
+            BytesSegment seg = _prefixSegment.getNext();
+            _prefixSegment.relink(null);
+            _prefixSegment.truncate(_prefixOffset);
+            _head = _prefixSegment;
+            _prefixSegment = null;
+            _active = false;
+            _thread = null;
+            // producers may be waiting for entry to complete
+            ChunkyBytesMemBufferImpl.this.notifyAll();
+            // segments past prefix segment contain nothing else, so may be freed
+            String error = null;
+            while (seg != null) {
+                BytesSegment next = seg.getNext();
+                seg.relink(null);
+                seg.truncate(0);
+                seg.markFree();
+                --_usedSegmentsCount;
+                error = _releaseReadSegment(seg, error);
+                seg = next;
+            }
+            if (error != null) {
+                throw new IllegalStateException(error);
+            }
+        }
+
+        protected void _write(byte[] data, int offset, int length)
+        {
+            synchronized (ChunkyBytesMemBufferImpl.this) {
+                _verifyActive();
+                if (length > (Integer.MAX_VALUE - _length)) {
+                    throw new IllegalArgumentException("Entry length would exceed maximum of "+Integer.MAX_VALUE+" bytes");
+                }
+                final BytesSegment seg = _head;
+                if (seg.availableForAppend() >= length) {
+                    seg.append(data, offset, length);
+                } else {
+                    _writeChunked(data, offset, length);
+                }
+                _length += length;
+            }
+        }
+
+        // Called with lock held
+        protected void _writeChunked(byte[] data, int offset, int length)
+        {
+            final int fullLength = _length + length;
+            while (true) {
+                int actual = _head.tryAppend(data, offset, length);
+                offset += actual;
+                length -= actual;
+                if (length == 0) {
+                    return;
+                }
+                if (!_addHeadSegment(false)) {
+                    _rollback();
+                    throw new IllegalStateException("Not enough room in buffer to append entry of at least "
+                            +fullLength+" bytes (can't allocate enough new segments): entry discarded");
+                }
+            }
+        }
+
+        protected void _verifyActive() {
+            if (!_active) {
+                throw new IllegalStateException("Entry writer not active: entry already completed or aborted");
+            }
+        }
+    }
+
+    /**
+     * {@link BytesEntryReader} implementation that reads content directly
+     * from the tail segment. Also handles case of a previously peeked entry,
+     * in which case content is read from the peeked copy.
+     * All access is done holding the buffer lock (usually uncontended,
+     * as there is a single reader), so that state is verified consistently
+     * with changes by other threads, such as buffer being cleared or closed.
+     */
+    protected class EntryReaderImpl extends BytesEntryReader
+    {
+        protected final byte[] _scratch = new byte[8];
+
+        /**
+         * Contents of the entry if it had been peeked before
+         */
+        protected byte[] _peeked;
+
+        protected int _peekedPtr;
+
+        protected int _length;
+
+        protected int _remaining;
+
+        protected boolean _active;
+
+        // Called with lock held
+        protected void _start(int length)
+        {
+            _peeked = null;
+            _length = _remaining = length;
+            _active = true;
+        }
+
+        // Called with lock held
+        protected void _start(byte[] peeked)
+        {
+            _peeked = peeked;
+            _peekedPtr = 0;
+            _length = _remaining = peeked.length;
+            _active = true;
+        }
+
+        @Override
+        public byte readByte()
+        {
+            synchronized (ChunkyBytesMemBufferImpl.this) {
+                _verifyActive();
+                if (_peeked == null && _remaining > 0) {
+                    final BytesSegment seg = _tail;
+                    if (seg.availableForReading() > 0) {
+                        --_remaining;
+                        return seg.read();
+                    }
+                }
+                _read(_scratch, 0, 1);
+                return _scratch[0];
+            }
+        }
+
+        @Override
+        public void readFully(byte[] buffer, int offset, int length) {
+            _read(buffer, offset, length);
+        }
+
+        @Override
+        public int skipBytes(int count)
+        {
+            synchronized (ChunkyBytesMemBufferImpl.this) {
+                _verifyActive();
+                count = Math.min(count, _remaining);
+                if (count <= 0) {
+                    return 0;
+                }
+                if (_peeked != null) {
+                    _peekedPtr += count;
+                } else {
+                    _skip(count);
+                }
+                _remaining -= count;
+                return count;
+            }
+        }
+
+        @Override
+        public short readShort()
+        {
+            final byte[] b = _scratch;
+            _read(b, 0, 2);
+            return (short) ((b[0] << 8) | (b[1] & 0xFF));
+        }
+
+        @Override
+        public int readInt()
+        {
+            final byte[] b = _scratch;
+            _read(b, 0, 4);
+            return _int(b, 0);
+        }
+
+        @Override
+        public long readLong()
+        {
+            final byte[] b = _scratch;
+            _read(b, 0, 8);
+            return (((long) _int(b, 0)) << 32) | (_int(b, 4) & 0xFFFFFFFFL);
+        }
+
+        @Override
+        public int getLength() {
+            return _length;
+        }
+
+        @Override
+        public int getRemaining() {
+            return _remaining;
+        }
+
+        @Override
+        public void close()
+        {
+            synchronized (ChunkyBytesMemBufferImpl.this) {
+                if (_active) {
+                    if (_remaining > 0 && _peeked == null) {
+                        _skip(_remaining);
+                    }
+                    _remaining = 0;
+                    _peeked = null;
+                    _active = false;
+                }
+            }
+        }
+
+        protected final int _int(byte[] b, int offset) {
+            return (b[offset] << 24) | ((b[offset+1] & 0xFF) << 16)
+                    | ((b[offset+2] & 0xFF) << 8) | (b[offset+3] & 0xFF);
+        }
+
+        protected void _read(byte[] buffer, int offset, int length)
+        {
+            synchronized (ChunkyBytesMemBufferImpl.this) {
+                _verifyActive();
+                if (length > _remaining) {
+                    throw new IllegalStateException("Attempt to read "+length+" bytes, only "+_remaining
+                            +" remaining in entry");
+                }
+                if (_peeked != null) {
+                    System.arraycopy(_peeked, _peekedPtr, buffer, offset, length);
+                    _peekedPtr += length;
+                } else {
+                    final BytesSegment seg = _tail;
+                    if (seg.availableForReading() >= length) {
+                        seg.read(buffer, offset, length);
+                    } else {
+                        _doReadChunked(buffer, offset, length);
+                    }
+                }
+                _remaining -= length;
+            }
+        }
+
+        // Called with lock held
+        protected void _skip(int count)
+        {
+            String error = null;
+            while (true) {
+                count -= _tail.skip(count);
+                if (count == 0) {
+                    break;
+                }
+                error = _freeReadSegment(error);
+            }
+            if (error != null) {
+                throw new IllegalStateException(error);
+            }
+        }
+
+        protected void _verifyActive() {
+            if (!_active) {
+                throw new IllegalStateException("Entry reader not active: already closed (or buffer cleared)");
+            }
+        }
+    }
 }
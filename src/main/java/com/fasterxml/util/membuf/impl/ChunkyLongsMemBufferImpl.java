@@ -1,5 +1,11 @@
 package com.fasterxml.util.membuf.impl;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
 import com.fasterxml.util.membuf.*;
 import com.fasterxml.util.membuf.base.LongsSegment;
 
@@ -92,7 +98,7 @@ public class ChunkyLongsMemBufferImpl extends ChunkyLongsMemBuffer
                     return false;
                 }
                 // if we are, let's try allocate: will be added to "free" segments first, then used
-                LongsSegment newFree = _segmentAllocator.allocateSegments(segmentsToAlloc, _firstFreeSegment);
+                LongsSegment newFree = _allocateSegments(segmentsToAlloc, _firstFreeSegment);
                 if (newFree == null) {
                     return false;
                 }
@@ -281,6 +287,55 @@ public class ChunkyLongsMemBufferImpl extends ChunkyLongsMemBuffer
         return Integer.MIN_VALUE;
     }
 
+    @Override
+    public synchronized int consumeNextEntry(EntryConsumer<? super LongBuffer> consumer)
+    {
+        if (_head == null) {
+            _reportClosed();
+        }
+        if (_peekedEntry != null) {
+            long[] entry = _peekedEntry;
+            _peekedEntry = null;
+            if (entry.length > 0) {
+                consumer.consume(LongBuffer.wrap(entry).asReadOnlyBuffer(), 0, entry.length);
+            }
+            return entry.length;
+        }
+        if (_entryCount == 0) {
+            return -1;
+        }
+        final int segLen = getNextEntryLength();
+        // ensure length indicator gets reset for chunk after this one
+        _nextEntryLength = -1;
+        --_entryCount;
+        _totalPayloadLength -= segLen;
+
+        int remaining = segLen;
+        String error = null;
+        try {
+            while (remaining > 0) {
+                remaining -= _tail.tryConsume(consumer, remaining);
+                if (remaining == 0) {
+                    break;
+                }
+                error = _freeReadSegment(error);
+            }
+        } finally {
+            // if consumer failed, need to skip the rest to keep entry boundaries intact
+            while (remaining > 0) {
+                remaining -= _tail.skip(remaining);
+                if (remaining == 0) {
+                    break;
+                }
+                error = _freeReadSegment(error);
+            }
+        }
+        if (error != null) {
+            throw new IllegalStateException(error);
+        }
+        return segLen;
+    }
+
     /*
     /**********************************************************************
     /* Public API, peeking
@@ -301,7 +356,121 @@ public class ChunkyLongsMemBufferImpl extends ChunkyLongsMemBuffer
         }
         return _peekedEntry;
     }
-    
+
+    /*
+    /**********************************************************************
+    /* Public API, snapshots
+    /**********************************************************************
+     */
+
+    @Override
+    public synchronized long snapshotTo(WritableByteChannel channel) throws IOException
+    {
+        if (_head == null) {
+            _reportClosed();
+        }
+        int entries = _entryCount;
+        long payload = _totalPayloadLength;
+        // peeked entry only exists as a copy; and length prefix of the next entry
+        // may have been read already: both need to be re-encoded
+        long[] leading = EMPTY_PAYLOAD;
+        if (_peekedEntry != null) {
+            final int len = _peekedEntry.length;
+            leading = new long[len + 1];
+            leading[0] = len;
+            System.arraycopy(_peekedEntry, 0, leading, 1, len);
+            ++entries;
+            payload += len;
+        }
+        if (_nextEntryLength >= 0) {
+            long[] old = leading;
+            leading = new long[old.length + 1];
+            System.arraycopy(old, 0, leading, 0, old.length);
+            leading[old.length] = _nextEntryLength;
+        }
+        long count = leading.length;
+        for (LongsSegment seg = _tail; ; seg = seg.getNext()) {
+            count += seg.appendOffset() - ((seg == _tail) ? seg.readOffset() : 0);
+            if (seg == _head) {
+                break;
+            }
+        }
+        _writeSnapshotHeader(channel, SNAPSHOT_TYPE_CHUNKY_LONGS, entries, payload, count << 3);
+
+        final ByteBuffer scratch = ByteBuffer.allocate(SNAPSHOT_CHUNK_LONGS << 3);
+        final long[] chunk = new long[SNAPSHOT_CHUNK_LONGS];
+        int chunkLength = 0;
+        for (int i = 0; i < leading.length; ) {
+            int c = Math.min(leading.length - i, chunk.length - chunkLength);
+            System.arraycopy(leading, i, chunk, chunkLength, c);
+            i += c;
+            if ((chunkLength += c) == chunk.length) {
+                _writeLongs(channel, chunk, chunkLength, scratch);
+                chunkLength = 0;
+            }
+        }
+        for (LongsSegment seg = _tail; ; seg = seg.getNext()) {
+            int from = (seg == _tail) ? seg.readOffset() : 0;
+            final int to = seg.appendOffset();
+            while (from < to) {
+                int c = Math.min(to - from, chunk.length - chunkLength);
+                seg.peek(from, chunk, chunkLength, c);
+                from += c;
+                if ((chunkLength += c) == chunk.length) {
+                    _writeLongs(channel, chunk, chunkLength, scratch);
+                    chunkLength = 0;
+                }
+            }
+            if (seg == _head) {
+                break;
+            }
+        }
+        _writeLongs(channel, chunk, chunkLength, scratch);
+        return SNAPSHOT_HEADER_LENGTH + (count << 3);
+    }
+
+    @Override
+    public synchronized void restoreFrom(ReadableByteChannel channel) throws IOException
+    {
+        _verifyRestorable();
+        final long[] header = _readSnapshotHeader(channel, SNAPSHOT_TYPE_CHUNKY_LONGS);
+        if ((header[2] & 7) != 0) {
+            throw new IOException("Invalid snapshot: content length ("+header[2]+") not a multiple of 8");
+        }
+        final long count = header[2] >> 3;
+        if (count > getMaximumAvailableSpace()) {
+            throw new IllegalStateException("Not enough room in buffer to restore snapshot of "
+                    +count+" values");
+        }
+        final ByteBuffer scratch = ByteBuffer.allocate(SNAPSHOT_CHUNK_LONGS << 3);
+        final long[] chunk = new long[SNAPSHOT_CHUNK_LONGS];
+        boolean ok = false;
+        try {
+            for (long left = count; left > 0L; ) {
+                final int chunkLength = (int) Math.min(left, chunk.length);
+                _readLongs(channel, chunk, chunkLength, scratch);
+                for (int offset = 0; offset < chunkLength; ) {
+                    if (_head.availableForAppend() == 0 && !_addHeadSegment(true)) {
+                        throw new IllegalStateException("Not enough room in buffer to restore snapshot of "
+                                +count+" values (can't allocate enough new segments)");
+                    }
+                    offset += _head.tryAppend(chunk, offset, chunkLength - offset);
+                }
+                left -= chunkLength;
+            }
+            ok = true;
+        } finally {
+            if (!ok) {
+                clear();
+            }
+        }
+        _entryCount = (int) header[0];
+        _totalPayloadLength = header[1];
+        if (_entryCount > 0) {
+            this.notifyAll();
+        }
+    }
+
     /*
     /**********************************************************************
     /* Internal methods
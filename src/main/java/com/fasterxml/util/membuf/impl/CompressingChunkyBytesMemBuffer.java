@@ -0,0 +1,510 @@
+package com.fasterxml.util.membuf.impl;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+import com.fasterxml.util.membuf.*;
+import com.fasterxml.util.membuf.base.BytesSegment;
+import com.fasterxml.util.membuf.util.LZCodec;
+
+/**
+ * {@link ChunkyBytesMemBuffer} implementation that can compress "cold"
+ * segments: full segments between the tail (segment being read) and the
+ * head (segment being appended to), that will not be accessed until
+ * all preceding content has been read. Compressed content is stored,
+ * as a sequence of records, in segments obtained the same way as other
+ * segments of the buffer (so they count against the same limits), and
+ * segments that were compressed are released for reuse; so, for compressible
+ * content, the buffer can hold more content within the same segment limit.
+ * Compressed segments are decompressed, one at a time, just before reading
+ * advances to them, into the segment that has just been read (so that
+ * no additional segments are needed).
+ *<p>
+ * Compression is not done automatically: instead, {@link #compressColdSegments}
+ * is to be called, typically periodically from a background thread, to
+ * compress segments that have been filled since the previous call.
+ * Note that buffer is locked during compression, so calls should limit
+ * number of segments to compress per call to keep latency low.
+ * Segments are compressed using {@link LZCodec}; since segments must
+ * be kept in order, compression stops at the first segment that does not
+ * compress (that is, would not take less room compressed).
+ * Buffers used for compression and decompression are only allocated when
+ * the first segment is compressed, so buffers that never compress content
+ * only have overhead of segments.
+ *<p>
+ * Instances are usually created using a {@link MemBufferDecorator}, by
+ * wrapping buffers constructed by {@link MemBuffersForBytes}.
+ *
+ * @since 1.2.1
+ */
+public class CompressingChunkyBytesMemBuffer extends ChunkyBytesMemBufferImpl
+{
+    /**
+     * Length of the header of compressed segment records: raw length
+     * followed by encoded length
+     */
+    protected final static int RECORD_HEADER_LENGTH = 8;
+
+    /*
+    /**********************************************************************
+    /* Configuration
+    /**********************************************************************
+     */
+
+    /**
+     * Maximum number of bytes of compressed content (including
+     * record headers) to hold
+     */
+    protected final int _maxCompressedLength;
+
+    /*
+    /**********************************************************************
+    /* Compressed content
+    /**********************************************************************
+     */
+
+    /**
+     * Segment from which compressed records are read, if there are any
+     */
+    protected BytesSegment _storeTail;
+
+    /**
+     * Segment into which compressed records are appended, if there are any
+     */
+    protected BytesSegment _storeHead;
+
+    /**
+     * Number of bytes of records in storage segments
+     */
+    protected int _storeLength;
+
+    /**
+     * Number of segments currently held in compressed form
+     */
+    protected int _compressedSegmentCount;
+
+    /**
+     * Segment in the chain after which compressed segments logically
+     * belong, if there are any
+     */
+    protected BytesSegment _compressedAfter;
+
+    /**
+     * Buffers used for compression and decompression, allocated
+     * when first needed
+     */
+    protected Scratch _scratch;
+
+    protected final byte[] _headerBuffer = new byte[RECORD_HEADER_LENGTH];
+
+    /*
+    /**********************************************************************
+    /* Life-cycle
+    /**********************************************************************
+     */
+
+    /**
+     * @param src Buffer to wrap
+     * @param maxCompressedLength Maximum number of bytes of compressed
+     *   content to hold
+     */
+    public CompressingChunkyBytesMemBuffer(ChunkyBytesMemBuffer src, int maxCompressedLength)
+    {
+        super(src);
+        if (maxCompressedLength < 0) {
+            throw new IllegalArgumentException("maxCompressedLength can not be negative (was "+maxCompressedLength+")");
+        }
+        _maxCompressedLength = maxCompressedLength;
+    }
+
+    /*
+    /**********************************************************************
+    /* Public API, compression
+    /**********************************************************************
+     */
+
+    /**
+     * Accessor for number of segments currently held in compressed form
+     */
+    public synchronized int getCompressedSegmentCount() {
+        return _compressedSegmentCount;
+    }
+
+    /**
+     * Accessor for number of bytes used for holding compressed segments
+     * (note that segments holding them are included in {@link #getSegmentCount})
+     */
+    public synchronized int getCompressedLength() {
+        return _storeLength;
+    }
+
+    /**
+     * Method for compressing up to specified number of cold segments,
+     * in order, and releasing them. Compression stops when there are no
+     * more cold segments, when a segment does not compress, or when there
+     * is no room for compressed content.
+     * No segments are compressed while an entry is being built in place
+     * (see {@link #startEntryWriter}).
+     *
+     * @return Number of segments compressed
+     */
+    public synchronized int compressColdSegments(int maxSegments)
+    {
+        if (_head == null) {
+            _reportClosed();
+        }
+        if (_hasEntryWriter()) {
+            return 0;
+        }
+        BytesSegment prev = (_compressedSegmentCount == 0) ? _tail : _compressedAfter;
+        int count = 0;
+        while (count < maxSegments) {
+            final BytesSegment seg = prev.getNext();
+            if (seg == null || seg == _head) {
+                break;
+            }
+            if (!_compress(prev, seg)) {
+                break;
+            }
+            _compressedAfter = prev;
+            ++_compressedSegmentCount;
+            ++count;
+        }
+        // compressed segments may not all have been needed for storage
+        _releaseFreeSegments(_maxSegmentsForReuse);
+        return count;
+    }
+
+    /*
+    /**********************************************************************
+    /* Public API, transfers and snapshots
+    /**********************************************************************
+     */
+
+    @Override
+    protected int _transferEntriesTo(ChunkyBytesMemBuffer target, int maxEntries)
+    {
+        // segments can only be handed over as is if none are compressed
+        if (_compressedSegmentCount > 0) {
+            return _copyEntriesTo(target, maxEntries);
+        }
+        return super._transferEntriesTo(target, maxEntries);
+    }
+
+    /**
+     * Snapshots require all segments to be decompressed first, which is
+     * only possible if there are enough segments available.
+     */
+    @Override
+    public synchronized long snapshotTo(WritableByteChannel channel) throws IOException
+    {
+        if (_compressedSegmentCount > 0) {
+            _decompressAll();
+        }
+        return super.snapshotTo(channel);
+    }
+
+    /*
+    /**********************************************************************
+    /* Public API, state changes
+    /**********************************************************************
+     */
+
+    @Override
+    public synchronized void clear()
+    {
+        // compressed segments are not in the chain, so just drop them
+        String error = _clearCompressed(null);
+        super.clear();
+        if (error != null) {
+            throw new IllegalStateException(error);
+        }
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods, overrides
+    /**********************************************************************
+     */
+
+    @Override
+    protected String _freeReadSegment(String prevError)
+    {
+        if (_compressedSegmentCount == 0 || _tail != _compressedAfter) {
+            return super._freeReadSegment(prevError);
+        }
+        // next segment is compressed: decompress into the segment just read
+        final BytesSegment seg = _tail;
+        final BytesSegment next = seg.finishReading();
+        seg.initForWriting();
+        prevError = _decompress(seg, prevError);
+        seg.finishWriting();
+        seg.relink(next);
+        _tail = seg.initForReading();
+        _compressedAfter = seg;
+        if (--_compressedSegmentCount == 0) {
+            prevError = _clearCompressed(prevError);
+        }
+        return prevError;
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods, compression
+    /**********************************************************************
+     */
+
+    protected Scratch _scratch()
+    {
+        if (_scratch == null) {
+            _scratch = new Scratch(_segmentSize);
+        }
+        return _scratch;
+    }
+
+    /**
+     * Method for compressing contents of given segment, adding it at
+     * the end of compressed content, and unlinking it from the chain, if it
+     * compresses and there is room.
+     *
+     * @param prev Segment that precedes segment to compress in the chain
+     *
+     * @return True if segment was compressed; false if not
+     */
+    protected boolean _compress(BytesSegment prev, BytesSegment seg)
+    {
+        final int rawLength = seg.appendOffset();
+        // no point in trying if even best case would not fit
+        if ((_maxCompressedLength - _storeLength) < (RECORD_HEADER_LENGTH + 1 + (rawLength >> 8))) {
+            return false;
+        }
+        final Scratch scratch = _scratch();
+        seg.peek(0, scratch.rawBuffer, 0, rawLength);
+        final int encodedLength = scratch.codec.encode(scratch.rawBuffer, 0, rawLength, scratch.encodedBuffer, 0);
+        final int recordLength = RECORD_HEADER_LENGTH + encodedLength;
+        if (recordLength >= rawLength // would not save anything
+                || (_maxCompressedLength - _storeLength) < recordLength) {
+            return false;
+        }
+        // segment being compressed can be used for storage; may need more
+        final int room = (_storeHead == null) ? 0 : _storeHead.availableForAppend();
+        final int needed = (recordLength <= room) ? 0 : (recordLength - room + _segmentSize - 1) / _segmentSize;
+        if (!_ensureFreeSegments(needed - 1)) {
+            return false;
+        }
+        prev.relink(seg.finishReading());
+        --_usedSegmentsCount;
+        _firstFreeSegment = seg.relink(_firstFreeSegment);
+        ++_freeSegmentCount;
+
+        final byte[] h = _headerBuffer;
+        _putInt(h, 0, rawLength);
+        _putInt(h, 4, encodedLength);
+        _storeWrite(h, RECORD_HEADER_LENGTH);
+        _storeWrite(scratch.encodedBuffer, encodedLength);
+        return true;
+    }
+
+    /**
+     * Method for decompressing the first compressed segment into given
+     * segment, which must be empty and initialized for writing.
+     */
+    protected String _decompress(BytesSegment seg, String prevError)
+    {
+        final byte[] h = _headerBuffer;
+        prevError = _storeRead(h, RECORD_HEADER_LENGTH, prevError);
+        final int rawLength = _getInt(h, 0);
+        final int encodedLength = _getInt(h, 4);
+        final Scratch scratch = _scratch();
+        prevError = _storeRead(scratch.encodedBuffer, encodedLength, prevError);
+        int actual = LZCodec.decode(scratch.encodedBuffer, 0, encodedLength, scratch.rawBuffer, 0, rawLength);
+        if (actual != rawLength) { // sanity check
+            throw new IllegalStateException("Internal error: decompressed segment length "+actual
+                    +", expected "+rawLength);
+        }
+        seg.append(scratch.rawBuffer, 0, rawLength);
+        return prevError;
+    }
+
+    /**
+     * Method for decompressing all compressed segments into segments
+     * linked back into the chain. Segments are decompressed one at a time,
+     * so that segments used for compressed content can be reused as they
+     * are drained.
+     */
+    protected void _decompressAll()
+    {
+        String error = null;
+        while (_compressedSegmentCount > 0) {
+            if (!_ensureFreeSegments(1)) {
+                throw new IllegalStateException("Can not decompress "+_compressedSegmentCount
+                        +" compressed segments: not enough segments available");
+            }
+            final BytesSegment seg = _takeFreeSegment();
+            seg.initForWriting();
+            error = _decompress(seg, error);
+            seg.finishWriting();
+            final BytesSegment prev = _compressedAfter;
+            seg.relink(prev.getNext());
+            prev.relink(seg);
+            _compressedAfter = seg;
+            --_compressedSegmentCount;
+        }
+        error = _clearCompressed(error);
+        if (error != null) {
+            throw new IllegalStateException(error);
+        }
+    }
+
+    /**
+     * Method for dropping all compressed content, and releasing segments
+     * used for storing it.
+     */
+    protected String _clearCompressed(String prevError)
+    {
+        BytesSegment seg = _storeTail;
+        while (seg != null) {
+            if (seg == _storeHead) {
+                seg.finishWriting();
+            }
+            final BytesSegment next = seg.finishReading();
+            --_usedSegmentsCount;
+            prevError = _releaseReadSegment(seg, prevError);
+            seg = next;
+        }
+        _storeTail = _storeHead = null;
+        _compressedSegmentCount = 0;
+        _compressedAfter = null;
+        _storeLength = 0;
+        return prevError;
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods, storage segments
+    /**********************************************************************
+     */
+
+    /**
+     * Method for making sure that at least given number of segments
+     * are available in the free segment list, allocating more if necessary
+     * (and allowed).
+     */
+    protected boolean _ensureFreeSegments(int count)
+    {
+        final int missing = count - _freeSegmentCount;
+        if (missing <= 0) {
+            return true;
+        }
+        if ((_usedSegmentsCount + _freeSegmentCount + missing) > _maxSegmentsToAllocate) {
+            return false;
+        }
+        BytesSegment newFree = _allocateSegments(missing, _firstFreeSegment);
+        if (newFree == null) {
+            return false;
+        }
+        _firstFreeSegment = newFree;
+        _freeSegmentCount += missing;
+        return true;
+    }
+
+    protected BytesSegment _takeFreeSegment()
+    {
+        final BytesSegment seg = _firstFreeSegment;
+        if (seg == null) { // sanity check
+            throw new IllegalStateException("Internal error: no free segments available");
+        }
+        _firstFreeSegment = seg.getNext();
+        --_freeSegmentCount;
+        ++_usedSegmentsCount;
+        seg.relink(null);
+        return seg;
+    }
+
+    /**
+     * Method for appending given content to storage, taking segments from
+     * the free segment list as needed (caller must ensure there are enough).
+     */
+    protected void _storeWrite(byte[] data, int length)
+    {
+        int offset = 0;
+        while (true) {
+            if (_storeHead != null) {
+                final int count = _storeHead.tryAppend(data, offset, length);
+                offset += count;
+                length -= count;
+            }
+            if (length == 0) {
+                break;
+            }
+            final BytesSegment seg = _takeFreeSegment().initForWriting();
+            if (_storeHead == null) {
+                _storeTail = seg.initForReading();
+            } else {
+                _storeHead.finishWriting();
+                _storeHead.relink(seg);
+            }
+            _storeHead = seg;
+        }
+        _storeLength += offset;
+    }
+
+    /**
+     * Method for reading given amount of content from storage, releasing
+     * segments that have been completely read.
+     */
+    protected String _storeRead(byte[] data, int length, String prevError)
+    {
+        int offset = 0;
+        while (true) {
+            final int count = _storeTail.tryRead(data, offset, length);
+            offset += count;
+            length -= count;
+            if (length == 0) {
+                break;
+            }
+            // storage segment fully read, and since content remains, can not be the last one
+            final BytesSegment seg = _storeTail;
+            _storeTail = seg.finishReading().initForReading();
+            --_usedSegmentsCount;
+            prevError = _releaseReadSegment(seg, prevError);
+        }
+        _storeLength -= offset;
+        return prevError;
+    }
+
+    protected final static void _putInt(byte[] b, int offset, int value) {
+        b[offset] = (byte) (value >> 24);
+        b[offset+1] = (byte) (value >> 16);
+        b[offset+2] = (byte) (value >> 8);
+        b[offset+3] = (byte) value;
+    }
+
+    protected final static int _getInt(byte[] b, int offset) {
+        return (b[offset] << 24) | ((b[offset+1] & 0xFF) << 16)
+                | ((b[offset+2] & 0xFF) << 8) | (b[offset+3] & 0xFF);
+    }
+
+    /*
+    /**********************************************************************
+    /* Helper classes
+    /**********************************************************************
+     */
+
+    /**
+     * Container for buffers used for compressing and decompressing segments
+     */
+    protected final static class Scratch
+    {
+        public final LZCodec codec = new LZCodec();
+
+        public final byte[] rawBuffer;
+
+        public final byte[] encodedBuffer;
+
+        public Scratch(int segmentSize) {
+            rawBuffer = new byte[segmentSize];
+            encodedBuffer = new byte[LZCodec.maxEncodedLength(segmentSize)];
+        }
+    }
+}
@@ -0,0 +1,583 @@
+package com.fasterxml.util.membuf.impl;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+import com.fasterxml.util.membuf.*;
+
+/**
+ * {@link ChunkyBytesMemBuffer} implementation that makes buffered entries
+ * durable across process restarts, by writing all appended entries into
+ * an append-only journal file, and checkpointing consumer progress into
+ * a separate checkpoint file (journal file name with suffix ".ckpt").
+ * When a buffer is constructed for an existing journal, all entries that
+ * had not been consumed (as per last checkpoint) are recovered into it.
+ *<p>
+ * To amortize cost of syncing content to disk, journal uses group commit:
+ * content is synced when given number of entries has been appended since
+ * last sync, or given amount of time has passed since it, as well as on
+ * explicit calls to {@link #sync} and when buffer is closed. Consumer progress
+ * is checkpointed at the same points; so entries consumed after last checkpoint
+ * will be replayed after a crash (that is, delivery is "at least once").
+ * Note that elapsed time is only checked when entries are appended, and
+ * consumer progress only checkpointed on sync: so if appends may pause,
+ * {@link #sync} should be called periodically (for example, from a scheduled
+ * task) to bound both the time appended entries remain unsynced and the number
+ * of entries replayed after a crash.
+ *<p>
+ * Journal is compacted on sync, by rewriting the unconsumed part of it into
+ * a new file that replaces the old one: always when all entries have been
+ * consumed, and otherwise when the consumed part is at least as long as both
+ * the unconsumed part and the compaction threshold
+ * (see {@link #setCompactThreshold}). Positions in the journal are logical
+ * (not reset by compaction); journal file starts with a header that
+ * contains the logical position of its first record.
+ *<p>
+ * Note the difference between {@link #clear}, which discards (and thereby
+ * acknowledges) all entries, and {@link #close}, which retains unconsumed
+ * entries in journal, for recovery. Also note that entries can not be built
+ * in place (see {@link #startEntryWriter}) with journaled buffers.
+ *
+ * @since 1.2.1
+ */
+public class JournaledChunkyBytesMemBuffer extends ChunkyBytesMemBufferImpl
+{
+    protected final static int WRITE_BUFFER_SIZE = 64000;
+
+    /**
+     * Length of the length prefix used for entries in journal file
+     */
+    protected final static int RECORD_HEADER_LENGTH = 4;
+
+    /**
+     * Length of the journal file header: logical position of the first
+     * record, followed by its complement
+     */
+    protected final static int FILE_HEADER_LENGTH = 16;
+
+    /**
+     * Default minimum length of consumed part of journal before journal is
+     * compacted (unless everything has been consumed)
+     */
+    public final static long DEFAULT_COMPACT_THRESHOLD = 1024L * 1024L;
+
+    /*
+    /**********************************************************************
+    /* Configuration
+    /**********************************************************************
+     */
+
+    protected final File _journalFile;
+
+    protected final File _checkpointFile;
+
+    /**
+     * Number of appended entries after which journal is synced
+     */
+    protected final int _syncEveryEntries;
+
+    /**
+     * Maximum time (in milliseconds) after which journal is synced on append
+     */
+    protected final long _syncIntervalMsecs;
+
+    protected long _compactThreshold = DEFAULT_COMPACT_THRESHOLD;
+
+    /*
+    /**********************************************************************
+    /* Journal state
+    /**********************************************************************
+     */
+
+    protected RandomAccessFile _journal;
+
+    protected FileChannel _journalChannel;
+
+    protected RandomAccessFile _checkpoint;
+
+    /**
+     * Logical position of the first record in journal file
+     */
+    protected long _journalBase;
+
+    /**
+     * Logical length of the journal, including content not yet flushed
+     */
+    protected long _journalLength;
+
+    /**
+     * Logical length of the journal content written to file
+     */
+    protected long _flushedLength;
+
+    /**
+     * Journal position last written into checkpoint file
+     */
+    protected long _checkpointedPos;
+
+    protected final byte[] _writeBuffer = new byte[WRITE_BUFFER_SIZE];
+
+    protected int _writeBufferLength;
+
+    protected int _unsyncedEntries;
+
+    protected long _lastSyncTime;
+
+    /**
+     * Number of entries recovered from journal on construction
+     */
+    protected final int _recoveredEntryCount;
+
+    /*
+    /**********************************************************************
+    /* Life-cycle
+    /**********************************************************************
+     */
+
+    /**
+     * @param src Buffer to wrap; must be empty
+     * @param journalFile Journal file to use: if it exists, unconsumed entries
+     *   it contains are recovered; otherwise it is created
+     * @param syncEveryEntries Number of entries appended after which journal is
+     *   synced to disk
+     * @param syncIntervalMsecs Maximum time after which journal is synced to
+     *   disk when entries are appended
+     */
+    public JournaledChunkyBytesMemBuffer(ChunkyBytesMemBuffer src, File journalFile,
+            int syncEveryEntries, long syncIntervalMsecs)
+        throws IOException
+    {
+        super(src);
+        if (_entryCount > 0) {
+            throw new IllegalArgumentException("Buffer to wrap must be empty (has "+_entryCount+" entries)");
+        }
+        if (syncEveryEntries < 1) {
+            throw new IllegalArgumentException("syncEveryEntries must be at least 1 (was "+syncEveryEntries+")");
+        }
+        _journalFile = journalFile;
+        _checkpointFile = new File(journalFile.getPath() + ".ckpt");
+        _syncEveryEntries = syncEveryEntries;
+        _syncIntervalMsecs = syncIntervalMsecs;
+        _journal = new RandomAccessFile(journalFile, "rw");
+        try {
+            _journalChannel = _journal.getChannel();
+            _checkpoint = new RandomAccessFile(_checkpointFile, "rw");
+            _recoveredEntryCount = _recover();
+        } catch (IOException e) {
+            _closeJournal();
+            throw e;
+        } catch (RuntimeException e) {
+            _closeJournal();
+            throw e;
+        }
+        _lastSyncTime = System.currentTimeMillis();
+    }
+
+    /*
+    /**********************************************************************
+    /* Public API, journal-specific
+    /**********************************************************************
+     */
+
+    public File getJournalFile() {
+        return _journalFile;
+    }
+
+    /**
+     * Accessor for number of entries that were recovered from journal
+     * when buffer was constructed.
+     */
+    public int getRecoveredEntryCount() {
+        return _recoveredEntryCount;
+    }
+
+    /**
+     * Method for changing minimum length of consumed part of journal (in bytes)
+     * needed for journal to be compacted when not all entries have been consumed.
+     */
+    public synchronized void setCompactThreshold(long minConsumedBytes)
+    {
+        if (minConsumedBytes < 0L) {
+            throw new IllegalArgumentException("minConsumedBytes can not be negative (was "+minConsumedBytes+")");
+        }
+        _compactThreshold = minConsumedBytes;
+    }
+
+    /**
+     * Method for forcing all appended entries to be synced to disk, and
+     * current consumer progress to be checkpointed (and journal to be
+     * compacted, if needed). Should be called periodically if appends may
+     * pause, since elapsed time is only checked on appends.
+     */
+    public synchronized void sync()
+    {
+        if (_journal == null) {
+            _reportClosed();
+        }
+        _sync();
+    }
+
+    /*
+    /**********************************************************************
+    /* Public API, write (append)
+    /**********************************************************************
+     */
+
+    @Override
+    public synchronized boolean tryAppendEntry(byte[] data, int dataOffset, int dataLength)
+    {
+        if (_journal == null) {
+            _reportClosed();
+        }
+        // journal first, so that failure to write it leaves nothing in buffer
+        final long journalPos = _journalLength;
+        _journalAppend(data, dataOffset, dataLength);
+        boolean appended = false;
+        try {
+            appended = super.tryAppendEntry(data, dataOffset, dataLength);
+        } finally {
+            if (!appended) {
+                _rollbackJournal(journalPos);
+            }
+        }
+        if (!appended) {
+            return false;
+        }
+        if (++_unsyncedEntries >= _syncEveryEntries
+                || (System.currentTimeMillis() - _lastSyncTime) >= _syncIntervalMsecs) {
+            _sync();
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized BytesEntryWriter startEntryWriter()
+    {
+        throw new IllegalStateException("Can not build entries in place for journaled buffers");
+    }
+
+    /**
+     * Snapshots can not be restored into journaled buffers, since restored
+     * entries would not be journaled; journal itself is used for recovery.
+     */
+    @Override
+    public synchronized void restoreFrom(ReadableByteChannel channel)
+    {
+        throw new IllegalStateException("Can not restore snapshots into journaled buffers");
+    }
+
+    @Override
+    protected boolean _acceptsDirectTransfer(ChunkyBytesMemBufferImpl src) {
+        // segments must not bypass journal
+        return false;
+    }
+
+    /*
+    /**********************************************************************
+    /* Public API, state changes
+    /**********************************************************************
+     */
+
+    /**
+     * Clearing the buffer discards all entries from the journal as well
+     */
+    @Override
+    public synchronized void clear()
+    {
+        super.clear();
+        if (_journal != null) {
+            _sync();
+        }
+    }
+
+    /**
+     * Closing retains unconsumed entries in the journal (after syncing),
+     * so that they are recovered when buffer is re-created.
+     */
+    @Override
+    protected void _clearForClose()
+    {
+        if (_journal != null) {
+            try {
+                _sync();
+            } finally {
+                _closeJournal();
+            }
+        }
+        super.clear();
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods, journaling
+    /**********************************************************************
+     */
+
+    /**
+     * Method for calculating journal position of the first entry that has
+     * not yet been consumed. Since entries are read in order, this can be
+     * calculated from the entry count and payload length still in buffer.
+     */
+    protected long _unconsumedJournalPos()
+    {
+        long pending = (long) _entryCount * RECORD_HEADER_LENGTH + _totalPayloadLength;
+        // peeked and partially read entries have not yet been consumed
+        if (_peekedEntry != null) {
+            pending += RECORD_HEADER_LENGTH + _peekedEntry.length;
+        } else if (_entryReader != null && _entryReader._active) {
+            pending += RECORD_HEADER_LENGTH + _entryReader.getLength();
+        }
+        return _journalLength - pending;
+    }
+
+    /**
+     * Method for appending a record for given entry into journal; if this
+     * fails, journal is rolled back to its previous length.
+     */
+    protected void _journalAppend(byte[] data, int offset, int length)
+    {
+        final long start = _journalLength;
+        try {
+            if ((_writeBuffer.length - _writeBufferLength) < RECORD_HEADER_LENGTH) {
+                _flushJournal();
+            }
+            byte[] buf = _writeBuffer;
+            int ptr = _writeBufferLength;
+            buf[ptr++] = (byte) (length >> 24);
+            buf[ptr++] = (byte) (length >> 16);
+            buf[ptr++] = (byte) (length >> 8);
+            buf[ptr++] = (byte) length;
+            _writeBufferLength = ptr;
+            if (length > (buf.length - ptr)) { // no point in copying big entries
+                _flushJournal();
+                _journal.write(data, offset, length);
+                _flushedLength += length;
+            } else {
+                System.arraycopy(data, offset, buf, ptr, length);
+                _writeBufferLength += length;
+            }
+        } catch (IOException e) {
+            _rollbackJournal(start);
+            throw _journalFailure("write to", e);
+        }
+        _journalLength = start + RECORD_HEADER_LENGTH + length;
+    }
+
+    /**
+     * Method for discarding journal content after given logical position,
+     * whether written to file or not.
+     */
+    protected void _rollbackJournal(long pos)
+    {
+        if (_flushedLength > pos) {
+            _writeBufferLength = 0;
+            try {
+                final long offset = _fileOffset(pos);
+                _journal.setLength(offset);
+                _journal.seek(offset);
+            } catch (IOException e) {
+                throw _journalFailure("roll back", e);
+            }
+            _flushedLength = pos;
+        } else {
+            _writeBufferLength = (int) (pos - _flushedLength);
+        }
+        _journalLength = pos;
+    }
+
+    protected void _flushJournal() throws IOException
+    {
+        if (_writeBufferLength > 0) {
+            _journal.write(_writeBuffer, 0, _writeBufferLength);
+            _flushedLength += _writeBufferLength;
+            _writeBufferLength = 0;
+        }
+    }
+
+    protected void _sync()
+    {
+        try {
+            _flushJournal();
+            if (_unsyncedEntries > 0) {
+                _journalChannel.force(false);
+            }
+            final long consumedPos = _unconsumedJournalPos();
+            if (consumedPos != _checkpointedPos) {
+                _writeCheckpoint(consumedPos);
+            }
+            final long consumed = consumedPos - _journalBase;
+            if (consumed > 0L) {
+                final long unconsumed = _journalLength - consumedPos;
+                if (unconsumed == 0L || (consumed >= _compactThreshold && consumed >= unconsumed)) {
+                    _compact(consumedPos);
+                }
+            }
+        } catch (IOException e) {
+            throw _journalFailure("sync", e);
+        }
+        _unsyncedEntries = 0;
+        _lastSyncTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Method for replacing journal file with one that only contains records
+     * starting at given logical position. New content is first written into
+     * a temporary file, which then replaces the journal file; consumer
+     * checkpoint must already be at given position.
+     */
+    protected void _compact(long fromPos) throws IOException
+    {
+        final File tmpFile = _tempFile();
+        RandomAccessFile out = new RandomAccessFile(tmpFile, "rw");
+        try {
+            out.setLength(0L);
+            _writeHeader(out, fromPos);
+            final FileChannel outChannel = out.getChannel();
+            final long offset = _fileOffset(fromPos);
+            final long length = _flushedLength - fromPos;
+            long copied = 0L;
+            while (copied < length) {
+                copied += _journalChannel.transferTo(offset + copied, length - copied, outChannel);
+            }
+            outChannel.force(false);
+        } finally {
+            out.close();
+        }
+        _journal.close();
+        // can not overwrite existing files on all platforms
+        if (!tmpFile.renameTo(_journalFile)
+                && !(_journalFile.delete() && tmpFile.renameTo(_journalFile))) {
+            throw new IOException("Failed to rename compacted journal '"+tmpFile+"' as '"+_journalFile+"'");
+        }
+        _journal = new RandomAccessFile(_journalFile, "rw");
+        _journalChannel = _journal.getChannel();
+        _journalBase = fromPos;
+        _journal.seek(_fileOffset(_flushedLength));
+    }
+
+    /**
+     * Checkpoint is written as journal position followed by its complement,
+     * to allow detecting partially written checkpoints.
+     */
+    protected void _writeCheckpoint(long pos) throws IOException
+    {
+        _checkpoint.seek(0L);
+        _checkpoint.writeLong(pos);
+        _checkpoint.writeLong(~pos);
+        _checkpoint.getChannel().force(false);
+        _checkpointedPos = pos;
+    }
+
+    /**
+     * Method called on construction to read all unconsumed entries from
+     * the journal into the buffer.
+     *
+     * @return Number of entries recovered
+     */
+    protected int _recover() throws IOException
+    {
+        // left over from interrupted compaction? Journal itself is still valid
+        _tempFile().delete();
+        long fileLength = _journal.length();
+        if (fileLength == 0L) { // new journal
+            _writeHeader(_journal, 0L);
+            fileLength = FILE_HEADER_LENGTH;
+        } else {
+            if (fileLength < FILE_HEADER_LENGTH) {
+                throw _corruptHeader();
+            }
+            _journal.seek(0L);
+            _journalBase = _journal.readLong();
+            if (_journal.readLong() != ~_journalBase || _journalBase < 0L) {
+                throw _corruptHeader();
+            }
+        }
+        final long end = _journalBase + fileLength - FILE_HEADER_LENGTH;
+        long pos = _journalBase;
+        if (_checkpoint.length() >= 16L) {
+            long ckpt = _checkpoint.readLong();
+            // if checkpoint is corrupt (or does not match journal), safest to replay everything
+            if (_checkpoint.readLong() == ~ckpt && ckpt >= _journalBase && ckpt <= end) {
+                pos = ckpt;
+            }
+        }
+        _checkpointedPos = pos;
+        int count = 0;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(_journalFile),
+                WRITE_BUFFER_SIZE));
+        try {
+            final long skip = _fileOffset(pos);
+            long skipped = 0L;
+            while (skipped < skip) {
+                long n = in.skip(skip - skipped);
+                if (n <= 0L) {
+                    break;
+                }
+                skipped += n;
+            }
+            while ((end - pos) >= RECORD_HEADER_LENGTH) {
+                final int length = in.readInt();
+                // partially written record at the end (crash during write)? Ignore
+                if (length < 0 || length > (end - pos - RECORD_HEADER_LENGTH)) {
+                    break;
+                }
+                byte[] data = new byte[length];
+                in.readFully(data);
+                if (!super.tryAppendEntry(data, 0, length)) {
+                    throw new IllegalStateException("Journal '"+_journalFile+"' contains more unconsumed entries than fit in buffer (recovered "
+                            +count+" entries)");
+                }
+                pos += RECORD_HEADER_LENGTH + length;
+                ++count;
+            }
+        } finally {
+            in.close();
+        }
+        // get rid of possible partial record, to append after last full one
+        if (pos < end) {
+            _journal.setLength(_fileOffset(pos));
+        }
+        _journal.seek(_fileOffset(pos));
+        _journalLength = _flushedLength = pos;
+        return count;
+    }
+
+    protected final long _fileOffset(long pos) {
+        return FILE_HEADER_LENGTH + (pos - _journalBase);
+    }
+
+    protected File _tempFile() {
+        return new File(_journalFile.getPath() + ".tmp");
+    }
+
+    protected static void _writeHeader(RandomAccessFile file, long base) throws IOException
+    {
+        file.seek(0L);
+        file.writeLong(base);
+        file.writeLong(~base);
+    }
+
+    protected void _closeJournal()
+    {
+        try {
+            _journal.close();
+        } catch (IOException e) { }
+        if (_checkpoint != null) {
+            try {
+                _checkpoint.close();
+            } catch (IOException e) { }
+        }
+        _journal = null;
+        _journalChannel = null;
+        _checkpoint = null;
+    }
+
+    protected IllegalStateException _corruptHeader() {
+        return new IllegalStateException("Corrupt header in journal '"+_journalFile+"'");
+    }
+
+    protected IllegalStateException _journalFailure(String action, IOException e) {
+        return new IllegalStateException("Failed to "+action+" journal '"+_journalFile+"': "+e.getMessage(), e);
+    }
+}
@@ -0,0 +1,262 @@
+package com.fasterxml.util.membuf.impl;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.fasterxml.util.membuf.base.BytesSegment;
+import com.fasterxml.util.membuf.base.SegmentAllocatorBase;
+
+/**
+ * {@link ByteBufferBytesSegment} variant that stores data in a slice of
+ * a memory-mapped file region, instead of in heap or direct memory.
+ * This allows buffers to hold more content than fits in physical memory
+ * (or is allowed by <code>-XX:MaxDirectMemorySize</code>), letting the
+ * operating system page out content that is not actively accessed.
+ *<p>
+ * Note that the backing file is only used as swap space: its contents are
+ * not meant to persist across restarts.
+ *
+ * @since 1.2.1
+ */
+public class MappedFileBytesSegment extends ByteBufferBytesSegment
+{
+    /**
+     * Offset of the segment within backing file
+     */
+    protected final long _fileOffset;
+
+    public MappedFileBytesSegment(ByteBuffer buffer, long fileOffset)
+    {
+        super(buffer);
+        _fileOffset = fileOffset;
+    }
+
+    /**
+     * Factory method for constructing {@link SegmentAllocatorBase} that
+     * constructs instances of this segment type, backed by given file.
+     * File is created if it does not exist, and truncated if it does.
+     *
+     * @param segmentsPerRegion Number of segments to map at a time (each
+     *    mapped region must be less than 2 gigabytes)
+     */
+    public static Allocator allocator(File file, int segmentSize, int maxSegments,
+            int segmentsPerRegion) throws IOException {
+        return new Allocator(file, segmentSize, maxSegments, segmentsPerRegion);
+    }
+
+    public long getFileOffset() {
+        return _fileOffset;
+    }
+
+    /**
+     * Segments share mapped regions, which are only unmapped when garbage
+     * collected; so there is nothing to release for individual segments.
+     */
+    @Override
+    public void dispose() {
+        _readBuffer = null;
+        _consumeView = null;
+    }
+
+    /*
+    /**********************************************************************
+    /* Helper classes
+    /**********************************************************************
+     */
+
+    /**
+     * Allocator that carves segments out of regions of a memory-mapped file,
+     * mapping new regions as needed. Since file space is not released until
+     * allocator is closed, all released segments are retained for reuse;
+     * so file grows up to <code>segmentSize * maxSegments</code> bytes.
+     *<p>
+     * Allocator must be closed after all buffers using it have been closed:
+     * this closes the backing file and (optionally) deletes it. Mapped regions
+     * themselves are unmapped when garbage collected.
+     */
+    public static class Allocator extends SegmentAllocatorBase<BytesSegment>
+    {
+        protected final File _file;
+
+        protected final RandomAccessFile _raFile;
+
+        protected final FileChannel _channel;
+
+        protected final int _segmentsPerRegion;
+
+        protected boolean _deleteOnClose = true;
+
+        /**
+         * Segments released beyond reuse limits (for example, after lowering
+         * maximum segment count): since their memory can not be freed while
+         * allocator is open, they are kept here (still counted against quota)
+         * instead of being dropped, and used before carving new segments.
+         */
+        protected BytesSegment _firstSpareSegment;
+
+        protected int _spareSegmentCount;
+
+        /**
+         * Region from which segments are currently allocated, if any
+         */
+        protected MappedByteBuffer _currentRegion;
+
+        /**
+         * Index of the next segment to allocate from {@link #_currentRegion}
+         */
+        protected int _nextInRegion;
+
+        /**
+         * File offset at which the next region is to be mapped
+         */
+        protected long _nextRegionOffset;
+
+        public Allocator(File file, int segmentSize, int maxSegments, int segmentsPerRegion)
+            throws IOException
+        {
+            // all released segments are retained, since file space is not freed
+            super(segmentSize, maxSegments, maxSegments);
+            if (segmentsPerRegion < 1) {
+                throw new IllegalArgumentException("segmentsPerRegion must be at least 1 (was "+segmentsPerRegion+")");
+            }
+            if (((long) segmentSize * segmentsPerRegion) > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Region size (segmentSize * segmentsPerRegion) must be less than 2 GB");
+            }
+            _file = file;
+            _segmentsPerRegion = segmentsPerRegion;
+            _raFile = new RandomAccessFile(file, "rw");
+            _raFile.setLength(0L);
+            _channel = _raFile.getChannel();
+        }
+
+        /**
+         * Method for specifying whether backing file is to be deleted when
+         * allocator is closed; default is true.
+         */
+        public Allocator deleteOnClose(boolean state) {
+            _deleteOnClose = state;
+            return this;
+        }
+
+        public File getFile() {
+            return _file;
+        }
+
+        /**
+         * Accessor for number of released segments kept as spares (see
+         * {@link #_firstSpareSegment}); not included in reusable segment count.
+         */
+        public synchronized int getSpareSegmentCount() {
+            return _spareSegmentCount;
+        }
+
+        /**
+         * Since file space is not released, segments are only released
+         * when allocator has been closed.
+         */
+        @Override
+        public synchronized int trim(int keepSegments) {
+            return _closed ? super.trim(keepSegments) : 0;
+        }
+
+        @Override
+        public synchronized SegmentAllocatorBase<BytesSegment> adaptiveReuse(int maxSegmentsToRetain,
+                long sampleIntervalMsecs, long idleMsecs) {
+            throw new IllegalStateException("Memory-mapped segments are always retained for reuse");
+        }
+
+        @Override
+        public synchronized void close()
+        {
+            if (_closed) {
+                return;
+            }
+            super.close();
+            // spares were never disposed of, nor quota released for them
+            while (_spareSegmentCount > 0) {
+                BytesSegment seg = _firstSpareSegment;
+                _firstSpareSegment = seg.getNext();
+                --_spareSegmentCount;
+                super._dispose(seg);
+            }
+            _currentRegion = null;
+            try {
+                _channel.close();
+                _raFile.close();
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to close file '"+_file+"': "+e.getMessage(), e);
+            } finally {
+                if (_deleteOnClose) {
+                    _file.delete();
+                }
+            }
+        }
+
+        /**
+         * While open, segments are not disposed of, but kept as spares,
+         * since file space is not released until allocator is closed.
+         */
+        @Override
+        protected void _dispose(BytesSegment seg)
+        {
+            if (_closed) {
+                super._dispose(seg);
+            } else {
+                _firstSpareSegment = seg.relink(_firstSpareSegment);
+                ++_spareSegmentCount;
+            }
+        }
+
+        @Override
+        protected int _segmentsWithQuota() {
+            return _reusableSegmentCount + _spareSegmentCount;
+        }
+
+        @Override
+        protected BytesSegment _allocateSegment()
+        {
+            // can reuse a segment returned earlier?
+            if (_reusableSegmentCount > 0) {
+                BytesSegment segment = _firstReusableSegment;
+                _firstReusableSegment = segment.getNext();
+                ++_bufferOwnedSegmentCount;
+                --_reusableSegmentCount;
+                return segment;
+            }
+            if (_spareSegmentCount > 0) {
+                BytesSegment segment = _firstSpareSegment;
+                _firstSpareSegment = segment.getNext();
+                ++_bufferOwnedSegmentCount;
+                --_spareSegmentCount;
+                return segment;
+            }
+            if (_currentRegion == null || _nextInRegion == _segmentsPerRegion) {
+                _mapRegion();
+            }
+            final int offset = _nextInRegion * _segmentSize;
+            ByteBuffer buf = _currentRegion.duplicate();
+            buf.position(offset);
+            buf.limit(offset + _segmentSize);
+            BytesSegment segment = new MappedFileBytesSegment(buf.slice(),
+                    _nextRegionOffset - _currentRegion.capacity() + offset);
+            ++_nextInRegion;
+            ++_bufferOwnedSegmentCount;
+            return segment;
+        }
+
+        protected void _mapRegion()
+        {
+            final int regionSize = _segmentSize * _segmentsPerRegion;
+            try {
+                _currentRegion = _channel.map(FileChannel.MapMode.READ_WRITE, _nextRegionOffset, regionSize);
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to map region of "+regionSize+" bytes at offset "
+                        +_nextRegionOffset+" of file '"+_file+"': "+e.getMessage(), e);
+            }
+            _nextRegionOffset += regionSize;
+            _nextInRegion = 0;
+        }
+    }
+}
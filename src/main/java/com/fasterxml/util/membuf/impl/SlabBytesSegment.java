@@ -0,0 +1,301 @@
+package com.fasterxml.util.membuf.impl;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import com.fasterxml.util.membuf.base.BytesSegment;
+import com.fasterxml.util.membuf.base.SegmentAllocatorBase;
+import com.fasterxml.util.membuf.util.DirectMemory;
+
+/**
+ * {@link ByteBufferBytesSegment} variant that stores data in a slice of
+ * a large direct "slab" buffer, shared with other segments, instead
+ * of in a direct buffer of its own. This avoids cost of allocating (and
+ * freeing) native memory for each segment separately, as well as
+ * fragmentation of native memory when segments are small.
+ *
+ * @since 1.2.1
+ */
+public class SlabBytesSegment extends ByteBufferBytesSegment
+{
+    public SlabBytesSegment(ByteBuffer buffer)
+    {
+        super(buffer);
+    }
+
+    /**
+     * Factory method for constructing {@link SegmentAllocatorBase} that
+     * constructs instances of this segment type, aligning segments at
+     * {@link Allocator#DEFAULT_ALIGNMENT} byte boundaries.
+     *
+     * @param segmentsPerSlab Number of segments to carve out of each slab
+     * @param initialSlabs Number of slabs to allocate up front
+     */
+    public static Allocator allocator(int segmentSize, int maxSegments,
+            int segmentsPerSlab, int initialSlabs) {
+        return new Allocator(segmentSize, maxSegments, segmentsPerSlab, initialSlabs,
+                Allocator.DEFAULT_ALIGNMENT);
+    }
+
+    /**
+     * Segments share slabs, which are only released when allocator is
+     * closed; so there is nothing to release for individual segments.
+     */
+    @Override
+    public void dispose() {
+        _readBuffer = null;
+        _consumeView = null;
+    }
+
+    /*
+    /**********************************************************************
+    /* Helper classes
+    /**********************************************************************
+     */
+
+    /**
+     * Allocator that carves segments out of large direct buffers ("slabs"),
+     * allocating new slabs as needed, up to <code>maxSegments</code> segments
+     * in total. Segments are aligned at specified boundary (usually memory page
+     * size) if alignment of buffers can be found out (see
+     * {@link DirectMemory#alignmentOffset}: on JDK 9 and above, and on earlier
+     * JDKs that allow access to native addresses); if not, segments are still
+     * padded to multiples of alignment.
+     * Since slabs can not be partially freed, all released segments are
+     * retained for reuse, and slabs are only released when allocator is closed.
+     *<p>
+     * Allocator must be closed only after all buffers using it have been closed,
+     * since closing it frees native memory of slabs (see {@link DirectMemory}).
+     */
+    public static class Allocator extends SegmentAllocatorBase<BytesSegment>
+    {
+        /**
+         * Default alignment of segments: usual size of memory pages
+         */
+        public final static int DEFAULT_ALIGNMENT = 4096;
+
+        protected final int _segmentsPerSlab;
+
+        protected final int _alignment;
+
+        /**
+         * Distance between starting offsets of consecutive segments in a slab:
+         * segment size rounded up to alignment
+         */
+        protected final int _segmentStride;
+
+        protected final ArrayList<ByteBuffer> _slabs = new ArrayList<ByteBuffer>();
+
+        /**
+         * Total number of bytes allocated for slabs
+         */
+        protected long _slabBytes;
+
+        /**
+         * Total number of segments in allocated slabs
+         */
+        protected int _slabSegments;
+
+        /**
+         * Segments released beyond reuse limits (for example, after lowering
+         * maximum segment count): since their memory can not be freed while
+         * allocator is open, they are kept here (still counted against quota)
+         * instead of being dropped, and used before carving new segments.
+         */
+        protected BytesSegment _firstSpareSegment;
+
+        protected int _spareSegmentCount;
+
+        /**
+         * Index of the slab from which segments are currently carved;
+         * -1 before the first segment is allocated
+         */
+        protected int _currentSlabIndex = -1;
+
+        /**
+         * Slab from which segments are currently carved, if any
+         */
+        protected ByteBuffer _currentSlab;
+
+        /**
+         * Offset of the next segment to carve out of {@link #_currentSlab}
+         */
+        protected int _nextOffset;
+
+        /**
+         * Number of segments that can still be carved out of {@link #_currentSlab}
+         */
+        protected int _remainingInSlab;
+
+        /**
+         * @param segmentsPerSlab Number of segments to carve out of each slab
+         * @param initialSlabs Number of slabs to allocate up front
+         * @param alignment Byte boundary at which to align segments; 1 for
+         *    no alignment
+         */
+        public Allocator(int segmentSize, int maxSegments, int segmentsPerSlab,
+                int initialSlabs, int alignment)
+        {
+            // all released segments are retained, since slabs can not be freed partially
+            super(segmentSize, maxSegments, maxSegments);
+            if (segmentsPerSlab < 1) {
+                throw new IllegalArgumentException("segmentsPerSlab must be at least 1 (was "+segmentsPerSlab+")");
+            }
+            if (alignment < 1 || (alignment & (alignment - 1)) != 0) {
+                throw new IllegalArgumentException("alignment must be a power of two (was "+alignment+")");
+            }
+            final long stride = (((long) segmentSize + alignment - 1) / alignment) * alignment;
+            if ((stride * segmentsPerSlab + alignment) > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Slab size (segmentSize * segmentsPerSlab) must be less than 2 GB");
+            }
+            _segmentsPerSlab = segmentsPerSlab;
+            _alignment = alignment;
+            _segmentStride = (int) stride;
+            for (int i = 0; i < initialSlabs && _slabSegments < maxSegments; ++i) {
+                _allocateSlab();
+            }
+        }
+
+        /**
+         * Accessor for number of slabs allocated so far
+         */
+        public synchronized int getSlabCount() {
+            return _slabs.size();
+        }
+
+        /**
+         * Accessor for total number of bytes of native memory allocated
+         * for slabs so far
+         */
+        public synchronized long getSlabBytes() {
+            return _slabBytes;
+        }
+
+        /**
+         * Accessor for number of released segments kept as spares (see
+         * {@link #_firstSpareSegment}); not included in reusable segment count.
+         */
+        public synchronized int getSpareSegmentCount() {
+            return _spareSegmentCount;
+        }
+
+        /**
+         * Since slabs can not be partially freed, segments are only released
+         * when allocator has been closed.
+         */
+        @Override
+        public synchronized int trim(int keepSegments) {
+            return _closed ? super.trim(keepSegments) : 0;
+        }
+
+        @Override
+        public synchronized SegmentAllocatorBase<BytesSegment> adaptiveReuse(int maxSegmentsToRetain,
+                long sampleIntervalMsecs, long idleMsecs) {
+            throw new IllegalStateException("Slab segments are always retained for reuse");
+        }
+
+        @Override
+        public synchronized void close()
+        {
+            if (_closed) {
+                return;
+            }
+            super.close();
+            // spares were never disposed of, nor quota released for them
+            while (_spareSegmentCount > 0) {
+                BytesSegment seg = _firstSpareSegment;
+                _firstSpareSegment = seg.getNext();
+                --_spareSegmentCount;
+                super._dispose(seg);
+            }
+            _currentSlab = null;
+            for (ByteBuffer slab : _slabs) {
+                DirectMemory.release(slab);
+            }
+            _slabs.clear();
+        }
+
+        /**
+         * While open, segments are not disposed of, but kept as spares,
+         * since their memory can not be freed without freeing the whole slab.
+         */
+        @Override
+        protected void _dispose(BytesSegment seg)
+        {
+            if (_closed) {
+                super._dispose(seg);
+            } else {
+                _firstSpareSegment = seg.relink(_firstSpareSegment);
+                ++_spareSegmentCount;
+            }
+        }
+
+        @Override
+        protected int _segmentsWithQuota() {
+            return _reusableSegmentCount + _spareSegmentCount;
+        }
+
+        @Override
+        protected BytesSegment _allocateSegment()
+        {
+            // can reuse a segment returned earlier?
+            if (_reusableSegmentCount > 0) {
+                BytesSegment segment = _firstReusableSegment;
+                _firstReusableSegment = segment.getNext();
+                ++_bufferOwnedSegmentCount;
+                --_reusableSegmentCount;
+                return segment;
+            }
+            if (_spareSegmentCount > 0) {
+                BytesSegment segment = _firstSpareSegment;
+                _firstSpareSegment = segment.getNext();
+                ++_bufferOwnedSegmentCount;
+                --_spareSegmentCount;
+                return segment;
+            }
+            if (_remainingInSlab == 0) {
+                _nextSlab();
+            }
+            ByteBuffer buf = _currentSlab.duplicate();
+            buf.position(_nextOffset);
+            buf.limit(_nextOffset + _segmentSize);
+            BytesSegment segment = new SlabBytesSegment(buf.slice());
+            _nextOffset += _segmentStride;
+            --_remainingInSlab;
+            ++_bufferOwnedSegmentCount;
+            return segment;
+        }
+
+        /**
+         * Method for moving to the next slab to carve segments from, allocating
+         * it if all allocated slabs have been used.
+         */
+        protected void _nextSlab()
+        {
+            if (++_currentSlabIndex == _slabs.size()) {
+                _allocateSlab();
+            }
+            final ByteBuffer slab = _slabs.get(_currentSlabIndex);
+            // first segment is aligned, if alignment of slab is known
+            final int misalignment = DirectMemory.alignmentOffset(slab, _alignment);
+            _nextOffset = (misalignment < 0) ? 0
+                    : ((_alignment - misalignment) & (_alignment - 1));
+            _currentSlab = slab;
+            _remainingInSlab = (slab.capacity() - _alignment + 1) / _segmentStride;
+        }
+
+        protected void _allocateSlab()
+        {
+            // no point in allocating more than can be used, if limit is known
+            int segments = _segmentsPerSlab;
+            if (_maxSegmentsToAllocate > _slabSegments) {
+                segments = Math.min(segments, _maxSegmentsToAllocate - _slabSegments);
+            }
+            // allocate a bit more to allow aligning the first segment
+            final int size = _segmentStride * segments + _alignment - 1;
+            _slabs.add(ByteBuffer.allocateDirect(size));
+            _slabBytes += size;
+            _slabSegments += segments;
+        }
+    }
+}
@@ -0,0 +1,645 @@
+package com.fasterxml.util.membuf.impl;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import com.fasterxml.util.membuf.*;
+
+/**
+ * {@link ChunkyBytesMemBuffer} implementation that adds an overflow tier
+ * on disk: when in-memory segments are exhausted, entries are appended
+ * sequentially into a spill file instead of being rejected. Spilled entries
+ * are moved back into memory, in order, as soon as there is room; so
+ * entries are always read in strict FIFO order, and readers only ever
+ * access in-memory segments. Spill file I/O is buffered, so that reads
+ * and writes are done in big sequential batches.
+ *<p>
+ * Spill file is only created when needed, and deleted once all spilled
+ * entries have been moved back into memory (or buffer is cleared or closed).
+ * While spilled entries remain, the part of spill file already moved back
+ * is dropped (by moving the remaining content to the start of the file)
+ * once it is at least as long as both the remaining part and the compaction
+ * threshold (see {@link #setCompactThreshold}); and only the remaining part
+ * counts against maximum spill length.
+ * Note that entries can only be spilled if they are small enough to fit
+ * in memory once read back; and that entries can not be built in place
+ * (see {@link #startEntryWriter}) while there are spilled entries.
+ *<p>
+ * Instances are usually created using a {@link MemBufferDecorator}, by
+ * wrapping buffers constructed by {@link MemBuffersForBytes}.
+ *
+ * @since 1.2.1
+ */
+public class SpillingChunkyBytesMemBuffer extends ChunkyBytesMemBufferImpl
+{
+    protected final static int DEFAULT_IO_BUFFER_SIZE = 64000;
+
+    /**
+     * Length of the length prefix used for entries in spill file
+     */
+    protected final static int SPILL_HEADER_LENGTH = 4;
+
+    /**
+     * Default minimum length of the part of spill file already moved back
+     * into memory, before spill file is compacted
+     */
+    public final static long DEFAULT_COMPACT_THRESHOLD = 1024L * 1024L;
+
+    /*
+    /**********************************************************************
+    /* Configuration
+    /**********************************************************************
+     */
+
+    protected final File _spillFile;
+
+    /**
+     * Maximum number of bytes (including per-entry overhead) spill file
+     * is allowed to grow to.
+     */
+    protected final long _maxSpillLength;
+
+    protected final int _ioBufferSize;
+
+    protected long _compactThreshold = DEFAULT_COMPACT_THRESHOLD;
+
+    /*
+    /**********************************************************************
+    /* Spill state
+    /**********************************************************************
+     */
+
+    /**
+     * Spill file, if one is open; null if no entries have been spilled
+     */
+    protected RandomAccessFile _spill;
+
+    protected int _spilledEntryCount;
+
+    protected long _spilledPayloadLength;
+
+    /**
+     * Position of the next spilled entry within spill file
+     */
+    protected long _spillReadPos;
+
+    /**
+     * Number of bytes flushed into the spill file so far
+     */
+    protected long _spillFlushedLength;
+
+    /**
+     * Buffer used for batching writes into spill file
+     */
+    protected byte[] _writeBuffer;
+
+    protected int _writeBufferLength;
+
+    /**
+     * Buffer used for batching reads from spill file
+     */
+    protected byte[] _readCache;
+
+    /**
+     * Position within spill file of the first byte in {@link #_readCache}
+     */
+    protected long _readCacheStart;
+
+    protected int _readCacheLength;
+
+    /**
+     * Buffer used for moving entries from spill file back into memory
+     */
+    protected byte[] _transferBuffer;
+
+    /*
+    /**********************************************************************
+    /* Life-cycle
+    /**********************************************************************
+     */
+
+    public SpillingChunkyBytesMemBuffer(ChunkyBytesMemBuffer src, File spillFile) {
+        this(src, spillFile, Long.MAX_VALUE, DEFAULT_IO_BUFFER_SIZE);
+    }
+
+    /**
+     * @param src Buffer to wrap
+     * @param spillFile File to use for spilled entries; created when needed,
+     *   deleted when no longer needed
+     * @param maxSpillLength Maximum length of spilled entries not yet moved
+     *   back into memory (including per-entry overhead), in bytes
+     * @param ioBufferSize Size of buffers used for batching reads from and
+     *   writes to spill file
+     */
+    public SpillingChunkyBytesMemBuffer(ChunkyBytesMemBuffer src, File spillFile,
+            long maxSpillLength, int ioBufferSize)
+    {
+        super(src);
+        _spillFile = spillFile;
+        _maxSpillLength = maxSpillLength;
+        _ioBufferSize = Math.max(ioBufferSize, SPILL_HEADER_LENGTH);
+    }
+
+    /**
+     * Method for changing minimum length of the part of spill file already
+     * moved back into memory (in bytes) needed for spill file to be compacted.
+     */
+    public synchronized void setCompactThreshold(long minDrainedBytes)
+    {
+        if (minDrainedBytes < 0L) {
+            throw new IllegalArgumentException("minDrainedBytes can not be negative (was "+minDrainedBytes+")");
+        }
+        _compactThreshold = minDrainedBytes;
+    }
+
+    /*
+    /**********************************************************************
+    /* Public API, simple statistics (not data) accessors
+    /**********************************************************************
+     */
+
+    @Override
+    public synchronized int getEntryCount() {
+        return super.getEntryCount() + _spilledEntryCount;
+    }
+
+    @Override
+    public synchronized boolean isEmpty() {
+        return super.isEmpty() && (_spilledEntryCount == 0);
+    }
+
+    @Override
+    public synchronized long getTotalPayloadLength() {
+        return super.getTotalPayloadLength() + _spilledPayloadLength;
+    }
+
+    /**
+     * Accessor for number of entries currently spilled on disk (included
+     * in {@link #getEntryCount()}).
+     */
+    public synchronized int getSpilledEntryCount() {
+        return _spilledEntryCount;
+    }
+
+    /**
+     * Accessor for total payload length of entries currently spilled on disk
+     * (included in {@link #getTotalPayloadLength()}).
+     */
+    public synchronized long getSpilledPayloadLength() {
+        return _spilledPayloadLength;
+    }
+
+    /*
+    /**********************************************************************
+    /* Public API, write (append)
+    /**********************************************************************
+     */
+
+    @Override
+    public synchronized boolean tryAppendEntry(byte[] data, int dataOffset, int dataLength)
+    {
+        if (_head == null) {
+            _reportClosed();
+        }
+        // entry being built in place must be completed first (and can not be spilled)
+        if (_hasEntryWriter()) {
+            return false;
+        }
+        // as long as there are spilled entries, new ones must follow them to retain ordering
+        if (_spilledEntryCount == 0) {
+            if (super.tryAppendEntry(data, dataOffset, dataLength)) {
+                return true;
+            }
+        }
+        // Entry must be small enough to be moved back into memory later on
+        if (dataLength > _maxSpillableLength()) {
+            return false;
+        }
+        // only entries not yet moved back count against the limit
+        final long spilledLength = _spillFlushedLength + _writeBufferLength - _spillReadPos;
+        if ((spilledLength + SPILL_HEADER_LENGTH + dataLength) > _maxSpillLength) {
+            return false;
+        }
+        _spillAppend(data, dataOffset, dataLength);
+        ++_spilledEntryCount;
+        _spilledPayloadLength += dataLength;
+        // may have room to move entries back right away
+        _refill();
+        return true;
+    }
+
+    @Override
+    public synchronized BytesEntryWriter startEntryWriter()
+    {
+        if (_spilledEntryCount > 0) {
+            throw new IllegalStateException("Can not build entries in place while there are spilled entries ("
+                    +_spilledEntryCount+")");
+        }
+        return super.startEntryWriter();
+    }
+
+    /*
+    /**********************************************************************
+    /* Public API, reading: need to move spilled entries back as room frees up
+    /**********************************************************************
+     */
+
+    @Override
+    public synchronized int getNextEntryLength() {
+        _refill();
+        return super.getNextEntryLength();
+    }
+
+    @Override
+    public synchronized byte[] getNextEntry() throws InterruptedException {
+        _refill();
+        byte[] result = super.getNextEntry();
+        _refill();
+        return result;
+    }
+
+    @Override
+    public synchronized byte[] getNextEntryIfAvailable() {
+        _refill();
+        byte[] result = super.getNextEntryIfAvailable();
+        _refill();
+        return result;
+    }
+
+    @Override
+    public synchronized byte[] getNextEntry(long timeoutMsecs) throws InterruptedException {
+        _refill();
+        byte[] result = super.getNextEntry(timeoutMsecs);
+        _refill();
+        return result;
+    }
+
+    @Override
+    public synchronized int readNextEntry(byte[] buffer, int offset) throws InterruptedException {
+        _refill();
+        int result = super.readNextEntry(buffer, offset);
+        _refill();
+        return result;
+    }
+
+    @Override
+    public synchronized int readNextEntryIfAvailable(byte[] buffer, int offset) {
+        _refill();
+        int result = super.readNextEntryIfAvailable(buffer, offset);
+        _refill();
+        return result;
+    }
+
+    @Override
+    public synchronized int readNextEntry(long timeoutMsecs, byte[] buffer, int offset)
+        throws InterruptedException
+    {
+        _refill();
+        int result = super.readNextEntry(timeoutMsecs, buffer, offset);
+        _refill();
+        return result;
+    }
+
+    // Note: for in-place readers, room is freed during reading; refill happens on next call
+    @Override
+    public synchronized BytesEntryReader getNextEntryReader() throws InterruptedException {
+        _refill();
+        return super.getNextEntryReader();
+    }
+
+    @Override
+    public synchronized BytesEntryReader getNextEntryReaderIfAvailable() {
+        _refill();
+        return super.getNextEntryReaderIfAvailable();
+    }
+
+    @Override
+    public synchronized int skipNextEntry() {
+        _refill();
+        int result = super.skipNextEntry();
+        _refill();
+        return result;
+    }
+
+    @Override
+    public synchronized int consumeNextEntry(EntryConsumer<? super ByteBuffer> consumer) {
+        _refill();
+        try {
+            return super.consumeNextEntry(consumer);
+        } finally {
+            _refill();
+        }
+    }
+
+    @Override
+    public synchronized byte[] peekNextEntry() {
+        _refill();
+        byte[] result = super.peekNextEntry();
+        _refill();
+        return result;
+    }
+
+    @Override
+    protected int _transferEntriesTo(ChunkyBytesMemBuffer target, int maxEntries)
+    {
+        _refill();
+        int total = 0;
+        while (total < maxEntries) {
+            int count = super._transferEntriesTo(target, maxEntries - total);
+            if (count == 0) {
+                break;
+            }
+            total += count;
+            _refill();
+        }
+        return total;
+    }
+
+    @Override
+    protected boolean _acceptsDirectTransfer(ChunkyBytesMemBufferImpl src) {
+        // can't bypass spill file, if it has entries
+        return (_spilledEntryCount == 0);
+    }
+
+    /*
+    /**********************************************************************
+    /* Public API, snapshots
+    /**********************************************************************
+     */
+
+    /**
+     * Snapshots can only be taken when all entries are in memory
+     */
+    @Override
+    public synchronized long snapshotTo(WritableByteChannel channel) throws IOException
+    {
+        _refill();
+        if (_spilledEntryCount > 0) {
+            throw new IllegalStateException("Can not take snapshot while there are spilled entries ("
+                    +_spilledEntryCount+")");
+        }
+        return super.snapshotTo(channel);
+    }
+
+    /*
+    /**********************************************************************
+    /* Public API, state changes
+    /**********************************************************************
+     */
+
+    @Override
+    public synchronized void clear()
+    {
+        super.clear();
+        _closeSpill();
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods, spilling
+    /**********************************************************************
+     */
+
+    /**
+     * Maximum length of an entry that can be spilled: one that is guaranteed
+     * to fit in memory once buffer is empty.
+     */
+    protected int _maxSpillableLength()
+    {
+        long max = (long) (_maxSegmentsToAllocate - 1) * _segmentSize - 5;
+        return (int) Math.min(Integer.MAX_VALUE, max);
+    }
+
+    protected void _spillAppend(byte[] data, int offset, int length)
+    {
+        if (_spill == null) {
+            _openSpill();
+        }
+        if ((_writeBuffer.length - _writeBufferLength) < SPILL_HEADER_LENGTH) {
+            _flushSpill();
+        }
+        byte[] buf = _writeBuffer;
+        int ptr = _writeBufferLength;
+        buf[ptr++] = (byte) (length >> 24);
+        buf[ptr++] = (byte) (length >> 16);
+        buf[ptr++] = (byte) (length >> 8);
+        buf[ptr++] = (byte) length;
+        _writeBufferLength = ptr;
+        // number of bytes of this entry added so far, for rolling back on failure
+        int appended = SPILL_HEADER_LENGTH;
+        boolean ok = false;
+        try {
+            while (length > 0) {
+                if (_writeBufferLength == buf.length) {
+                    _flushSpill();
+                }
+                int count = Math.min(length, buf.length - _writeBufferLength);
+                System.arraycopy(data, offset, buf, _writeBufferLength, count);
+                _writeBufferLength += count;
+                appended += count;
+                offset += count;
+                length -= count;
+            }
+            ok = true;
+        } finally {
+            if (!ok) {
+                _rollbackSpillAppend(appended);
+            }
+        }
+    }
+
+    /**
+     * Method called if appending of an entry in spill file fails, to drop
+     * given number of bytes of the entry (header and partial payload)
+     * appended so far, so that the next entry is appended where this one
+     * started.
+     */
+    protected void _rollbackSpillAppend(int appended)
+    {
+        if (appended <= _writeBufferLength) {
+            _writeBufferLength -= appended;
+        } else {
+            // part of the entry was flushed; along with everything before it
+            _spillFlushedLength += _writeBufferLength - appended;
+            _writeBufferLength = 0;
+        }
+    }
+
+    /**
+     * Method for moving as many spilled entries back into memory as
+     * there is room for.
+     */
+    protected void _refill()
+    {
+        if (_spilledEntryCount == 0 || _head == null
+                || _hasEntryWriter()) {
+            return;
+        }
+        final byte[] buf = _transferBuffer;
+        while (_spilledEntryCount > 0) {
+            _spillRead(_spillReadPos, buf, 0, SPILL_HEADER_LENGTH);
+            final int length = ((buf[0] & 0xFF) << 24) | ((buf[1] & 0xFF) << 16)
+                    | ((buf[2] & 0xFF) << 8) | (buf[3] & 0xFF);
+            final long payloadPos = _spillReadPos + SPILL_HEADER_LENGTH;
+            if (length <= buf.length) { // simple case; can append as is
+                _spillRead(payloadPos, buf, 0, length);
+                if (!super.tryAppendEntry(buf, 0, length)) {
+                    return;
+                }
+            } else { // if not, need to write in pieces
+                if (getMaximumAvailableSpace() < (length + 5L)) {
+                    return;
+                }
+                final BytesEntryWriter w = super.startEntryWriter();
+                boolean completed = false;
+                try {
+                    final long end = payloadPos + length;
+                    for (long pos = payloadPos; pos < end; ) {
+                        int count = (int) Math.min(buf.length, end - pos);
+                        _spillRead(pos, buf, 0, count);
+                        try {
+                            w.write(buf, 0, count);
+                        } catch (IllegalStateException e) { // no room after all; already rolled back
+                            return;
+                        }
+                        pos += count;
+                    }
+                    w.finish();
+                    completed = true;
+                } finally {
+                    if (!completed) {
+                        w.abort();
+                    }
+                }
+            }
+            _spillReadPos = payloadPos + length;
+            --_spilledEntryCount;
+            _spilledPayloadLength -= length;
+        }
+        // all moved back: no need for spill file any more
+        _closeSpill();
+    }
+
+    protected void _spillRead(long pos, byte[] buffer, int offset, int length)
+    {
+        while (length > 0) {
+            if (pos >= _spillFlushedLength) { // not yet flushed, still in write buffer
+                System.arraycopy(_writeBuffer, (int) (pos - _spillFlushedLength), buffer, offset, length);
+                return;
+            }
+            if (pos < _readCacheStart || pos >= (_readCacheStart + _readCacheLength)) {
+                int toRead = (int) Math.min(_readCache.length, _spillFlushedLength - pos);
+                try {
+                    _spill.seek(pos);
+                    _spill.readFully(_readCache, 0, toRead);
+                } catch (IOException e) {
+                    throw _spillFailure("read from", e);
+                }
+                _readCacheStart = pos;
+                _readCacheLength = toRead;
+            }
+            int cacheOffset = (int) (pos - _readCacheStart);
+            int count = Math.min(length, _readCacheLength - cacheOffset);
+            System.arraycopy(_readCache, cacheOffset, buffer, offset, count);
+            pos += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    protected void _flushSpill()
+    {
+        if (_writeBufferLength > 0) {
+            // spill file only grows on flush, so this is the place to drop content already moved back
+            if (_spillReadPos >= _compactThreshold && _spillReadPos >= (_spillFlushedLength - _spillReadPos)) {
+                _compactSpill();
+            }
+            try {
+                _spill.seek(_spillFlushedLength);
+                _spill.write(_writeBuffer, 0, _writeBufferLength);
+            } catch (IOException e) {
+                throw _spillFailure("write to", e);
+            }
+            _spillFlushedLength += _writeBufferLength;
+            _writeBufferLength = 0;
+        }
+    }
+
+    /**
+     * Method for moving content of spill file not yet moved back into memory
+     * to the start of the file, and truncating the rest. Spill file is not
+     * expected to survive crashes, so this can be done in place.
+     */
+    protected void _compactSpill()
+    {
+        // read position may be within write buffer, past flushed content
+        final long drained = Math.min(_spillReadPos, _spillFlushedLength);
+        final long length = _spillFlushedLength - drained;
+        final byte[] buf = _readCache;
+        try {
+            for (long copied = 0L; copied < length; ) {
+                int count = (int) Math.min(buf.length, length - copied);
+                _spill.seek(drained + copied);
+                _spill.readFully(buf, 0, count);
+                _spill.seek(copied);
+                _spill.write(buf, 0, count);
+                copied += count;
+            }
+            _spill.setLength(length);
+        } catch (IOException e) {
+            throw _spillFailure("compact", e);
+        }
+        _spillReadPos -= drained;
+        _spillFlushedLength = length;
+        _readCacheStart = 0L;
+        _readCacheLength = 0;
+    }
+
+    protected void _openSpill()
+    {
+        try {
+            _spill = new RandomAccessFile(_spillFile, "rw");
+            _spill.setLength(0L);
+        } catch (IOException e) {
+            throw _spillFailure("open", e);
+        }
+        if (_writeBuffer == null) {
+            _writeBuffer = new byte[_ioBufferSize];
+            _readCache = new byte[_ioBufferSize];
+            _transferBuffer = new byte[_ioBufferSize];
+        }
+    }
+
+    protected void _closeSpill()
+    {
+        _spilledEntryCount = 0;
+        _spilledPayloadLength = 0L;
+        _spillReadPos = 0L;
+        _spillFlushedLength = 0L;
+        _writeBufferLength = 0;
+        _readCacheStart = 0L;
+        _readCacheLength = 0;
+        RandomAccessFile f = _spill;
+        if (f != null) {
+            _spill = null;
+            IOException fail = null;
+            try {
+                f.close();
+            } catch (IOException e) {
+                fail = e;
+            }
+            // try to delete even if close failed
+            if (!_spillFile.delete() && _spillFile.exists() && fail == null) {
+                fail = new IOException("File.delete() failed");
+            }
+            if (fail != null) {
+                throw _spillFailure("close", fail);
+            }
+        }
+    }
+
+    protected IllegalStateException _spillFailure(String action, IOException e) {
+        return new IllegalStateException("Failed to "+action+" spill file '"+_spillFile+"': "+e.getMessage(), e);
+    }
+}
@@ -1,7 +1,14 @@
 package com.fasterxml.util.membuf.impl;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+
 import com.fasterxml.util.membuf.*;
 import com.fasterxml.util.membuf.base.BytesSegment;
+import com.fasterxml.util.membuf.util.UTF8Mate;
 
 /**
  * {@link StreamyBytesMemBuffer} implementation used for storing a sequence
@@ -26,6 +33,32 @@ import com.fasterxml.util.membuf.base.BytesSegment;
  */
 public class StreamyBytesMemBufferImpl extends StreamyBytesMemBuffer
 {
+    /*
+    /**********************************************************************
+    /* Mark/reset state
+    /**********************************************************************
+     */
+
+    /**
+     * Segment that contains the marked read position, if mark is set;
+     * segments from this one up to the current tail are retained until
+     * mark is cleared.
+     */
+    protected BytesSegment _markSegment;
+
+    /**
+     * Read offset within {@link #_markSegment} of the marked position.
+     */
+    protected int _markOffset;
+
+    /**
+     * Furthest segment that has been initialized for reading while mark
+     * is (or was) set: segments after current tail, up to and including
+     * this segment, need to be rewound instead of initialized when reached
+     * again. Null when no content is being re-read.
+     */
+    protected BytesSegment _furthestReadSegment;
+
     /*
     /**********************************************************************
     /* Life-cycle
@@ -99,7 +132,7 @@ public class StreamyBytesMemBufferImpl extends StreamyBytesMemBuffer
                 return false;
             }
             // if we are, let's try allocate: will be added to "free" segments first, then used
-            BytesSegment newFree = _segmentAllocator.allocateSegments(1, _firstFreeSegment);
+            BytesSegment newFree = _allocateSegments(1, _firstFreeSegment);
             if (newFree == null) {
                 return false;
             }
@@ -142,7 +175,7 @@ public class StreamyBytesMemBufferImpl extends StreamyBytesMemBuffer
                     return false;
                 }
                 // if we are, let's try allocate: will be added to "free" segments first, then used
-                BytesSegment newFree = _segmentAllocator.allocateSegments(segmentsToAlloc, _firstFreeSegment);
+                BytesSegment newFree = _allocateSegments(segmentsToAlloc, _firstFreeSegment);
                 if (newFree == null) {
                     return false;
                 }
@@ -304,17 +337,346 @@ public class StreamyBytesMemBufferImpl extends StreamyBytesMemBuffer
 
     /*
     /**********************************************************************
-    /* Abstract method impls
+    /* Public API, snapshots
     /**********************************************************************
      */
 
-    // // // No peeked data, so these are simple
-    
     @Override
-    protected void _clearPeeked() { }
+    public synchronized long snapshotTo(WritableByteChannel channel) throws IOException
+    {
+        if (_head == null) {
+            _reportClosed();
+        }
+        ArrayList<ByteBuffer> views = new ArrayList<ByteBuffer>(_usedSegmentsCount);
+        BytesSegment seg = _tail;
+        int from = _readOffset(seg);
+        while (true) {
+            int to = seg.appendOffset();
+            if (to > from) {
+                views.add(seg.contentView(from, to));
+            }
+            if (seg == _head) {
+                break;
+            }
+            seg = seg.getNext();
+            from = 0;
+        }
+        final long contentLength = _totalPayloadLength;
+        _writeSnapshotHeader(channel, SNAPSHOT_TYPE_STREAMY_BYTES, 0L, contentLength, contentLength);
+        _writeFully(channel, views.toArray(new ByteBuffer[views.size()]));
+        return SNAPSHOT_HEADER_LENGTH + contentLength;
+    }
+
+    @Override
+    public synchronized void restoreFrom(ReadableByteChannel channel) throws IOException
+    {
+        _verifyRestorable();
+        final long contentLength = _readSnapshotHeader(channel, SNAPSHOT_TYPE_STREAMY_BYTES)[2];
+        if (contentLength > getMaximumAvailableSpace()) {
+            throw new IllegalStateException("Not enough room in buffer to restore snapshot of "
+                    +contentLength+" bytes");
+        }
+        boolean ok = false;
+        try {
+            long left = contentLength;
+            while (left > 0L) {
+                if (_head.availableForAppend() == 0 && !_addHeadSegment(true)) {
+                    throw new IllegalStateException("Not enough room in buffer to restore snapshot of "
+                            +contentLength+" bytes (can't allocate enough new segments)");
+                }
+                int count = _head.appendFrom(channel, (int) Math.min(left, Integer.MAX_VALUE));
+                if (count < 0) {
+                    throw _snapshotEOF(left);
+                }
+                left -= count;
+            }
+            ok = true;
+        } finally {
+            if (!ok) {
+                clear();
+            }
+        }
+        _totalPayloadLength = contentLength;
+        if (contentLength > 0L) {
+            this.notifyAll();
+        }
+    }
+
+    /*
+    /**********************************************************************
+    /* Public API, peeking, mark/reset
+    /**********************************************************************
+     */
+
+    @Override
+    public synchronized int peek(byte[] buffer, int offset, int length)
+    {
+        if (_head == null) {
+            _reportClosed();
+        }
+        if (length > _totalPayloadLength) {
+            length = (int) _totalPayloadLength;
+        }
+        BytesSegment seg = _tail;
+        int segOffset = _readOffset(seg);
+        int remaining = length;
+        while (remaining > 0) {
+            int avail = seg.appendOffset() - segOffset;
+            if (avail == 0) {
+                seg = seg.getNext();
+                segOffset = 0;
+                continue;
+            }
+            int count = Math.min(avail, remaining);
+            seg.peek(segOffset, buffer, offset, count);
+            offset += count;
+            segOffset += count;
+            remaining -= count;
+        }
+        return length;
+    }
+
+    @Override
+    public synchronized byte peekByte(int index)
+    {
+        if (_head == null) {
+            _reportClosed();
+        }
+        if (index < 0 || index >= _totalPayloadLength) {
+            throw new IllegalArgumentException("Illegal index ("+index+"): allowed values [0, "
+                    +_totalPayloadLength+"[");
+        }
+        BytesSegment seg = _tail;
+        int segOffset = _readOffset(seg);
+        while (true) {
+            int avail = seg.appendOffset() - segOffset;
+            if (index < avail) {
+                return seg.peek(segOffset + index);
+            }
+            index -= avail;
+            seg = seg.getNext();
+            segOffset = 0;
+        }
+    }
+
+    @Override
+    public synchronized void mark()
+    {
+        if (_head == null) {
+            _reportClosed();
+        }
+        _clearMark();
+        _markSegment = _tail;
+        _markOffset = _readOffset(_tail);
+        if (_furthestReadSegment == null) {
+            _furthestReadSegment = _tail;
+        }
+    }
+
+    @Override
+    public synchronized long reset()
+    {
+        if (_head == null) {
+            _reportClosed();
+        }
+        if (_markSegment == null) {
+            throw new IllegalStateException("Can not reset(): no mark set");
+        }
+        // first: how much has been read since mark?
+        long count = 0L;
+        int offset = _markOffset;
+        for (BytesSegment seg = _markSegment; seg != _tail; seg = seg.getNext()) {
+            count += seg.appendOffset() - offset;
+            offset = 0;
+        }
+        count += _readOffset(_tail) - offset;
+        // segments between mark and tail remain initialized, will be rewound as needed
+        _tail = _markSegment;
+        _tail.rewindReading(_markOffset);
+        _totalPayloadLength += count;
+        return count;
+    }
+
+    @Override
+    public synchronized void clearMark()
+    {
+        if (_head == null) {
+            _reportClosed();
+        }
+        _clearMark();
+    }
+
+    /*
+    /**********************************************************************
+    /* Public API, delimiter-based access
+    /**********************************************************************
+     */
+
+    @Override
+    public synchronized long indexOf(byte delimiter, long fromOffset)
+    {
+        if (_head == null) {
+            _reportClosed();
+        }
+        if (fromOffset < 0L) {
+            throw new IllegalArgumentException("Illegal offset ("+fromOffset+"): can not be negative");
+        }
+        return _indexOf(delimiter, fromOffset, _totalPayloadLength);
+    }
+
+    @Override
+    public synchronized int readUntil(byte delimiter, byte[] buffer, int offset, int length)
+    {
+        if (_head == null) {
+            _reportClosed();
+        }
+        if (length < 1) {
+            return 0;
+        }
+        long ix = _indexOf(delimiter, 0L, Math.min(length, _totalPayloadLength));
+        if (ix >= 0L) {
+            return _doRead(buffer, offset, (int) ix + 1);
+        }
+        if (_totalPayloadLength < length) { // wait for more
+            return 0;
+        }
+        return _doRead(buffer, offset, length);
+    }
+
+    @Override
+    public synchronized String readLine()
+    {
+        if (_head == null) {
+            _reportClosed();
+        }
+        long ix = _indexOf((byte) '\n', 0L, _totalPayloadLength);
+        if (ix < 0L) {
+            return null;
+        }
+        if (ix >= Integer.MAX_VALUE) {
+            throw new IllegalStateException("Line too long ("+ix+" bytes) to read");
+        }
+        byte[] line = new byte[(int) ix + 1];
+        _doRead(line, 0, line.length);
+        int len = (int) ix;
+        if (len > 0 && line[len-1] == '\r') {
+            --len;
+        }
+        return UTF8Mate.decodeFromUTF8(line, 0, len);
+    }
+
+    /*
+    /**********************************************************************
+    /* Abstract method impls, overrides
+    /**********************************************************************
+     */
+
+    /**
+     * Need to override to retain segments while mark is set, and to
+     * properly re-read segments after reset.
+     */
+    @Override
+    protected String _freeReadSegment(String prevError)
+    {
+        if (_furthestReadSegment == null) { // simple case, no mark or re-reading
+            return super._freeReadSegment(prevError);
+        }
+        final BytesSegment old = _tail;
+        final BytesSegment next = old.getNext();
+        if (old == _furthestReadSegment) { // reading past content read so far
+            _tail = next.initForReading();
+            _furthestReadSegment = next;
+        } else { // re-reading content read earlier
+            next.rewindReading(0);
+            _tail = next;
+        }
+        if (_markSegment == null) { // no longer marked, can free
+            old.finishReading();
+            --_usedSegmentsCount;
+            prevError = _releaseReadSegment(old, prevError);
+            if (_tail == _furthestReadSegment) {
+                _furthestReadSegment = null;
+            }
+        }
+        return prevError;
+    }
+
+    // // // No peeked data, but need to clear mark, if any
+
+    @Override
+    protected void _clearPeeked() {
+        _clearMark();
+    }
 
     @Override
     protected int _peekedLength() {
         return 0;
-    }    
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods
+    /**********************************************************************
+     */
+
+    /**
+     * Helper method for freeing segments retained for mark, if one is set.
+     */
+    protected void _clearMark()
+    {
+        BytesSegment seg = _markSegment;
+        if (seg == null) {
+            return;
+        }
+        _markSegment = null;
+        String error = null;
+        while (seg != _tail) {
+            BytesSegment next = seg.finishReading();
+            --_usedSegmentsCount;
+            error = _releaseReadSegment(seg, error);
+            seg = next;
+        }
+        if (_tail == _furthestReadSegment) {
+            _furthestReadSegment = null;
+        }
+        if (error != null) {
+            throw new IllegalStateException(error);
+        }
+    }
+
+    /**
+     * Helper method for finding the first occurrence of given byte between
+     * specified offsets (relative to read position).
+     */
+    private long _indexOf(byte value, long fromOffset, long toOffset)
+    {
+        BytesSegment seg = _tail;
+        int segOffset = _readOffset(seg);
+        long base = 0L; // offset corresponding to 'segOffset'
+        while (base < toOffset) {
+            int end = seg.appendOffset();
+            // no need to scan past the end offset
+            if ((base + (end - segOffset)) > toOffset) {
+                end = segOffset + (int) (toOffset - base);
+            }
+            if ((base + (end - segOffset)) > fromOffset) {
+                int start = segOffset + (int) Math.max(0L, fromOffset - base);
+                int ix = seg.indexOf(value, start, end);
+                if (ix >= 0) {
+                    return base + (ix - segOffset);
+                }
+            }
+            base += (end - segOffset);
+            if (seg == _head) {
+                break;
+            }
+            seg = seg.getNext();
+            segOffset = 0;
+        }
+        return -1L;
+    }
+
+    private final static int _readOffset(BytesSegment seg) {
+        return seg.appendOffset() - seg.availableForReading();
+    }
 }
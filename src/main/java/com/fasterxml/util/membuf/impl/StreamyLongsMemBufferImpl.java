@@ -1,5 +1,10 @@
 package com.fasterxml.util.membuf.impl;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
 import com.fasterxml.util.membuf.*;
 import com.fasterxml.util.membuf.base.LongsSegment;
 
@@ -91,7 +96,7 @@ public class StreamyLongsMemBufferImpl extends StreamyLongsMemBuffer
                 return false;
             }
             // if we are, let's try allocate: will be added to "free" segments first, then used
-            LongsSegment newFree = _segmentAllocator.allocateSegments(1, _firstFreeSegment);
+            LongsSegment newFree = _allocateSegments(1, _firstFreeSegment);
             if (newFree == null) {
                 return false;
             }
@@ -134,7 +139,7 @@ public class StreamyLongsMemBufferImpl extends StreamyLongsMemBuffer
                     return false;
                 }
                 // if we are, let's try allocate: will be added to "free" segments first, then used
-                LongsSegment newFree = _segmentAllocator.allocateSegments(segmentsToAlloc, _firstFreeSegment);
+                LongsSegment newFree = _allocateSegments(segmentsToAlloc, _firstFreeSegment);
                 if (newFree == null) {
                     return false;
                 }
@@ -294,6 +299,85 @@ public class StreamyLongsMemBufferImpl extends StreamyLongsMemBuffer
         return length;
     }
     
+    /*
+    /**********************************************************************
+    /* Public API, snapshots
+    /**********************************************************************
+     */
+
+    @Override
+    public synchronized long snapshotTo(WritableByteChannel channel) throws IOException
+    {
+        if (_head == null) {
+            _reportClosed();
+        }
+        final long count = _totalPayloadLength;
+        _writeSnapshotHeader(channel, SNAPSHOT_TYPE_STREAMY_LONGS, 0L, count, count << 3);
+
+        final ByteBuffer scratch = ByteBuffer.allocate(SNAPSHOT_CHUNK_LONGS << 3);
+        final long[] chunk = new long[SNAPSHOT_CHUNK_LONGS];
+        int chunkLength = 0;
+        for (LongsSegment seg = _tail; ; seg = seg.getNext()) {
+            int from = (seg == _tail) ? seg.readOffset() : 0;
+            final int to = seg.appendOffset();
+            while (from < to) {
+                int c = Math.min(to - from, chunk.length - chunkLength);
+                seg.peek(from, chunk, chunkLength, c);
+                from += c;
+                if ((chunkLength += c) == chunk.length) {
+                    _writeLongs(channel, chunk, chunkLength, scratch);
+                    chunkLength = 0;
+                }
+            }
+            if (seg == _head) {
+                break;
+            }
+        }
+        _writeLongs(channel, chunk, chunkLength, scratch);
+        return SNAPSHOT_HEADER_LENGTH + (count << 3);
+    }
+
+    @Override
+    public synchronized void restoreFrom(ReadableByteChannel channel) throws IOException
+    {
+        _verifyRestorable();
+        final long contentLength = _readSnapshotHeader(channel, SNAPSHOT_TYPE_STREAMY_LONGS)[2];
+        if ((contentLength & 7) != 0) {
+            throw new IOException("Invalid snapshot: content length ("+contentLength+") not a multiple of 8");
+        }
+        final long count = contentLength >> 3;
+        if (count > getMaximumAvailableSpace()) {
+            throw new IllegalStateException("Not enough room in buffer to restore snapshot of "
+                    +count+" values");
+        }
+        final ByteBuffer scratch = ByteBuffer.allocate(SNAPSHOT_CHUNK_LONGS << 3);
+        final long[] chunk = new long[SNAPSHOT_CHUNK_LONGS];
+        boolean ok = false;
+        try {
+            for (long left = count; left > 0L; ) {
+                final int chunkLength = (int) Math.min(left, chunk.length);
+                _readLongs(channel, chunk, chunkLength, scratch);
+                for (int offset = 0; offset < chunkLength; ) {
+                    if (_head.availableForAppend() == 0 && !_addHeadSegment(true)) {
+                        throw new IllegalStateException("Not enough room in buffer to restore snapshot of "
+                                +count+" values (can't allocate enough new segments)");
+                    }
+                    offset += _head.tryAppend(chunk, offset, chunkLength - offset);
+                }
+                left -= chunkLength;
+            }
+            ok = true;
+        } finally {
+            if (!ok) {
+                clear();
+            }
+        }
+        _totalPayloadLength = count;
+        if (count > 0L) {
+            this.notifyAll();
+        }
+    }
+
     /*
     /**********************************************************************
     /* Abstract method impls
@@ -0,0 +1,118 @@
+package com.fasterxml.util.membuf.util;
+
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+
+/**
+ * Pure Java implementation of CRC-32C (Castagnoli) checksum, as used by
+ * iSCSI, ext4 and many storage formats; compatible with
+ * <code>java.util.zip.CRC32C</code> (which is only available on JDK 9 and
+ * above). Uses "slicing-by-8" tables to process 8 bytes per step.
+ *<p>
+ * In addition to byte arrays, checksum can be calculated over content of
+ * {@link ByteBuffer}s in place (using absolute access), so that segment
+ * fragments need not be copied first.
+ * Instances are not thread-safe.
+ *
+ * @since 1.2.1
+ */
+public final class CRC32C implements Checksum
+{
+    /**
+     * Castagnoli polynomial, in reversed bit order
+     */
+    private final static int POLYNOMIAL = 0x82F63B78;
+
+    private final static int[] TABLE = new int[8 * 256];
+    static {
+        for (int i = 0; i < 256; ++i) {
+            int crc = i;
+            for (int j = 0; j < 8; ++j) {
+                crc = ((crc & 1) != 0) ? ((crc >>> 1) ^ POLYNOMIAL) : (crc >>> 1);
+            }
+            TABLE[i] = crc;
+        }
+        for (int i = 0; i < 256; ++i) {
+            int crc = TABLE[i];
+            for (int k = 1; k < 8; ++k) {
+                crc = (crc >>> 8) ^ TABLE[crc & 0xFF];
+                TABLE[(k << 8) + i] = crc;
+            }
+        }
+    }
+
+    private int _crc = 0xFFFFFFFF;
+
+    @Override
+    public void update(int b) {
+        _crc = (_crc >>> 8) ^ TABLE[(_crc ^ b) & 0xFF];
+    }
+
+    @Override
+    public void update(byte[] b, int offset, int length)
+    {
+        int crc = _crc;
+        while (length >= 8) {
+            int lo = crc ^ ((b[offset] & 0xFF) | ((b[offset+1] & 0xFF) << 8)
+                    | ((b[offset+2] & 0xFF) << 16) | (b[offset+3] << 24));
+            int hi = (b[offset+4] & 0xFF) | ((b[offset+5] & 0xFF) << 8)
+                    | ((b[offset+6] & 0xFF) << 16) | (b[offset+7] << 24);
+            crc = _slice8(lo, hi);
+            offset += 8;
+            length -= 8;
+        }
+        while (--length >= 0) {
+            crc = (crc >>> 8) ^ TABLE[(crc ^ b[offset++]) & 0xFF];
+        }
+        _crc = crc;
+    }
+
+    public void update(byte[] b) {
+        update(b, 0, b.length);
+    }
+
+    /**
+     * Method for updating checksum with specified range of content of given
+     * buffer; position and limit of buffer are not used or changed.
+     */
+    public void update(ByteBuffer b, int offset, int length)
+    {
+        if (b.hasArray()) {
+            update(b.array(), b.arrayOffset() + offset, length);
+            return;
+        }
+        int crc = _crc;
+        while (length >= 8) {
+            int lo = crc ^ ((b.get(offset) & 0xFF) | ((b.get(offset+1) & 0xFF) << 8)
+                    | ((b.get(offset+2) & 0xFF) << 16) | (b.get(offset+3) << 24));
+            int hi = (b.get(offset+4) & 0xFF) | ((b.get(offset+5) & 0xFF) << 8)
+                    | ((b.get(offset+6) & 0xFF) << 16) | (b.get(offset+7) << 24);
+            crc = _slice8(lo, hi);
+            offset += 8;
+            length -= 8;
+        }
+        while (--length >= 0) {
+            crc = (crc >>> 8) ^ TABLE[(crc ^ b.get(offset++)) & 0xFF];
+        }
+        _crc = crc;
+    }
+
+    @Override
+    public long getValue() {
+        return (~_crc) & 0xFFFFFFFFL;
+    }
+
+    @Override
+    public void reset() {
+        _crc = 0xFFFFFFFF;
+    }
+
+    private final static int _slice8(int lo, int hi)
+    {
+        final int[] t = TABLE;
+        return t[(7 << 8) + (lo & 0xFF)] ^ t[(6 << 8) + ((lo >>> 8) & 0xFF)]
+                ^ t[(5 << 8) + ((lo >>> 16) & 0xFF)] ^ t[(4 << 8) + (lo >>> 24)]
+                ^ t[(3 << 8) + (hi & 0xFF)] ^ t[(2 << 8) + ((hi >>> 8) & 0xFF)]
+                ^ t[(1 << 8) + ((hi >>> 16) & 0xFF)] ^ t[hi >>> 24];
+    }
+}
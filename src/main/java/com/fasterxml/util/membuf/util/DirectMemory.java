@@ -0,0 +1,180 @@
+package com.fasterxml.util.membuf.util;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/**
+ * Helper class for releasing native memory of direct {@link ByteBuffer}s
+ * deterministically, instead of waiting for garbage collector to
+ * (eventually) do it. Uses <code>sun.misc.Unsafe.invokeCleaner()</code>
+ * on JDK 9 and above, and <code>Cleaner</code> of the buffer on earlier
+ * versions; both accessed using reflection. If neither is available,
+ * memory is left for garbage collector to free.
+ * Also allows finding out native addresses of direct buffers, and their
+ * alignment (using <code>ByteBuffer.alignmentOffset()</code> on JDK 9 and
+ * above, where address may not be accessible).
+ *<p>
+ * Note that the buffer (or any views created from it) must not be accessed
+ * after releasing it, since doing that may crash the JVM.
+ *
+ * @since 1.2.1
+ */
+public final class DirectMemory
+{
+    /**
+     * Target of {@link #_releaseMethod}: <code>Unsafe</code> instance for
+     * JDK 9+, null for earlier versions (where method is called on Cleaner)
+     */
+    private final static Object _unsafe;
+
+    /**
+     * Either <code>Unsafe.invokeCleaner(ByteBuffer)</code> or
+     * <code>DirectBuffer.cleaner()</code>
+     */
+    private final static Method _releaseMethod;
+
+    private final static Method _cleanMethod;
+
+    /**
+     * <code>java.nio.Buffer.address</code>, for finding out native address
+     * of direct buffers, if accessible
+     */
+    private final static Field _addressField;
+
+    /**
+     * <code>ByteBuffer.alignmentOffset(int, int)</code> (JDK 9+), for finding
+     * out alignment of direct buffers if address is not accessible
+     */
+    private final static Method _alignmentOffsetMethod;
+
+    static {
+        Object unsafe = null;
+        Method release = null;
+        Method clean = null;
+        try { // JDK 9+
+            Class<?> cls = Class.forName("sun.misc.Unsafe");
+            release = cls.getMethod("invokeCleaner", ByteBuffer.class);
+            Field f = cls.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            unsafe = f.get(null);
+        } catch (Throwable t) {
+            unsafe = null;
+            release = null;
+        }
+        if (release == null) { // JDK 6 - 8
+            try {
+                release = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+                clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            } catch (Throwable t) {
+                release = null;
+                clean = null;
+            }
+        }
+        _unsafe = unsafe;
+        _releaseMethod = release;
+        _cleanMethod = clean;
+
+        Field address;
+        try {
+            address = java.nio.Buffer.class.getDeclaredField("address");
+            address.setAccessible(true);
+        } catch (Throwable t) { // may be inaccessible on newer JDKs
+            address = null;
+        }
+        _addressField = address;
+
+        Method alignmentOffset;
+        try {
+            alignmentOffset = ByteBuffer.class.getMethod("alignmentOffset", Integer.TYPE, Integer.TYPE);
+        } catch (Throwable t) { // JDK 6 - 8
+            alignmentOffset = null;
+        }
+        _alignmentOffsetMethod = alignmentOffset;
+    }
+
+    private DirectMemory() { }
+
+    /**
+     * Accessor for checking whether native memory can be released
+     * explicitly on this platform.
+     */
+    public static boolean isSupported() {
+        return (_releaseMethod != null);
+    }
+
+    /**
+     * Method for finding out native memory address of given direct buffer,
+     * if possible; used for aligning content.
+     *
+     * @return Address of the first byte of buffer, if known; -1 if not
+     */
+    public static long address(ByteBuffer buffer)
+    {
+        if (buffer == null || !buffer.isDirect() || _addressField == null) {
+            return -1L;
+        }
+        try {
+            return _addressField.getLong(buffer);
+        } catch (Exception e) {
+            return -1L;
+        }
+    }
+
+    /**
+     * Method for finding out alignment of given direct buffer, that is,
+     * native address of its first byte modulo given unit size, if possible.
+     * Unlike {@link #address}, works on JDK 9 and above even if address
+     * is not accessible.
+     *
+     * @param unitSize Unit size to check alignment for; must be a power of two
+     *
+     * @return Native address of the first byte of buffer modulo unit size,
+     *    if known; -1 if not
+     */
+    public static int alignmentOffset(ByteBuffer buffer, int unitSize)
+    {
+        final long address = address(buffer);
+        if (address >= 0L) {
+            return (int) (address & (unitSize - 1));
+        }
+        if (buffer == null || !buffer.isDirect() || _alignmentOffsetMethod == null) {
+            return -1;
+        }
+        try {
+            return ((Integer) _alignmentOffsetMethod.invoke(buffer, 0, unitSize)).intValue();
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Method for releasing native memory of given buffer, if it is a direct
+     * buffer that owns its memory (and not a slice or duplicate of one).
+     *
+     * @return True if memory was released; false if not
+     */
+    public static boolean release(ByteBuffer buffer)
+    {
+        if (buffer == null || !buffer.isDirect() || _releaseMethod == null) {
+            return false;
+        }
+        try {
+            if (_unsafe != null) {
+                _releaseMethod.invoke(_unsafe, buffer);
+                return true;
+            }
+            Object cleaner = _releaseMethod.invoke(buffer);
+            // slices and duplicates have no cleaner
+            if (cleaner == null) {
+                return false;
+            }
+            _cleanMethod.invoke(cleaner);
+            return true;
+        } catch (Exception e) {
+            // slices and duplicates are rejected by invokeCleaner(); or could be
+            // an access problem: either way, leave it for GC
+            return false;
+        }
+    }
+}
@@ -0,0 +1,370 @@
+package com.fasterxml.util.membuf.util;
+
+import com.fasterxml.util.membuf.StreamyBytesMemBuffer;
+
+/**
+ * Helper class that exposes contents of a {@link StreamyBytesMemBuffer}
+ * as a sequence of discrete frames (messages), similar to how
+ * {@link com.fasterxml.util.membuf.ChunkyBytesMemBuffer} exposes entries.
+ * Frame boundaries are detected by peeking at buffered content, so that
+ * only complete frames are ever read; and frames are read directly from
+ * underlying segments, without intermediate copies.
+ *<p>
+ * Decoders for common framing schemes are constructed using factory methods:
+ *<ul>
+ * <li>{@link #lengthPrefixed}: frames preceded by fixed-length (1, 2 or 4 bytes)
+ *    big-endian length
+ *  </li>
+ * <li>{@link #varintPrefixed}: frames preceded by unsigned variable-length
+ *    length (LEB128, as used by Protocol Buffers)
+ *  </li>
+ * <li>{@link #delimited}: frames terminated by a delimiter byte (which is not
+ *    included in frame contents)
+ *  </li>
+ *</ul>
+ * Custom framing can be implemented by sub-classing and implementing
+ * {@link #_findFrame}.
+ *<p>
+ * Frame lengths are verified as soon as they are known (before waiting for
+ * the rest of the frame): frames longer than the configured maximum (see
+ * {@link #maxFrameLength}), or too long to ever fit in the buffer, are
+ * reported as corrupt input by throwing {@link IllegalStateException}.
+ *<p>
+ * All methods are non-blocking, and synchronize on the underlying buffer;
+ * but the buffer should not be read directly while a decoder is used,
+ * since decoders may retain state about content already scanned.
+ *
+ * @since 1.2.1
+ */
+public abstract class FrameDecoder
+{
+    protected final StreamyBytesMemBuffer _buffer;
+
+    /**
+     * Maximum length of frame payload accepted
+     */
+    protected int _maxFrameLength = Integer.MAX_VALUE;
+
+    /**
+     * Length of the header (length prefix) of the next complete frame,
+     * as found by the last successful call to {@link #_findFrame}.
+     */
+    protected int _headerLength;
+
+    /**
+     * Length of the payload of the next complete frame,
+     * as found by the last successful call to {@link #_findFrame}.
+     */
+    protected int _frameLength;
+
+    /**
+     * Length of the trailer (delimiter) of the next complete frame,
+     * as found by the last successful call to {@link #_findFrame}.
+     */
+    protected int _trailerLength;
+
+    protected FrameDecoder(StreamyBytesMemBuffer buffer) {
+        _buffer = buffer;
+    }
+
+    /*
+    /**********************************************************************
+    /* Factory methods
+    /**********************************************************************
+     */
+
+    /**
+     * Factory method for constructing decoder for frames that are preceded by
+     * a fixed-length unsigned big-endian length prefix.
+     *
+     * @param prefixLength Length of the prefix in bytes: 1, 2 or 4
+     */
+    public static FrameDecoder lengthPrefixed(StreamyBytesMemBuffer buffer, int prefixLength)
+    {
+        if (prefixLength != 1 && prefixLength != 2 && prefixLength != 4) {
+            throw new IllegalArgumentException("Invalid prefix length ("+prefixLength+"): must be 1, 2 or 4");
+        }
+        return new LengthPrefixed(buffer, prefixLength);
+    }
+
+    /**
+     * Factory method for constructing decoder for frames that are preceded by
+     * an unsigned variable-length (LEB128) length prefix.
+     */
+    public static FrameDecoder varintPrefixed(StreamyBytesMemBuffer buffer) {
+        return new VarintPrefixed(buffer);
+    }
+
+    /**
+     * Factory method for constructing decoder for frames that are terminated
+     * by given delimiter byte.
+     */
+    public static FrameDecoder delimited(StreamyBytesMemBuffer buffer, byte delimiter) {
+        return new Delimited(buffer, delimiter);
+    }
+
+    /*
+    /**********************************************************************
+    /* Public API
+    /**********************************************************************
+     */
+
+    public StreamyBytesMemBuffer getBuffer() { return _buffer; }
+
+    public int getMaxFrameLength() { return _maxFrameLength; }
+
+    /**
+     * Method for specifying maximum length of frame payload to accept;
+     * longer frames are considered corrupt input. Default is no limit
+     * (other than frames having to fit in the buffer).
+     */
+    public FrameDecoder maxFrameLength(int maxLength)
+    {
+        if (maxLength < 0) {
+            throw new IllegalArgumentException("Invalid maximum frame length ("+maxLength+"): can not be negative");
+        }
+        _maxFrameLength = maxLength;
+        return this;
+    }
+
+    /**
+     * Method for checking length of the next complete frame, if one is available.
+     *
+     * @return Length of the next frame payload, if a complete frame is
+     *   available; -1 if not
+     */
+    public int getNextFrameLength()
+    {
+        synchronized (_buffer) {
+            return _findFrame(_buffer.available()) ? _frameLength : -1;
+        }
+    }
+
+    /**
+     * Method for reading and removing the next frame from the buffer,
+     * if a complete frame is available.
+     *
+     * @return Payload of the next frame, if a complete frame was available;
+     *   null if not
+     */
+    public byte[] getNextFrame()
+    {
+        synchronized (_buffer) {
+            if (!_findFrame(_buffer.available())) {
+                return null;
+            }
+            byte[] result = new byte[_frameLength];
+            _readFrame(result, 0);
+            return result;
+        }
+    }
+
+    /**
+     * Method for reading and removing the next frame from the buffer,
+     * if a complete frame is available and fits in given buffer.
+     *
+     * @param buffer Buffer in which frame payload is to be read
+     * @param offset Offset in buffer to use for storing results
+     *
+     * @return {@link Integer#MIN_VALUE} if no complete frame was available,
+     *   length of the frame (non-negative) if read succeeds,
+     *   or negative number that indicates length of the frame if
+     *   buffer did not have enough room (in which case nothing is read)
+     */
+    public int readNextFrame(byte[] buffer, int offset)
+    {
+        if (offset < 0 || offset > buffer.length) {
+            throw new IllegalArgumentException("Invalid offset ("+offset+") for buffer of length "+buffer.length);
+        }
+        synchronized (_buffer) {
+            if (!_findFrame(_buffer.available())) {
+                return Integer.MIN_VALUE;
+            }
+            if (_frameLength > (buffer.length - offset)) {
+                return -_frameLength;
+            }
+            _readFrame(buffer, offset);
+            return _frameLength;
+        }
+    }
+
+    /*
+    /**********************************************************************
+    /* Extension points
+    /**********************************************************************
+     */
+
+    /**
+     * Method called (while holding the buffer lock) to check whether a complete
+     * frame is available at the beginning of buffered content; and if so,
+     * to set {@link #_headerLength}, {@link #_frameLength} and {@link #_trailerLength}.
+     *
+     * @param available Number of bytes available in the buffer
+     *
+     * @return True if a complete frame is available; false if not
+     */
+    protected abstract boolean _findFrame(long available);
+
+    /**
+     * Method called after a frame has been read, to reset any state kept
+     * about scanned content.
+     */
+    protected void _frameRead() { }
+
+    /*
+    /**********************************************************************
+    /* Internal methods
+    /**********************************************************************
+     */
+
+    protected void _readFrame(byte[] buffer, int offset)
+    {
+        if (_headerLength > 0) {
+            _buffer.skip(_headerLength);
+        }
+        if (_frameLength > 0) {
+            _buffer.readIfAvailable(buffer, offset, _frameLength);
+        }
+        if (_trailerLength > 0) {
+            _buffer.skip(_trailerLength);
+        }
+        _frameRead();
+    }
+
+    /**
+     * Method for verifying frame length, once known: should be called before
+     * checking whether whole frame is available, so that frames that could
+     * never be read are reported right away.
+     *
+     * @param length Length of frame payload
+     * @param overhead Length of frame header and trailer
+     * @param available Number of bytes available in the buffer
+     */
+    protected int _verifyLength(long length, int overhead, long available)
+    {
+        if (length < 0L || length > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Invalid frame length ("+length+"): corrupt input?");
+        }
+        if (length > _maxFrameLength) {
+            throw new IllegalStateException("Invalid frame length ("+length+"): exceeds maximum of "
+                    +_maxFrameLength+"; corrupt input?");
+        }
+        // must be possible to buffer the whole frame, or it would never become available
+        final long space = _buffer.getMaximumAvailableSpace();
+        if (space >= 0L && (overhead + length) > (available + space)) {
+            throw new IllegalStateException("Invalid frame length ("+length+"): can never fit in buffer (room for "
+                    +(available + space - overhead)+" bytes); corrupt input?");
+        }
+        return (int) length;
+    }
+
+    /*
+    /**********************************************************************
+    /* Standard implementations
+    /**********************************************************************
+     */
+
+    protected static class LengthPrefixed extends FrameDecoder
+    {
+        protected final int _prefixLength;
+
+        public LengthPrefixed(StreamyBytesMemBuffer buffer, int prefixLength) {
+            super(buffer);
+            _prefixLength = prefixLength;
+        }
+
+        @Override
+        protected boolean _findFrame(long available)
+        {
+            if (available < _prefixLength) {
+                return false;
+            }
+            long length = 0L;
+            for (int i = 0; i < _prefixLength; ++i) {
+                length = (length << 8) | (_buffer.peekByte(i) & 0xFF);
+            }
+            final int frameLength = _verifyLength(length, _prefixLength, available);
+            if (available < (_prefixLength + length)) {
+                return false;
+            }
+            _headerLength = _prefixLength;
+            _frameLength = frameLength;
+            _trailerLength = 0;
+            return true;
+        }
+    }
+
+    protected static class VarintPrefixed extends FrameDecoder
+    {
+        public VarintPrefixed(StreamyBytesMemBuffer buffer) {
+            super(buffer);
+        }
+
+        @Override
+        protected boolean _findFrame(long available)
+        {
+            long length = 0L;
+            int headerLength;
+            for (int i = 0; ; ++i) {
+                if (i >= available) {
+                    return false;
+                }
+                if (i == 5) {
+                    throw new IllegalStateException("Corrupt varint length prefix: more than 5 bytes");
+                }
+                int b = _buffer.peekByte(i);
+                length |= ((long) (b & 0x7F)) << (7 * i);
+                if (b >= 0) { // no continuation bit
+                    headerLength = i+1;
+                    break;
+                }
+            }
+            final int frameLength = _verifyLength(length, headerLength, available);
+            if (available < (headerLength + length)) {
+                return false;
+            }
+            _headerLength = headerLength;
+            _frameLength = frameLength;
+            _trailerLength = 0;
+            return true;
+        }
+    }
+
+    protected static class Delimited extends FrameDecoder
+    {
+        protected final byte _delimiter;
+
+        /**
+         * Number of bytes already scanned without finding delimiter;
+         * used to avoid re-scanning content on subsequent calls.
+         */
+        protected long _scanned;
+
+        public Delimited(StreamyBytesMemBuffer buffer, byte delimiter) {
+            super(buffer);
+            _delimiter = delimiter;
+        }
+
+        @Override
+        protected boolean _findFrame(long available)
+        {
+            long ix = _buffer.indexOf(_delimiter, Math.min(_scanned, available));
+            if (ix < 0L) {
+                _scanned = available;
+                // delimiter may still follow, as long as frame can grow
+                _verifyLength(available, 1, available);
+                return false;
+            }
+            _scanned = ix;
+            _headerLength = 0;
+            _frameLength = _verifyLength(ix, 1, available);
+            _trailerLength = 1;
+            return true;
+        }
+
+        @Override
+        protected void _frameRead() {
+            _scanned = 0L;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.fasterxml.util.membuf.util;
+
+import java.util.Arrays;
+
+/**
+ * Simple and fast LZ77-style block codec, similar to LZ4 in design
+ * (but not compatible with it): data is encoded as a sequence of
+ * literal runs, each followed by a back-reference (offset, length)
+ * to earlier content of the same block. Favors speed over compression
+ * ratio: matches are found using a single hash table lookup, and
+ * incompressible content is skipped over progressively faster.
+ *<p>
+ * Encoded block consists of sequences of form:
+ *<ul>
+ * <li>Token byte: high 4 bits contain literal run length, low 4 bits
+ *   match length minus 4; value 15 means that additional length bytes
+ *   follow (each byte adds its value; a byte less than 255 ends the length)
+ *  </li>
+ * <li>Optional additional literal length bytes, followed by literals
+ *  </li>
+ * <li>Match offset as 2 bytes, little-endian, followed by optional additional
+ *   match length bytes
+ *  </li>
+ *</ul>
+ * The last sequence only contains literals, and ends the block.
+ *<p>
+ * Instances hold a hash table used for compression, and are not thread-safe;
+ * decompression requires no state.
+ *
+ * @since 1.2.1
+ */
+public final class LZCodec
+{
+    private final static int MIN_MATCH = 4;
+
+    private final static int MAX_OFFSET = 0xFFFF;
+
+    private final static int HASH_BITS = 12;
+
+    /**
+     * Number of consecutive non-matching positions after which
+     * step size is increased
+     */
+    private final static int SKIP_TRIGGER = 6;
+
+    private final int[] _hashTable = new int[1 << HASH_BITS];
+
+    /**
+     * Method for calculating maximum length of encoded content, given
+     * length of input.
+     */
+    public static int maxEncodedLength(int inputLength) {
+        return inputLength + (inputLength / 255) + 16;
+    }
+
+    /**
+     * Method for encoding given content.
+     *
+     * @param dst Buffer to encode content into; must have room for at least
+     *   <code>maxEncodedLength(length)</code> bytes
+     *
+     * @return Length of encoded content
+     */
+    public int encode(byte[] src, int offset, int length, byte[] dst, int dstOffset)
+    {
+        final int[] table = _hashTable;
+        Arrays.fill(table, -1);
+        final int end = offset + length;
+        final int matchLimit = end - MIN_MATCH;
+        int ip = offset;
+        int anchor = offset;
+        int op = dstOffset;
+
+        while (ip <= matchLimit) {
+            final int seq = _int(src, ip);
+            final int h = (seq * 0x9E3779B1) >>> (32 - HASH_BITS);
+            final int ref = table[h];
+            table[h] = ip;
+            if (ref < 0 || (ip - ref) > MAX_OFFSET || _int(src, ref) != seq) {
+                ip += 1 + ((ip - anchor) >> SKIP_TRIGGER);
+                continue;
+            }
+            int matchLen = MIN_MATCH;
+            while ((ip + matchLen) < end && src[ref + matchLen] == src[ip + matchLen]) {
+                ++matchLen;
+            }
+            op = _writeLiterals(dst, op, src, anchor, ip - anchor, matchLen - MIN_MATCH);
+            final int dist = ip - ref;
+            dst[op++] = (byte) dist;
+            dst[op++] = (byte) (dist >> 8);
+            if ((matchLen - MIN_MATCH) >= 15) {
+                op = _writeLength(dst, op, matchLen - MIN_MATCH - 15);
+            }
+            ip += matchLen;
+            anchor = ip;
+        }
+        // and then the last literal-only sequence
+        op = _writeLiterals(dst, op, src, anchor, end - anchor, 0);
+        return op - dstOffset;
+    }
+
+    /**
+     * Method for decoding content encoded using {@link #encode}.
+     *
+     * @param dst Buffer to decode content into
+     * @param dstOffset Offset in <code>dst</code> to decode content at
+     * @param maxLength Maximum length of decoded content
+     *
+     * @return Length of decoded content
+     *
+     * @throws IllegalArgumentException If encoded content is invalid, or
+     *   decodes to more than <code>maxLength</code> bytes
+     */
+    public static int decode(byte[] src, int offset, int length,
+            byte[] dst, int dstOffset, int maxLength)
+    {
+        final int end = offset + length;
+        final int dstEnd = dstOffset + maxLength;
+        int ip = offset;
+        int op = dstOffset;
+
+        try {
+            while (true) {
+                final int token = src[ip++] & 0xFF;
+                int litLen = token >> 4;
+                if (litLen == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        litLen += b;
+                    } while (b == 255);
+                }
+                if (litLen > (end - ip) || litLen > (dstEnd - op)) {
+                    throw _invalid(ip - offset);
+                }
+                System.arraycopy(src, ip, dst, op, litLen);
+                ip += litLen;
+                op += litLen;
+                if (ip == end) { // last sequence
+                    break;
+                }
+                final int dist = (src[ip] & 0xFF) | ((src[ip+1] & 0xFF) << 8);
+                ip += 2;
+                int matchLen = token & 0xF;
+                if (matchLen == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        matchLen += b;
+                    } while (b == 255);
+                }
+                matchLen += MIN_MATCH;
+                int ref = op - dist;
+                if (dist == 0 || ref < dstOffset || matchLen > (dstEnd - op)) {
+                    throw _invalid(ip - offset);
+                }
+                // may overlap, so need to copy byte by byte
+                final int matchEnd = op + matchLen;
+                while (op < matchEnd) {
+                    dst[op++] = dst[ref++];
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw _invalid(ip - offset);
+        }
+        return op - dstOffset;
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods
+    /**********************************************************************
+     */
+
+    private static int _writeLiterals(byte[] dst, int op, byte[] src, int offset, int length,
+            int matchToken)
+    {
+        if (length >= 15) {
+            dst[op++] = (byte) (0xF0 | Math.min(matchToken, 15));
+            op = _writeLength(dst, op, length - 15);
+        } else {
+            dst[op++] = (byte) ((length << 4) | Math.min(matchToken, 15));
+        }
+        System.arraycopy(src, offset, dst, op, length);
+        return op + length;
+    }
+
+    private static int _writeLength(byte[] dst, int op, int length)
+    {
+        while (length >= 255) {
+            dst[op++] = (byte) 255;
+            length -= 255;
+        }
+        dst[op++] = (byte) length;
+        return op;
+    }
+
+    private static int _int(byte[] b, int offset) {
+        return (b[offset] & 0xFF) | ((b[offset+1] & 0xFF) << 8)
+                | ((b[offset+2] & 0xFF) << 16) | (b[offset+3] << 24);
+    }
+
+    private static IllegalArgumentException _invalid(int offset) {
+        return new IllegalArgumentException("Invalid encoded content (at offset "+offset+")");
+    }
+}
@@ -0,0 +1,175 @@
+package com.fasterxml.util.membuf.util;
+
+import java.io.*;
+
+import com.fasterxml.util.membuf.StreamyBytesMemBuffer;
+
+/**
+ * {@link InputStream} adapter for reading contents of a {@link StreamyBytesMemBuffer}.
+ * All bulk access methods delegate directly to matching bulk methods of the
+ * buffer, so that callers that use them (compression codecs, parsers) only
+ * need to acquire buffer lock once per call, not once per byte.
+ *<p>
+ * Note that since buffers have no "end-of-input" marker, reads will block
+ * until more content is appended; and closing of this stream does NOT close
+ * the underlying buffer, since it may still be shared with other readers or writers.
+ * Closing of the underlying buffer, on the other hand, will make
+ * subsequent reads fail with an {@link IOException}.
+ *
+ * @since 1.2.1
+ */
+public class MemBufferInputStream extends InputStream
+{
+    protected final static int DEFAULT_TRANSFER_BUFFER_SIZE = 8000;
+
+    protected final StreamyBytesMemBuffer _buffer;
+
+    /**
+     * Buffer used by {@link #transferTo}, allocated lazily when first needed
+     */
+    protected byte[] _transferBuffer;
+
+    protected boolean _closed;
+
+    public MemBufferInputStream(StreamyBytesMemBuffer buffer) {
+        _buffer = buffer;
+    }
+
+    /*
+    /**********************************************************************
+    /* InputStream implementation
+    /**********************************************************************
+     */
+
+    @Override
+    public int available() throws IOException
+    {
+        _checkClosed();
+        long avail;
+        try {
+            avail = _buffer.available();
+        } catch (IllegalStateException e) {
+            throw _ioException(e);
+        }
+        return (avail > Integer.MAX_VALUE) ? Integer.MAX_VALUE : (int) avail;
+    }
+
+    @Override
+    public void close() {
+        _closed = true;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        _checkClosed();
+        try {
+            // note: buffer returns signed byte; need to mask
+            return _buffer.read() & 0xFF;
+        } catch (InterruptedException e) {
+            throw _interrupted(e);
+        } catch (IllegalStateException e) {
+            throw _ioException(e);
+        }
+    }
+
+    @Override
+    public int read(byte[] b) throws IOException {
+        return read(b, 0, b.length);
+    }
+
+    @Override
+    public int read(byte[] b, int offset, int length) throws IOException
+    {
+        _checkClosed();
+        if (length < 1) {
+            return 0;
+        }
+        try {
+            return _buffer.read(b, offset, length);
+        } catch (InterruptedException e) {
+            throw _interrupted(e);
+        } catch (IllegalStateException e) {
+            throw _ioException(e);
+        }
+    }
+
+    /**
+     * Skips up to specified number of bytes; will not block, so
+     * the number of bytes skipped is limited to what is currently
+     * available in the buffer.
+     */
+    @Override
+    public long skip(long n) throws IOException
+    {
+        _checkClosed();
+        if (n <= 0L) {
+            return 0L;
+        }
+        try {
+            return _buffer.skip((n > Integer.MAX_VALUE) ? Integer.MAX_VALUE : (int) n);
+        } catch (IllegalStateException e) {
+            throw _ioException(e);
+        }
+    }
+
+    /**
+     * Method that will move all content currently available in the buffer
+     * into given {@link OutputStream}, without blocking to wait for more
+     * (since buffer has no "end-of-input", blocking variant could never
+     * complete). Content is copied in chunks, so lock of the buffer is only
+     * held for one bulk read at a time.
+     *<p>
+     * Note: signature matches that of <code>InputStream.transferTo()</code> added in JDK 9,
+     * so that it overrides the default implementation when running on newer JDKs.
+     *
+     * @return Number of bytes transferred
+     */
+    public long transferTo(OutputStream out) throws IOException
+    {
+        _checkClosed();
+        byte[] buf = _transferBuffer;
+        if (buf == null) {
+            _transferBuffer = buf = new byte[DEFAULT_TRANSFER_BUFFER_SIZE];
+        }
+        long total = 0L;
+        int count;
+        try {
+            while ((count = _buffer.readIfAvailable(buf, 0, buf.length)) > 0) {
+                out.write(buf, 0, count);
+                total += count;
+            }
+        } catch (IllegalStateException e) {
+            throw _ioException(e);
+        }
+        return total;
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods
+    /**********************************************************************
+     */
+
+    protected void _checkClosed() throws IOException {
+        if (_closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    protected IOException _interrupted(InterruptedException e)
+    {
+        // need to retain interrupt status for the caller
+        Thread.currentThread().interrupt();
+        InterruptedIOException ioe = new InterruptedIOException("Interrupted while waiting for data");
+        ioe.initCause(e);
+        return ioe;
+    }
+
+    protected IOException _ioException(IllegalStateException e)
+    {
+        IOException ioe = new IOException(e.getMessage());
+        ioe.initCause(e);
+        return ioe;
+    }
+}
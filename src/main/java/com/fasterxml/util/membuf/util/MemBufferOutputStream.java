@@ -0,0 +1,152 @@
+package com.fasterxml.util.membuf.util;
+
+import java.io.*;
+
+import com.fasterxml.util.membuf.StreamyBytesMemBuffer;
+
+/**
+ * {@link OutputStream} adapter for appending content into a {@link StreamyBytesMemBuffer}.
+ * Single-byte writes are coalesced in a small local buffer, which is appended
+ * to the underlying buffer when full, or when {@link #flush} or {@link #close}
+ * is called; longer writes are appended directly, so that buffer lock only
+ * needs to be acquired once per bulk write.
+ *<p>
+ * If the underlying buffer does not have enough room for content, an
+ * {@link IOException} is thrown and content that could not be appended
+ * is retained locally, so that the write may be retried by flushing later on.
+ * Closing of this stream does NOT close the underlying buffer.
+ *
+ * @since 1.2.1
+ */
+public class MemBufferOutputStream extends OutputStream
+{
+    protected final static int DEFAULT_LOCAL_BUFFER_SIZE = 500;
+
+    protected final StreamyBytesMemBuffer _buffer;
+
+    /**
+     * Local buffer used for coalescing short writes
+     */
+    protected final byte[] _pending;
+
+    /**
+     * Number of bytes in {@link #_pending} not yet appended to buffer
+     */
+    protected int _pendingLength;
+
+    protected boolean _closed;
+
+    public MemBufferOutputStream(StreamyBytesMemBuffer buffer) {
+        this(buffer, DEFAULT_LOCAL_BUFFER_SIZE);
+    }
+
+    /**
+     * @param localBufferSize Size of the local buffer used for coalescing
+     *   short writes
+     */
+    public MemBufferOutputStream(StreamyBytesMemBuffer buffer, int localBufferSize)
+    {
+        if (localBufferSize < 1) {
+            throw new IllegalArgumentException("localBufferSize must be positive (got "+localBufferSize+")");
+        }
+        _buffer = buffer;
+        _pending = new byte[localBufferSize];
+    }
+
+    /*
+    /**********************************************************************
+    /* OutputStream implementation
+    /**********************************************************************
+     */
+
+    @Override
+    public void write(int b) throws IOException
+    {
+        _checkClosed();
+        if (_pendingLength >= _pending.length) {
+            _flushPending();
+        }
+        _pending[_pendingLength++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b) throws IOException {
+        write(b, 0, b.length);
+    }
+
+    @Override
+    public void write(byte[] b, int offset, int length) throws IOException
+    {
+        _checkClosed();
+        if (length < 1) {
+            return;
+        }
+        // Short enough to fit in local buffer? If so, just copy
+        if (length <= (_pending.length - _pendingLength)) {
+            System.arraycopy(b, offset, _pending, _pendingLength, length);
+            _pendingLength += length;
+            return;
+        }
+        // otherwise need to flush what we have first, to retain ordering
+        _flushPending();
+        if (length < _pending.length) {
+            System.arraycopy(b, offset, _pending, 0, length);
+            _pendingLength = length;
+        } else {
+            _append(b, offset, length);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+        _checkClosed();
+        _flushPending();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (!_closed) {
+            // mark closed first: if flush fails, no point in retrying
+            _closed = true;
+            _flushPending();
+        }
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods
+    /**********************************************************************
+     */
+
+    protected void _flushPending() throws IOException
+    {
+        if (_pendingLength > 0) {
+            _append(_pending, 0, _pendingLength);
+            _pendingLength = 0;
+        }
+    }
+
+    protected void _append(byte[] b, int offset, int length) throws IOException
+    {
+        boolean ok;
+        try {
+            ok = _buffer.tryAppend(b, offset, length);
+        } catch (IllegalStateException e) {
+            IOException ioe = new IOException(e.getMessage());
+            ioe.initCause(e);
+            throw ioe;
+        }
+        if (!ok) {
+            throw new IOException("Not enough room in buffer to append "+length
+                    +" bytes (can't allocate enough new segments)");
+        }
+    }
+
+    protected void _checkClosed() throws IOException {
+        if (_closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+}
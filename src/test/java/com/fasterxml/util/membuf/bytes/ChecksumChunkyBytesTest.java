@@ -0,0 +1,249 @@
+package com.fasterxml.util.membuf.bytes;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+
+import com.fasterxml.util.membuf.*;
+import com.fasterxml.util.membuf.impl.ChecksummedChunkyBytesMemBuffer;
+
+/**
+ * Tests for {@link ChecksummedChunkyBytesMemBuffer}, which verifies
+ * CRC-32C checksums of entries on read.
+ */
+public class ChecksumChunkyBytesTest extends MembufTestBase
+{
+    public void testRoundTrip() throws Exception
+    {
+        _testRoundTrip(SegType.BYTE_BUFFER_DIRECT);
+        _testRoundTrip(SegType.BYTE_BUFFER_FAKE);
+        _testRoundTrip(SegType.BYTE_ARRAY);
+    }
+
+    public void testReportCorrupt() throws Exception
+    {
+        _testReportCorrupt(SegType.BYTE_BUFFER_DIRECT);
+        _testReportCorrupt(SegType.BYTE_ARRAY);
+    }
+
+    public void testSkipCorrupt() throws Exception
+    {
+        _testSkipCorrupt(SegType.BYTE_BUFFER_DIRECT);
+        _testSkipCorrupt(SegType.BYTE_ARRAY);
+    }
+
+    public void testConsume() throws Exception
+    {
+        _testConsume(SegType.BYTE_BUFFER_DIRECT);
+        _testConsume(SegType.BYTE_BUFFER_FAKE);
+        _testConsume(SegType.BYTE_ARRAY);
+    }
+
+    public void testTransfer() throws Exception
+    {
+        _testTransfer(SegType.BYTE_BUFFER_DIRECT);
+        _testTransfer(SegType.BYTE_ARRAY);
+    }
+
+    /*
+    /**********************************************************************
+    /* Actual test impls
+    /**********************************************************************
+     */
+
+    private final static int[] SIZES = { 5, 0, 33, 1, 12, 70 };
+
+    private void _testRoundTrip(SegType aType) throws Exception
+    {
+        MemBuffersForBytes bufs = createBytesBuffers(aType, 20, 1, 30);
+        ChecksummedChunkyBytesMemBuffer buffer = new ChecksummedChunkyBytesMemBuffer(bufs.createChunkyBuffer(1, 20), false);
+        for (int size : SIZES) {
+            buffer.appendEntry(buildBytesChunk(size));
+        }
+        assertEquals(SIZES.length, buffer.getEntryCount());
+        assertEquals(121L, buffer.getTotalPayloadLength());
+        assertEquals(SIZES[0], buffer.getNextEntryLength());
+        verifyChunk(buffer.getNextEntry(), SIZES[0]);
+        byte[] result = new byte[100];
+        assertEquals(SIZES[1], buffer.readNextEntry(result, 0));
+        // too small buffer: entry is not consumed
+        assertEquals(-SIZES[2], buffer.readNextEntryIfAvailable(result, 80));
+        verifyChunk(buffer.peekNextEntry(), SIZES[2]);
+        assertEquals(SIZES[2], buffer.getNextEntryLength());
+        assertEquals(SIZES[2], buffer.readNextEntryIfAvailable(result, 10));
+        verifyChunkPrefix(result, 10, SIZES[2]);
+        assertEquals(SIZES[3], buffer.skipNextEntry());
+        verifyChunk(buffer.getNextEntry(100L), SIZES[4]);
+        verifyChunk(buffer.getNextEntryIfAvailable(), SIZES[5]);
+        assertNull(buffer.getNextEntryIfAvailable());
+        assertEquals(Integer.MIN_VALUE, buffer.readNextEntryIfAvailable(result, 0));
+        assertEquals(0L, buffer.getCorruptEntryCount());
+
+        try {
+            buffer.startEntryWriter();
+            fail("Expected exception");
+        } catch (IllegalStateException e) {
+            verifyException(e, "in place");
+        }
+        buffer.close();
+    }
+
+    private void _testReportCorrupt(SegType aType) throws Exception
+    {
+        MemBuffersForBytes bufs = createBytesBuffers(aType, 20, 1, 30);
+        ChecksummedChunkyBytesMemBuffer buffer = _corruptBuffer(bufs, false);
+        verifyChunk(buffer.getNextEntry(), SIZES[0]);
+        verifyChunk(buffer.getNextEntry(), SIZES[1]);
+        try {
+            buffer.getNextEntry();
+            fail("Expected exception");
+        } catch (IllegalStateException e) {
+            verifyException(e, "checksum mismatch");
+        }
+        assertEquals(1L, buffer.getCorruptEntryCount());
+        // but framing retained, so can continue
+        verifyChunk(buffer.getNextEntry(), 9);
+        assertTrue(buffer.isEmpty());
+
+        buffer = _corruptBuffer(bufs, false);
+        assertEquals(SIZES[0], buffer.skipNextEntry());
+        assertEquals(SIZES[1], buffer.skipNextEntry());
+        try {
+            buffer.peekNextEntry();
+            fail("Expected exception");
+        } catch (IllegalStateException e) {
+            verifyException(e, "checksum mismatch");
+        }
+        verifyChunk(buffer.peekNextEntry(), 9);
+        verifyChunk(buffer.getNextEntry(), 9);
+        assertTrue(buffer.isEmpty());
+        buffer.close();
+    }
+
+    private void _testSkipCorrupt(SegType aType) throws Exception
+    {
+        MemBuffersForBytes bufs = createBytesBuffers(aType, 20, 1, 30);
+        ChecksummedChunkyBytesMemBuffer buffer = _corruptBuffer(bufs, true);
+        assertEquals(SIZES[0], buffer.skipNextEntry());
+        assertEquals(SIZES[1], buffer.skipNextEntry());
+        verifyChunk(buffer.getNextEntry(), 9);
+        assertEquals(1L, buffer.getCorruptEntryCount());
+        assertTrue(buffer.isEmpty());
+
+        buffer = _corruptBuffer(bufs, true);
+        buffer.skipNextEntry();
+        buffer.skipNextEntry();
+        byte[] result = new byte[40];
+        assertEquals(9, buffer.readNextEntryIfAvailable(result, 0));
+        verifyChunkPrefix(result, 9);
+
+        buffer = _corruptBuffer(bufs, true);
+        buffer.skipNextEntry();
+        buffer.skipNextEntry();
+        verifyChunk(buffer.peekNextEntry(), 9);
+        assertEquals(1, buffer.getEntryCount());
+        verifyChunk(buffer.getNextEntry(), 9);
+        buffer.close();
+    }
+
+    private void _testConsume(SegType aType) throws Exception
+    {
+        MemBuffersForBytes bufs = createBytesBuffers(aType, 20, 1, 30);
+        ChecksummedChunkyBytesMemBuffer buffer = new ChecksummedChunkyBytesMemBuffer(bufs.createChunkyBuffer(1, 20), false);
+        for (int size : SIZES) {
+            buffer.appendEntry(buildBytesChunk(size));
+        }
+        for (int size : SIZES) {
+            Collector c = new Collector();
+            assertEquals(size, buffer.consumeNextEntry(c));
+            verifyChunk(c.bytes.toByteArray(), size);
+        }
+        assertTrue(buffer.isEmpty());
+
+        buffer = _corruptBuffer(bufs, false);
+        buffer.skipNextEntry();
+        buffer.skipNextEntry();
+        try {
+            buffer.consumeNextEntry(new Collector());
+            fail("Expected exception");
+        } catch (IllegalStateException e) {
+            verifyException(e, "checksum mismatch");
+        }
+        Collector c = new Collector();
+        assertEquals(9, buffer.consumeNextEntry(c));
+        verifyChunk(c.bytes.toByteArray(), 9);
+        buffer.close();
+
+        // when skipping, corrupt entry must not be passed to consumer at all
+        buffer = _corruptBuffer(bufs, true);
+        for (int i = 0; i < 2; ++i) {
+            c = new Collector();
+            assertEquals(SIZES[i], buffer.consumeNextEntry(c));
+            verifyChunk(c.bytes.toByteArray(), SIZES[i]);
+        }
+        c = new Collector();
+        assertEquals(9, buffer.consumeNextEntry(c));
+        verifyChunk(c.bytes.toByteArray(), 9);
+        assertEquals(1L, buffer.getCorruptEntryCount());
+        assertEquals(-1, buffer.consumeNextEntry(new Collector()));
+        buffer.close();
+    }
+
+    private void _testTransfer(SegType aType) throws Exception
+    {
+        MemBuffersForBytes bufs = createBytesBuffers(aType, 20, 1, 60);
+        ChecksummedChunkyBytesMemBuffer src = new ChecksummedChunkyBytesMemBuffer(bufs.createChunkyBuffer(1, 20), false);
+        for (int size : SIZES) {
+            src.appendEntry(buildBytesChunk(size));
+        }
+        verifyChunk(src.peekNextEntry(), SIZES[0]);
+        ChecksummedChunkyBytesMemBuffer dst = new ChecksummedChunkyBytesMemBuffer(bufs.createChunkyBuffer(1, 20), false);
+        assertEquals(3, src.transferEntriesTo(dst, 3));
+        ChunkyBytesMemBuffer plain = bufs.createChunkyBuffer(1, 20);
+        assertEquals(3, src.transferEntriesTo(plain, 10));
+        assertTrue(src.isEmpty());
+        for (int i = 0; i < 3; ++i) {
+            verifyChunk(dst.getNextEntry(), SIZES[i]);
+            verifyChunk(plain.getNextEntry(), SIZES[i+3]);
+        }
+        assertEquals(0L, dst.getCorruptEntryCount());
+        src.close();
+        dst.close();
+        plain.close();
+    }
+
+    /**
+     * Helper method for constructing a buffer with entries of {@link #SIZES}
+     * (first two), followed by a corrupt entry and a valid entry of 9 bytes
+     */
+    private ChecksummedChunkyBytesMemBuffer _corruptBuffer(MemBuffersForBytes bufs, boolean skip)
+        throws Exception
+    {
+        ChecksummedChunkyBytesMemBuffer buffer = new ChecksummedChunkyBytesMemBuffer(bufs.createChunkyBuffer(1, 20), skip);
+        buffer.appendEntry(buildBytesChunk(SIZES[0]));
+        buffer.appendEntry(buildBytesChunk(SIZES[1]));
+        buffer.appendEntry(buildBytesChunk(SIZES[2]));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        buffer.snapshotTo(Channels.newChannel(bytes));
+        buffer.clear();
+        // flip a bit in the last byte of the last entry
+        byte[] snapshot = bytes.toByteArray();
+        snapshot[snapshot.length-1] ^= 0x10;
+        buffer.restoreFrom(Channels.newChannel(new ByteArrayInputStream(snapshot)));
+        buffer.appendEntry(buildBytesChunk(9));
+        return buffer;
+    }
+
+    private final static class Collector implements EntryConsumer<ByteBuffer>
+    {
+        public final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        @Override
+        public void consume(ByteBuffer segmentView, int offset, int length) {
+            for (int i = 0; i < length; ++i) {
+                bytes.write(segmentView.get(offset+i));
+            }
+        }
+    }
+}
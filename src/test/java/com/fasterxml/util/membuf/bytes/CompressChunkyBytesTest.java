@@ -0,0 +1,179 @@
+package com.fasterxml.util.membuf.bytes;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.util.Random;
+
+import com.fasterxml.util.membuf.*;
+import com.fasterxml.util.membuf.base.SegmentAllocatorBase;
+import com.fasterxml.util.membuf.impl.CompressingChunkyBytesMemBuffer;
+
+/**
+ * Tests for {@link CompressingChunkyBytesMemBuffer}, which compresses
+ * segments that are not being accessed.
+ */
+public class CompressChunkyBytesTest extends MembufTestBase
+{
+    public void testCompression() throws Exception
+    {
+        _testCompression(SegType.BYTE_BUFFER_DIRECT);
+        _testCompression(SegType.BYTE_BUFFER_FAKE);
+        _testCompression(SegType.BYTE_ARRAY);
+    }
+
+    public void testIncompressible() throws Exception
+    {
+        _testIncompressible(SegType.BYTE_BUFFER_DIRECT);
+        _testIncompressible(SegType.BYTE_ARRAY);
+    }
+
+    public void testSnapshotAndTransfer() throws Exception
+    {
+        _testSnapshotAndTransfer(SegType.BYTE_BUFFER_DIRECT);
+        _testSnapshotAndTransfer(SegType.BYTE_ARRAY);
+    }
+
+    /*
+    /**********************************************************************
+    /* Actual test impls
+    /**********************************************************************
+     */
+
+    private void _testCompression(SegType aType) throws Exception
+    {
+        MemBuffersForBytes bufs = createBytesBuffers(aType, 200, 1, 5);
+        CompressingChunkyBytesMemBuffer buffer = new CompressingChunkyBytesMemBuffer(bufs.createChunkyBuffer(1, 5), 2000);
+        // 5 segments of 200 bytes: room for 23 entries of 42 bytes (with prefix)
+        int count = 0;
+        while (buffer.tryAppendEntry(buildBytesChunk(42))) {
+            ++count;
+        }
+        assertEquals(23, count);
+        // all full segments between tail and head are cold
+        assertEquals(3, buffer.compressColdSegments(10));
+        assertEquals(3, buffer.getCompressedSegmentCount());
+        assertTrue(buffer.getCompressedLength() < 300);
+        assertEquals(0, buffer.compressColdSegments(10));
+        // and now there should be room for more
+        while (buffer.tryAppendEntry(buildBytesChunk(42))) {
+            ++count;
+            // keep on compressing as segments fill up
+            buffer.compressColdSegments(1);
+        }
+        // segments holding compressed content count against the limit too
+        assertTrue("Only "+count+" entries fit", count > 40);
+        assertEquals(count, buffer.getEntryCount());
+        assertEquals(42L * count, buffer.getTotalPayloadLength());
+
+        // entries must come out unchanged, in order
+        for (int i = 0; i < count; ++i) {
+            verifyChunk(buffer.getNextEntry(), 42);
+            if (i == count / 2) { // appending, compressing in between must be fine
+                buffer.compressColdSegments(100);
+                assertTrue(buffer.tryAppendEntry(buildBytesChunk(3)));
+            }
+        }
+        verifyChunk(buffer.getNextEntry(), 3);
+        assertTrue(buffer.isEmpty());
+        assertEquals(0, buffer.getCompressedSegmentCount());
+        assertEquals(0, buffer.getCompressedLength());
+
+        // clearing must drop compressed segments too
+        for (int i = 0; i < 40; ++i) {
+            assertTrue(buffer.tryAppendEntry(buildBytesChunk(42)));
+            buffer.compressColdSegments(1);
+        }
+        assertTrue(buffer.getCompressedSegmentCount() > 0);
+        buffer.clear();
+        assertEquals(0, buffer.getCompressedSegmentCount());
+        assertTrue(buffer.isEmpty());
+        assertTrue(buffer.tryAppendEntry(buildBytesChunk(42)));
+        verifyChunk(buffer.getNextEntry(), 42);
+        for (int i = 0; i < 20; ++i) {
+            assertTrue(buffer.tryAppendEntry(buildBytesChunk(42)));
+        }
+        assertTrue(buffer.compressColdSegments(10) > 0);
+        buffer.close();
+        // all segments, including ones used for compressed content, returned
+        assertEquals(0, ((SegmentAllocatorBase<?>) bufs.getAllocator()).getBufferOwnedSegmentCount());
+    }
+
+    private void _testIncompressible(SegType aType) throws Exception
+    {
+        MemBuffersForBytes bufs = createBytesBuffers(aType, 100, 1, 4);
+        CompressingChunkyBytesMemBuffer buffer = new CompressingChunkyBytesMemBuffer(bufs.createChunkyBuffer(1, 4), 250);
+        Random rnd = new Random(1);
+        byte[][] entries = new byte[12][];
+        for (int i = 0; i < entries.length; ++i) {
+            entries[i] = new byte[30];
+            rnd.nextBytes(entries[i]);
+        }
+        int count = 0;
+        while (count < entries.length && buffer.tryAppendEntry(entries[count])) {
+            ++count;
+        }
+        // would not take less room compressed, so left as is
+        assertEquals(0, buffer.compressColdSegments(10));
+        assertEquals(0, buffer.getCompressedLength());
+        byte[] result = new byte[30];
+        for (int i = 0; i < count; ++i) {
+            assertEquals(30, buffer.readNextEntry(result, 0));
+            assertEquals(new String(entries[i], "ISO-8859-1"), new String(result, "ISO-8859-1"));
+        }
+        assertTrue(buffer.isEmpty());
+
+        // but compressible segments before incompressible ones are compressed
+        for (int i = 0; i < 7; ++i) {
+            assertTrue(buffer.tryAppendEntry(buildBytesChunk(30)));
+        }
+        count = 0;
+        while (count < entries.length && buffer.tryAppendEntry(entries[count])) {
+            ++count;
+        }
+        assertTrue(count > 0);
+        assertTrue(buffer.compressColdSegments(10) > 0);
+        assertEquals(0, buffer.compressColdSegments(10));
+        for (int i = 0; i < 7; ++i) {
+            verifyChunk(buffer.getNextEntry(), 30);
+        }
+        for (int i = 0; i < count; ++i) {
+            assertEquals(30, buffer.readNextEntry(result, 0));
+            assertEquals(new String(entries[i], "ISO-8859-1"), new String(result, "ISO-8859-1"));
+        }
+        assertTrue(buffer.isEmpty());
+        assertEquals(0, buffer.getCompressedSegmentCount());
+        buffer.close();
+    }
+
+    private void _testSnapshotAndTransfer(SegType aType) throws Exception
+    {
+        MemBuffersForBytes bufs = createBytesBuffers(aType, 200, 1, 20);
+        CompressingChunkyBytesMemBuffer buffer = new CompressingChunkyBytesMemBuffer(bufs.createChunkyBuffer(1, 8), 2000);
+        for (int i = 0; i < 30; ++i) {
+            assertTrue(buffer.tryAppendEntry(buildBytesChunk(42)));
+        }
+        verifyChunk(buffer.getNextEntry(), 42);
+        assertTrue(buffer.compressColdSegments(10) > 0);
+        // snapshot needs to decompress, and there are enough segments for that
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        buffer.snapshotTo(Channels.newChannel(bytes));
+        assertEquals(0, buffer.getCompressedSegmentCount());
+        ChunkyBytesMemBuffer copy = bufs.createChunkyBuffer(1, 10);
+        copy.restoreFrom(Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(29, copy.getEntryCount());
+
+        // transfer must decompress as well
+        assertTrue(buffer.compressColdSegments(10) > 0);
+        ChunkyBytesMemBuffer target = bufs.createChunkyBuffer(1, 10);
+        assertEquals(29, buffer.transferEntriesTo(target, 100));
+        assertTrue(buffer.isEmpty());
+        for (int i = 0; i < 29; ++i) {
+            verifyChunk(target.getNextEntry(), 42);
+            verifyChunk(copy.getNextEntry(), 42);
+        }
+        buffer.close();
+        copy.close();
+        target.close();
+    }
+}
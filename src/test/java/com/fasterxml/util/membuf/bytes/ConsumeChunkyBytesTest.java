@@ -0,0 +1,114 @@
+package com.fasterxml.util.membuf.bytes;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+import org.junit.Assert;
+
+import com.fasterxml.util.membuf.ChunkyBytesMemBuffer;
+import com.fasterxml.util.membuf.EntryConsumer;
+import com.fasterxml.util.membuf.MembufTestBase;
+
+/**
+ * Tests for consuming entries of chunky byte-valued buffers
+ * using {@link EntryConsumer}.
+ */
+public class ConsumeChunkyBytesTest extends MembufTestBase
+{
+    public void testChunkyConsume() throws Exception
+    {
+        _testChunkyConsume(SegType.BYTE_BUFFER_DIRECT);
+        _testChunkyConsume(SegType.BYTE_BUFFER_FAKE);
+        _testChunkyConsume(SegType.BYTE_ARRAY);
+    }
+
+    public void testChunkyConsumeFailure() throws Exception
+    {
+        _testChunkyConsumeFailure(SegType.BYTE_BUFFER_DIRECT);
+        _testChunkyConsumeFailure(SegType.BYTE_ARRAY);
+    }
+
+    /*
+    /**********************************************************************
+    /* Actual test impls
+    /**********************************************************************
+     */
+
+    private void _testChunkyConsume(SegType aType) throws Exception
+    {
+        final ChunkyBytesMemBuffer buffer = createBytesBuffers(aType, 10, 1, 10).createChunkyBuffer(1, 10);
+        buffer.appendEntry(buildBytesChunk(4));
+        buffer.appendEntry(buildBytesChunk(27));
+        buffer.appendEntry(new byte[0]);
+        buffer.appendEntry(buildBytesChunk(3));
+
+        CRCConsumer crc = new CRCConsumer();
+        assertEquals(4, buffer.consumeNextEntry(crc));
+        assertEquals(1, crc.fragments);
+        assertEquals(_crc(buildBytesChunk(4)), crc.crc.getValue());
+
+        // longer one: must be split in fragments
+        crc = new CRCConsumer();
+        assertEquals(27, buffer.consumeNextEntry(crc));
+        assertTrue(crc.fragments > 1);
+        assertEquals(_crc(buildBytesChunk(27)), crc.crc.getValue());
+
+        crc = new CRCConsumer();
+        assertEquals(0, buffer.consumeNextEntry(crc));
+        assertEquals(0, crc.fragments);
+
+        // and peeked entries work too
+        assertNotNull(buffer.peekNextEntry());
+        crc = new CRCConsumer();
+        assertEquals(3, buffer.consumeNextEntry(crc));
+        assertEquals(_crc(buildBytesChunk(3)), crc.crc.getValue());
+
+        assertEquals(-1, buffer.consumeNextEntry(crc));
+        assertTrue(buffer.isEmpty());
+        assertEquals(1, buffer.getSegmentCount());
+        buffer.close();
+    }
+
+    private void _testChunkyConsumeFailure(SegType aType) throws Exception
+    {
+        final ChunkyBytesMemBuffer buffer = createBytesBuffers(aType, 10, 1, 10).createChunkyBuffer(1, 10);
+        buffer.appendEntry(buildBytesChunk(25));
+        buffer.appendEntry(buildBytesChunk(6));
+        try {
+            buffer.consumeNextEntry(new EntryConsumer<ByteBuffer>() {
+                @Override
+                public void consume(ByteBuffer segmentView, int offset, int length) {
+                    throw new IllegalArgumentException("Fail!");
+                }
+            });
+            fail("Should not pass");
+        } catch (IllegalArgumentException e) {
+            verifyException(e, "Fail!");
+        }
+        // failed entry should have been skipped
+        assertEquals(1, buffer.getEntryCount());
+        Assert.assertArrayEquals(buildBytesChunk(6), buffer.getNextEntryIfAvailable());
+        buffer.close();
+    }
+
+    private long _crc(byte[] data)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+
+    static class CRCConsumer implements EntryConsumer<ByteBuffer>
+    {
+        public final CRC32 crc = new CRC32();
+        public int fragments;
+
+        @Override
+        public void consume(ByteBuffer segmentView, int offset, int length) {
+            ++fragments;
+            for (int i = 0; i < length; ++i) {
+                crc.update(segmentView.get(offset+i));
+            }
+        }
+    }
+}
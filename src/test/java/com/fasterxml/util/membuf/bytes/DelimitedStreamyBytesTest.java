@@ -0,0 +1,94 @@
+package com.fasterxml.util.membuf.bytes;
+
+import com.fasterxml.util.membuf.*;
+import com.fasterxml.util.membuf.util.UTF8Mate;
+
+/**
+ * Tests for delimiter-based access (scanning, line reading) of
+ * {@link StreamyBytesMemBuffer}s.
+ */
+public class DelimitedStreamyBytesTest extends MembufTestBase
+{
+    public void testIndexOf() throws Exception
+    {
+        _testIndexOf(SegType.BYTE_BUFFER_DIRECT);
+        _testIndexOf(SegType.BYTE_BUFFER_FAKE);
+        _testIndexOf(SegType.BYTE_ARRAY);
+    }
+
+    public void testReadUntil() throws Exception
+    {
+        _testReadUntil(SegType.BYTE_BUFFER_DIRECT);
+        _testReadUntil(SegType.BYTE_ARRAY);
+    }
+
+    public void testReadLine() throws Exception
+    {
+        _testReadLine(SegType.BYTE_BUFFER_DIRECT);
+        _testReadLine(SegType.BYTE_BUFFER_FAKE);
+        _testReadLine(SegType.BYTE_ARRAY);
+    }
+
+    /*
+    /**********************************************************************
+    /* Actual test impls
+    /**********************************************************************
+     */
+
+    private void _testIndexOf(SegType aType) throws Exception
+    {
+        final StreamyBytesMemBuffer buffer = createBytesBuffers(aType, 10, 1, 10).createStreamyBuffer(1, 10);
+        assertEquals(-1L, buffer.indexOf((byte) 0, 0L));
+        buffer.append(UTF8Mate.encodeAsUTF8("abc,defghijklmn,o,pqrstuvwxyz,"));
+        assertEquals(4, buffer.skip(4));
+        // "defghijklmn,o,pqrstuvwxyz,"
+        assertEquals(11L, buffer.indexOf((byte) ',', 0L));
+        assertEquals(11L, buffer.indexOf((byte) ',', 11L));
+        assertEquals(13L, buffer.indexOf((byte) ',', 12L));
+        assertEquals(25L, buffer.indexOf((byte) ',', 14L));
+        assertEquals(-1L, buffer.indexOf((byte) ',', 26L));
+        assertEquals(-1L, buffer.indexOf((byte) '!', 0L));
+        assertEquals(0L, buffer.indexOf((byte) 'd', 0L));
+        // no content consumed
+        assertEquals(26L, buffer.available());
+        buffer.close();
+    }
+
+    private void _testReadUntil(SegType aType) throws Exception
+    {
+        final StreamyBytesMemBuffer buffer = createBytesBuffers(aType, 10, 1, 10).createStreamyBuffer(1, 10);
+        buffer.append(UTF8Mate.encodeAsUTF8("first;second-part;third"));
+        byte[] result = new byte[30];
+        assertEquals(6, buffer.readUntil((byte) ';', result, 0, 30));
+        assertEquals("first;", UTF8Mate.decodeFromUTF8(result, 0, 6));
+        // delimiter beyond max length: read as much as fits
+        assertEquals(4, buffer.readUntil((byte) ';', result, 0, 4));
+        assertEquals("seco", UTF8Mate.decodeFromUTF8(result, 0, 4));
+        assertEquals(8, buffer.readUntil((byte) ';', result, 2, 20));
+        assertEquals("nd-part;", UTF8Mate.decodeFromUTF8(result, 2, 8));
+        // no delimiter, not enough data: nothing read
+        assertEquals(0, buffer.readUntil((byte) ';', result, 0, 20));
+        assertEquals(5L, buffer.available());
+        buffer.append(UTF8Mate.encodeAsUTF8(";"));
+        assertEquals(6, buffer.readUntil((byte) ';', result, 0, 20));
+        assertEquals("third;", UTF8Mate.decodeFromUTF8(result, 0, 6));
+        assertTrue(buffer.isEmpty());
+        buffer.close();
+    }
+
+    private void _testReadLine(SegType aType) throws Exception
+    {
+        final StreamyBytesMemBuffer buffer = createBytesBuffers(aType, 10, 1, 10).createStreamyBuffer(1, 10);
+        assertNull(buffer.readLine());
+        buffer.append(UTF8Mate.encodeAsUTF8("Line #1\r\n\nAnd then line \u00E9\u20AC\nPartial"));
+        assertEquals("Line #1", buffer.readLine());
+        assertEquals("", buffer.readLine());
+        assertEquals("And then line \u00E9\u20AC", buffer.readLine());
+        assertNull(buffer.readLine());
+        assertEquals(7L, buffer.available());
+        buffer.append(UTF8Mate.encodeAsUTF8(" line\n"));
+        assertEquals("Partial line", buffer.readLine());
+        assertTrue(buffer.isEmpty());
+        buffer.close();
+    }
+}
@@ -0,0 +1,180 @@
+package com.fasterxml.util.membuf.bytes;
+
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Assert;
+
+import com.fasterxml.util.membuf.*;
+
+/**
+ * Tests for reading and writing entries of chunky byte buffers in pieces,
+ * using {@link EntryInputStream} and {@link EntryOutputStream}.
+ */
+public class EntryStreamBytesTest extends MembufTestBase
+{
+    public void testLargeEntry() throws Exception
+    {
+        _testLargeEntry(SegType.BYTE_BUFFER_DIRECT);
+        _testLargeEntry(SegType.BYTE_BUFFER_FAKE);
+        _testLargeEntry(SegType.BYTE_ARRAY);
+    }
+
+    public void testWriteEntry() throws Exception
+    {
+        _testWriteEntry(SegType.BYTE_BUFFER_DIRECT);
+        _testWriteEntry(SegType.BYTE_BUFFER_FAKE);
+        _testWriteEntry(SegType.BYTE_ARRAY);
+    }
+
+    public void testAbortEntry() throws Exception
+    {
+        _testAbortEntry(SegType.BYTE_BUFFER_DIRECT);
+        _testAbortEntry(SegType.BYTE_ARRAY);
+    }
+
+    /*
+    /**********************************************************************
+    /* Actual test impls
+    /**********************************************************************
+     */
+
+    private void _testLargeEntry(SegType aType) throws Exception
+    {
+        MemBuffersForBytes bufs = createBytesBuffers(aType, 1000, 1, 100);
+        final ChunkyBytesMemBuffer buffer = bufs.createChunkyBuffer(1, 100);
+        final byte[] data = buildBytesChunk(50000);
+        buffer.appendEntry(data);
+        buffer.appendEntry(buildBytesChunk(10));
+        assertEquals(51, buffer.getSegmentCount());
+
+        EntryInputStream in = buffer.openNextEntry();
+        assertEquals(50000, in.getLength());
+        assertEquals(50000, in.available());
+        assertEquals(data[0] & 0xFF, in.read());
+        assertEquals(99L, in.skip(99L));
+        byte[] chunk = new byte[2500];
+        int offset = 100;
+        for (int i = 0; i < 10; ++i) {
+            assertEquals(chunk.length, in.read(chunk));
+            for (int j = 0; j < chunk.length; ++j) {
+                assertEquals(data[offset+j], chunk[j]);
+            }
+            offset += chunk.length;
+        }
+        // segments freed as content is read
+        assertTrue(buffer.getSegmentCount() < 30);
+        // can not read other entries while stream is open
+        try {
+            buffer.getNextEntryIfAvailable();
+            fail("Should not pass");
+        } catch (IllegalStateException e) {
+            verifyException(e, "not closed");
+        }
+        // read until the end
+        while (true) {
+            int count = in.read(chunk);
+            if (count < 0) {
+                break;
+            }
+            for (int j = 0; j < count; ++j) {
+                assertEquals(data[offset+j], chunk[j]);
+            }
+            offset += count;
+        }
+        assertEquals(data.length, offset);
+        assertEquals(-1, in.read());
+        in.close();
+        try {
+            in.read();
+            fail("Should not pass");
+        } catch (IOException e) {
+            verifyException(e, "Stream closed");
+        }
+
+        // closing without reading everything skips the rest
+        in = buffer.openNextEntryIfAvailable();
+        assertEquals(0, in.read());
+        in.close();
+        assertTrue(buffer.isEmpty());
+        assertNull(buffer.openNextEntryIfAvailable());
+        assertEquals(1, buffer.getSegmentCount());
+        buffer.close();
+    }
+
+    private void _testWriteEntry(SegType aType) throws Exception
+    {
+        final ChunkyBytesMemBuffer buffer = createBytesBuffers(aType, 100, 1, 100).createChunkyBuffer(1, 100);
+        buffer.appendEntry(buildBytesChunk(3));
+        // compressed output: length not known up front
+        final byte[] data = buildBytesChunk(3000);
+        EntryOutputStream out = buffer.beginEntry();
+        GZIPOutputStream gzOut = new GZIPOutputStream(out);
+        gzOut.write(data);
+        gzOut.finish();
+        // not visible until closed
+        assertEquals(1, buffer.getEntryCount());
+        final int length = out.getLength();
+        gzOut.close();
+        assertEquals(2, buffer.getEntryCount());
+        buffer.appendEntry(buildBytesChunk(5));
+
+        verifyChunk(buffer.getNextEntry(), 3);
+        assertEquals(length, buffer.getNextEntryLength());
+        GZIPInputStream gzIn = new GZIPInputStream(buffer.openNextEntry());
+        byte[] result = new byte[data.length];
+        int count = 0;
+        while (count < result.length) {
+            count += gzIn.read(result, count, result.length - count);
+        }
+        assertEquals(-1, gzIn.read());
+        gzIn.close();
+        Assert.assertArrayEquals(data, result);
+        verifyChunk(buffer.getNextEntry(), 5);
+        assertTrue(buffer.isEmpty());
+        buffer.close();
+    }
+
+    private void _testAbortEntry(SegType aType) throws Exception
+    {
+        MemBuffersForBytes bufs = createBytesBuffers(aType, 10, 1, 5);
+        final ChunkyBytesMemBuffer buffer = bufs.createChunkyBuffer(1, 4);
+        buffer.appendEntry(buildBytesChunk(4));
+
+        EntryOutputStream out = buffer.beginEntry();
+        out.write(buildBytesChunk(15));
+        out.abort();
+        out.abort();
+        try {
+            out.write(1);
+            fail("Should not pass");
+        } catch (IOException e) {
+            verifyException(e, "Stream closed");
+        }
+        assertEquals(1, buffer.getEntryCount());
+        assertEquals(1, buffer.getSegmentCount());
+
+        // overflow rolls back as well
+        out = buffer.beginEntry();
+        try {
+            out.write(buildBytesChunk(50));
+            fail("Should not pass");
+        } catch (IOException e) {
+            verifyException(e, "Not enough room");
+        }
+        // closing after failure does nothing
+        out.close();
+        assertEquals(1, buffer.getEntryCount());
+        assertEquals(1, buffer.getSegmentCount());
+
+        out = buffer.beginEntry();
+        out.write(buildBytesChunk(12));
+        out.close();
+        verifyChunk(buffer.getNextEntry(), 4);
+        verifyChunk(buffer.getNextEntry(), 12);
+        assertTrue(buffer.isEmpty());
+        buffer.close();
+        assertEquals(0, bufs.getAllocator().getBufferOwnedSegmentCount());
+    }
+}
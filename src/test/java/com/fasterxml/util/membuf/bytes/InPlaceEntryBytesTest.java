@@ -0,0 +1,277 @@
+package com.fasterxml.util.membuf.bytes;
+
+import org.junit.Assert;
+
+import com.fasterxml.util.membuf.*;
+
+/**
+ * Tests for building and reading entries of chunky byte buffers
+ * in place, using {@link BytesEntryWriter} and {@link BytesEntryReader}.
+ */
+public class InPlaceEntryBytesTest extends MembufTestBase
+{
+    public void testTypedRoundTrip() throws Exception
+    {
+        _testTypedRoundTrip(SegType.BYTE_BUFFER_DIRECT);
+        _testTypedRoundTrip(SegType.BYTE_BUFFER_FAKE);
+        _testTypedRoundTrip(SegType.BYTE_ARRAY);
+    }
+
+    public void testAbortAndOverflow() throws Exception
+    {
+        _testAbortAndOverflow(SegType.BYTE_BUFFER_DIRECT);
+        _testAbortAndOverflow(SegType.BYTE_BUFFER_FAKE);
+        _testAbortAndOverflow(SegType.BYTE_ARRAY);
+    }
+
+    public void testReaderAccessRules() throws Exception
+    {
+        _testReaderAccessRules(SegType.BYTE_BUFFER_DIRECT);
+        _testReaderAccessRules(SegType.BYTE_ARRAY);
+    }
+
+    public void testConcurrentProducer() throws Exception
+    {
+        _testConcurrentProducer(SegType.BYTE_BUFFER_DIRECT);
+        _testConcurrentProducer(SegType.BYTE_ARRAY);
+    }
+
+    public void testWriterAfterClear() throws Exception
+    {
+        _testWriterAfterClear(SegType.BYTE_BUFFER_DIRECT);
+        _testWriterAfterClear(SegType.BYTE_ARRAY);
+    }
+
+    /*
+    /**********************************************************************
+    /* Actual test impls
+    /**********************************************************************
+     */
+
+    private void _testTypedRoundTrip(SegType aType) throws Exception
+    {
+        // use small segments, so that values straddle segment boundaries
+        final ChunkyBytesMemBuffer buffer = createBytesBuffers(aType, 9, 1, 50).createChunkyBuffer(1, 40);
+        // start with a regular entry, to offset things a bit
+        buffer.appendEntry(buildBytesChunk(3));
+        for (int i = 0; i < 3; ++i) {
+            BytesEntryWriter w = buffer.startEntryWriter();
+            w.writeByte(-3);
+            w.writeShort(0x1234);
+            w.writeInt(0xCAFEBABE + i);
+            w.writeLong(0x0123456789ABCDEFL);
+            w.writeDouble(0.25);
+            w.writeFloat(-1.5f);
+            w.writeVInt(300);
+            w.writeVLong(Long.MAX_VALUE);
+            w.write(buildBytesChunk(11));
+            // no entry visible before finishing
+            assertEquals(1+i, buffer.getEntryCount());
+            assertEquals(1+2+4+8+8+4+2+9+11, w.finish());
+        }
+        assertEquals(4, buffer.getEntryCount());
+        assertEquals(3 + 3 * 49, buffer.getTotalPayloadLength());
+
+        // regular read should see appended entries fine
+        byte[] data = buffer.getNextEntry();
+        verifyChunk(data, 3);
+        data = buffer.getNextEntry();
+        assertEquals(49, data.length);
+        assertEquals((byte) -3, data[0]);
+
+        BytesEntryReader r = buffer.getNextEntryReaderIfAvailable();
+        _verifyTypedEntry(r, 1);
+        // peeked entries can be read as well
+        assertNotNull(buffer.peekNextEntry());
+        r = buffer.getNextEntryReader();
+        _verifyTypedEntry(r, 2);
+
+        assertTrue(buffer.isEmpty());
+        assertNull(buffer.getNextEntryReaderIfAvailable());
+        assertEquals(0L, buffer.getTotalPayloadLength());
+        buffer.close();
+    }
+
+    private void _verifyTypedEntry(BytesEntryReader r, int index)
+    {
+        assertEquals(49, r.getLength());
+        assertEquals(-3, r.readByte());
+        assertEquals(0x1234, r.readShort());
+        assertEquals(0xCAFEBABE + index, r.readInt());
+        assertEquals(0x0123456789ABCDEFL, r.readLong());
+        assertEquals(0.25, r.readDouble());
+        assertEquals(-1.5f, r.readFloat());
+        assertEquals(300, r.readVInt());
+        assertEquals(Long.MAX_VALUE, r.readVLong());
+        assertEquals(11, r.getRemaining());
+        byte[] b = new byte[11];
+        r.readFully(b);
+        verifyChunk(b, 11);
+        try {
+            r.readByte();
+            fail("Should not pass");
+        } catch (IllegalStateException e) {
+            verifyException(e, "remaining in entry");
+        }
+        r.close();
+    }
+
+    private void _testAbortAndOverflow(SegType aType) throws Exception
+    {
+        MemBuffersForBytes bufs = createBytesBuffers(aType, 10, 1, 4);
+        final ChunkyBytesMemBuffer buffer = bufs.createChunkyBuffer(1, 3);
+        buffer.appendEntry(buildBytesChunk(4));
+
+        // first: abort should discard all content
+        BytesEntryWriter w = buffer.startEntryWriter();
+        w.write(buildBytesChunk(9));
+        assertEquals(2, buffer.getSegmentCount());
+        // no room for regular appends while building; and building thread can not wait
+        assertFalse(buffer.tryAppendEntry(new byte[1]));
+        try {
+            buffer.appendEntry(new byte[1]);
+            fail("Should not pass");
+        } catch (IllegalStateException e) {
+            verifyException(e, "being built");
+        }
+        w.abort();
+        assertEquals(1, buffer.getSegmentCount());
+        assertEquals(1, buffer.getEntryCount());
+
+        // then overflow: should roll back automatically
+        w = buffer.startEntryWriter();
+        try {
+            w.write(buildBytesChunk(40));
+            fail("Should not pass");
+        } catch (IllegalStateException e) {
+            verifyException(e, "Not enough room");
+        }
+        assertEquals(1, buffer.getSegmentCount());
+        assertEquals(1, buffer.getEntryCount());
+        // and segments returned to allocator
+        assertEquals(1, bufs.getAllocator().getBufferOwnedSegmentCount());
+
+        // and regular appends work as expected afterwards
+        buffer.appendEntry(buildBytesChunk(12));
+        w = buffer.startEntryWriter();
+        w.write(buildBytesChunk(2));
+        w.finish();
+        verifyChunk(buffer.getNextEntry(), 4);
+        verifyChunk(buffer.getNextEntry(), 12);
+        verifyChunk(buffer.getNextEntry(), 2);
+        assertTrue(buffer.isEmpty());
+        buffer.close();
+    }
+
+    private void _testReaderAccessRules(SegType aType) throws Exception
+    {
+        final ChunkyBytesMemBuffer buffer = createBytesBuffers(aType, 10, 1, 10).createChunkyBuffer(1, 10);
+        buffer.appendEntry(buildBytesChunk(25));
+        buffer.appendEntry(buildBytesChunk(7));
+
+        BytesEntryReader r = buffer.getNextEntryReaderIfAvailable();
+        assertEquals(1, buffer.getEntryCount());
+        assertEquals(0, r.readByte());
+        assertEquals(10, r.skipBytes(10));
+        try {
+            buffer.getNextEntryIfAvailable();
+            fail("Should not pass");
+        } catch (IllegalStateException e) {
+            verifyException(e, "not closed");
+        }
+        // closing skips the rest
+        r.close();
+        r.close();
+        Assert.assertArrayEquals(buildBytesChunk(7), buffer.getNextEntryIfAvailable());
+        assertEquals(1, buffer.getSegmentCount());
+
+        // reader can not be used once buffer has been cleared (or closed)
+        buffer.appendEntry(buildBytesChunk(5));
+        r = buffer.getNextEntryReaderIfAvailable();
+        assertEquals(0, r.readByte());
+        buffer.clear();
+        try {
+            r.readByte();
+            fail("Should not pass");
+        } catch (IllegalStateException e) {
+            verifyException(e, "not active");
+        }
+        buffer.appendEntry(buildBytesChunk(5));
+        r = buffer.getNextEntryReaderIfAvailable();
+        buffer.close();
+        try {
+            r.readByte();
+            fail("Should not pass");
+        } catch (IllegalStateException e) {
+            verifyException(e, "not active");
+        }
+    }
+
+    private void _testWriterAfterClear(SegType aType) throws Exception
+    {
+        final ChunkyBytesMemBuffer buffer = createBytesBuffers(aType, 10, 1, 10).createChunkyBuffer(1, 10);
+        final BytesEntryWriter w = buffer.startEntryWriter();
+        w.write(buildBytesChunk(14));
+        // buffer cleared by another thread while entry is being built
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                buffer.clear();
+            }
+        });
+        t.start();
+        t.join();
+        try {
+            w.write(buildBytesChunk(3));
+            fail("Should not pass");
+        } catch (IllegalStateException e) {
+            verifyException(e, "not active");
+        }
+        try {
+            w.finish();
+            fail("Should not pass");
+        } catch (IllegalStateException e) {
+            verifyException(e, "not active");
+        }
+        assertTrue(buffer.isEmpty());
+        assertEquals(1, buffer.getSegmentCount());
+        // nothing written after clearing may remain, to keep framing intact
+        buffer.appendEntry(buildBytesChunk(6));
+        verifyChunk(buffer.getNextEntry(), 6);
+        assertTrue(buffer.isEmpty());
+        buffer.close();
+    }
+
+    private void _testConcurrentProducer(SegType aType) throws Exception
+    {
+        final ChunkyBytesMemBuffer buffer = createBytesBuffers(aType, 10, 1, 10).createChunkyBuffer(1, 10);
+        final BytesEntryWriter w = buffer.startEntryWriter();
+        w.write(buildBytesChunk(12));
+        // other producers must wait for entry to complete, not fail
+        final Throwable[] failure = new Throwable[1];
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    buffer.appendEntry(buildBytesChunk(5));
+                } catch (Throwable e) {
+                    failure[0] = e;
+                }
+            }
+        });
+        t.start();
+        t.join(100L);
+        assertTrue(t.isAlive());
+        assertEquals(0, buffer.getEntryCount());
+        w.write(buildBytesChunk(3));
+        assertEquals(15, w.finish());
+        t.join(5000L);
+        assertFalse(t.isAlive());
+        assertNull(failure[0]);
+        assertEquals(2, buffer.getEntryCount());
+        byte[] entry = buffer.getNextEntry();
+        assertEquals(15, entry.length);
+        verifyChunk(buffer.getNextEntry(), 5);
+        buffer.close();
+    }
+}
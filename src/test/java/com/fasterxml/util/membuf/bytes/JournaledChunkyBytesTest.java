@@ -0,0 +1,249 @@
+package com.fasterxml.util.membuf.bytes;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import com.fasterxml.util.membuf.*;
+import com.fasterxml.util.membuf.impl.JournaledChunkyBytesMemBuffer;
+
+/**
+ * Tests for {@link JournaledChunkyBytesMemBuffer}, which journals entries
+ * so that they can be recovered after restart.
+ */
+public class JournaledChunkyBytesTest extends MembufTestBase
+{
+    // length of journal file header
+    private final static long HEADER_LENGTH = 16L;
+
+    public void testRecovery() throws Exception
+    {
+        _testRecovery(SegType.BYTE_BUFFER_DIRECT);
+        _testRecovery(SegType.BYTE_BUFFER_FAKE);
+        _testRecovery(SegType.BYTE_ARRAY);
+    }
+
+    public void testPartialRecord() throws Exception
+    {
+        _testPartialRecord(SegType.BYTE_BUFFER_DIRECT);
+        _testPartialRecord(SegType.BYTE_ARRAY);
+    }
+
+    public void testClear() throws Exception
+    {
+        _testClear(SegType.BYTE_BUFFER_DIRECT);
+        _testClear(SegType.BYTE_ARRAY);
+    }
+
+    public void testCompaction() throws Exception
+    {
+        _testCompaction(SegType.BYTE_BUFFER_DIRECT);
+        _testCompaction(SegType.BYTE_ARRAY);
+    }
+
+    public void testFullBuffer() throws Exception
+    {
+        _testFullBuffer(SegType.BYTE_BUFFER_DIRECT);
+        _testFullBuffer(SegType.BYTE_ARRAY);
+    }
+
+    public void testCorruptHeader() throws Exception
+    {
+        final File file = _journalFile();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.write(new byte[] { 1, 2, 3, 4, 5 });
+        raf.close();
+        MemBuffersForBytes bufs = createBytesBuffers(SegType.BYTE_ARRAY, 20, 1, 20);
+        try {
+            new JournaledChunkyBytesMemBuffer(bufs.createChunkyBuffer(1, 10), file, 1, 60000L);
+            fail("Should not pass");
+        } catch (IllegalStateException e) {
+            verifyException(e, "Corrupt header");
+        }
+        _delete(file);
+        assertFalse(file.exists());
+    }
+
+    /*
+    /**********************************************************************
+    /* Actual test impls
+    /**********************************************************************
+     */
+
+    private void _testRecovery(SegType aType) throws Exception
+    {
+        final File file = _journalFile();
+        MemBuffersForBytes bufs = createBytesBuffers(aType, 20, 1, 20);
+        JournaledChunkyBytesMemBuffer buffer = new JournaledChunkyBytesMemBuffer(bufs.createChunkyBuffer(1, 10),
+                file, 3, 60000L);
+        assertEquals(0, buffer.getRecoveredEntryCount());
+        final int[] SIZES = { 5, 0, 33, 1, 12, 70 };
+        for (int size : SIZES) {
+            buffer.appendEntry(buildBytesChunk(size));
+        }
+        // consume first two, peek at third: only two are acknowledged
+        verifyChunk(buffer.getNextEntry(), SIZES[0]);
+        assertEquals(SIZES[1], buffer.skipNextEntry());
+        verifyChunk(buffer.peekNextEntry(), SIZES[2]);
+        // closing retains unconsumed entries
+        buffer.close();
+        assertTrue(file.exists());
+
+        buffer = new JournaledChunkyBytesMemBuffer(bufs.createChunkyBuffer(1, 10), file, 3, 60000L);
+        assertEquals(4, buffer.getRecoveredEntryCount());
+        assertEquals(4, buffer.getEntryCount());
+        assertEquals(33L + 1 + 12 + 70, buffer.getTotalPayloadLength());
+        verifyChunk(buffer.getNextEntry(), SIZES[2]);
+        verifyChunk(buffer.getNextEntry(), SIZES[3]);
+        // new entries go after recovered ones
+        buffer.appendEntry(buildBytesChunk(7));
+        buffer.sync();
+        buffer.close();
+
+        buffer = new JournaledChunkyBytesMemBuffer(bufs.createChunkyBuffer(1, 10), file, 1, 0L);
+        assertEquals(3, buffer.getRecoveredEntryCount());
+        verifyChunk(buffer.getNextEntry(), SIZES[4]);
+        verifyChunk(buffer.getNextEntry(), SIZES[5]);
+        verifyChunk(buffer.getNextEntry(), 7);
+        // once everything is consumed, journal is truncated on sync
+        buffer.sync();
+        assertEquals(HEADER_LENGTH, file.length());
+        buffer.close();
+
+        buffer = new JournaledChunkyBytesMemBuffer(bufs.createChunkyBuffer(1, 10), file, 1, 0L);
+        assertEquals(0, buffer.getRecoveredEntryCount());
+        assertTrue(buffer.isEmpty());
+        buffer.close();
+        _delete(file);
+    }
+
+    private void _testPartialRecord(SegType aType) throws Exception
+    {
+        final File file = _journalFile();
+        MemBuffersForBytes bufs = createBytesBuffers(aType, 20, 1, 20);
+        JournaledChunkyBytesMemBuffer buffer = new JournaledChunkyBytesMemBuffer(bufs.createChunkyBuffer(1, 10),
+                file, 1, 60000L);
+        buffer.appendEntry(buildBytesChunk(10));
+        buffer.appendEntry(buildBytesChunk(20));
+        buffer.close();
+        final long validLength = file.length();
+
+        // simulate crash in the middle of writing a record
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(validLength);
+        raf.writeInt(100);
+        raf.write(buildBytesChunk(30));
+        raf.close();
+
+        buffer = new JournaledChunkyBytesMemBuffer(bufs.createChunkyBuffer(1, 10), file, 1, 60000L);
+        assertEquals(2, buffer.getRecoveredEntryCount());
+        assertEquals(validLength, file.length());
+        buffer.appendEntry(buildBytesChunk(3));
+        buffer.close();
+
+        buffer = new JournaledChunkyBytesMemBuffer(bufs.createChunkyBuffer(1, 10), file, 1, 60000L);
+        assertEquals(3, buffer.getRecoveredEntryCount());
+        verifyChunk(buffer.getNextEntry(), 10);
+        verifyChunk(buffer.getNextEntry(), 20);
+        verifyChunk(buffer.getNextEntry(), 3);
+        buffer.close();
+        _delete(file);
+    }
+
+    private void _testClear(SegType aType) throws Exception
+    {
+        final File file = _journalFile();
+        MemBuffersForBytes bufs = createBytesBuffers(aType, 20, 1, 20);
+        JournaledChunkyBytesMemBuffer buffer = new JournaledChunkyBytesMemBuffer(bufs.createChunkyBuffer(1, 10),
+                file, 100, 60000L);
+        buffer.appendEntry(buildBytesChunk(10));
+        buffer.appendEntry(buildBytesChunk(20));
+        try {
+            buffer.startEntryWriter();
+            fail("Should not pass");
+        } catch (IllegalStateException e) {
+            verifyException(e, "journaled");
+        }
+        // clearing discards entries from journal too
+        buffer.clear();
+        assertEquals(HEADER_LENGTH, file.length());
+        buffer.close();
+
+        buffer = new JournaledChunkyBytesMemBuffer(bufs.createChunkyBuffer(1, 10), file, 100, 60000L);
+        assertEquals(0, buffer.getRecoveredEntryCount());
+        buffer.close();
+        _delete(file);
+    }
+
+    private void _testCompaction(SegType aType) throws Exception
+    {
+        final File file = _journalFile();
+        MemBuffersForBytes bufs = createBytesBuffers(aType, 20, 1, 20);
+        JournaledChunkyBytesMemBuffer buffer = new JournaledChunkyBytesMemBuffer(bufs.createChunkyBuffer(1, 10),
+                file, 100, 60000L);
+        buffer.setCompactThreshold(50L);
+        // 8 records of 4 + 10 bytes each
+        for (int i = 0; i < 8; ++i) {
+            buffer.appendEntry(buildBytesChunk(10));
+        }
+        for (int i = 0; i < 5; ++i) {
+            verifyChunk(buffer.getNextEntry(), 10);
+        }
+        // 70 bytes consumed, 42 not: journal compacted on sync
+        buffer.sync();
+        assertEquals(HEADER_LENGTH + 42, file.length());
+        buffer.close();
+
+        buffer = new JournaledChunkyBytesMemBuffer(bufs.createChunkyBuffer(1, 10), file, 100, 60000L);
+        buffer.setCompactThreshold(50L);
+        assertEquals(3, buffer.getRecoveredEntryCount());
+        // steady traffic, never fully consumed: journal must not grow
+        for (int i = 0; i < 200; ++i) {
+            buffer.appendEntry(buildBytesChunk(10));
+            verifyChunk(buffer.getNextEntry(), 10);
+            buffer.sync();
+            assertTrue(file.length() <= HEADER_LENGTH + 42 + 70);
+        }
+        buffer.close();
+
+        buffer = new JournaledChunkyBytesMemBuffer(bufs.createChunkyBuffer(1, 10), file, 100, 60000L);
+        assertEquals(3, buffer.getRecoveredEntryCount());
+        buffer.close();
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+        _delete(file);
+    }
+
+    private void _testFullBuffer(SegType aType) throws Exception
+    {
+        final File file = _journalFile();
+        MemBuffersForBytes bufs = createBytesBuffers(aType, 20, 1, 20);
+        JournaledChunkyBytesMemBuffer buffer = new JournaledChunkyBytesMemBuffer(bufs.createChunkyBuffer(1, 10),
+                file, 1, 60000L);
+        int count = 0;
+        while (buffer.tryAppendEntry(buildBytesChunk(30))) {
+            ++count;
+        }
+        assertTrue(count > 0);
+        // entries not accepted by buffer must not remain in journal either
+        buffer.sync();
+        assertEquals(HEADER_LENGTH + count * (4 + 30), file.length());
+        buffer.close();
+
+        buffer = new JournaledChunkyBytesMemBuffer(bufs.createChunkyBuffer(1, 10), file, 1, 60000L);
+        assertEquals(count, buffer.getRecoveredEntryCount());
+        buffer.close();
+        _delete(file);
+    }
+
+    private File _journalFile() throws Exception
+    {
+        File f = File.createTempFile("membuf-journal", ".log");
+        f.delete();
+        return f;
+    }
+
+    private void _delete(File journal)
+    {
+        journal.delete();
+        new File(journal.getPath() + ".ckpt").delete();
+    }
+}
@@ -0,0 +1,122 @@
+package com.fasterxml.util.membuf.bytes;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+
+import com.fasterxml.util.membuf.*;
+
+/**
+ * Tests for non-destructive access (peeking, mark/reset) of
+ * {@link StreamyBytesMemBuffer}s.
+ */
+public class PeekStreamyBytesTest extends MembufTestBase
+{
+    public void testPeek() throws Exception
+    {
+        _testPeek(SegType.BYTE_BUFFER_DIRECT);
+        _testPeek(SegType.BYTE_BUFFER_FAKE);
+        _testPeek(SegType.BYTE_ARRAY);
+    }
+
+    public void testMarkReset() throws Exception
+    {
+        _testMarkReset(SegType.BYTE_BUFFER_DIRECT);
+        _testMarkReset(SegType.BYTE_BUFFER_FAKE);
+        _testMarkReset(SegType.BYTE_ARRAY);
+    }
+
+    /*
+    /**********************************************************************
+    /* Actual test impls
+    /**********************************************************************
+     */
+
+    private void _testPeek(SegType aType) throws Exception
+    {
+        final StreamyBytesMemBuffer buffer = createBytesBuffers(aType, 10, 1, 10).createStreamyBuffer(1, 10);
+        byte[] result = new byte[50];
+        assertEquals(0, buffer.peek(result));
+
+        final byte[] data = buildBytesChunk(37);
+        buffer.append(data);
+        assertEquals(3, buffer.skip(3));
+        assertEquals(34, buffer.peek(result));
+        for (int i = 0; i < 34; ++i) {
+            assertEquals(data[3+i], result[i]);
+            assertEquals(data[3+i], buffer.peekByte(i));
+        }
+        // nothing consumed
+        assertEquals(34L, buffer.available());
+        assertEquals(4, buffer.getSegmentCount());
+        try {
+            buffer.peekByte(34);
+            fail("Should not pass");
+        } catch (IllegalArgumentException e) {
+            verifyException(e, "Illegal index");
+        }
+        byte[] actual = new byte[34];
+        assertEquals(34, buffer.read(actual));
+        Assert.assertArrayEquals(Arrays.copyOf(result, 34), actual);
+        buffer.close();
+    }
+
+    private void _testMarkReset(SegType aType) throws Exception
+    {
+        MemBuffersForBytes bufs = createBytesBuffers(aType, 10, 1, 10);
+        final StreamyBytesMemBuffer buffer = bufs.createStreamyBuffer(1, 5);
+        final byte[] data = buildBytesChunk(45);
+        buffer.append(data, 0, 25);
+        try {
+            buffer.reset();
+            fail("Should not pass");
+        } catch (IllegalStateException e) {
+            verifyException(e, "no mark set");
+        }
+        assertEquals(2, buffer.skip(2));
+        buffer.mark();
+        byte[] result = new byte[20];
+        assertEquals(20, buffer.read(result));
+        assertEquals(3L, buffer.available());
+        // segments read while marked are retained
+        assertEquals(3, buffer.getSegmentCount());
+        assertEquals(20L, buffer.reset());
+        assertEquals(23L, buffer.available());
+
+        // re-read partially, append more, reset again
+        assertEquals(data[2], (byte) buffer.read());
+        assertEquals(15, buffer.skip(15));
+        buffer.append(data, 25, 20);
+        assertEquals(16L, buffer.reset());
+        assertEquals(43L, buffer.available());
+        // not enough room beyond retained segments
+        assertFalse(buffer.tryAppend(new byte[10]));
+
+        // then clear mark, and read the rest: segments freed as usual
+        buffer.clearMark();
+        byte[] rest = new byte[43];
+        assertEquals(43, buffer.read(rest));
+        for (int i = 0; i < rest.length; ++i) {
+            assertEquals(data[2+i], rest[i]);
+        }
+        assertEquals(1, buffer.getSegmentCount());
+        assertEquals(0L, buffer.available());
+
+        // and finally, marks get cleared with clear() as well
+        buffer.append(data, 0, 30);
+        buffer.mark();
+        assertEquals(30, buffer.skip(30));
+        buffer.clear();
+        assertEquals(1, buffer.getSegmentCount());
+        try {
+            buffer.reset();
+            fail("Should not pass");
+        } catch (IllegalStateException e) {
+            verifyException(e, "no mark set");
+        }
+        buffer.append(data, 0, 12);
+        assertEquals(12, buffer.read(result, 0, 12));
+        buffer.close();
+        assertEquals(0, bufs.getAllocator().getBufferOwnedSegmentCount());
+    }
+}
@@ -0,0 +1,108 @@
+package com.fasterxml.util.membuf.bytes;
+
+import com.fasterxml.util.membuf.*;
+
+public class SizeClassedBytesTest extends MembufTestBase
+{
+    public void testGraduation() throws Exception
+    {
+        SizeClassedBuffersForBytes bufs = new SizeClassedBuffersForBytes(new int[] { 100, 400, 1600 },
+                0, 6400L, false);
+        assertEquals(3, bufs.getSizeClassCount());
+        assertEquals(400, bufs.getSegmentSize(1));
+
+        ChunkyBytesMemBuffer buffer = bufs.tryCreateChunkyBuffer(2000L);
+        assertEquals(0, bufs.sizeClassOf(buffer));
+        assertEquals(20, buffer.getMaxSegmentsToAllocate());
+        assertEquals(100L, bufs.getUsedBytes());
+
+        // not enough content to graduate yet
+        for (int i = 0; i < 3; ++i) {
+            buffer.appendEntry(buildBytesChunk(99));
+        }
+        assertSame(buffer, bufs.graduateIfNeeded(buffer));
+        buffer.appendEntry(buildBytesChunk(150));
+        assertEquals(5, buffer.getSegmentCount());
+
+        ChunkyBytesMemBuffer bigger = bufs.graduateIfNeeded(buffer);
+        assertNotSame(buffer, bigger);
+        assertEquals(1, bufs.sizeClassOf(bigger));
+        assertEquals(5, bigger.getMaxSegmentsToAllocate());
+        assertEquals(4, bigger.getEntryCount());
+        assertEquals(2, bigger.getSegmentCount());
+        // old buffer closed, its segments released
+        assertEquals(800L, bufs.getUsedBytes());
+
+        for (int i = 0; i < 3; ++i) {
+            verifyChunk(bigger.getNextEntry(), 99);
+        }
+        verifyChunk(bigger.getNextEntry(), 150);
+
+        // and once more, to the largest class, if there is enough memory
+        bigger.appendEntry(buildBytesChunk(1700));
+        ChunkyBytesMemBuffer blocker = bufs.tryCreateChunkyBuffer(2, 3200L);
+        assertSame(bigger, bufs.graduate(bigger));
+        blocker.close();
+        ChunkyBytesMemBuffer biggest = bufs.graduate(bigger);
+        assertEquals(2, bufs.sizeClassOf(biggest));
+        assertSame(biggest, bufs.graduate(biggest));
+        verifyChunk(biggest.getNextEntry(), 1700);
+        biggest.close();
+        assertEquals(0L, bufs.getUsedBytes());
+    }
+
+    public void testSharedBudget() throws Exception
+    {
+        SizeClassedBuffersForBytes bufs = new SizeClassedBuffersForBytes(new int[] { 100, 1000 },
+                0, 2500L, false);
+        ChunkyBytesMemBuffer big1 = bufs.tryCreateChunkyBuffer(1, 1000L);
+        ChunkyBytesMemBuffer big2 = bufs.tryCreateChunkyBuffer(1, 1000L);
+        assertNotNull(big1);
+        assertNotNull(big2);
+        // no room for a third big one...
+        assertNull(bufs.tryCreateChunkyBuffer(1, 1000L));
+        // but some for small ones
+        ChunkyBytesMemBuffer small = bufs.tryCreateChunkyBuffer(1000L);
+        assertNotNull(small);
+        assertTrue(small.tryAppendEntry(new byte[350]));
+        assertFalse(small.tryAppendEntry(new byte[150]));
+        // (segments are allocated all-or-nothing, so last 100 bytes remain unused)
+        assertEquals(2400L, bufs.getUsedBytes());
+        big1.close();
+        assertTrue(small.tryAppendEntry(new byte[150]));
+        big2.close();
+        small.close();
+        assertEquals(0L, bufs.getUsedBytes());
+    }
+
+    public void testGraduationWithoutRoom() throws Exception
+    {
+        SizeClassedBuffersForBytes bufs = new SizeClassedBuffersForBytes(new int[] { 100, 400 },
+                0, 2000L, false);
+        ChunkyBytesMemBuffer buffer = bufs.tryCreateChunkyBuffer(400L);
+        int count = 0;
+        while (buffer.tryAppendEntry(new byte[] { (byte) count })) {
+            ++count;
+        }
+        final long used = bufs.getUsedBytes();
+        // can not be sure all entries fit in new buffer: stays as is, nothing leaked
+        assertSame(buffer, bufs.graduate(buffer));
+        assertEquals(used, bufs.getUsedBytes());
+        assertEquals(count, buffer.getEntryCount());
+        for (int i = 0; i < count; ++i) {
+            assertEquals((byte) i, buffer.getNextEntry()[0]);
+        }
+        buffer.close();
+        assertEquals(0L, bufs.getUsedBytes());
+    }
+
+    public void testInvalidSizes()
+    {
+        try {
+            new SizeClassedBuffersForBytes(new int[] { 100, 150 }, 0, 1000L, false);
+            fail("Expected exception");
+        } catch (IllegalArgumentException e) {
+            verifyException(e, "multiples of the smallest size");
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package com.fasterxml.util.membuf.bytes;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import org.junit.Assert;
+
+import com.fasterxml.util.membuf.*;
+
+/**
+ * Tests for {@link MemBuffer#snapshotTo} and {@link MemBuffer#restoreFrom}
+ * with byte buffers.
+ */
+public class SnapshotBytesTest extends MembufTestBase
+{
+    public void testChunkySnapshot() throws Exception
+    {
+        _testChunkySnapshot(SegType.BYTE_BUFFER_DIRECT);
+        _testChunkySnapshot(SegType.BYTE_BUFFER_FAKE);
+        _testChunkySnapshot(SegType.BYTE_ARRAY);
+    }
+
+    public void testStreamySnapshot() throws Exception
+    {
+        _testStreamySnapshot(SegType.BYTE_BUFFER_DIRECT);
+        _testStreamySnapshot(SegType.BYTE_ARRAY);
+    }
+
+    public void testSnapshotFile() throws Exception
+    {
+        _testSnapshotFile(SegType.BYTE_BUFFER_DIRECT);
+        _testSnapshotFile(SegType.BYTE_ARRAY);
+    }
+
+    public void testInvalidRestore() throws Exception
+    {
+        _testInvalidRestore(SegType.BYTE_BUFFER_DIRECT);
+        _testInvalidRestore(SegType.BYTE_ARRAY);
+    }
+
+    public void testCorruptRestore() throws Exception
+    {
+        _testCorruptRestore(SegType.BYTE_BUFFER_DIRECT);
+        _testCorruptRestore(SegType.BYTE_ARRAY);
+    }
+
+    /*
+    /**********************************************************************
+    /* Actual test impls
+    /**********************************************************************
+     */
+
+    private void _testChunkySnapshot(SegType aType) throws Exception
+    {
+        final int[] SIZES = { 3, 25, 0, 1, 140, 7, 12 };
+        MemBuffersForBytes bufs = createBytesBuffers(aType, 20, 1, 30);
+        ChunkyBytesMemBuffer src = bufs.createChunkyBuffer(1, 15);
+        for (int size : SIZES) {
+            src.appendEntry(buildBytesChunk(size));
+        }
+        // first entry read; second peeked, and length of third read
+        verifyChunk(src.getNextEntry(), SIZES[0]);
+        verifyChunk(src.peekNextEntry(), SIZES[1]);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        long length = src.snapshotTo(Channels.newChannel(bytes));
+        assertEquals(bytes.size(), length);
+        verifyChunk(src.getNextEntry(), SIZES[1]);
+        assertEquals(SIZES[2], src.getNextEntryLength());
+        ByteArrayOutputStream bytes2 = new ByteArrayOutputStream();
+        src.snapshotTo(Channels.newChannel(bytes2));
+        // snapshot must not change contents
+        assertEquals(SIZES.length - 2, src.getEntryCount());
+
+        // restore into a buffer with different segment size
+        ChunkyBytesMemBuffer dst = createBytesBuffers(aType, 16, 1, 30).createChunkyBuffer(1, 30);
+        dst.restoreFrom(Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(SIZES.length - 1, dst.getEntryCount());
+        assertEquals(src.getTotalPayloadLength() + SIZES[1], dst.getTotalPayloadLength());
+        for (int i = 1; i < SIZES.length; ++i) {
+            verifyChunk(dst.getNextEntry(), SIZES[i]);
+        }
+        assertTrue(dst.isEmpty());
+        // and restored buffer must be usable as usual
+        dst.appendEntry(buildBytesChunk(50));
+        verifyChunk(dst.getNextEntry(), 50);
+
+        dst.restoreFrom(Channels.newChannel(new ByteArrayInputStream(bytes2.toByteArray())));
+        for (int i = 2; i < SIZES.length; ++i) {
+            verifyChunk(dst.getNextEntry(), SIZES[i]);
+            verifyChunk(src.getNextEntry(), SIZES[i]);
+        }
+        assertTrue(dst.isEmpty());
+        src.close();
+        dst.close();
+    }
+
+    private void _testStreamySnapshot(SegType aType) throws Exception
+    {
+        MemBuffersForBytes bufs = createBytesBuffers(aType, 20, 1, 30);
+        StreamyBytesMemBuffer src = bufs.createStreamyBuffer(1, 15);
+        byte[] data = buildBytesChunk(170);
+        src.append(data);
+        byte[] result = new byte[200];
+        assertEquals(33, src.read(result, 0, 33));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        src.snapshotTo(Channels.newChannel(bytes));
+        assertEquals(137L, src.available());
+
+        StreamyBytesMemBuffer dst = bufs.createStreamyBuffer(1, 15);
+        dst.restoreFrom(Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(137L, dst.available());
+        assertEquals(137, dst.read(result, 0, 200));
+        Assert.assertArrayEquals(Arrays.copyOfRange(data, 33, 170),
+                Arrays.copyOf(result, 137));
+        src.close();
+        dst.close();
+    }
+
+    private void _testSnapshotFile(SegType aType) throws Exception
+    {
+        final File file = File.createTempFile("membuf-snapshot", ".bin");
+        MemBuffersForBytes bufs = createBytesBuffers(aType, 64, 1, 100);
+        ChunkyBytesMemBuffer src = bufs.createChunkyBuffer(1, 50);
+        for (int i = 0; i < 100; ++i) {
+            src.appendEntry(buildBytesChunk(i % 37));
+        }
+        // file channels support gathering writes
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        FileChannel ch = raf.getChannel();
+        long length = src.snapshotTo(ch);
+        assertEquals(length, ch.position());
+        ch.position(0L);
+        ChunkyBytesMemBuffer dst = bufs.createChunkyBuffer(1, 50);
+        dst.restoreFrom(ch);
+        raf.close();
+        file.delete();
+        for (int i = 0; i < 100; ++i) {
+            verifyChunk(dst.getNextEntry(), i % 37);
+        }
+        assertTrue(dst.isEmpty());
+        src.close();
+        dst.close();
+    }
+
+    private void _testInvalidRestore(SegType aType) throws Exception
+    {
+        MemBuffersForBytes bufs = createBytesBuffers(aType, 20, 1, 30);
+        StreamyBytesMemBuffer streamy = bufs.createStreamyBuffer(1, 20);
+        streamy.append(buildBytesChunk(100));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        streamy.snapshotTo(Channels.newChannel(bytes));
+        final byte[] snapshot = bytes.toByteArray();
+
+        // can not restore into a non-empty buffer
+        try {
+            streamy.restoreFrom(Channels.newChannel(new ByteArrayInputStream(snapshot)));
+            fail("Should not pass");
+        } catch (IllegalStateException e) {
+            verifyException(e, "non-empty");
+        }
+        // nor into a different type of buffer
+        ChunkyBytesMemBuffer chunky = bufs.createChunkyBuffer(1, 5);
+        try {
+            chunky.restoreFrom(Channels.newChannel(new ByteArrayInputStream(snapshot)));
+            fail("Should not pass");
+        } catch (IOException e) {
+            verifyException(e, "different type");
+        }
+        // nor one that is too small
+        StreamyBytesMemBuffer small = bufs.createStreamyBuffer(1, 3);
+        try {
+            small.restoreFrom(Channels.newChannel(new ByteArrayInputStream(snapshot)));
+            fail("Should not pass");
+        } catch (IllegalStateException e) {
+            verifyException(e, "Not enough room");
+        }
+        // and truncated snapshots leave buffer empty
+        StreamyBytesMemBuffer other = bufs.createStreamyBuffer(1, 10);
+        try {
+            other.restoreFrom(Channels.newChannel(new ByteArrayInputStream(snapshot, 0, snapshot.length - 10)));
+            fail("Should not pass");
+        } catch (EOFException e) {
+            verifyException(e, "Unexpected end");
+        }
+        assertTrue(other.isEmpty());
+        other.append(buildBytesChunk(10));
+        assertEquals(10L, other.available());
+        streamy.close();
+        chunky.close();
+        small.close();
+        other.close();
+    }
+
+    private void _testCorruptRestore(SegType aType) throws Exception
+    {
+        MemBuffersForBytes bufs = createBytesBuffers(aType, 20, 1, 30);
+        ChunkyBytesMemBuffer src = bufs.createChunkyBuffer(1, 20);
+        for (int i = 0; i < 10; ++i) {
+            src.appendEntry(buildBytesChunk(3 + i * 5));
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        src.snapshotTo(Channels.newChannel(bytes));
+        final byte[] snapshot = bytes.toByteArray();
+        ChunkyBytesMemBuffer dst = bufs.createChunkyBuffer(1, 20);
+
+        // header with wrong entry count (bytes 8-15)
+        byte[] corrupt = snapshot.clone();
+        ++corrupt[15];
+        _verifyCorruptRestore(dst, corrupt, "header indicates 11 entries");
+        // header with wrong payload length (bytes 16-23)
+        corrupt = snapshot.clone();
+        --corrupt[23];
+        _verifyCorruptRestore(dst, corrupt, "header indicates 10 entries");
+        // content with broken length prefix (first content byte)
+        corrupt = snapshot.clone();
+        corrupt[32] = (byte) 0x7F;
+        _verifyCorruptRestore(dst, corrupt, "Corrupt snapshot");
+
+        // but valid snapshot still restores fine
+        dst.restoreFrom(Channels.newChannel(new ByteArrayInputStream(snapshot)));
+        assertEquals(10, dst.getEntryCount());
+        for (int i = 0; i < 10; ++i) {
+            verifyChunk(dst.getNextEntry(), 3 + i * 5);
+        }
+        assertTrue(dst.isEmpty());
+        src.close();
+        dst.close();
+    }
+
+    private void _verifyCorruptRestore(ChunkyBytesMemBuffer dst, byte[] snapshot, String msg)
+        throws IOException
+    {
+        try {
+            dst.restoreFrom(Channels.newChannel(new ByteArrayInputStream(snapshot)));
+            fail("Should not pass");
+        } catch (IllegalStateException e) {
+            verifyException(e, msg);
+        }
+        assertTrue(dst.isEmpty());
+        assertEquals(0, dst.getEntryCount());
+        assertEquals(0L, dst.getTotalPayloadLength());
+    }
+}
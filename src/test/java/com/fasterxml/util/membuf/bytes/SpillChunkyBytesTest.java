@@ -0,0 +1,253 @@
+package com.fasterxml.util.membuf.bytes;
+
+import java.io.File;
+
+import com.fasterxml.util.membuf.*;
+import com.fasterxml.util.membuf.impl.SpillingChunkyBytesMemBuffer;
+
+/**
+ * Tests for {@link SpillingChunkyBytesMemBuffer}, which overflows
+ * entries into a spill file when memory segments are exhausted.
+ */
+public class SpillChunkyBytesTest extends MembufTestBase
+{
+    public void testSimpleSpill() throws Exception
+    {
+        _testSimpleSpill(SegType.BYTE_BUFFER_DIRECT);
+        _testSimpleSpill(SegType.BYTE_BUFFER_FAKE);
+        _testSimpleSpill(SegType.BYTE_ARRAY);
+    }
+
+    public void testLargeEntries() throws Exception
+    {
+        _testLargeEntries(SegType.BYTE_BUFFER_DIRECT);
+        _testLargeEntries(SegType.BYTE_ARRAY);
+    }
+
+    public void testLimitsAndClear() throws Exception
+    {
+        _testLimitsAndClear(SegType.BYTE_BUFFER_DIRECT);
+        _testLimitsAndClear(SegType.BYTE_ARRAY);
+    }
+
+    public void testCompaction() throws Exception
+    {
+        _testCompaction(SegType.BYTE_BUFFER_DIRECT);
+        _testCompaction(SegType.BYTE_ARRAY);
+    }
+
+    public void testFailedSpillAppend() throws Exception
+    {
+        _testFailedSpillAppend(SegType.BYTE_BUFFER_DIRECT);
+        _testFailedSpillAppend(SegType.BYTE_ARRAY);
+    }
+
+    /*
+    /**********************************************************************
+    /* Actual test impls
+    /**********************************************************************
+     */
+
+    private void _testSimpleSpill(SegType aType) throws Exception
+    {
+        final File file = _spillFile();
+        MemBuffersForBytes bufs = createBytesBuffers(aType, 10, 1, 3);
+        SpillingChunkyBytesMemBuffer buffer = new SpillingChunkyBytesMemBuffer(bufs.createChunkyBuffer(1, 3), file);
+
+        // 3 segments of 10 bytes: room for 3 entries of 8 bytes (with prefix)
+        final int COUNT = 20;
+        for (int i = 0; i < COUNT; ++i) {
+            assertTrue(buffer.tryAppendEntry(buildBytesChunk(8 + (i % 2))));
+        }
+        assertEquals(COUNT, buffer.getEntryCount());
+        assertTrue(buffer.getSpilledEntryCount() > 0);
+        assertTrue(file.exists());
+        assertEquals(8L * COUNT + COUNT / 2, buffer.getTotalPayloadLength());
+
+        // entries must come out in order, memory and spill file alike
+        for (int i = 0; i < COUNT; ++i) {
+            assertEquals(8 + (i % 2), buffer.getNextEntryLength());
+            verifyChunk(buffer.getNextEntry(), 8 + (i % 2));
+            // and appending in between must retain ordering too
+            if (i == 5) {
+                buffer.appendEntry(buildBytesChunk(1));
+            }
+        }
+        verifyChunk(buffer.getNextEntry(), 1);
+        assertTrue(buffer.isEmpty());
+        assertEquals(0, buffer.getSpilledEntryCount());
+        // spill file deleted once everything has been moved back
+        assertFalse(file.exists());
+
+        // and spilling may start again after that
+        for (int i = 0; i < 6; ++i) {
+            buffer.appendEntry(buildBytesChunk(5));
+        }
+        assertTrue(file.exists());
+        byte[] result = new byte[10];
+        for (int i = 0; i < 6; ++i) {
+            assertEquals(5, buffer.readNextEntryIfAvailable(result, 0));
+        }
+        assertNull(buffer.getNextEntryIfAvailable());
+        assertFalse(file.exists());
+        buffer.close();
+    }
+
+    private void _testLargeEntries(SegType aType) throws Exception
+    {
+        final File file = _spillFile();
+        MemBuffersForBytes bufs = createBytesBuffers(aType, 10, 1, 5);
+        // use small I/O buffers to exercise chunked reads and writes
+        SpillingChunkyBytesMemBuffer buffer = new SpillingChunkyBytesMemBuffer(bufs.createChunkyBuffer(1, 5),
+                file, Long.MAX_VALUE, 16);
+        final int[] SIZES = { 30, 35, 2, 33, 17, 0, 35 };
+        for (int size : SIZES) {
+            assertTrue(buffer.tryAppendEntry(buildBytesChunk(size)));
+        }
+        // can't spill anything that would not fit back in memory
+        assertFalse(buffer.tryAppendEntry(buildBytesChunk(36)));
+        assertEquals(SIZES.length, buffer.getEntryCount());
+        // nor build entries in place while entries are spilled
+        try {
+            buffer.startEntryWriter();
+            fail("Should not pass");
+        } catch (IllegalStateException e) {
+            verifyException(e, "spilled entries");
+        }
+        for (int size : SIZES) {
+            verifyChunk(buffer.getNextEntry(), size);
+        }
+        assertTrue(buffer.isEmpty());
+        assertFalse(file.exists());
+        buffer.close();
+    }
+
+    private void _testLimitsAndClear(SegType aType) throws Exception
+    {
+        final File file = _spillFile();
+        MemBuffersForBytes bufs = createBytesBuffers(aType, 10, 1, 3);
+        // spill file may hold up to 2 entries of 10 bytes (with 4-byte length prefix)
+        SpillingChunkyBytesMemBuffer buffer = new SpillingChunkyBytesMemBuffer(bufs.createChunkyBuffer(1, 3),
+                file, 28L, 1000);
+        assertTrue(buffer.tryAppendEntry(buildBytesChunk(10)));
+        assertTrue(buffer.tryAppendEntry(buildBytesChunk(10)));
+        assertTrue(buffer.tryAppendEntry(buildBytesChunk(10)));
+        assertTrue(buffer.tryAppendEntry(buildBytesChunk(10)));
+        assertFalse(buffer.tryAppendEntry(buildBytesChunk(10)));
+        assertEquals(4, buffer.getEntryCount());
+        assertEquals(2, buffer.getSpilledEntryCount());
+        assertEquals(20L, buffer.getSpilledPayloadLength());
+        // limit only applies to entries not yet moved back into memory
+        verifyChunk(buffer.getNextEntry(), 10);
+        assertEquals(1, buffer.getSpilledEntryCount());
+        assertTrue(buffer.tryAppendEntry(buildBytesChunk(10)));
+        assertFalse(buffer.tryAppendEntry(buildBytesChunk(10)));
+        assertEquals(2, buffer.getSpilledEntryCount());
+
+        buffer.clear();
+        assertTrue(buffer.isEmpty());
+        assertEquals(0L, buffer.getTotalPayloadLength());
+        assertFalse(file.exists());
+        buffer.appendEntry(buildBytesChunk(3));
+        verifyChunk(buffer.getNextEntry(), 3);
+
+        // closing must also get rid of spill file
+        for (int i = 0; i < 4; ++i) {
+            buffer.appendEntry(buildBytesChunk(10));
+        }
+        assertTrue(file.exists());
+        buffer.close();
+        assertFalse(file.exists());
+    }
+
+    private void _testCompaction(SegType aType) throws Exception
+    {
+        final File file = _spillFile();
+        MemBuffersForBytes bufs = createBytesBuffers(aType, 10, 1, 3);
+        SpillingChunkyBytesMemBuffer buffer = new SpillingChunkyBytesMemBuffer(bufs.createChunkyBuffer(1, 3),
+                file, Long.MAX_VALUE, 16);
+        buffer.setCompactThreshold(0L);
+        for (int i = 0; i < 6; ++i) {
+            assertTrue(buffer.tryAppendEntry(buildBytesChunk(10)));
+        }
+        final int spilled = buffer.getSpilledEntryCount();
+        assertTrue(spilled > 0);
+        // steady traffic that never drains spill file: must not grow without bound
+        for (int i = 0; i < 100; ++i) {
+            verifyChunk(buffer.getNextEntry(), 10);
+            assertTrue(buffer.tryAppendEntry(buildBytesChunk(10)));
+            assertTrue(buffer.getSpilledEntryCount() >= spilled - 1);
+            assertTrue(file.length() <= 2 * 6 * 14);
+        }
+        for (int i = 0; i < 6; ++i) {
+            verifyChunk(buffer.getNextEntry(), 10);
+        }
+        assertTrue(buffer.isEmpty());
+        assertFalse(file.exists());
+        buffer.close();
+    }
+
+    private void _testFailedSpillAppend(SegType aType) throws Exception
+    {
+        final File file = _spillFile();
+        MemBuffersForBytes bufs = createBytesBuffers(aType, 10, 1, 5);
+        // second and fourth flush fail: first before, and then after part of entry is flushed
+        FailingSpillBuffer buffer = new FailingSpillBuffer(bufs.createChunkyBuffer(1, 5), file, 1, 3);
+        assertTrue(buffer.tryAppendEntry(buildBytesChunk(40)));
+        assertTrue(buffer.tryAppendEntry(buildBytesChunk(20)));
+        assertEquals(1, buffer.getSpilledEntryCount());
+        for (int i = 0; i < 2; ++i) {
+            try {
+                buffer.tryAppendEntry(buildBytesChunk(30));
+                fail("Should not pass");
+            } catch (IllegalStateException e) {
+                verifyException(e, "Simulated");
+            }
+            assertEquals(1, buffer.getSpilledEntryCount());
+        }
+        assertEquals(4, buffer._flushes);
+        // failed entries must leave nothing behind, to keep framing intact
+        assertTrue(buffer.tryAppendEntry(buildBytesChunk(25)));
+        assertEquals(3, buffer.getEntryCount());
+        assertEquals(85L, buffer.getTotalPayloadLength());
+        verifyChunk(buffer.getNextEntry(), 40);
+        verifyChunk(buffer.getNextEntry(), 20);
+        verifyChunk(buffer.getNextEntry(), 25);
+        assertTrue(buffer.isEmpty());
+        buffer.close();
+    }
+
+    private final static class FailingSpillBuffer extends SpillingChunkyBytesMemBuffer
+    {
+        private final int[] _failingFlushes;
+
+        int _flushes;
+
+        public FailingSpillBuffer(ChunkyBytesMemBuffer src, File spillFile, int... failingFlushes) {
+            super(src, spillFile, Long.MAX_VALUE, 16);
+            _failingFlushes = failingFlushes;
+        }
+
+        @Override
+        protected void _flushSpill()
+        {
+            if (_writeBufferLength > 0) {
+                final int index = _flushes++;
+                for (int failing : _failingFlushes) {
+                    if (index == failing) {
+                        throw new IllegalStateException("Simulated failure to write spill file");
+                    }
+                }
+            }
+            super._flushSpill();
+        }
+    }
+
+    private File _spillFile() throws Exception
+    {
+        File f = File.createTempFile("membuf-spill", ".tmp");
+        f.delete();
+        f.deleteOnExit();
+        return f;
+    }
+}
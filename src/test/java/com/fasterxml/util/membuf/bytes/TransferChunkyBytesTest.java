@@ -0,0 +1,150 @@
+package com.fasterxml.util.membuf.bytes;
+
+import com.fasterxml.util.membuf.*;
+
+/**
+ * Tests for moving entries between chunky byte buffers with
+ * {@link ChunkyBytesMemBuffer#transferEntriesTo}.
+ */
+public class TransferChunkyBytesTest extends MembufTestBase
+{
+    public void testSharedAllocator() throws Exception
+    {
+        _testSharedAllocator(SegType.BYTE_BUFFER_DIRECT);
+        _testSharedAllocator(SegType.BYTE_BUFFER_FAKE);
+        _testSharedAllocator(SegType.BYTE_ARRAY);
+    }
+
+    public void testSeparateAllocators() throws Exception
+    {
+        _testSeparateAllocators(SegType.BYTE_BUFFER_DIRECT);
+        _testSeparateAllocators(SegType.BYTE_ARRAY);
+    }
+
+    public void testPartialTransfer() throws Exception
+    {
+        _testPartialTransfer(SegType.BYTE_BUFFER_DIRECT);
+        _testPartialTransfer(SegType.BYTE_ARRAY);
+    }
+
+    /*
+    /**********************************************************************
+    /* Actual test impls
+    /**********************************************************************
+     */
+
+    private void _testSharedAllocator(SegType aType) throws Exception
+    {
+        final int[] SIZES = { 3, 25, 0, 1, 40, 7, 12 };
+        MemBuffersForBytes bufs = createBytesBuffers(aType, 10, 1, 50);
+        final ChunkyBytesMemBuffer src = bufs.createChunkyBuffer(1, 20);
+        final ChunkyBytesMemBuffer dst = bufs.createChunkyBuffer(1, 20);
+        dst.appendEntry(buildBytesChunk(4));
+        for (int size : SIZES) {
+            src.appendEntry(buildBytesChunk(size));
+        }
+        final int ownedBefore = bufs.getAllocator().getBufferOwnedSegmentCount();
+
+        // with length of the first entry already read
+        assertEquals(3, src.getNextEntryLength());
+        assertEquals(5, src.transferEntriesTo(dst, 5));
+        assertEquals(2, src.getEntryCount());
+        assertEquals(6, dst.getEntryCount());
+        assertEquals(19L, src.getTotalPayloadLength());
+        assertEquals(4L + 3 + 25 + 0 + 1 + 40, dst.getTotalPayloadLength());
+        // middle segments are relinked, not copied, so not many new segments needed
+        assertTrue(bufs.getAllocator().getBufferOwnedSegmentCount() <= ownedBefore + 2);
+
+        // target must remain appendable, source readable
+        dst.appendEntry(buildBytesChunk(9));
+        verifyChunk(dst.getNextEntry(), 4);
+        for (int i = 0; i < 5; ++i) {
+            verifyChunk(dst.getNextEntry(), SIZES[i]);
+        }
+        verifyChunk(dst.getNextEntry(), 9);
+        assertTrue(dst.isEmpty());
+        assertEquals(0L, dst.getTotalPayloadLength());
+
+        // and then rest, including peeked entry
+        src.appendEntry(buildBytesChunk(30));
+        assertNotNull(src.peekNextEntry());
+        assertEquals(3, src.transferEntriesTo(dst, 10));
+        assertTrue(src.isEmpty());
+        assertEquals(0, src.transferEntriesTo(dst, 10));
+        verifyChunk(dst.getNextEntry(), 7);
+        verifyChunk(dst.getNextEntry(), 12);
+        verifyChunk(dst.getNextEntry(), 30);
+        assertTrue(dst.isEmpty());
+
+        // and both buffers can still be used normally
+        src.appendEntry(buildBytesChunk(15));
+        dst.appendEntry(buildBytesChunk(16));
+        verifyChunk(src.getNextEntry(), 15);
+        verifyChunk(dst.getNextEntry(), 16);
+        src.close();
+        dst.close();
+        assertEquals(0, bufs.getAllocator().getBufferOwnedSegmentCount());
+
+        try {
+            dst.transferEntriesTo(dst, 1);
+            fail("Should not pass");
+        } catch (IllegalArgumentException e) {
+            verifyException(e, "buffer itself");
+        }
+    }
+
+    private void _testSeparateAllocators(SegType aType) throws Exception
+    {
+        final ChunkyBytesMemBuffer src = createBytesBuffers(aType, 10, 1, 50).createChunkyBuffer(1, 20);
+        final ChunkyBytesMemBuffer dst = createBytesBuffers(aType, 16, 1, 50).createChunkyBuffer(1, 20);
+        src.appendEntry(buildBytesChunk(33));
+        src.appendEntry(buildBytesChunk(2));
+        src.appendEntry(buildBytesChunk(21));
+        assertEquals(2, src.transferEntriesTo(dst, 2));
+        assertEquals(1, src.getEntryCount());
+        verifyChunk(dst.getNextEntry(), 33);
+        verifyChunk(dst.getNextEntry(), 2);
+        verifyChunk(src.getNextEntry(), 21);
+
+        // entry that does not fit in target must be retained, in order
+        final ChunkyBytesMemBuffer small = createBytesBuffers(aType, 16, 1, 50).createChunkyBuffer(1, 1);
+        src.appendEntry(buildBytesChunk(10));
+        src.appendEntry(buildBytesChunk(10));
+        src.appendEntry(buildBytesChunk(3));
+        assertEquals(1, src.transferEntriesTo(small, 3));
+        assertEquals(2, src.getEntryCount());
+        assertEquals(13L, src.getTotalPayloadLength());
+        verifyChunk(small.getNextEntry(), 10);
+        assertEquals(10, src.getNextEntryLength());
+        assertEquals(2, src.transferEntriesTo(dst, 3));
+        assertTrue(src.isEmpty());
+        verifyChunk(dst.getNextEntry(), 10);
+        verifyChunk(dst.getNextEntry(), 3);
+        src.close();
+        dst.close();
+        small.close();
+    }
+
+    private void _testPartialTransfer(SegType aType) throws Exception
+    {
+        MemBuffersForBytes bufs = createBytesBuffers(aType, 10, 1, 50);
+        final ChunkyBytesMemBuffer src = bufs.createChunkyBuffer(1, 20);
+        // target only has room for a few segments
+        final ChunkyBytesMemBuffer dst = bufs.createChunkyBuffer(1, 3);
+        for (int i = 0; i < 4; ++i) {
+            src.appendEntry(buildBytesChunk(9));
+        }
+        int count = src.transferEntriesTo(dst, 4);
+        assertTrue(count > 0 && count < 4);
+        assertEquals(4, count + src.getEntryCount());
+        for (int i = 0; i < count; ++i) {
+            verifyChunk(dst.getNextEntry(), 9);
+        }
+        assertTrue(dst.isEmpty());
+        for (int i = count; i < 4; ++i) {
+            verifyChunk(src.getNextEntry(), 9);
+        }
+        src.close();
+        dst.close();
+    }
+}
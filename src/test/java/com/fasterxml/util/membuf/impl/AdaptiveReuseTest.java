@@ -0,0 +1,101 @@
+package com.fasterxml.util.membuf.impl;
+
+import com.fasterxml.util.membuf.*;
+
+/**
+ * Tests for adaptive reuse of segments by allocators
+ * (see {@link com.fasterxml.util.membuf.base.SegmentAllocatorBase#adaptiveReuse}).
+ */
+public class AdaptiveReuseTest extends MembufTestBase
+{
+    /**
+     * Allocator with a manually advanced clock
+     */
+    static class TestAllocator extends ArrayBytesSegment.Allocator
+    {
+        public long time = 1000L;
+
+        public TestAllocator(int segmentSize, int minSegmentsToRetain, int maxSegments) {
+            super(segmentSize, minSegmentsToRetain, maxSegments);
+        }
+
+        @Override
+        protected long _currentTimeMillis() {
+            return time;
+        }
+    }
+
+    public void testGrowAndDecay() throws Exception
+    {
+        TestAllocator alloc = new TestAllocator(100, 1, 50);
+        alloc.adaptiveReuse(20, 1000L, 10000L);
+        ChunkyBytesMemBuffer buffer = new MemBuffersForBytes(alloc).createChunkyBuffer(1, 50);
+        assertEquals(1, alloc.getReuseTarget());
+
+        // sustained load of about 10 segments per second
+        for (int i = 0; i < 20; ++i) {
+            _cycle(buffer, alloc, 10);
+        }
+        // should now retain enough for peak demand (one is kept by buffer itself)
+        assertTrue(alloc.getReuseTarget() >= 9);
+        assertTrue(alloc.getReusableSegmentCount() >= 8);
+        // so steady state should be allocation-free
+        final int retained = alloc.getReusableSegmentCount();
+        buffer.appendEntry(new byte[retained * 100]);
+        assertEquals(0, alloc.getReusableSegmentCount());
+        buffer.getNextEntry();
+        assertEquals(retained, alloc.getReusableSegmentCount());
+
+        // but pool can not grow past the maximum, even with spikes
+        _cycle(buffer, alloc, 40);
+        assertTrue(alloc.getReusableSegmentCount() <= 20);
+
+        // with lower demand, target decays...
+        for (int i = 0; i < 20; ++i) {
+            _cycle(buffer, alloc, 2);
+        }
+        assertTrue(alloc.getReuseTarget() <= 3);
+        assertEquals(0, alloc.releaseIdleSegments());
+        assertTrue(alloc.getReusableSegmentCount() <= 3);
+
+        // and after idle period, all but minimum are released
+        for (int i = 0; i < 10; ++i) {
+            _cycle(buffer, alloc, 10);
+        }
+        alloc.time += 1500L;
+        alloc.releaseIdleSegments();
+        assertTrue(alloc.getReusableSegmentCount() > 1);
+        alloc.time += 10000L;
+        alloc.releaseIdleSegments();
+        assertEquals(1, alloc.getReusableSegmentCount());
+        buffer.close();
+    }
+
+    public void testInvalidConfig() throws Exception
+    {
+        TestAllocator alloc = new TestAllocator(100, 5, 50);
+        try {
+            alloc.adaptiveReuse(4, 1000L, 1000L);
+            fail("Expected exception");
+        } catch (IllegalArgumentException e) {
+            verifyException(e, "must be at least minSegmentsToRetain");
+        }
+        try {
+            alloc.adaptiveReuse(51, 1000L, 1000L);
+            fail("Expected exception");
+        } catch (IllegalArgumentException e) {
+            verifyException(e, "can not exceed maxSegments");
+        }
+        // without adaptive reuse, target is fixed
+        assertEquals(5, alloc.getReuseTarget());
+    }
+
+    private void _cycle(ChunkyBytesMemBuffer buffer, TestAllocator alloc, int segments)
+        throws Exception
+    {
+        buffer.appendEntry(new byte[segments * 100 - 10]);
+        alloc.time += 500L;
+        buffer.getNextEntry();
+        alloc.time += 500L;
+    }
+}
@@ -0,0 +1,124 @@
+package com.fasterxml.util.membuf.impl;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import com.fasterxml.util.membuf.*;
+import com.fasterxml.util.membuf.base.BytesSegment;
+import com.fasterxml.util.membuf.util.DirectMemory;
+
+/**
+ * Tests for {@link SegmentAllocator#trim} and {@link SegmentAllocator#close},
+ * and for eager release of native memory of discarded segments.
+ */
+public class AllocatorTrimTest extends MembufTestBase
+{
+    private final static int SEGMENT_SIZE = 64000;
+
+    public void testTrim() throws Exception
+    {
+        _testTrim(SegType.BYTE_BUFFER_DIRECT);
+        _testTrim(SegType.BYTE_BUFFER_FAKE);
+        _testTrim(SegType.BYTE_ARRAY);
+    }
+
+    public void testClose() throws Exception
+    {
+        MemBuffersForBytes bufs = createBytesBuffers(SegType.BYTE_BUFFER_DIRECT, SEGMENT_SIZE, 4, 10);
+        SegmentAllocator<?> alloc = bufs.getAllocator();
+        ChunkyBytesMemBuffer buffer = bufs.createChunkyBuffer(1, 10);
+        buffer.appendEntry(new byte[3 * SEGMENT_SIZE]);
+        final long before = _directMemoryUsed();
+        alloc.close();
+        // buffer still works until closed, but can not get more segments
+        assertFalse(buffer.tryAppendEntry(new byte[10 * SEGMENT_SIZE]));
+        assertEquals(3 * SEGMENT_SIZE, buffer.getNextEntry().length);
+        buffer.close();
+        // and nothing is retained for reuse after closing
+        assertEquals(0, alloc.getReusableSegmentCount());
+        assertEquals(0, alloc.getBufferOwnedSegmentCount());
+        if (DirectMemory.isSupported()) {
+            assertTrue(_directMemoryUsed() <= before - 4 * SEGMENT_SIZE);
+        }
+        try {
+            bufs.createChunkyBuffer(1, 3);
+            fail("Expected exception");
+        } catch (IllegalStateException e) {
+            verifyException(e, "allocator has been closed");
+        }
+        // closing again is fine
+        alloc.close();
+    }
+
+    // Allocators that only implement methods that were abstract before 1.2.1
+    // must still work with trim() and close()
+    public void testLegacyAllocator() throws Exception
+    {
+        SegmentAllocator<BytesSegment> alloc = new SegmentAllocator<BytesSegment>(100, 0, 5) {
+            @Override
+            public BytesSegment allocateSegments(int count, BytesSegment segmentList) {
+                return segmentList;
+            }
+
+            @Override
+            public void releaseSegment(BytesSegment segToRelease) { }
+        };
+        assertEquals(0, alloc.trim(0));
+        alloc.close();
+    }
+
+    public void testReleaseDirect() throws Exception
+    {
+        if (!DirectMemory.isSupported()) {
+            return;
+        }
+        ByteBuffer buf = ByteBuffer.allocateDirect(SEGMENT_SIZE);
+        // slices do not own memory
+        assertFalse(DirectMemory.release(buf.slice()));
+        assertFalse(DirectMemory.release(ByteBuffer.allocate(10)));
+        final long before = _directMemoryUsed();
+        assertTrue(DirectMemory.release(buf));
+        assertEquals(before - SEGMENT_SIZE, _directMemoryUsed());
+    }
+
+    /*
+    /**********************************************************************
+    /* Actual test impls
+    /**********************************************************************
+     */
+
+    private void _testTrim(SegType aType) throws Exception
+    {
+        MemBuffersForBytes bufs = createBytesBuffers(aType, SEGMENT_SIZE, 6, 10);
+        SegmentAllocator<?> alloc = bufs.getAllocator();
+        ChunkyBytesMemBuffer buffer = bufs.createChunkyBuffer(1, 10);
+        buffer.appendEntry(new byte[7 * SEGMENT_SIZE]);
+        buffer.clear();
+        assertEquals(6, alloc.getReusableSegmentCount());
+
+        final long before = _directMemoryUsed();
+        assertEquals(4, alloc.trim(2));
+        assertEquals(2, alloc.getReusableSegmentCount());
+        assertEquals(0, alloc.trim(2));
+        if (aType == SegType.BYTE_BUFFER_DIRECT && DirectMemory.isSupported()) {
+            assertEquals(before - 4 * SEGMENT_SIZE, _directMemoryUsed());
+        }
+        // must be able to allocate more as usual
+        buffer.appendEntry(new byte[5 * SEGMENT_SIZE]);
+        assertEquals(0, alloc.getReusableSegmentCount());
+        assertEquals(5 * SEGMENT_SIZE, buffer.getNextEntry().length);
+        buffer.close();
+        alloc.close();
+    }
+
+    private long _directMemoryUsed()
+    {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if ("direct".equals(pool.getName())) {
+                return pool.getMemoryUsed();
+            }
+        }
+        return 0L;
+    }
+}
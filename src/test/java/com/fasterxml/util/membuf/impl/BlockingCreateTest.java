@@ -0,0 +1,142 @@
+package com.fasterxml.util.membuf.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.util.membuf.*;
+
+/**
+ * Tests for creating buffers with waiting for segments to become
+ * available.
+ */
+public class BlockingCreateTest extends MembufTestBase
+{
+    public void testTimeout() throws Exception
+    {
+        ArrayBytesSegment.Allocator alloc = new ArrayBytesSegment.Allocator(20, 0, 2);
+        MemBuffersForBytes bufs = new MemBuffersForBytes(alloc);
+        ChunkyBytesMemBuffer holder = bufs.createChunkyBuffer(2, 2);
+
+        assertNull(bufs.tryCreateChunkyBuffer(1, 2, 20L, TimeUnit.MILLISECONDS));
+        assertNull(bufs.tryCreateStreamyBuffer(1, 2, 0L, TimeUnit.MILLISECONDS));
+        try {
+            bufs.createStreamyBuffer(1, 2, 20L, TimeUnit.MILLISECONDS);
+            fail("Expected exception");
+        } catch (IllegalStateException e) {
+            verifyException(e, "timed out");
+        }
+        assertEquals(0, alloc.getWaiterCount());
+        holder.close();
+        // and when segments are available, no waiting
+        StreamyBytesMemBuffer buffer = bufs.createStreamyBuffer(2, 2, 0L, TimeUnit.MILLISECONDS);
+        assertEquals(2, alloc.getBufferOwnedSegmentCount());
+        buffer.close();
+    }
+
+    public void testWakeUpOnRelease() throws Exception
+    {
+        ArrayBytesSegment.Allocator alloc = new ArrayBytesSegment.Allocator(20, 0, 2);
+        MemBuffersForBytes bufs = new MemBuffersForBytes(alloc);
+        final ChunkyBytesMemBuffer holder = bufs.createChunkyBuffer(2, 2);
+
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50L);
+                } catch (InterruptedException e) { }
+                holder.close();
+            }
+        };
+        t.start();
+        final long start = System.currentTimeMillis();
+        ChunkyBytesMemBuffer buffer = bufs.createChunkyBuffer(2, 2, 10L, TimeUnit.SECONDS);
+        assertTrue((System.currentTimeMillis() - start) < 5000L);
+        assertTrue(buffer.tryAppendEntry(new byte[20]));
+        t.join();
+        buffer.close();
+    }
+
+    public void testFifoOrder() throws Exception
+    {
+        ArrayBytesSegment.Allocator alloc = new ArrayBytesSegment.Allocator(20, 0, 2);
+        MemBuffersForBytes bufs = new MemBuffersForBytes(alloc);
+        ChunkyBytesMemBuffer holder1 = bufs.createChunkyBuffer(1, 1);
+        ChunkyBytesMemBuffer holder2 = bufs.createChunkyBuffer(1, 1);
+
+        // first waiter needs 2 segments, second just 1
+        Creator first = new Creator(bufs, 2);
+        first.start();
+        _waitForWaiters(alloc, 1);
+        Creator second = new Creator(bufs, 1);
+        second.start();
+        _waitForWaiters(alloc, 2);
+
+        // one segment is enough for the second, but first one is ahead of it
+        holder1.close();
+        Thread.sleep(50L);
+        assertNull(first.buffer);
+        assertNull(second.buffer);
+        assertEquals(2, alloc.getWaiterCount());
+
+        holder2.close();
+        first.join(5000L);
+        assertNotNull(first.buffer);
+        assertNull(second.buffer);
+        assertEquals(1, alloc.getWaiterCount());
+
+        first.buffer.close();
+        second.join(5000L);
+        assertNotNull(second.buffer);
+        assertEquals(0, alloc.getWaiterCount());
+        second.buffer.close();
+    }
+
+    public void testCloseWhileWaiting() throws Exception
+    {
+        ArrayBytesSegment.Allocator alloc = new ArrayBytesSegment.Allocator(20, 0, 1);
+        MemBuffersForBytes bufs = new MemBuffersForBytes(alloc);
+        bufs.createChunkyBuffer(1, 1);
+        Creator creator = new Creator(bufs, 1);
+        creator.start();
+        _waitForWaiters(alloc, 1);
+        alloc.close();
+        creator.join(5000L);
+        assertNull(creator.buffer);
+        assertNotNull(creator.error);
+        verifyException(creator.error, "allocator has been closed");
+    }
+
+    private void _waitForWaiters(ArrayBytesSegment.Allocator alloc, int count) throws Exception
+    {
+        final long end = System.currentTimeMillis() + 5000L;
+        while (alloc.getWaiterCount() < count) {
+            if (System.currentTimeMillis() > end) {
+                fail("Timed out waiting for "+count+" waiters");
+            }
+            Thread.sleep(5L);
+        }
+    }
+
+    static class Creator extends Thread
+    {
+        private final MemBuffersForBytes _buffers;
+        private final int _segments;
+
+        public volatile ChunkyBytesMemBuffer buffer;
+        public volatile Exception error;
+
+        public Creator(MemBuffersForBytes buffers, int segments) {
+            _buffers = buffers;
+            _segments = segments;
+        }
+
+        @Override
+        public void run() {
+            try {
+                buffer = _buffers.tryCreateChunkyBuffer(_segments, _segments, 10L, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+    }
+}
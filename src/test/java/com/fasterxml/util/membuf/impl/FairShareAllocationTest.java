@@ -0,0 +1,80 @@
+package com.fasterxml.util.membuf.impl;
+
+import com.fasterxml.util.membuf.*;
+
+/**
+ * Tests for fair-share allocation of segments between buffers
+ * (see {@link com.fasterxml.util.membuf.base.SegmentAllocatorBase#fairShare}).
+ */
+public class FairShareAllocationTest extends MembufTestBase
+{
+    public void testWithoutFairShare()
+    {
+        ArrayBytesSegment.Allocator alloc = new ArrayBytesSegment.Allocator(20, 0, 10);
+        MemBuffersForBytes bufs = new MemBuffersForBytes(alloc);
+        ChunkyBytesMemBuffer noisy = bufs.createChunkyBuffer(1, 10);
+        _fill(noisy);
+        assertEquals(10, alloc.getBufferOwnedSegmentCount());
+        // and nothing left for anyone else
+        assertNull(bufs.tryCreateChunkyBuffer(1, 5));
+    }
+
+    public void testReservedSegments() throws Exception
+    {
+        ArrayBytesSegment.Allocator alloc = new ArrayBytesSegment.Allocator(20, 0, 10);
+        alloc.fairShare(2, 3);
+        assertEquals(2, alloc.getFairShareSegments());
+        assertEquals(3, alloc.getReservedSegments());
+        MemBuffersForBytes bufs = new MemBuffersForBytes(alloc);
+
+        ChunkyBytesMemBuffer noisy = bufs.createChunkyBuffer(1, 10);
+        int noisyEntries = _fill(noisy);
+        // can not use reserved segments, being above its fair share
+        assertEquals(7, alloc.getBufferOwnedSegmentCount());
+
+        // but other buffers can, up to their fair share
+        ChunkyBytesMemBuffer critical = bufs.createChunkyBuffer(1, 10);
+        _fill(critical);
+        assertEquals(2, critical.getSegmentCount());
+        assertEquals(9, alloc.getBufferOwnedSegmentCount());
+
+        // and more with higher weight
+        critical.setAllocationWeight(3);
+        assertEquals(3, critical.getAllocationWeight());
+        _fill(critical);
+        assertEquals(3, critical.getSegmentCount());
+        assertEquals(10, alloc.getBufferOwnedSegmentCount());
+        assertFalse(noisy.tryAppendEntry(new byte[19]));
+
+        // once noisy buffer drains some content, it may append again
+        for (int i = 0; i < noisyEntries; ++i) {
+            assertEquals(19, noisy.getNextEntry().length);
+        }
+        assertTrue(noisy.tryAppendEntry(new byte[19]));
+
+        try {
+            critical.setAllocationWeight(0);
+            fail("Expected exception");
+        } catch (IllegalArgumentException e) {
+            verifyException(e, "weight must be at least 1");
+        }
+    }
+
+    public void testDecoratedBufferKeepsWeight()
+    {
+        ArrayBytesSegment.Allocator alloc = new ArrayBytesSegment.Allocator(20, 0, 10);
+        ChunkyBytesMemBufferImpl buffer = (ChunkyBytesMemBufferImpl) new MemBuffersForBytes(alloc)
+            .createChunkyBuffer(1, 5);
+        buffer.setAllocationWeight(4);
+        assertEquals(4, new ChunkyBytesMemBufferImpl(buffer).getAllocationWeight());
+    }
+
+    private int _fill(ChunkyBytesMemBuffer buffer)
+    {
+        int count = 0;
+        while (buffer.tryAppendEntry(new byte[19])) {
+            ++count;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,62 @@
+package com.fasterxml.util.membuf.impl;
+
+import java.io.File;
+
+import com.fasterxml.util.membuf.*;
+
+public class MappedFileSegmentsTest extends MembufTestBase
+{
+    public void testChunkyAndStreamy() throws Exception
+    {
+        File f = File.createTempFile("membuf-test", ".tmp");
+        MappedFileBytesSegment.Allocator alloc = MappedFileBytesSegment.allocator(f, 100, 20, 4);
+        MemBuffersForBytes bufs = new MemBuffersForBytes(alloc);
+        ChunkyBytesMemBuffer chunky = bufs.createChunkyBuffer(1, 10);
+        StreamyBytesMemBuffer streamy = bufs.createStreamyBuffer(1, 10);
+
+        for (int i = 0; i < 3; ++i) {
+            chunky.appendEntry(buildBytesChunk(250));
+        }
+        byte[] data = buildBytesChunk(900);
+        streamy.append(data);
+        // 3 x 251 bytes -> 8 segments, 900 bytes -> 9 segments; mapped 4 segments at a time
+        assertEquals(17, alloc.getBufferOwnedSegmentCount());
+        assertTrue(f.length() >= 1700L);
+
+        for (int i = 0; i < 3; ++i) {
+            verifyChunk(chunky.getNextEntry(), 250);
+        }
+        byte[] result = new byte[900];
+        assertEquals(900, streamy.read(result));
+        for (int i = 0; i < result.length; ++i) {
+            assertEquals(data[i], result[i]);
+        }
+        chunky.close();
+        streamy.close();
+        assertEquals(0, alloc.getBufferOwnedSegmentCount());
+
+        // released segments are reused, file does not grow
+        final long length = f.length();
+        chunky = bufs.createChunkyBuffer(1, 10);
+        chunky.appendEntry(buildBytesChunk(950));
+        verifyChunk(chunky.getNextEntry(), 950);
+        chunky.close();
+        assertEquals(length, f.length());
+
+        alloc.close();
+        assertFalse(f.exists());
+    }
+
+    public void testShrinkAndGrow() throws Exception
+    {
+        File f = File.createTempFile("membuf-test", ".tmp");
+        MappedFileBytesSegment.Allocator alloc = MappedFileBytesSegment.allocator(f, 100, 10, 10);
+        SegmentQuota quota = new SegmentQuota(10);
+        alloc.quota(quota);
+        SlabSegmentsTest._testShrinkAndGrow(alloc, quota);
+        // no new regions mapped for segments released beyond limits
+        assertEquals(1000L, f.length());
+        alloc.close();
+        assertEquals(0, quota.getUsedSegments());
+    }
+}
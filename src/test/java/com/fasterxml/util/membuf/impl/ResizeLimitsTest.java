@@ -0,0 +1,93 @@
+package com.fasterxml.util.membuf.impl;
+
+import com.fasterxml.util.membuf.*;
+
+/**
+ * Tests for changing segment limits of allocators and buffers at runtime.
+ */
+public class ResizeLimitsTest extends MembufTestBase
+{
+    public void testAllocatorLimit() throws Exception
+    {
+        MemBuffersForBytes bufs = new MemBuffersForBytes(20, 5, 10);
+        SegmentAllocator<?> alloc = bufs.getAllocator();
+        ChunkyBytesMemBuffer buffer = bufs.createChunkyBuffer(1, 10);
+        buffer.appendEntry(buildBytesChunk(150)); // 8 segments
+        assertEquals(8, alloc.getBufferOwnedSegmentCount());
+
+        // lowering limit: no effect on existing content...
+        alloc.setMaxSegmentCount(4);
+        assertEquals(4, alloc.getMaxSegmentCount());
+        assertEquals(8, alloc.getBufferOwnedSegmentCount());
+        // but no more allocations, for any buffer
+        assertNull(bufs.tryCreateChunkyBuffer(1, 2));
+        verifyChunk(buffer.getNextEntry(), 150);
+        // and released segments are not retained beyond the limit
+        assertEquals(1, alloc.getBufferOwnedSegmentCount());
+        assertEquals(3, alloc.getReusableSegmentCount());
+        ChunkyBytesMemBuffer buffer2 = bufs.createChunkyBuffer(3, 3);
+        assertNull(bufs.tryCreateChunkyBuffer(1, 2));
+
+        // and raising it allows allocation again
+        alloc.setMaxSegmentCount(10);
+        ChunkyBytesMemBuffer buffer3 = bufs.createChunkyBuffer(2, 2);
+        buffer.close();
+        buffer2.close();
+        buffer3.close();
+
+        // lowering limit releases excess reusable segments right away
+        assertEquals(5, alloc.getReusableSegmentCount());
+        alloc.setMaxSegmentCount(2);
+        assertEquals(2, alloc.getReusableSegmentCount());
+
+        try {
+            alloc.setMaxSegmentCount(-1);
+            fail("Expected exception");
+        } catch (IllegalArgumentException e) {
+            verifyException(e, "can not be negative");
+        }
+    }
+
+    public void testBufferLimits() throws Exception
+    {
+        MemBuffersForBytes bufs = new MemBuffersForBytes(20, 0, 20);
+        SegmentAllocator<?> alloc = bufs.getAllocator();
+        ChunkyBytesMemBuffer buffer = bufs.createChunkyBuffer(4, 10);
+        buffer.appendEntry(buildBytesChunk(150)); // 8 segments
+        assertEquals(8, buffer.getSegmentCount());
+
+        // lowering takes effect lazily
+        buffer.setMaxSegmentsToAllocate(5);
+        assertEquals(5, buffer.getMaxSegmentsToAllocate());
+        assertFalse(buffer.tryAppendEntry(buildBytesChunk(30)));
+        verifyChunk(buffer.getNextEntry(), 150);
+        assertTrue(buffer.tryAppendEntry(buildBytesChunk(30)));
+        assertFalse(buffer.tryAppendEntry(buildBytesChunk(100)));
+        // but raising has immediate effect
+        buffer.setMaxSegmentsToAllocate(15);
+        assertTrue(buffer.tryAppendEntry(buildBytesChunk(100)));
+        verifyChunk(buffer.getNextEntry(), 30);
+        verifyChunk(buffer.getNextEntry(), 100);
+
+        // lowering reuse limit releases segments held for reuse
+        final int owned = alloc.getBufferOwnedSegmentCount();
+        assertEquals(4, owned);
+        buffer.setMaxSegmentsForReuse(2);
+        assertEquals(2, buffer.getMaxSegmentsForReuse());
+        assertEquals(2, alloc.getBufferOwnedSegmentCount());
+
+        try {
+            buffer.setMaxSegmentsToAllocate(1);
+            fail("Expected exception");
+        } catch (IllegalArgumentException e) {
+            verifyException(e, "no less than");
+        }
+        try {
+            buffer.setMaxSegmentsForReuse(16);
+            fail("Expected exception");
+        } catch (IllegalArgumentException e) {
+            verifyException(e, "no more than");
+        }
+        buffer.close();
+    }
+}
@@ -0,0 +1,148 @@
+package com.fasterxml.util.membuf.impl;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+
+import com.fasterxml.util.membuf.MembufTestBase;
+import com.fasterxml.util.membuf.base.BytesSegment;
+
+/**
+ * Tests to verify that {@link BytesSegment} sub-classes that only implement
+ * methods that existed before 1.2.1 still compile, and get working
+ * default implementations of newer methods where possible.
+ */
+public class SegmentDefaultsTest extends MembufTestBase
+{
+    public void testDefaultAppends() throws Exception
+    {
+        LegacySegment seg = new LegacySegment(20);
+        seg.initForWriting();
+
+        ByteBuffer heap = ByteBuffer.wrap(buildBytesChunk(10));
+        heap.position(2);
+        assertEquals(8, seg.tryAppend(heap));
+        assertFalse(heap.hasRemaining());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(10);
+        direct.put(buildBytesChunk(10));
+        direct.flip();
+        assertEquals(10, seg.tryAppend(direct.asReadOnlyBuffer()));
+        assertEquals(2, seg.appendFrom(Channels.newChannel(new ByteArrayInputStream(buildBytesChunk(5))), 10));
+        assertEquals(0, seg.availableForAppend());
+
+        seg.initForReading();
+        byte[] result = new byte[20];
+        assertEquals(20, seg.tryRead(result, 0, 20));
+        byte[] chunk = buildBytesChunk(10);
+        for (int i = 0; i < 8; ++i) {
+            assertEquals(chunk[i+2], result[i]);
+        }
+        for (int i = 0; i < 10; ++i) {
+            assertEquals(chunk[i], result[8+i]);
+        }
+        for (int i = 0; i < 2; ++i) {
+            assertEquals(chunk[i], result[18+i]);
+        }
+    }
+
+    public void testUnsupportedPrimitives() throws Exception
+    {
+        LegacySegment seg = new LegacySegment(16);
+        seg.initForWriting();
+        try {
+            seg.appendOffset();
+            fail("Should not pass");
+        } catch (UnsupportedOperationException e) {
+            verifyException(e, "does not implement appendOffset()");
+        }
+        try {
+            seg.peek(0);
+            fail("Should not pass");
+        } catch (UnsupportedOperationException e) {
+            verifyException(e, "does not implement peek(int)");
+        }
+    }
+
+    /**
+     * Minimal segment implementation that only implements methods
+     * that were abstract before 1.2.1
+     */
+    static class LegacySegment extends BytesSegment
+    {
+        protected final byte[] _buffer;
+
+        protected int _appendPtr, _readPtr;
+
+        public LegacySegment(int size) {
+            _buffer = new byte[size];
+        }
+
+        @Override
+        public int availableForAppend() {
+            return _buffer.length - _appendPtr;
+        }
+
+        @Override
+        public int availableForReading() {
+            return _appendPtr - _readPtr;
+        }
+
+        @Override
+        public int skip(int length) {
+            length = Math.min(length, availableForReading());
+            _readPtr += length;
+            return length;
+        }
+
+        @Override
+        public int readLength() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int readSplitLength(int partial) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void read(byte[] buffer, int offset, int length) {
+            System.arraycopy(_buffer, _readPtr, buffer, offset, length);
+            _readPtr += length;
+        }
+
+        @Override
+        public byte read() {
+            return _buffer[_readPtr++];
+        }
+
+        @Override
+        public int tryRead(byte[] buffer, int offset, int length) {
+            length = Math.min(length, availableForReading());
+            read(buffer, offset, length);
+            return length;
+        }
+
+        @Override
+        public void append(byte[] src, int offset, int length) {
+            System.arraycopy(src, offset, _buffer, _appendPtr, length);
+            _appendPtr += length;
+        }
+
+        @Override
+        public int tryAppend(byte[] src, int offset, int length) {
+            length = Math.min(length, availableForAppend());
+            append(src, offset, length);
+            return length;
+        }
+
+        @Override
+        public boolean tryAppend(byte value) {
+            if (availableForAppend() == 0) {
+                return false;
+            }
+            _buffer[_appendPtr++] = value;
+            return true;
+        }
+    }
+}
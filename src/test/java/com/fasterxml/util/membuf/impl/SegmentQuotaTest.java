@@ -0,0 +1,115 @@
+package com.fasterxml.util.membuf.impl;
+
+import com.fasterxml.util.membuf.*;
+
+/**
+ * Tests for {@link SegmentQuota} hierarchies shared by allocators.
+ */
+public class SegmentQuotaTest extends MembufTestBase
+{
+    public void testQuotaHierarchy()
+    {
+        SegmentQuota root = new SegmentQuota(10);
+        SegmentQuota a = root.createChild(3, 8);
+        SegmentQuota b = root.createChild(3, 8);
+        // guarantees are reserved from the parent
+        assertEquals(6, root.getUsedSegments());
+        assertEquals(7, a.getAvailableSegments());
+
+        // may borrow beyond guaranteed, up to what is left unreserved
+        assertTrue(a.tryAcquire(7));
+        assertFalse(a.tryAcquire(1));
+        assertEquals(10, root.getUsedSegments());
+        // but guaranteed segments of others are always available
+        assertEquals(3, b.getAvailableSegments());
+        assertTrue(b.tryAcquire(3));
+        assertFalse(b.tryAcquire(1));
+
+        // released capacity can be borrowed by others, except for guaranteed part
+        a.release(5);
+        assertEquals(4, b.getAvailableSegments());
+        assertTrue(b.tryAcquire(4));
+        a.release(2);
+        assertFalse(b.tryAcquire(1));
+        assertEquals(3, a.getAvailableSegments());
+
+        // can not guarantee more than is available
+        try {
+            root.createChild(5, 5);
+            fail("Expected exception");
+        } catch (IllegalStateException e) {
+            verifyException(e, "Can not reserve 5 segments");
+        }
+        b.release(7);
+        assertEquals(6, root.getUsedSegments());
+
+        // nested quotas
+        SegmentQuota a1 = a.createChild(1, 5);
+        SegmentQuota a2 = a.createChild(1, 5);
+        assertEquals(2, a.getUsedSegments());
+        assertEquals(6, root.getUsedSegments());
+        assertTrue(a1.tryAcquire(5));
+        assertEquals(6, a.getUsedSegments());
+        assertEquals(2, a2.getAvailableSegments());
+        assertEquals(9, root.getUsedSegments());
+    }
+
+    public void testAllocatorsWithQuota() throws Exception
+    {
+        SegmentQuota root = new SegmentQuota(10);
+        ArrayBytesSegment.Allocator allocA = new ArrayBytesSegment.Allocator(20, 0, 100);
+        allocA.quota(root.createChild(3, 8));
+        ArrayBytesSegment.Allocator allocB = new ArrayBytesSegment.Allocator(20, 2, 100);
+        allocB.quota(root.createChild(3, 8));
+        MemBuffersForBytes bufsA = new MemBuffersForBytes(allocA);
+        MemBuffersForBytes bufsB = new MemBuffersForBytes(allocB);
+
+        ChunkyBytesMemBuffer bufferA = bufsA.createChunkyBuffer(1, 20);
+        ChunkyBytesMemBuffer bufferB = bufsB.createChunkyBuffer(1, 20);
+        // A can burst to 7 segments (3 guaranteed for B)
+        assertTrue(bufferA.tryAppendEntry(new byte[130]));
+        assertEquals(7, bufferA.getSegmentCount());
+        assertFalse(bufferA.tryAppendEntry(new byte[20]));
+        // while B still gets its guaranteed segments
+        assertTrue(bufferB.tryAppendEntry(new byte[50]));
+        assertFalse(bufferB.tryAppendEntry(new byte[20]));
+
+        // once A releases segments, B can borrow them (but not A's guaranteed ones)
+        assertEquals(130, bufferA.getNextEntry().length);
+        assertEquals(1, bufferA.getSegmentCount());
+        assertTrue(bufferB.tryAppendEntry(new byte[80]));
+        assertEquals(7, allocB.getQuota().getUsedSegments());
+        assertFalse(bufferB.tryAppendEntry(new byte[20]));
+
+        // segments retained for reuse still count against quota
+        bufferB.clear();
+        assertEquals(2, allocB.getReusableSegmentCount());
+        assertEquals(3, allocB.getQuota().getUsedSegments());
+        assertEquals(1, allocB.trim(1));
+        assertEquals(2, allocB.getQuota().getUsedSegments());
+        assertEquals(1, allocB.trim(0));
+        assertEquals(1, allocB.getQuota().getUsedSegments());
+        // but guaranteed segments stay reserved from parent
+        assertEquals(6, root.getUsedSegments());
+
+        bufferA.close();
+        bufferB.close();
+        allocA.close();
+        allocB.close();
+        assertEquals(6, root.getUsedSegments());
+    }
+
+    public void testQuotaAfterAllocation()
+    {
+        ArrayBytesSegment.Allocator alloc = new ArrayBytesSegment.Allocator(20, 0, 10);
+        ChunkyBytesMemBuffer buffer = new MemBuffersForBytes(alloc).createChunkyBuffer(1, 5);
+        try {
+            alloc.quota(new SegmentQuota(10));
+            fail("Expected exception");
+        } catch (IllegalStateException e) {
+            verifyException(e, "Can not set quota after segments have been allocated");
+        }
+        buffer.close();
+        alloc.quota(new SegmentQuota(10));
+    }
+}
@@ -0,0 +1,94 @@
+package com.fasterxml.util.membuf.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+
+import com.fasterxml.util.membuf.*;
+import com.fasterxml.util.membuf.base.BytesSegment;
+import com.fasterxml.util.membuf.base.LongsSegment;
+
+/**
+ * Tests to verify that reusing {@link java.nio.ByteBuffer} based segments
+ * does not create new read wrappers.
+ */
+public class SegmentTurnoverTest extends MembufTestBase
+{
+    public void testBytesSegmentReuse()
+    {
+        ByteBufferBytesSegment seg = new ByteBufferBytesSegment(16, true);
+        ByteBuffer readBuffer = null;
+        for (int round = 0; round < 3; ++round) {
+            seg.initForWriting();
+            seg.append(new byte[] { 1, 2, (byte) round }, 0, 3);
+            seg.finishWriting();
+            seg.initForReading();
+            if (readBuffer == null) {
+                readBuffer = seg._readBuffer;
+            } else {
+                assertSame(readBuffer, seg._readBuffer);
+            }
+            assertEquals(3, seg.availableForReading());
+            byte[] result = new byte[3];
+            seg.read(result, 0, 3);
+            assertEquals(round, result[2]);
+            assertEquals(0, seg.availableForReading());
+            assertNull(seg.finishReading());
+            try {
+                seg.availableForReading();
+                fail("Expected exception");
+            } catch (IllegalStateException e) {
+                verifyException(e, "should not be called");
+            }
+        }
+        seg.clear();
+        assertSame(readBuffer, seg._readBuffer);
+        assertEquals(0, seg.availableForReading());
+        seg.dispose();
+    }
+
+    public void testLongsSegmentReuse()
+    {
+        ByteBufferLongsSegment seg = new ByteBufferLongsSegment(16, false);
+        LongBuffer readBuffer = null;
+        for (int round = 0; round < 3; ++round) {
+            seg.initForWriting();
+            seg.append(new long[] { 1L, round }, 0, 2);
+            seg.finishWriting();
+            seg.initForReading();
+            if (readBuffer == null) {
+                readBuffer = seg._readBuffer;
+            } else {
+                assertSame(readBuffer, seg._readBuffer);
+            }
+            assertEquals(1L, seg.read());
+            assertEquals((long) round, seg.read());
+            seg.finishReading();
+        }
+    }
+
+    public void testBuffersWithTurnover() throws Exception
+    {
+        MemBuffersForBytes bufs = new MemBuffersForBytes(ByteBufferBytesSegment.allocator(20, 2, 4, true));
+        ChunkyBytesMemBuffer chunky = bufs.createChunkyBuffer(2, 4);
+        for (int i = 0; i < 50; ++i) {
+            chunky.appendEntry(buildBytesChunk(20 + (i % 20)));
+            verifyChunk(chunky.getNextEntry(), 20 + (i % 20));
+        }
+        assertTrue(chunky.isEmpty());
+        chunky.close();
+
+        MemBuffersForLongs lbufs = new MemBuffersForLongs(ByteBufferLongsSegment.allocator(10, 2, 4, true));
+        StreamyLongsMemBuffer streamy = lbufs.createStreamyBuffer(2, 4);
+        long[] result = new long[15];
+        for (int i = 0; i < 50; ++i) {
+            long[] data = new long[15];
+            for (int j = 0; j < data.length; ++j) {
+                data[j] = i * 100 + j;
+            }
+            streamy.append(data);
+            assertEquals(15, streamy.read(result));
+            assertEquals(i * 100 + 14, result[14]);
+        }
+        streamy.close();
+    }
+}
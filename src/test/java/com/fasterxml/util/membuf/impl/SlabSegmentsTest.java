@@ -0,0 +1,136 @@
+package com.fasterxml.util.membuf.impl;
+
+import java.nio.ByteBuffer;
+
+import com.fasterxml.util.membuf.*;
+import com.fasterxml.util.membuf.base.BytesSegment;
+import com.fasterxml.util.membuf.base.SegmentAllocatorBase;
+import com.fasterxml.util.membuf.util.DirectMemory;
+
+public class SlabSegmentsTest extends MembufTestBase
+{
+    public void testChunkyAndStreamy() throws Exception
+    {
+        SlabBytesSegment.Allocator alloc = SlabBytesSegment.allocator(100, 20, 8, 1);
+        // first slab allocated up front; segments padded to page size
+        assertEquals(1, alloc.getSlabCount());
+        assertEquals(8 * 4096 + 4095, alloc.getSlabBytes());
+
+        MemBuffersForBytes bufs = new MemBuffersForBytes(alloc);
+        ChunkyBytesMemBuffer chunky = bufs.createChunkyBuffer(1, 10);
+        StreamyBytesMemBuffer streamy = bufs.createStreamyBuffer(1, 10);
+
+        for (int i = 0; i < 3; ++i) {
+            chunky.appendEntry(buildBytesChunk(250));
+        }
+        byte[] data = buildBytesChunk(900);
+        streamy.append(data);
+        // 3 x 251 bytes -> 8 segments, 900 bytes -> 9 segments; last slab only has room for 4
+        assertEquals(17, alloc.getBufferOwnedSegmentCount());
+        assertEquals(3, alloc.getSlabCount());
+        assertEquals(8 * 4096 + 4095 + 8 * 4096 + 4095 + 4 * 4096 + 4095, alloc.getSlabBytes());
+
+        for (int i = 0; i < 3; ++i) {
+            verifyChunk(chunky.getNextEntry(), 250);
+        }
+        byte[] result = new byte[900];
+        assertEquals(900, streamy.read(result));
+        for (int i = 0; i < result.length; ++i) {
+            assertEquals(data[i], result[i]);
+        }
+        chunky.close();
+        streamy.close();
+        assertEquals(0, alloc.getBufferOwnedSegmentCount());
+        assertEquals(17, alloc.getReusableSegmentCount());
+        // slabs can not be trimmed while open
+        assertEquals(0, alloc.trim(0));
+
+        // released segments are reused, no new slabs
+        chunky = bufs.createChunkyBuffer(1, 20);
+        chunky.appendEntry(buildBytesChunk(1950));
+        verifyChunk(chunky.getNextEntry(), 1950);
+        chunky.close();
+        assertEquals(3, alloc.getSlabCount());
+
+        alloc.close();
+        assertEquals(0, alloc.getSlabCount());
+        assertEquals(0, alloc.getReusableSegmentCount());
+    }
+
+    // segments released beyond limits must be kept for reuse, not leaked
+    public void testShrinkAndGrow()
+    {
+        SlabBytesSegment.Allocator alloc = new SlabBytesSegment.Allocator(1000, 10, 10, 1, 1);
+        SegmentQuota quota = new SegmentQuota(10);
+        alloc.quota(quota);
+        _testShrinkAndGrow(alloc, quota);
+        assertEquals(1, alloc.getSlabCount());
+        alloc.close();
+        assertEquals(0, quota.getUsedSegments());
+    }
+
+    static void _testShrinkAndGrow(SegmentAllocatorBase<BytesSegment> alloc, SegmentQuota quota)
+    {
+        for (int round = 0; round < 5; ++round) {
+            BytesSegment segs = alloc.allocateSegments(10, null);
+            assertNotNull(segs);
+            alloc.setMaxSegmentCount(5);
+            while (segs != null) {
+                BytesSegment next = segs.getNext();
+                segs.relink(null);
+                segs.markFree();
+                alloc.releaseSegment(segs);
+                segs = next;
+            }
+            assertEquals(5, alloc.getReusableSegmentCount());
+            // memory of the rest is not freed, so neither is quota
+            assertEquals(10, quota.getUsedSegments());
+            alloc.setMaxSegmentCount(10);
+        }
+    }
+
+    public void testAlignment()
+    {
+        SlabBytesSegment.Allocator alloc = new SlabBytesSegment.Allocator(1000, 10, 4, 0, 1024);
+        assertEquals(0, alloc.getSlabCount());
+        BytesSegment segs = alloc.allocateSegments(6, null);
+        assertEquals(2, alloc.getSlabCount());
+        for (BytesSegment seg = segs; seg != null; seg = seg.getNext()) {
+            assertEquals(1000, seg.availableForAppend());
+            ByteBuffer buf = ((SlabBytesSegment) seg)._buffer;
+            long address = DirectMemory.address(buf);
+            if (address >= 0L) {
+                assertEquals(0L, address % 1024);
+            }
+            int misalignment = DirectMemory.alignmentOffset(buf, 1024);
+            if (misalignment >= 0) {
+                assertEquals(0, misalignment);
+            }
+        }
+        alloc.close();
+
+        // alignment of direct buffers must be known where it can be
+        ByteBuffer direct = ByteBuffer.allocateDirect(100);
+        boolean jdk9 = true;
+        try {
+            ByteBuffer.class.getMethod("alignmentOffset", Integer.TYPE, Integer.TYPE);
+        } catch (NoSuchMethodException e) {
+            jdk9 = false;
+        }
+        if (jdk9 || DirectMemory.address(direct) >= 0L) {
+            final int base = DirectMemory.alignmentOffset(direct, 8);
+            assertTrue(base >= 0);
+            for (int i = 0; i < 8; ++i) {
+                direct.position(i);
+                assertEquals((base + i) & 7, DirectMemory.alignmentOffset(direct.slice(), 8));
+            }
+        }
+
+        try {
+            new SlabBytesSegment.Allocator(1000, 10, 4, 0, 1000);
+            fail("Expected exception");
+        } catch (IllegalArgumentException e) {
+            verifyException(e, "must be a power of two");
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.fasterxml.util.membuf.longs;
+
+import java.nio.LongBuffer;
+
+import com.fasterxml.util.membuf.ChunkyLongsMemBuffer;
+import com.fasterxml.util.membuf.EntryConsumer;
+import com.fasterxml.util.membuf.MembufTestBase;
+
+/**
+ * Tests for consuming entries of chunky long-valued buffers
+ * using {@link EntryConsumer}.
+ */
+public class ConsumeChunkyLongsTest extends MembufTestBase
+{
+    public void testChunkyConsume() throws Exception
+    {
+        _testChunkyConsume(SegType.BYTE_BUFFER_DIRECT);
+        _testChunkyConsume(SegType.BYTE_BUFFER_FAKE);
+        _testChunkyConsume(SegType.BYTE_ARRAY);
+    }
+
+    /*
+    /**********************************************************************
+    /* Actual test impls
+    /**********************************************************************
+     */
+
+    private void _testChunkyConsume(SegType aType) throws Exception
+    {
+        final ChunkyLongsMemBuffer buffer = createLongsBuffers(aType, 10, 1, 10).createChunkyBuffer(1, 10);
+        buffer.appendEntry(buildLongsChunk(5));
+        buffer.appendEntry(buildLongsChunk(23));
+        buffer.appendEntry(buildLongsChunk(2));
+
+        SumConsumer sum = new SumConsumer();
+        assertEquals(5, buffer.consumeNextEntry(sum));
+        assertEquals(0+1+2+3+4, sum.sum);
+        assertEquals(5, sum.count);
+
+        sum = new SumConsumer();
+        assertEquals(23, buffer.consumeNextEntry(sum));
+        assertEquals(22 * 23 / 2, sum.sum);
+        assertEquals(23, sum.count);
+        assertTrue(sum.fragments > 1);
+
+        assertNotNull(buffer.peekNextEntry());
+        sum = new SumConsumer();
+        assertEquals(2, buffer.consumeNextEntry(sum));
+        assertEquals(1, sum.sum);
+
+        assertEquals(-1, buffer.consumeNextEntry(sum));
+        assertTrue(buffer.isEmpty());
+        buffer.close();
+    }
+
+    static class SumConsumer implements EntryConsumer<LongBuffer>
+    {
+        public long sum;
+        public int count, fragments;
+
+        @Override
+        public void consume(LongBuffer segmentView, int offset, int length) {
+            ++fragments;
+            // use relative access, to verify position/limit
+            while (segmentView.hasRemaining()) {
+                sum += segmentView.get();
+                ++count;
+            }
+        }
+    }
+}
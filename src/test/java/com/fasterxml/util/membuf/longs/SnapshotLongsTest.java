@@ -0,0 +1,85 @@
+package com.fasterxml.util.membuf.longs;
+
+import java.io.*;
+import java.nio.channels.Channels;
+
+import com.fasterxml.util.membuf.*;
+
+/**
+ * Tests for {@link MemBuffer#snapshotTo} and {@link MemBuffer#restoreFrom}
+ * with long buffers.
+ */
+public class SnapshotLongsTest extends MembufTestBase
+{
+    public void testChunkySnapshot() throws Exception
+    {
+        _testChunkySnapshot(SegType.BYTE_BUFFER_DIRECT);
+        _testChunkySnapshot(SegType.BYTE_BUFFER_FAKE);
+        _testChunkySnapshot(SegType.BYTE_ARRAY);
+    }
+
+    public void testStreamySnapshot() throws Exception
+    {
+        _testStreamySnapshot(SegType.BYTE_BUFFER_DIRECT);
+        _testStreamySnapshot(SegType.BYTE_ARRAY);
+    }
+
+    /*
+    /**********************************************************************
+    /* Actual test impls
+    /**********************************************************************
+     */
+
+    private void _testChunkySnapshot(SegType aType) throws Exception
+    {
+        final int[] SIZES = { 3, 25, 0, 1, 140, 7, 12 };
+        MemBuffersForLongs bufs = createLongsBuffers(aType, 20, 1, 30);
+        ChunkyLongsMemBuffer src = bufs.createChunkyBuffer(1, 15);
+        for (int size : SIZES) {
+            src.appendEntry(buildLongsChunk(size));
+        }
+        verifyChunk(src.getNextEntry(), SIZES[0]);
+        verifyChunk(src.peekNextEntry(), SIZES[1]);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        long length = src.snapshotTo(Channels.newChannel(bytes));
+        assertEquals(bytes.size(), length);
+        assertEquals(SIZES.length - 1, src.getEntryCount());
+
+        ChunkyLongsMemBuffer dst = createLongsBuffers(aType, 16, 1, 30).createChunkyBuffer(1, 30);
+        dst.restoreFrom(Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(SIZES.length - 1, dst.getEntryCount());
+        assertEquals(src.getTotalPayloadLength(), dst.getTotalPayloadLength());
+        for (int i = 1; i < SIZES.length; ++i) {
+            verifyChunk(dst.getNextEntry(), SIZES[i]);
+            verifyChunk(src.getNextEntry(), SIZES[i]);
+        }
+        assertTrue(dst.isEmpty());
+        dst.appendEntry(buildLongsChunk(50));
+        verifyChunk(dst.getNextEntry(), 50);
+        src.close();
+        dst.close();
+    }
+
+    private void _testStreamySnapshot(SegType aType) throws Exception
+    {
+        MemBuffersForLongs bufs = createLongsBuffers(aType, 20, 1, 30);
+        StreamyLongsMemBuffer src = bufs.createStreamyBuffer(1, 15);
+        long[] data = buildLongsChunk(170);
+        src.append(data);
+        long[] result = new long[200];
+        assertEquals(33, src.read(result, 0, 33));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        src.snapshotTo(Channels.newChannel(bytes));
+        assertEquals(137L, src.available());
+
+        StreamyLongsMemBuffer dst = bufs.createStreamyBuffer(1, 15);
+        dst.restoreFrom(Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(137L, dst.available());
+        assertEquals(137, dst.read(result, 0, 200));
+        for (int i = 0; i < 137; ++i) {
+            assertEquals(data[33 + i], result[i]);
+        }
+        src.close();
+        dst.close();
+    }
+}
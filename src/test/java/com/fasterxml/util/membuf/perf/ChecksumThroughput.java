@@ -0,0 +1,87 @@
+package com.fasterxml.util.membuf.perf;
+
+import java.nio.ByteBuffer;
+
+import com.fasterxml.util.membuf.*;
+import com.fasterxml.util.membuf.impl.ByteBufferBytesSegment;
+import com.fasterxml.util.membuf.impl.ChecksummedChunkyBytesMemBuffer;
+
+/**
+ * Simple stand-alone throughput comparison between plain and checksummed
+ * chunky byte buffers (appending and reading entries, with copying and
+ * with {@link ChunkyBytesMemBuffer#consumeNextEntry}). Not run as part
+ * of unit tests, and nothing is asserted; run with:
+ *<pre>
+ *  java -cp target/classes:target/test-classes com.fasterxml.util.membuf.perf.ChecksumThroughput [entry-size]
+ *</pre>
+ */
+public class ChecksumThroughput
+{
+    private final static int ROUNDS = 10;
+
+    private final static int BATCHES = 2000;
+
+    private final static int ENTRIES_PER_BATCH = 100;
+
+    private final byte[] _entry;
+
+    private final byte[] _result;
+
+    private final EntryConsumer<ByteBuffer> _consumer = new EntryConsumer<ByteBuffer>() {
+        @Override
+        public void consume(ByteBuffer segmentView, int offset, int length) { }
+    };
+
+    public ChecksumThroughput(int entrySize)
+    {
+        _entry = new byte[entrySize];
+        for (int i = 0; i < entrySize; ++i) {
+            _entry[i] = (byte) i;
+        }
+        _result = new byte[entrySize];
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        int entrySize = (args.length > 0) ? Integer.parseInt(args[0]) : 1000;
+        new ChecksumThroughput(entrySize).run();
+    }
+
+    public void run() throws Exception
+    {
+        MemBuffersForBytes bufs = new MemBuffersForBytes(ByteBufferBytesSegment.allocator(64 * 1024, 4, 40, true));
+        ChunkyBytesMemBuffer plain = bufs.createChunkyBuffer(2, 20);
+        ChecksummedChunkyBytesMemBuffer checked = new ChecksummedChunkyBytesMemBuffer(bufs.createChunkyBuffer(2, 20), false);
+        final long bytes = (long) BATCHES * ENTRIES_PER_BATCH * _entry.length;
+        System.out.printf("Entries of %d bytes, %d MB per round%n", _entry.length, bytes >> 20);
+        for (int round = 1; round <= ROUNDS; ++round) {
+            long plainRead = _test(plain, false);
+            long checkedRead = _test(checked, false);
+            long plainConsume = _test(plain, true);
+            long checkedConsume = _test(checked, true);
+            System.out.printf("Round %2d: read plain %4d / checksummed %4d msecs;"
+                    +" consume plain %4d / checksummed %4d msecs%n",
+                    round, plainRead, checkedRead, plainConsume, checkedConsume);
+        }
+        plain.close();
+        checked.close();
+    }
+
+    private long _test(ChunkyBytesMemBuffer buffer, boolean consume)
+    {
+        final long start = System.nanoTime();
+        for (int i = 0; i < BATCHES; ++i) {
+            for (int j = 0; j < ENTRIES_PER_BATCH; ++j) {
+                buffer.appendEntry(_entry);
+            }
+            for (int j = 0; j < ENTRIES_PER_BATCH; ++j) {
+                int len = consume ? buffer.consumeNextEntry(_consumer)
+                        : buffer.readNextEntryIfAvailable(_result, 0);
+                if (len != _entry.length) {
+                    throw new IllegalStateException("Unexpected entry length "+len);
+                }
+            }
+        }
+        return (System.nanoTime() - start) / 1000000L;
+    }
+}
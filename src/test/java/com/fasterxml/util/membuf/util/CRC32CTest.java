@@ -0,0 +1,55 @@
+package com.fasterxml.util.membuf.util;
+
+import java.nio.ByteBuffer;
+
+import com.fasterxml.util.membuf.MembufTestBase;
+
+public class CRC32CTest extends MembufTestBase
+{
+    public void testKnownValues()
+    {
+        CRC32C crc = new CRC32C();
+        assertEquals(0L, crc.getValue());
+        crc.update("123456789".getBytes());
+        assertEquals(0xE3069283L, crc.getValue());
+        // 32 zero bytes, from RFC 3720
+        crc.reset();
+        crc.update(new byte[32]);
+        assertEquals(0x8A9136AAL, crc.getValue());
+        // byte-by-byte must match bulk
+        crc.reset();
+        for (byte b : "123456789".getBytes()) {
+            crc.update(b);
+        }
+        assertEquals(0xE3069283L, crc.getValue());
+    }
+
+    public void testByteBuffers()
+    {
+        final byte[] data = buildBytesChunk(1000);
+        CRC32C crc = new CRC32C();
+        for (int offset = 0; offset < 20; offset += 3) {
+            for (int len : new int[] { 0, 1, 7, 8, 9, 31, 500 }) {
+                crc.reset();
+                crc.update(data, offset, len);
+                final long exp = crc.getValue();
+
+                ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+                direct.put(data);
+                crc.reset();
+                crc.update(direct, offset, len);
+                assertEquals(exp, crc.getValue());
+
+                crc.reset();
+                crc.update(ByteBuffer.wrap(data), offset, len);
+                assertEquals(exp, crc.getValue());
+
+                // split in two must give same result too
+                crc.reset();
+                crc.update(data, offset, len/2);
+                crc.update(direct, offset + len/2, len - len/2);
+                assertEquals(exp, crc.getValue());
+            }
+        }
+    }
+}
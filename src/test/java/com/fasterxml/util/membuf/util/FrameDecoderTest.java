@@ -0,0 +1,180 @@
+package com.fasterxml.util.membuf.util;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+
+import com.fasterxml.util.membuf.MembufTestBase;
+import com.fasterxml.util.membuf.StreamyBytesMemBuffer;
+
+public class FrameDecoderTest extends MembufTestBase
+{
+    public void testLengthPrefixed() throws Exception
+    {
+        _testLengthPrefixed(SegType.BYTE_BUFFER_DIRECT);
+        _testLengthPrefixed(SegType.BYTE_BUFFER_FAKE);
+        _testLengthPrefixed(SegType.BYTE_ARRAY);
+    }
+
+    public void testVarintPrefixed() throws Exception
+    {
+        _testVarintPrefixed(SegType.BYTE_BUFFER_DIRECT);
+        _testVarintPrefixed(SegType.BYTE_ARRAY);
+    }
+
+    public void testDelimited() throws Exception
+    {
+        _testDelimited(SegType.BYTE_BUFFER_DIRECT);
+        _testDelimited(SegType.BYTE_ARRAY);
+    }
+
+    public void testInvalidLengths() throws Exception
+    {
+        _testInvalidLengths(SegType.BYTE_BUFFER_DIRECT);
+        _testInvalidLengths(SegType.BYTE_ARRAY);
+    }
+
+    /*
+    /**********************************************************************
+    /* Actual test impls
+    /**********************************************************************
+     */
+
+    private void _testLengthPrefixed(SegType aType) throws Exception
+    {
+        final StreamyBytesMemBuffer buffer = createBytesBuffers(aType, 10, 1, 20).createStreamyBuffer(1, 20);
+        FrameDecoder dec = FrameDecoder.lengthPrefixed(buffer, 2);
+        assertEquals(-1, dec.getNextFrameLength());
+        assertNull(dec.getNextFrame());
+
+        // first, partial header
+        buffer.append((byte) 0);
+        assertEquals(-1, dec.getNextFrameLength());
+        buffer.append((byte) 23);
+        // then partial payload
+        byte[] data = buildBytesChunk(23);
+        buffer.append(data, 0, 20);
+        assertEquals(-1, dec.getNextFrameLength());
+        buffer.append(data, 20, 3);
+        // and an empty frame
+        buffer.append(new byte[] { 0, 0, 0 });
+        assertEquals(23, dec.getNextFrameLength());
+        verifyChunk(dec.getNextFrame(), 23);
+        assertEquals(0, dec.getNextFrameLength());
+        Assert.assertArrayEquals(new byte[0], dec.getNextFrame());
+        assertEquals(-1, dec.getNextFrameLength());
+        assertEquals(1L, buffer.available());
+        buffer.close();
+    }
+
+    private void _testVarintPrefixed(SegType aType) throws Exception
+    {
+        final StreamyBytesMemBuffer buffer = createBytesBuffers(aType, 10, 1, 40).createStreamyBuffer(1, 40);
+        FrameDecoder dec = FrameDecoder.varintPrefixed(buffer);
+        // length of 300 takes 2 bytes: 0xAC, 0x02
+        buffer.append((byte) 0xAC);
+        assertEquals(-1, dec.getNextFrameLength());
+        buffer.append((byte) 0x02);
+        byte[] data = buildBytesChunk(300);
+        buffer.append(data, 0, 299);
+        assertEquals(-1, dec.getNextFrameLength());
+        buffer.append(data, 299, 1);
+        buffer.append(new byte[] { 3, 1, 2, 3 });
+
+        byte[] result = new byte[400];
+        assertEquals(-300, dec.readNextFrame(result, 200));
+        assertEquals(300, dec.readNextFrame(result, 0));
+        Assert.assertArrayEquals(data, Arrays.copyOf(result, 300));
+        assertEquals(3, dec.readNextFrame(result, 0));
+        assertEquals(Integer.MIN_VALUE, dec.readNextFrame(result, 0));
+        assertTrue(buffer.isEmpty());
+
+        // and then corrupt input
+        buffer.append(new byte[] { -1, -1, -1, -1, -1, -1 });
+        try {
+            dec.getNextFrame();
+            fail("Should not pass");
+        } catch (IllegalStateException e) {
+            verifyException(e, "Corrupt varint");
+        }
+        buffer.close();
+    }
+
+    private void _testDelimited(SegType aType) throws Exception
+    {
+        final StreamyBytesMemBuffer buffer = createBytesBuffers(aType, 10, 1, 20).createStreamyBuffer(1, 20);
+        FrameDecoder dec = FrameDecoder.delimited(buffer, (byte) '\n');
+        buffer.append(UTF8Mate.encodeAsUTF8("first message"));
+        assertNull(dec.getNextFrame());
+        buffer.append(UTF8Mate.encodeAsUTF8(", continued\n\nsecond"));
+        assertEquals("first message, continued", UTF8Mate.decodeFromUTF8(dec.getNextFrame()));
+        assertEquals(0, dec.getNextFrameLength());
+        assertEquals(0, dec.getNextFrame().length);
+        assertNull(dec.getNextFrame());
+        buffer.append(UTF8Mate.encodeAsUTF8(" one\n"));
+        assertEquals("second one", UTF8Mate.decodeFromUTF8(dec.getNextFrame()));
+        assertTrue(buffer.isEmpty());
+        buffer.close();
+    }
+
+    private void _testInvalidLengths(SegType aType) throws Exception
+    {
+        // 20 segments of 10 bytes: frames of up to 200 bytes (with header) could fit
+        StreamyBytesMemBuffer buffer = createBytesBuffers(aType, 10, 1, 20).createStreamyBuffer(1, 20);
+        FrameDecoder dec = FrameDecoder.lengthPrefixed(buffer, 2);
+        // reported as soon as length is known, not after waiting for payload
+        buffer.append(new byte[] { 0, (byte) 199 });
+        try {
+            dec.getNextFrameLength();
+            fail("Should not pass");
+        } catch (IllegalStateException e) {
+            verifyException(e, "can never fit");
+        }
+        buffer.clear();
+        dec.maxFrameLength(10);
+        buffer.append(new byte[] { 0, 11 });
+        try {
+            dec.getNextFrame();
+            fail("Should not pass");
+        } catch (IllegalStateException e) {
+            verifyException(e, "exceeds maximum");
+        }
+        try {
+            dec.readNextFrame(new byte[20], -1);
+            fail("Should not pass");
+        } catch (IllegalArgumentException e) {
+            verifyException(e, "Invalid offset");
+        }
+        buffer.clear();
+        buffer.append(new byte[] { 0, 10 });
+        buffer.append(buildBytesChunk(10));
+        byte[] result = new byte[20];
+        assertEquals(10, dec.readNextFrame(result, 10));
+        buffer.close();
+
+        buffer = createBytesBuffers(aType, 10, 1, 20).createStreamyBuffer(1, 20);
+        dec = FrameDecoder.varintPrefixed(buffer);
+        // 300 with 2-byte prefix
+        buffer.append(new byte[] { (byte) 0xAC, 0x02 });
+        try {
+            dec.getNextFrame();
+            fail("Should not pass");
+        } catch (IllegalStateException e) {
+            verifyException(e, "can never fit");
+        }
+        buffer.close();
+
+        buffer = createBytesBuffers(aType, 10, 1, 20).createStreamyBuffer(1, 20);
+        dec = FrameDecoder.delimited(buffer, (byte) '\n').maxFrameLength(5);
+        buffer.append(UTF8Mate.encodeAsUTF8("abcde"));
+        assertNull(dec.getNextFrame());
+        buffer.append(UTF8Mate.encodeAsUTF8("f"));
+        try {
+            dec.getNextFrame();
+            fail("Should not pass");
+        } catch (IllegalStateException e) {
+            verifyException(e, "exceeds maximum");
+        }
+        buffer.close();
+    }
+}
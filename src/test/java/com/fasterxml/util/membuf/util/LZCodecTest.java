@@ -0,0 +1,76 @@
+package com.fasterxml.util.membuf.util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import com.fasterxml.util.membuf.MembufTestBase;
+
+public class LZCodecTest extends MembufTestBase
+{
+    public void testRoundTrip()
+    {
+        LZCodec codec = new LZCodec();
+        Random rnd = new Random(123);
+        for (int len : new int[] { 0, 1, 3, 4, 5, 15, 16, 17, 100, 1000, 70000 }) {
+            // highly compressible
+            byte[] data = new byte[len];
+            for (int i = 0; i < len; ++i) {
+                data[i] = (byte) ("abcdefgh".charAt((i / 3) % 8));
+            }
+            _verifyRoundTrip(codec, data);
+            // and incompressible
+            rnd.nextBytes(data);
+            _verifyRoundTrip(codec, data);
+            // and mixed, with long literal runs and matches
+            for (int i = 0; i < len; i += 300) {
+                Arrays.fill(data, i, Math.min(len, i + 150), (byte) i);
+            }
+            _verifyRoundTrip(codec, data);
+        }
+    }
+
+    public void testCompressible()
+    {
+        byte[] data = ("Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod"
+                +" tempor incididunt ut labore et dolore magna aliqua.").getBytes();
+        byte[] input = new byte[data.length * 20];
+        for (int i = 0; i < 20; ++i) {
+            System.arraycopy(data, 0, input, i * data.length, data.length);
+        }
+        byte[] encoded = new byte[LZCodec.maxEncodedLength(input.length)];
+        int len = new LZCodec().encode(input, 0, input.length, encoded, 0);
+        assertTrue("Encoded length "+len+" not small enough", len < input.length / 5);
+    }
+
+    public void testInvalid()
+    {
+        byte[] data = new byte[200];
+        Arrays.fill(data, (byte) 'x');
+        byte[] encoded = new byte[LZCodec.maxEncodedLength(data.length)];
+        int len = new LZCodec().encode(data, 0, data.length, encoded, 0);
+        // output buffer too small
+        try {
+            LZCodec.decode(encoded, 0, len, new byte[300], 0, 100);
+            fail("Expected exception");
+        } catch (IllegalArgumentException e) {
+            verifyException(e, "Invalid encoded content");
+        }
+        // truncated input
+        try {
+            LZCodec.decode(encoded, 0, len - 1, new byte[300], 0, 300);
+            fail("Expected exception");
+        } catch (IllegalArgumentException e) {
+            verifyException(e, "Invalid encoded content");
+        }
+    }
+
+    private void _verifyRoundTrip(LZCodec codec, byte[] data)
+    {
+        byte[] encoded = new byte[LZCodec.maxEncodedLength(data.length) + 3];
+        int len = codec.encode(data, 0, data.length, encoded, 3);
+        assertTrue(len <= LZCodec.maxEncodedLength(data.length));
+        byte[] decoded = new byte[data.length + 2];
+        assertEquals(data.length, LZCodec.decode(encoded, 3, len, decoded, 2, data.length));
+        assertTrue(Arrays.equals(data, Arrays.copyOfRange(decoded, 2, decoded.length)));
+    }
+}
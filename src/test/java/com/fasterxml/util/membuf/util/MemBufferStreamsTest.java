@@ -0,0 +1,115 @@
+package com.fasterxml.util.membuf.util;
+
+import java.io.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Assert;
+
+import com.fasterxml.util.membuf.MembufTestBase;
+import com.fasterxml.util.membuf.StreamyBytesMemBuffer;
+
+public class MemBufferStreamsTest extends MembufTestBase
+{
+    public void testSimpleReadWrite() throws Exception
+    {
+        _testSimpleReadWrite(SegType.BYTE_BUFFER_DIRECT);
+        _testSimpleReadWrite(SegType.BYTE_BUFFER_FAKE);
+        _testSimpleReadWrite(SegType.BYTE_ARRAY);
+    }
+
+    public void testGzipRoundTrip() throws Exception
+    {
+        _testGzipRoundTrip(SegType.BYTE_BUFFER_DIRECT);
+        _testGzipRoundTrip(SegType.BYTE_ARRAY);
+    }
+
+    public void testFullBuffer() throws Exception
+    {
+        final StreamyBytesMemBuffer buffer = createBytesBuffers(SegType.BYTE_ARRAY, 10, 1, 2).createStreamyBuffer(1, 2);
+        MemBufferOutputStream out = new MemBufferOutputStream(buffer, 4);
+        out.write(buildBytesChunk(20));
+        try {
+            out.write(1);
+            out.flush();
+            fail("Should not pass");
+        } catch (IOException e) {
+            verifyException(e, "Not enough room");
+        }
+        // but after reading past the first segment, should be able to flush pending
+        assertEquals(11, buffer.skip(11));
+        out.flush();
+        assertEquals(10, buffer.available());
+        buffer.close();
+    }
+
+    /*
+    /**********************************************************************
+    /* Actual test impls
+    /**********************************************************************
+     */
+
+    private void _testSimpleReadWrite(SegType aType) throws Exception
+    {
+        final StreamyBytesMemBuffer buffer = createBytesBuffers(aType, 10, 1, 10).createStreamyBuffer(1, 10);
+        MemBufferOutputStream out = new MemBufferOutputStream(buffer, 8);
+        byte[] data = buildBytesChunk(37);
+        // mix of single-byte, short and long writes
+        for (int i = 0; i < 5; ++i) {
+            out.write(data[i]);
+        }
+        out.write(data, 5, 3);
+        // nothing yet flushed:
+        assertEquals(0L, buffer.available());
+        out.write(data, 8, 29);
+        assertEquals(37L, buffer.available());
+        out.close();
+
+        MemBufferInputStream in = new MemBufferInputStream(buffer);
+        assertEquals(37, in.available());
+        assertEquals(0, in.read());
+        assertEquals(1, in.read());
+        assertEquals(3L, in.skip(3L));
+        byte[] result = new byte[12];
+        assertEquals(12, in.read(result));
+        for (int i = 0; i < result.length; ++i) {
+            assertEquals(data[5+i], result[i]);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        assertEquals(20L, in.transferTo(bytes));
+        assertEquals(0, in.available());
+        assertEquals(0L, in.skip(5L));
+        byte[] rest = bytes.toByteArray();
+        for (int i = 0; i < rest.length; ++i) {
+            assertEquals(data[17+i], rest[i]);
+        }
+        in.close();
+        buffer.close();
+    }
+
+    private void _testGzipRoundTrip(SegType aType) throws Exception
+    {
+        final StreamyBytesMemBuffer buffer = createBytesBuffers(aType, 64, 1, 1000).createStreamyBuffer(1, 1000);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; ++i) {
+            sb.append("Line #").append(i).append('\n');
+        }
+        byte[] input = UTF8Mate.encodeAsUTF8(sb.toString());
+        GZIPOutputStream gzOut = new GZIPOutputStream(new MemBufferOutputStream(buffer));
+        gzOut.write(input);
+        gzOut.close();
+        assertTrue(buffer.available() > 0L);
+        assertTrue(buffer.available() < input.length);
+
+        GZIPInputStream gzIn = new GZIPInputStream(new MemBufferInputStream(buffer));
+        byte[] result = new byte[input.length];
+        int count = 0;
+        while (count < result.length) {
+            count += gzIn.read(result, count, result.length - count);
+        }
+        gzIn.close();
+        Assert.assertArrayEquals(input, result);
+        assertEquals(0L, buffer.available());
+        buffer.close();
+    }
+}